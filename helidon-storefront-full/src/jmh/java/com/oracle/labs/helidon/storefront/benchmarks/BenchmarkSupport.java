@@ -0,0 +1,94 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.benchmarks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import io.helidon.metrics.api.RegistryFactory;
+
+/**
+ * The classes being measured are normally put together by CDI, the benchmarks
+ * don't start a container so this does the equivalent wiring by hand
+ */
+public class BenchmarkSupport {
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * The hot paths log at INFO, the strings are still built (that's part of the
+	 * cost being measured) but we don't want them swamping the JMH output
+	 */
+	public static void quietLogging() {
+		LogManager.getLogManager().reset();
+		LogManager.getLogManager().getLogger("").setLevel(Level.OFF);
+	}
+
+	public static MetricRegistry applicationRegistry() {
+		return RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION);
+	}
+
+	/**
+	 * Set a field the same way @Inject would
+	 */
+	public static void inject(Object target, String fieldName, Object value) {
+		try {
+			Field field = target.getClass().getDeclaredField(fieldName);
+			field.setAccessible(true);
+			field.set(target, value);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Can't set " + fieldName + " on " + target.getClass().getName(), e);
+		}
+	}
+
+	/**
+	 * Call a no args lifecycle method, e.g. the @PostConstruct one
+	 */
+	public static void invoke(Object target, String methodName) {
+		try {
+			Method method = target.getClass().getDeclaredMethod(methodName);
+			method.setAccessible(true);
+			method.invoke(target);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Can't call " + methodName + " on " + target.getClass().getName(), e);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.benchmarks;
+
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.faulttolerance.ExecutionContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.labs.helidon.storefront.data.ItemRequest;
+import com.oracle.labs.helidon.storefront.exceptions.NotEnoughItemsException;
+import com.oracle.labs.helidon.storefront.exceptions.UnknownItemException;
+import com.oracle.labs.helidon.storefront.resources.StorefrontResource;
+import com.oracle.labs.helidon.storefront.resources.fallback.StorefrontFallbackHandler;
+
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+
+/**
+ * The cost of turning a failed reserveStockItem call into the error response,
+ * for the kinds of failure we see, the business exceptions thrown by the
+ * reservation, a connection problem wrapped by the rest client and an error
+ * response from the stock manager
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FallbackHandlerBenchmark {
+	@Param({ "UNKNOWN_ITEM", "NOT_ENOUGH_ITEMS", "CONNECT", "STOCK_MANAGER_ERROR" })
+	public String failure;
+
+	private final StorefrontFallbackHandler handler = new StorefrontFallbackHandler();
+	private ExecutionContext context;
+	private Throwable cause;
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		BenchmarkSupport.quietLogging();
+		switch (failure) {
+		case "UNKNOWN_ITEM":
+			cause = new UnknownItemException("The item Pencils is unknown");
+			break;
+		case "NOT_ENOUGH_ITEMS":
+			cause = new NotEnoughItemsException("There are only 2 items of Pencil, 5 were requested");
+			break;
+		case "CONNECT":
+			cause = new ProcessingException(new ConnectException("Connection refused"));
+			break;
+		default:
+			cause = new ProcessingException(new WebApplicationException(
+					Response.status(Response.Status.BAD_GATEWAY).entity("stock manager unavailable").build()));
+		}
+		Method method = StorefrontResource.class.getMethod("reserveStockItem", ItemRequest.class,
+				SecurityContext.class);
+		Object[] parameters = { new ItemRequest("Pencil", 5), "SecurityContext(jack)" };
+		context = new ExecutionContext() {
+			@Override
+			public Method getMethod() {
+				return method;
+			}
+
+			@Override
+			public Object[] getParameters() {
+				return parameters;
+			}
+
+			@Override
+			public Throwable getFailure() {
+				return cause;
+			}
+		};
+	}
+
+	@Benchmark
+	public Object handle() {
+		try {
+			return handler.handle(context);
+		} catch (WebApplicationException e) {
+			return e;
+		}
+	}
+
+	@Benchmark
+	public int statusFor() {
+		return StorefrontFallbackHandler.statusFor(cause);
+	}
+}
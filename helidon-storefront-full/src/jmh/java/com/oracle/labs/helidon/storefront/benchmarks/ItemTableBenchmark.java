@@ -0,0 +1,128 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.labs.helidon.storefront.stock.ItemTable;
+
+/**
+ * The off heap item table against the on heap map it replaced. The lookups
+ * compare the speed, build shows the heap allocated to hold the catalogue (see
+ * gc.alloc.rate.norm from -prof gc) and the off heap bytes per item are
+ * printed at the end of the trial
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ItemTableBenchmark {
+	@Param({ "10000", "1000000" })
+	public int items;
+
+	private Map<String, Integer> levels;
+	private ItemTable itemTable;
+	private String[] itemNames;
+
+	@Setup
+	public void setup() {
+		levels = new HashMap<>(items * 2);
+		itemNames = new String[items];
+		for (int i = 0; i < items; i++) {
+			itemNames[i] = String.format("Item%07d", i);
+			levels.put(itemNames[i], 1000);
+		}
+		itemTable = new ItemTable(levels);
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.out.println();
+		System.out.println("ItemTable of " + itemTable.size() + " items uses " + itemTable.offHeapBytes()
+				+ " bytes off heap, " + (itemTable.offHeapBytes() / itemTable.size()) + " per item");
+	}
+
+	private String randomItemName() {
+		return itemNames[ThreadLocalRandom.current().nextInt(items)];
+	}
+
+	@Benchmark
+	public int lookupItemTable() {
+		return itemTable.levelAt(itemTable.indexOf(randomItemName()));
+	}
+
+	@Benchmark
+	public Integer lookupHashMap() {
+		return levels.get(randomItemName());
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public ItemTable buildItemTable() {
+		return new ItemTable(levels);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public Map<String, Integer> buildHashMap() {
+		return new HashMap<>(levels);
+	}
+}
@@ -0,0 +1,145 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.benchmarks;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.labs.helidon.storefront.data.BillingEntry;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.data.ItemRequest;
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+/**
+ * JSON binding of the objects the storefront sends and receives, using JSON-B
+ * which is what the JAX-RS runtime and rest clients use. listing is a stock
+ * listing of 100 items, about what the stock manager returns in the labs
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+	private static final Type ITEM_DETAILS_LIST = new ArrayList<ItemDetails>() {
+		private static final long serialVersionUID = 1L;
+	}.getClass().getGenericSuperclass();
+
+	private Jsonb jsonb;
+	private final ItemDetails itemDetails = new ItemDetails("Pencil", 12);
+	private final ItemRequest itemRequest = new ItemRequest("Pencil", 5);
+	private final BillingEntry billingEntry = new BillingEntry("jack", "Pencil", 5);
+	private final List<ItemDetails> listing = new ArrayList<>();
+	private String itemDetailsJson;
+	private String itemRequestJson;
+	private String billingEntryJson;
+	private String listingJson;
+
+	@Setup
+	public void setup() {
+		jsonb = JsonbBuilder.create();
+		for (int i = 0; i < 100; i++) {
+			listing.add(new ItemDetails(String.format("Item%07d", i), i));
+		}
+		itemDetailsJson = jsonb.toJson(itemDetails);
+		itemRequestJson = jsonb.toJson(itemRequest);
+		billingEntryJson = jsonb.toJson(billingEntry);
+		listingJson = jsonb.toJson(listing);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		jsonb.close();
+	}
+
+	@Benchmark
+	public String writeItemDetails() {
+		return jsonb.toJson(itemDetails);
+	}
+
+	@Benchmark
+	public ItemDetails readItemDetails() {
+		return jsonb.fromJson(itemDetailsJson, ItemDetails.class);
+	}
+
+	@Benchmark
+	public String writeItemRequest() {
+		return jsonb.toJson(itemRequest);
+	}
+
+	@Benchmark
+	public ItemRequest readItemRequest() {
+		return jsonb.fromJson(itemRequestJson, ItemRequest.class);
+	}
+
+	@Benchmark
+	public String writeBillingEntry() {
+		return jsonb.toJson(billingEntry);
+	}
+
+	@Benchmark
+	public BillingEntry readBillingEntry() {
+		return jsonb.fromJson(billingEntryJson, BillingEntry.class);
+	}
+
+	@Benchmark
+	public String writeListing() {
+		return jsonb.toJson(listing);
+	}
+
+	@Benchmark
+	public List<ItemDetails> readListing() {
+		return jsonb.fromJson(listingJson, ITEM_DETAILS_LIST);
+	}
+}
@@ -0,0 +1,176 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.labs.helidon.storefront.data.ItemRequest;
+import com.oracle.labs.helidon.storefront.data.MinimumChange;
+import com.oracle.labs.helidon.storefront.events.StockLevelBroadcaster;
+import com.oracle.labs.helidon.storefront.exceptions.StorefrontException;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService.ReservationMode;
+import com.oracle.labs.helidon.storefront.resources.StorefrontResource;
+import com.oracle.labs.helidon.storefront.resources.fallback.StorefrontFallbackHandler;
+import com.oracle.labs.helidon.storefront.stock.CompletedStockManagerAsync;
+import com.oracle.labs.helidon.storefront.stock.LocalStockManager;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.SecurityContext;
+
+/**
+ * Refused reservations with and without app.reservation.fastrejections. The
+ * exceptions path is what happens today, the reservation service throws an
+ * exception with a stack trace and the fallback handler turns it into a
+ * WebApplicationException (with another stack trace) holding the error
+ * response, the fast path throws a stackless exception and returns the same
+ * response directly. Both paths build the response body for each rejection,
+ * the difference is only the stack traces and the exception.
+ * 
+ * The cost of a stack trace depends on the depth of the stack, in the server
+ * the reservation service is about 95 frames down the request thread (most of
+ * them the Jersey, Weld and fault tolerance interceptors) so the rejections
+ * are made that deep here as well. This doesn't include the fault tolerance
+ * fallback machinery itself, which only the exceptions path goes through, so
+ * the real difference is larger
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RejectionBenchmark {
+	private static final int SERVICE_CALL_DEPTH = 95;
+
+	@Param({ "false", "true" })
+	public boolean fastRejections;
+
+	@Param({ "BELOW_MINIMUM", "UNKNOWN_ITEM", "NOT_ENOUGH_ITEMS" })
+	public String rejection;
+
+	private StockLevelBroadcaster stockLevelBroadcaster;
+	private StockReservationService stockReservationService;
+	private Method reserveStockItem;
+	private ItemRequest itemRequest;
+	private Object[] parameters;
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		BenchmarkSupport.quietLogging();
+		// Pen has too few items for any reservation to succeed
+		LocalStockManager stockManager = new LocalStockManager(Map.of("Pencil", 1000, "Pen", 1));
+		stockLevelBroadcaster = new StockLevelBroadcaster();
+		BenchmarkSupport.inject(stockLevelBroadcaster, "metricRegistry", BenchmarkSupport.applicationRegistry());
+		BenchmarkSupport.inject(stockLevelBroadcaster, "maxSubscribers", 10000);
+		BenchmarkSupport.inject(stockLevelBroadcaster, "bufferSize", 32);
+		BenchmarkSupport.inject(stockLevelBroadcaster, "senderThreads", 1);
+		BenchmarkSupport.inject(stockLevelBroadcaster, "heartbeatSeconds", 30L);
+		BenchmarkSupport.invoke(stockLevelBroadcaster, "start");
+		stockReservationService = new StockReservationService();
+		BenchmarkSupport.inject(stockReservationService, "minimumChange", new MinimumChange(2));
+		BenchmarkSupport.inject(stockReservationService, "stockManager", stockManager);
+		BenchmarkSupport.inject(stockReservationService, "stockManagerAsync",
+				new CompletedStockManagerAsync(stockManager));
+		BenchmarkSupport.inject(stockReservationService, "stockLevelBroadcaster", stockLevelBroadcaster);
+		BenchmarkSupport.inject(stockReservationService, "writeBillingEntries", false);
+		BenchmarkSupport.inject(stockReservationService, "reservationMode", ReservationMode.READ_MODIFY_WRITE);
+		BenchmarkSupport.inject(stockReservationService, "compareAndSetAttempts", 5);
+		BenchmarkSupport.inject(stockReservationService, "fastRejections", fastRejections);
+		BenchmarkSupport.inject(stockReservationService, "bulkThreads", 1);
+		BenchmarkSupport.inject(stockReservationService, "bulkMaxParallel", 1);
+		BenchmarkSupport.invoke(stockReservationService, "start");
+		switch (rejection) {
+		case "BELOW_MINIMUM":
+			itemRequest = new ItemRequest("Pencil", 1);
+			break;
+		case "UNKNOWN_ITEM":
+			itemRequest = new ItemRequest("Pencils", 5);
+			break;
+		default:
+			itemRequest = new ItemRequest("Pen", 5);
+		}
+		reserveStockItem = StorefrontResource.class.getMethod("reserveStockItem", ItemRequest.class,
+				SecurityContext.class);
+		parameters = new Object[] { itemRequest, "SecurityContext(jack)" };
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkSupport.invoke(stockReservationService, "stop");
+		BenchmarkSupport.invoke(stockLevelBroadcaster, "stop");
+	}
+
+	@Benchmark
+	public Object rejectedReservation() {
+		return rejectAtDepth(SERVICE_CALL_DEPTH);
+	}
+
+	private Object rejectAtDepth(int depth) {
+		if (depth > 0) {
+			return rejectAtDepth(depth - 1);
+		}
+		try {
+			return stockReservationService.reserve(itemRequest, "jack");
+		} catch (StorefrontException e) {
+			if (fastRejections) {
+				return StorefrontFallbackHandler.responseFor(reserveStockItem, parameters, e);
+			}
+			// the fallback handler throws what it builds
+			try {
+				throw StorefrontFallbackHandler.failureFor(reserveStockItem, parameters, e);
+			} catch (WebApplicationException failure) {
+				return failure;
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.data.ItemRequest;
+import com.oracle.labs.helidon.storefront.data.MinimumChange;
+import com.oracle.labs.helidon.storefront.events.StockLevelBroadcaster;
+import com.oracle.labs.helidon.storefront.exceptions.MinimumChangeException;
+import com.oracle.labs.helidon.storefront.exceptions.StorefrontException;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService.ReservationMode;
+import com.oracle.labs.helidon.storefront.stock.CompletedStockManagerAsync;
+import com.oracle.labs.helidon.storefront.stock.LocalStockManager;
+
+/**
+ * The work StorefrontResource.reserveStockItem hands off to the reservation
+ * service, against the local stock manager so there's no network involved.
+ * acceptedReservation is the full validate / update / publish path,
+ * belowMinimumChange is a request which fails validation, which is mostly the
+ * cost of building and throwing the MinimumChangeException
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReservationBenchmark {
+	// plenty of stock so no reservation fails in an iteration
+	private static final int LEVEL = Integer.MAX_VALUE / 2;
+
+	@Param({ "READ_MODIFY_WRITE", "CONDITIONAL", "COMPARE_AND_SET" })
+	public ReservationMode reservationMode;
+
+	private LocalStockManager stockManager;
+	private StockLevelBroadcaster stockLevelBroadcaster;
+	private StockReservationService stockReservationService;
+	private final ItemRequest acceptedRequest = new ItemRequest("Pencil", 5);
+	private final ItemRequest belowMinimumRequest = new ItemRequest("Pencil", 1);
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.quietLogging();
+		stockManager = new LocalStockManager(Map.of("Pencil", LEVEL, "Pen", LEVEL, "Brush", LEVEL));
+		stockLevelBroadcaster = new StockLevelBroadcaster();
+		BenchmarkSupport.inject(stockLevelBroadcaster, "metricRegistry", BenchmarkSupport.applicationRegistry());
+		BenchmarkSupport.inject(stockLevelBroadcaster, "maxSubscribers", 10000);
+		BenchmarkSupport.inject(stockLevelBroadcaster, "bufferSize", 32);
+		BenchmarkSupport.inject(stockLevelBroadcaster, "senderThreads", 1);
+		BenchmarkSupport.inject(stockLevelBroadcaster, "heartbeatSeconds", 30L);
+		BenchmarkSupport.invoke(stockLevelBroadcaster, "start");
+		stockReservationService = new StockReservationService();
+		BenchmarkSupport.inject(stockReservationService, "minimumChange", new MinimumChange(2));
+		BenchmarkSupport.inject(stockReservationService, "stockManager", stockManager);
+		BenchmarkSupport.inject(stockReservationService, "stockManagerAsync",
+				new CompletedStockManagerAsync(stockManager));
+		BenchmarkSupport.inject(stockReservationService, "stockLevelBroadcaster", stockLevelBroadcaster);
+		BenchmarkSupport.inject(stockReservationService, "writeBillingEntries", false);
+		BenchmarkSupport.inject(stockReservationService, "reservationMode", reservationMode);
+		BenchmarkSupport.inject(stockReservationService, "compareAndSetAttempts", 5);
+		BenchmarkSupport.inject(stockReservationService, "bulkThreads", 1);
+		BenchmarkSupport.inject(stockReservationService, "bulkMaxParallel", 1);
+		BenchmarkSupport.invoke(stockReservationService, "start");
+	}
+
+	@Setup(Level.Iteration)
+	public void restock() {
+		stockManager.setStockItemLevel("Pencil", LEVEL);
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkSupport.invoke(stockReservationService, "stop");
+		BenchmarkSupport.invoke(stockLevelBroadcaster, "stop");
+	}
+
+	@Benchmark
+	public ItemDetails acceptedReservation() throws StorefrontException {
+		return stockReservationService.reserve(acceptedRequest, "jack");
+	}
+
+	@Benchmark
+	public Object belowMinimumChange() throws StorefrontException {
+		try {
+			return stockReservationService.reserve(belowMinimumRequest, "jack");
+		} catch (MinimumChangeException e) {
+			return e;
+		}
+	}
+}
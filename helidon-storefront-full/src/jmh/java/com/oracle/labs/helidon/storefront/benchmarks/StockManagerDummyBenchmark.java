@@ -0,0 +1,111 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.dummy.StockManagerDummy;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+
+/**
+ * The operations of the dummy (local) stock manager, this is the floor for
+ * the stock manager calls with no network or remote service involved. The
+ * updates put the level back to what it was so the data doesn't drift
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StockManagerDummyBenchmark {
+	private StockManager stockManager;
+	private final List<String> itemNames = List.of("Pencil", "Pen", "Brush");
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.quietLogging();
+		stockManager = StockManagerDummy.getStockManager();
+	}
+
+	@Benchmark
+	public void getAllStockLevels(Blackhole blackhole) {
+		for (ItemDetails itemDetails : stockManager.getAllStockLevels()) {
+			blackhole.consume(itemDetails);
+		}
+	}
+
+	@Benchmark
+	public ItemDetails getStockItem() {
+		return stockManager.getStockItem("Pencil");
+	}
+
+	@Benchmark
+	public Object getStockItems() {
+		return stockManager.getStockItems(itemNames);
+	}
+
+	@Benchmark
+	public ItemDetails setStockItemLevel() {
+		return stockManager.setStockItemLevel("Pencil", 12);
+	}
+
+	@Benchmark
+	public ItemDetails compareAndSetStockItemLevel() {
+		return stockManager.compareAndSetStockItemLevel("Brush", 27, 27);
+	}
+
+	@Benchmark
+	public ItemDetails decrementAndRestock() {
+		stockManager.decrementStockItemLevel("Brush", 2, 3);
+		return stockManager.setStockItemLevel("Brush", 27);
+	}
+}
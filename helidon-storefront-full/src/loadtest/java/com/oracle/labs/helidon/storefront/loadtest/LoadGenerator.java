@@ -0,0 +1,180 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import lombok.Getter;
+
+/**
+ * Sends requests at a fixed rate regardless of how quickly the storefront
+ * responds (an open loop), so a slow response doesn't hold back the requests
+ * which should have been sent while it was waiting.
+ * 
+ * The response time of each request is measured from when it should have been
+ * sent, not when it was, this means any time the generator itself fell behind
+ * is included and avoids coordinated omission. The service time (from when it
+ * was actually sent) is also recorded to show the difference.
+ */
+public class LoadGenerator {
+	// recorded in microseconds, up to 10 minutes
+	private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+	public enum Endpoint {
+		STOCK_LEVEL, RESERVE_STOCK
+	}
+
+	/**
+	 * The outcome of the requests to one of the endpoints
+	 */
+	@Getter
+	public static class EndpointResults {
+		private final Histogram responseTimes = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+		private final Histogram serviceTimes = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+		private final LongAdder succeeded = new LongAdder();
+		// got a response but not a 2xx one
+		private final LongAdder failed = new LongAdder();
+		// no response at all, e.g. the connection was refused
+		private final LongAdder errors = new LongAdder();
+		// too many requests were already in flight, these aren't in the response
+		// times so any run with some is not a valid measurement
+		private final LongAdder notSent = new LongAdder();
+
+		private void record(long intendedStart, long sent, long completed) {
+			responseTimes.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (completed - intendedStart) / 1000));
+			serviceTimes.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (completed - sent) / 1000));
+		}
+	}
+
+	private final LoadTestSettings settings;
+	private final URI stockLevelUri;
+	private final URI reserveStockUri;
+	private final String authorization;
+	private final HttpClient httpClient;
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	public LoadGenerator(LoadTestSettings settings, String storefrontUrl) {
+		this.settings = settings;
+		this.stockLevelUri = URI.create(storefrontUrl + "/store/stocklevel");
+		this.reserveStockUri = URI.create(storefrontUrl + "/store/reserveStock");
+		this.authorization = "Basic " + Base64.getEncoder()
+				.encodeToString((settings.getUser() + ":" + settings.getPassword()).getBytes(StandardCharsets.UTF_8));
+		this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(10)).build();
+	}
+
+	/**
+	 * Generate the load for the duration and return the results for each
+	 * endpoint, requests still in flight at the end are waited for (up to a
+	 * limit)
+	 */
+	public Map<Endpoint, EndpointResults> run(Duration duration) {
+		Map<Endpoint, EndpointResults> results = new EnumMap<>(Endpoint.class);
+		for (Endpoint endpoint : Endpoint.values()) {
+			results.put(endpoint, new EndpointResults());
+		}
+		double intervalNanos = TimeUnit.SECONDS.toNanos(1) / (double) settings.getRate();
+		long start = System.nanoTime();
+		long end = start + duration.toNanos();
+		for (long requestNumber = 0;; requestNumber++) {
+			long intendedStart = start + (long) (requestNumber * intervalNanos);
+			if (intendedStart >= end) {
+				break;
+			}
+			long wait = intendedStart - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			Endpoint endpoint = ThreadLocalRandom.current().nextDouble() < settings.getReserveFraction()
+					? Endpoint.RESERVE_STOCK
+					: Endpoint.STOCK_LEVEL;
+			send(endpoint, intendedStart, results.get(endpoint));
+		}
+		long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while ((inFlight.get() > 0) && (System.nanoTime() < drainUntil)) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		return results;
+	}
+
+	private void send(Endpoint endpoint, long intendedStart, EndpointResults results) {
+		if ((settings.getMaxInFlight() > 0) && (inFlight.get() >= settings.getMaxInFlight())) {
+			results.notSent.increment();
+			return;
+		}
+		HttpRequest request;
+		if (endpoint == Endpoint.RESERVE_STOCK) {
+			String itemName = StubDownstreams.itemName(ThreadLocalRandom.current().nextInt(settings.getStubItems()));
+			request = HttpRequest.newBuilder(reserveStockUri).header("Authorization", authorization)
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers
+							.ofString("{\"requestedItem\":\"" + itemName + "\",\"requestedCount\":2}"))
+					.build();
+		} else {
+			request = HttpRequest.newBuilder(stockLevelUri).header("Authorization", authorization).GET().build();
+		}
+		inFlight.incrementAndGet();
+		long sent = System.nanoTime();
+		httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, problem) -> {
+			results.record(intendedStart, sent, System.nanoTime());
+			inFlight.decrementAndGet();
+			if (problem != null) {
+				results.errors.increment();
+			} else if ((response.statusCode() / 100) == 2) {
+				results.succeeded.increment();
+			} else {
+				results.failed.increment();
+			}
+		});
+	}
+}
@@ -0,0 +1,217 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import org.HdrHistogram.Histogram;
+
+import com.oracle.labs.helidon.storefront.Main;
+import com.oracle.labs.helidon.storefront.loadtest.LoadGenerator.Endpoint;
+import com.oracle.labs.helidon.storefront.loadtest.LoadGenerator.EndpointResults;
+
+/**
+ * Boots the storefront against stub downstream services, all in this JVM, then
+ * drives /store/stocklevel and /store/reserveStock at a fixed rate and reports
+ * the throughput and latency percentiles. This is for comparing builds on the
+ * same machine, the absolute numbers don't mean much as the load generator,
+ * stubs and storefront are all competing for the same CPUs.
+ * 
+ * Run it with mvn -P loadtest test-compile exec:exec, the settings (see
+ * LoadTestSettings) are given as name=value in loadtest.args, e.g.
+ * -Dloadtest.args="rate=500 duration=60 stublatency=20". Storefront config
+ * can be changed with system properties in loadtest.jvmargs, e.g.
+ * -Dloadtest.jvmargs="-Dapp.stockcache.enabled=true"
+ * 
+ * The storefront log goes to storefront.log in the results directory, along
+ * with the latency histograms of each run
+ */
+public class LoadTest {
+	public static void main(String[] args) throws IOException {
+		LoadTestSettings settings = new LoadTestSettings(args);
+		Path resultsDirectory = Paths.get(settings.getResultsDirectory());
+		Files.createDirectories(resultsDirectory);
+		System.out.println("Load test settings " + settings);
+		String storefrontUrl = settings.getStorefrontUrl();
+		StubDownstreams stubs = null;
+		if (storefrontUrl == null) {
+			stubs = new StubDownstreams(settings);
+			stubs.start();
+			System.out.println("Stub stock manager and billing service on " + stubs.baseUrl());
+			storefrontUrl = bootStorefront(stubs.baseUrl(), resultsDirectory);
+			System.out.println("Storefront on " + storefrontUrl);
+		}
+		LoadGenerator loadGenerator = new LoadGenerator(settings, storefrontUrl);
+		if (settings.getWarmupSeconds() > 0) {
+			System.out.println("Warming up for " + settings.getWarmupSeconds() + "s");
+			loadGenerator.run(Duration.ofSeconds(settings.getWarmupSeconds()));
+		}
+		System.out.println("Measuring for " + settings.getDurationSeconds() + "s");
+		Map<Endpoint, EndpointResults> results = loadGenerator.run(Duration.ofSeconds(settings.getDurationSeconds()));
+		boolean valid = report(settings, results, resultsDirectory);
+		if (stubs != null) {
+			stubs.stop();
+		}
+		// the storefront has non daemon threads
+		System.exit(valid ? 0 : 1);
+	}
+
+	/**
+	 * Point the storefront at the stubs, the storefront builds it's config with
+	 * system properties taking priority, anything set on the command line is left
+	 * alone
+	 */
+	private static String bootStorefront(String stubsUrl, Path resultsDirectory) throws IOException {
+		int port = freePort();
+		setIfAbsent("server.port", Integer.toString(port));
+		setIfAbsent("server.host", "localhost");
+		setIfAbsent("server.sockets.admin.port", Integer.toString(freePort()));
+		setIfAbsent("StockManager/mp-rest/url", stubsUrl + "/stocklevel");
+		setIfAbsent("com.oracle.labs.helidon.storefront.restclients.StockManagerStatus/mp-rest/url",
+				stubsUrl + "/status");
+		setIfAbsent("Logger/mp-rest/url", stubsUrl);
+		setIfAbsent("app.writebillingentries", "true");
+		setIfAbsent("tracing.enabled", "false");
+		Main.main(new String[0]);
+		// Helidon sets up the logging as it starts, so this has to be done after
+		logToFile(resultsDirectory.resolve("storefront.log"));
+		return "http://localhost:" + port;
+	}
+
+	private static void setIfAbsent(String name, String value) {
+		if (System.getProperty(name) == null) {
+			System.setProperty(name, value);
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * The storefront still logs as it normally would, just not all over the
+	 * results
+	 */
+	private static void logToFile(Path logFile) throws IOException {
+		if (System.getProperty("java.util.logging.config.file") != null) {
+			return;
+		}
+		LogManager.getLogManager().reset();
+		Handler handler = new FileHandler(logFile.toString());
+		handler.setFormatter(new SimpleFormatter());
+		Logger.getLogger("").addHandler(handler);
+	}
+
+	/**
+	 * @return false if any requests were not sent, their response time would have
+	 *         been at least as long as the requests that were in flight so leaving
+	 *         them out makes the latencies look better than they were
+	 */
+	private static boolean report(LoadTestSettings settings, Map<Endpoint, EndpointResults> results,
+			Path resultsDirectory) throws IOException {
+		PrintStream out = System.out;
+		out.println();
+		out.println("Response time is from when the request should have been sent, service time from when it was");
+		out.println("All times in milliseconds");
+		out.println();
+		out.printf("%-14s %-9s %9s %9s %7s %7s %8s %10s %9s %9s %9s %9s %9s%n", "endpoint", "measure", "requests",
+				"ok", "failed", "errors", "notsent", "ok/s", "p50", "p90", "p99", "p99.9", "max");
+		for (Map.Entry<Endpoint, EndpointResults> entry : results.entrySet()) {
+			EndpointResults endpointResults = entry.getValue();
+			long ok = endpointResults.getSucceeded().sum();
+			long requests = ok + endpointResults.getFailed().sum() + endpointResults.getErrors().sum()
+					+ endpointResults.getNotSent().sum();
+			String name = entry.getKey().name().toLowerCase();
+			printLatencies(out, name, "response", requests, ok, endpointResults, endpointResults.getResponseTimes(),
+					settings.getDurationSeconds());
+			printLatencies(out, "", "service", requests, ok, endpointResults, endpointResults.getServiceTimes(),
+					settings.getDurationSeconds());
+			writeHistogram(resultsDirectory.resolve(name + "-response.hgrm"), endpointResults.getResponseTimes());
+			writeHistogram(resultsDirectory.resolve(name + "-service.hgrm"), endpointResults.getServiceTimes());
+		}
+		out.println();
+		out.println("Latency histograms written to " + resultsDirectory.toAbsolutePath());
+		long notSent = results.values().stream().mapToLong(endpointResults -> endpointResults.getNotSent().sum())
+				.sum();
+		if (notSent > 0) {
+			out.println();
+			out.println("FAILED " + notSent + " requests were not sent as " + settings.getMaxInFlight()
+					+ " were already in flight, the response times don't include them so are not valid");
+			return false;
+		}
+		return true;
+	}
+
+	private static void printLatencies(PrintStream out, String name, String measure, long requests, long ok,
+			EndpointResults endpointResults, Histogram histogram, int durationSeconds) {
+		if (measure.equals("response")) {
+			out.printf("%-14s %-9s %9d %9d %7d %7d %8d %10.1f", name, measure, requests, ok,
+					endpointResults.getFailed().sum(), endpointResults.getErrors().sum(),
+					endpointResults.getNotSent().sum(), ok / (double) durationSeconds);
+		} else {
+			out.printf("%-14s %-9s %9s %9s %7s %7s %8s %10s", name, measure, "", "", "", "", "", "");
+		}
+		out.printf(" %9.2f %9.2f %9.2f %9.2f %9.2f%n", millis(histogram.getValueAtPercentile(50)),
+				millis(histogram.getValueAtPercentile(90)), millis(histogram.getValueAtPercentile(99)),
+				millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()));
+	}
+
+	private static double millis(long micros) {
+		return micros / (double) TimeUnit.MILLISECONDS.toMicros(1);
+	}
+
+	private static void writeHistogram(Path file, Histogram histogram) throws IOException {
+		try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+			histogram.outputPercentileDistribution(out, (double) TimeUnit.MILLISECONDS.toMicros(1));
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.loadtest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import lombok.Getter;
+
+/**
+ * The load test settings, these are given as name=value arguments, anything
+ * not given uses the default
+ */
+@Getter
+public class LoadTestSettings {
+	private static final Set<String> NAMES = new TreeSet<>(List.of("rate", "duration", "warmup", "reservefraction",
+			"maxinflight", "user", "password", "storefronturl", "stublatency", "stubjitter", "stuberrorrate",
+			"stubitems", "results"));
+
+	// requests per second, across both of the endpoints
+	private final int rate;
+	private final int durationSeconds;
+	// run at the rate for this long first, the results are thrown away
+	private final int warmupSeconds;
+	// the fraction of the requests which are reservations, the rest are listings
+	private final double reserveFraction;
+	// if the in flight requests reach this the next ones are counted as not sent
+	// and the run fails, as they have no response time to record. 0 (the default)
+	// means no limit
+	private final int maxInFlight;
+	private final String user;
+	private final String password;
+	// if set the load is sent to this storefront, rather than booting one
+	private final String storefrontUrl;
+	// how the stub stock manager and billing service behave
+	private final int stubLatencyMillis;
+	private final int stubLatencyJitterMillis;
+	private final double stubErrorRate;
+	private final int stubItems;
+	// where to write the latency histograms, so runs can be compared later
+	private final String resultsDirectory;
+
+	public LoadTestSettings(String[] args) {
+		Map<String, String> settings = new HashMap<>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals <= 0) {
+				throw new IllegalArgumentException("Load test arguments must be name=value, not " + arg);
+			}
+			settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		for (String name : settings.keySet()) {
+			if (!NAMES.contains(name)) {
+				throw new IllegalArgumentException("Unknown load test setting " + name + ", the settings are " + NAMES);
+			}
+		}
+		rate = Integer.parseInt(settings.getOrDefault("rate", "200"));
+		durationSeconds = Integer.parseInt(settings.getOrDefault("duration", "30"));
+		warmupSeconds = Integer.parseInt(settings.getOrDefault("warmup", "10"));
+		reserveFraction = Double.parseDouble(settings.getOrDefault("reservefraction", "0.5"));
+		maxInFlight = Integer.parseInt(settings.getOrDefault("maxinflight", "0"));
+		user = settings.getOrDefault("user", "jack");
+		password = settings.getOrDefault("password", "password");
+		storefrontUrl = settings.get("storefronturl");
+		stubLatencyMillis = Integer.parseInt(settings.getOrDefault("stublatency", "5"));
+		stubLatencyJitterMillis = Integer.parseInt(settings.getOrDefault("stubjitter", "0"));
+		stubErrorRate = Double.parseDouble(settings.getOrDefault("stuberrorrate", "0"));
+		stubItems = Integer.parseInt(settings.getOrDefault("stubitems", "100"));
+		resultsDirectory = settings.getOrDefault("results", "target/loadtest");
+		if (rate <= 0) {
+			throw new IllegalArgumentException("The rate must be positive");
+		}
+		if (maxInFlight < 0) {
+			throw new IllegalArgumentException("The max in flight must be 0 (no limit) or positive");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "rate=" + rate + "/s duration=" + durationSeconds + "s warmup=" + warmupSeconds
+				+ "s reservefraction=" + reserveFraction + " maxinflight=" + maxInFlight
+				+ (storefrontUrl == null
+						? " stublatency=" + stubLatencyMillis + "ms stubjitter=" + stubLatencyJitterMillis
+								+ "ms stuberrorrate=" + stubErrorRate + " stubitems=" + stubItems
+						: " storefronturl=" + storefrontUrl);
+	}
+}
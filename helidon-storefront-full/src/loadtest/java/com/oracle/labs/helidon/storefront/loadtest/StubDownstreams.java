@@ -0,0 +1,263 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+
+/**
+ * Stand ins for the stock manager and billing services, these run in the load
+ * test JVM on a local port. The responses are delayed by the configured latency
+ * (without holding a thread, so the stubs aren't the bottleneck) and the
+ * configured fraction of the stock manager and billing calls fail with a 500.
+ * 
+ * Every item starts with so much stock the reservations won't run out during a
+ * test
+ */
+public class StubDownstreams {
+	private static final int INITIAL_LEVEL = 1_000_000_000;
+
+	private final HttpServer server;
+	private final ScheduledExecutorService responder;
+	private final ConcurrentNavigableMap<String, AtomicInteger> stock = new ConcurrentSkipListMap<>();
+	private final int latencyMillis;
+	private final int latencyJitterMillis;
+	private final double errorRate;
+
+	public StubDownstreams(LoadTestSettings settings) throws IOException {
+		this.latencyMillis = settings.getStubLatencyMillis();
+		this.latencyJitterMillis = settings.getStubLatencyJitterMillis();
+		this.errorRate = settings.getStubErrorRate();
+		for (int i = 0; i < settings.getStubItems(); i++) {
+			stock.put(itemName(i), new AtomicInteger(INITIAL_LEVEL));
+		}
+		responder = Executors.newScheduledThreadPool(4, runnable -> {
+			Thread thread = new Thread(runnable, "stub-responder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+		server.setExecutor(Executors.newFixedThreadPool(8, runnable -> {
+			Thread thread = new Thread(runnable, "stub-handler");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		server.createContext("/stocklevel", exchange -> handle(exchange, true, this::stockLevel));
+		server.createContext("/status", exchange -> handle(exchange, false, this::status));
+		server.createContext("/billing", exchange -> handle(exchange, true, this::billing));
+	}
+
+	public static String itemName(int itemNumber) {
+		return String.format("Item%05d", itemNumber);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		responder.shutdownNow();
+	}
+
+	public String baseUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * What to send back, a null body means there isn't one
+	 */
+	private static class StubResponse {
+		private final int status;
+		private final String body;
+
+		private StubResponse(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	@FunctionalInterface
+	private interface StubHandler {
+		StubResponse respond(String method, String[] path, Map<String, String> query, byte[] body);
+	}
+
+	private void handle(HttpExchange exchange, boolean canFail, StubHandler handler) throws IOException {
+		byte[] body;
+		try (InputStream input = exchange.getRequestBody()) {
+			body = input.readAllBytes();
+		}
+		StubResponse response;
+		if (canFail && (errorRate > 0) && (ThreadLocalRandom.current().nextDouble() < errorRate)) {
+			response = new StubResponse(500, null);
+		} else {
+			URI uri = exchange.getRequestURI();
+			response = handler.respond(exchange.getRequestMethod(), uri.getPath().substring(1).split("/"),
+					query(uri.getRawQuery()), body);
+		}
+		int delay = latencyMillis
+				+ (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextInt(latencyJitterMillis + 1) : 0);
+		if (delay <= 0) {
+			send(exchange, response);
+		} else {
+			responder.schedule(() -> send(exchange, response), delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static void send(HttpExchange exchange, StubResponse response) {
+		try {
+			if (response.body == null) {
+				exchange.sendResponseHeaders(response.status, -1);
+			} else {
+				byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(response.status, bytes.length);
+				try (OutputStream output = exchange.getResponseBody()) {
+					output.write(bytes);
+				}
+			}
+		} catch (IOException e) {
+			// the caller gave up on us, nothing to do about that
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static Map<String, String> query(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery != null) {
+			for (String param : rawQuery.split("&")) {
+				int equals = param.indexOf('=');
+				if (equals > 0) {
+					query.put(param.substring(0, equals), param.substring(equals + 1));
+				}
+			}
+		}
+		return query;
+	}
+
+	private StubResponse stockLevel(String method, String[] path, Map<String, String> query, byte[] body) {
+		if (method.equals("GET")) {
+			if (path.length == 1) {
+				Map<String, AtomicInteger> items = query.containsKey("after")
+						? stock.tailMap(query.get("after"), false)
+						: stock;
+				int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : Integer.MAX_VALUE;
+				return new StubResponse(200, items.entrySet().stream().limit(limit)
+						.map(entry -> itemDetails(entry.getKey(), entry.getValue().get()))
+						.collect(Collectors.joining(",", "[", "]")));
+			}
+			AtomicInteger level = stock.get(path[1]);
+			return level == null ? new StubResponse(404, null) : new StubResponse(200, itemDetails(path[1], level.get()));
+		}
+		if (path.length == 2 && path[1].equals("bulk")) {
+			JsonArray itemNames;
+			try (JsonReader reader = Json.createReader(new ByteArrayInputStream(body))) {
+				itemNames = reader.readArray();
+			}
+			return new StubResponse(200,
+					itemNames.getValuesAs(JsonString.class).stream().map(JsonString::getString)
+							.filter(stock::containsKey).map(itemName -> itemDetails(itemName, stock.get(itemName).get()))
+							.collect(Collectors.joining(",", "[", "]")));
+		}
+		AtomicInteger level = stock.get(path[1]);
+		if (level == null) {
+			return new StubResponse(404, null);
+		}
+		if (path.length == 4 && path[2].equals("decrement")) {
+			int itemCount = Integer.parseInt(path[3]);
+			int ifAtLeast = Integer.parseInt(query.getOrDefault("ifAtLeast", "0"));
+			while (true) {
+				int current = level.get();
+				if (current < ifAtLeast) {
+					return new StubResponse(409, null);
+				}
+				if (level.compareAndSet(current, current - itemCount)) {
+					return new StubResponse(200, itemDetails(path[1], current - itemCount));
+				}
+			}
+		}
+		if (path.length == 4 && path[2].equals("cas")) {
+			int itemCount = Integer.parseInt(path[3]);
+			if (!level.compareAndSet(Integer.parseInt(query.get("expectedItemCount")), itemCount)) {
+				return new StubResponse(409, null);
+			}
+			return new StubResponse(200, itemDetails(path[1], itemCount));
+		}
+		int itemCount = Integer.parseInt(path[2]);
+		level.set(itemCount);
+		return new StubResponse(200, itemDetails(path[1], itemCount));
+	}
+
+	private StubResponse status(String method, String[] path, Map<String, String> query, byte[] body) {
+		return new StubResponse(200, "{\"name\":\"stubstockmanager\",\"alive\":true}");
+	}
+
+	private StubResponse billing(String method, String[] path, Map<String, String> query, byte[] body) {
+		if (path.length == 2 && path[1].equals("billinginfo")) {
+			return new StubResponse(200, "{\"billingActive\":true,\"recordsWrittenSinceStartup\":0,\"billingFileSize\":0}");
+		}
+		return new StubResponse(200, "{\"written\":true}");
+	}
+
+	private static String itemDetails(String itemName, int itemCount) {
+		return "{\"itemName\":\"" + itemName + "\",\"itemCount\":" + itemCount + "}";
+	}
+}
@@ -42,6 +42,9 @@ import java.util.Set;
 import org.eclipse.microprofile.openapi.annotations.OpenAPIDefinition;
 import org.eclipse.microprofile.openapi.annotations.info.Info;
 
+import com.oracle.labs.helidon.storefront.health.InFlightRequests;
+import com.oracle.labs.helidon.storefront.limits.ConcurrencyLimitFeature;
+import com.oracle.labs.helidon.storefront.logging.LogSamplingFilter;
 import com.oracle.labs.helidon.storefront.resources.ConfigurationResource;
 import com.oracle.labs.helidon.storefront.resources.StatusResource;
 import com.oracle.labs.helidon.storefront.resources.StorefrontResource;
@@ -61,6 +64,7 @@ public class StorefrontApplication extends Application {
 	@Override
 	public Set<Class<?>> getClasses() {
 		// here we have the classes to operate on
-		return Set.of(StorefrontResource.class, ConfigurationResource.class, StatusResource.class);
+		return Set.of(StorefrontResource.class, ConfigurationResource.class, StatusResource.class,
+				LogSamplingFilter.class, InFlightRequests.class, ConcurrencyLimitFeature.class);
 	}
 }
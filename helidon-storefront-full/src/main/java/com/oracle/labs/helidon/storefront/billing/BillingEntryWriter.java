@@ -0,0 +1,564 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.billing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import com.oracle.labs.helidon.storefront.billing.BillingSpool.SpoolBatch;
+import com.oracle.labs.helidon.storefront.bulkheads.Bulkheads;
+import com.oracle.labs.helidon.storefront.data.BillingEntry;
+import com.oracle.labs.helidon.storefront.data.BillingEntryResponse;
+import com.oracle.labs.helidon.storefront.headers.CallerIdentity;
+import com.oracle.labs.helidon.storefront.logging.StructuredLog;
+import com.oracle.labs.helidon.storefront.restclients.BillingService;
+import com.oracle.labs.helidon.storefront.restclients.BillingServiceAsync;
+
+import io.helidon.common.context.Context;
+import io.helidon.common.context.Contexts;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.WebApplicationException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends the billing entries to the billing service. By default this is done
+ * synchronously on the callers thread, if the queue is enabled then the entries
+ * are put on a bounded in memory queue and a background thread posts them in
+ * batches using the bulk billing call.
+ * 
+ * The background thread isn't handling a request, so the entries in a batch
+ * are grouped by the user that queued them and each group is posted in the
+ * context (and so with the credentials) of one of that user's requests. Each
+ * entry records it's own caller name.
+ * 
+ * If the spool is enabled entries that can't be posted are written to it
+ * rather than being lost. Once a post has failed because the billing service
+ * isn't answering (it can't be reached, returns a 5xx or it's bulkhead is full)
+ * new entries go straight to the spool, so reservations don't each wait for
+ * the failing call, and only the background replay thread talks to the billing
+ * service. As soon as it gets an answer new entries are posted as normal again
+ * while it carries on working through the spool. A 4xx answer means the billing
+ * service is there, so it doesn't stop the posting, even though it means the
+ * spooled entries it was replaying are still waiting. The replays are not made
+ * as part of any request so have no caller credentials to pass on, if
+ * replayuser and replaypassword are set they are used instead.
+ * billingSpoolStalledMillis reports how long the spool has been waiting without
+ * any entries being replayed, so a spool that's not draining can be spotted,
+ * billingSpoolingWhileDown is 1 while new entries are going straight to the
+ * spool.
+ */
+@ApplicationScoped
+@Slf4j
+public class BillingEntryWriter {
+	/**
+	 * What to do with a new entry when the queue is full, DROP_NEWEST throws the
+	 * new entry away, DROP_OLDEST throws away the oldest queued entry to make
+	 * room, SYNCHRONOUS posts the new entry directly on the callers thread
+	 */
+	public enum OverflowPolicy {
+		DROP_NEWEST, DROP_OLDEST, SYNCHRONOUS
+	}
+
+	// the per request events, these may be sampled
+	private static final StructuredLog events = StructuredLog.forClass(BillingEntryWriter.class);
+
+	@Inject
+	@RestClient
+	private BillingService billing;
+
+	@Inject
+	@RestClient
+	private BillingServiceAsync billingAsync;
+
+	@Inject
+	private MetricRegistry metricRegistry;
+
+	// the blocking calls to the billing service are made in it's bulkhead
+	@Inject
+	private Bulkheads bulkheads;
+
+	@Inject
+	@ConfigProperty(name = "app.billingqueue.enabled", defaultValue = "false")
+	boolean queueEnabled;
+
+	@Inject
+	@ConfigProperty(name = "app.billingqueue.size", defaultValue = "10000")
+	int queueSize;
+
+	@Inject
+	@ConfigProperty(name = "app.billingqueue.maxbatchsize", defaultValue = "100")
+	int maxBatchSize;
+
+	@Inject
+	@ConfigProperty(name = "app.billingqueue.flushintervalmillis", defaultValue = "500")
+	long flushIntervalMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.billingqueue.overflow", defaultValue = "DROP_NEWEST")
+	OverflowPolicy overflowPolicy;
+
+	@Inject
+	@ConfigProperty(name = "app.billingspool.enabled", defaultValue = "false")
+	boolean spoolEnabled;
+
+	@Inject
+	@ConfigProperty(name = "app.billingspool.directory", defaultValue = "billingspool")
+	String spoolDirectory;
+
+	@Inject
+	@ConfigProperty(name = "app.billingspool.segmentsizekb", defaultValue = "1024")
+	int spoolSegmentSizeKb;
+
+	@Inject
+	@ConfigProperty(name = "app.billingspool.forceonwrite", defaultValue = "false")
+	boolean spoolForceOnWrite;
+
+	@Inject
+	@ConfigProperty(name = "app.billingspool.replayintervalmillis", defaultValue = "5000")
+	long spoolReplayIntervalMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.billingspool.replayuser")
+	Optional<String> spoolReplayUser;
+
+	@Inject
+	@ConfigProperty(name = "app.billingspool.replaypassword")
+	Optional<String> spoolReplayPassword;
+
+	private BlockingQueue<QueuedBillingEntry> queue;
+	private Thread worker;
+	private volatile boolean running = false;
+	private Counter entriesPosted;
+	private Counter entriesDropped;
+	private Counter entriesFailed;
+	private BillingSpool spool;
+	private ScheduledExecutorService spoolReplayer;
+	private Counter entriesSpooled;
+	private Counter entriesReplayed;
+	// null if the replays are made without credentials
+	private String spoolReplayAuthorization;
+	// when the spool was last empty or had entries replayed
+	private volatile long spoolProgressAt;
+	// set when a post fails because the billing service isn't answering, until
+	// the replay thread gets an answer from it new entries are spooled without
+	// trying to post them
+	private volatile boolean billingDown = false;
+
+	/**
+	 * We need to be created at startup, not just on the first request, so any
+	 * entries left in the spool from a previous run get replayed
+	 */
+	void onStartup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+	}
+
+	@PostConstruct
+	void start() {
+		entriesPosted = metricRegistry.counter("billingEntriesPosted");
+		entriesDropped = metricRegistry.counter("billingEntriesDropped");
+		entriesFailed = metricRegistry.counter("billingEntriesFailed");
+		if (spoolEnabled) {
+			startSpool();
+		}
+		if (!queueEnabled) {
+			log.info("Billing queue disabled, billing entries will be written synchronously");
+			return;
+		}
+		queue = new ArrayBlockingQueue<>(queueSize);
+		metricRegistry.gauge("billingQueueDepth", () -> queue.size());
+		metricRegistry.gauge("billingQueueLagMillis", this::queueLagMillis);
+		running = true;
+		worker = new Thread(this::drainQueue, "billing-writer");
+		worker.setDaemon(true);
+		worker.start();
+		log.info("Billing queue enabled, size " + queueSize + ", max batch size " + maxBatchSize
+				+ ", flush interval " + flushIntervalMillis + "ms, overflow policy " + overflowPolicy);
+	}
+
+	private void startSpool() {
+		try {
+			spool = new BillingSpool(Paths.get(spoolDirectory), spoolSegmentSizeKb * 1024, spoolForceOnWrite);
+		} catch (IOException e) {
+			log.error("Unable to open the billing spool in " + spoolDirectory
+					+ ", failed billing entries will be lost " + e.getLocalizedMessage());
+			return;
+		}
+		entriesSpooled = metricRegistry.counter("billingEntriesSpooled");
+		entriesReplayed = metricRegistry.counter("billingEntriesReplayed");
+		spoolProgressAt = System.nanoTime();
+		metricRegistry.gauge("billingSpoolPending", spool::pendingEntries);
+		metricRegistry.gauge("billingSpoolStalledMillis", this::spoolStalledMillis);
+		metricRegistry.gauge("billingSpoolingWhileDown", () -> billingDown ? 1 : 0);
+		if (spoolReplayUser.isPresent() && spoolReplayPassword.isPresent()) {
+			spoolReplayAuthorization = "Basic " + Base64.getEncoder().encodeToString(
+					(spoolReplayUser.get() + ":" + spoolReplayPassword.get()).getBytes(StandardCharsets.UTF_8));
+		} else {
+			log.warn("No app.billingspool.replayuser and replaypassword, the billing spool will be replayed"
+					+ " without credentials");
+		}
+		spoolReplayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "billing-spool-replay");
+			thread.setDaemon(true);
+			return thread;
+		});
+		spoolReplayer.scheduleWithFixedDelay(this::replaySpool, 0, spoolReplayIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	void stop() {
+		if (worker != null) {
+			// let the worker flush what's left
+			running = false;
+			try {
+				worker.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (!queue.isEmpty()) {
+				log.warn("Billing queue stopped with " + queue.size() + " entries unwritten");
+			}
+		}
+		if (spool != null) {
+			spoolReplayer.shutdownNow();
+			try {
+				spool.close();
+			} catch (IOException e) {
+				log.warn("Problem closing the billing spool " + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * Write the entry, if the queue is enabled this will return as soon as the
+	 * entry is queued. Problems writing the entry are logged and not passed on
+	 * 
+	 * @param billingEntry
+	 */
+	public void write(BillingEntry billingEntry) {
+		if (spoolWhileDown(List.of(billingEntry))) {
+			return;
+		}
+		if (!queueEnabled) {
+			writeNow(billingEntry);
+			return;
+		}
+		QueuedBillingEntry queuedEntry = new QueuedBillingEntry(billingEntry, System.nanoTime(),
+				CallerIdentity.current(), Contexts.context());
+		if (queue.offer(queuedEntry)) {
+			return;
+		}
+		switch (overflowPolicy) {
+		case DROP_OLDEST:
+			// someone else may take the space we just made, so this can still fail
+			QueuedBillingEntry dropped = queue.poll();
+			if (dropped != null) {
+				entriesDropped.inc();
+				log.warn("Billing queue full, dropped oldest entry " + dropped.billingEntry);
+			}
+			if (!queue.offer(queuedEntry)) {
+				entriesDropped.inc();
+				log.warn("Billing queue full, dropped entry " + billingEntry);
+			}
+			break;
+		case SYNCHRONOUS:
+			writeNow(billingEntry);
+			break;
+		default:
+			entriesDropped.inc();
+			log.warn("Billing queue full, dropped entry " + billingEntry);
+		}
+	}
+
+	/**
+	 * Like write, but if the queue is not enabled the entry is posted without
+	 * holding the callers thread while waiting for the billing service. As with
+	 * write problems are logged and not passed on, so the returned stage always
+	 * completes normally
+	 * 
+	 * @param billingEntry
+	 * @return completes when the entry has been queued, posted or spooled
+	 */
+	public CompletionStage<Void> writeAsync(BillingEntry billingEntry) {
+		if (queueEnabled) {
+			write(billingEntry);
+			return CompletableFuture.completedFuture(null);
+		}
+		if (spoolWhileDown(List.of(billingEntry))) {
+			return CompletableFuture.completedFuture(null);
+		}
+		events.success("billingentry.writing", "item", billingEntry.getItemName());
+		return bulkheads.callAsync(Bulkheads.BILLING, () -> billingAsync.postBillingEntry(billingEntry))
+				.handle((ber, e) -> {
+					if (e == null) {
+						events.success("billingentry.written", "response", ber);
+					} else {
+						log.warn("Problem writing billind entry " + e.getLocalizedMessage());
+						postFailed(e, List.of(billingEntry));
+					}
+					return null;
+				});
+	}
+
+	private void writeNow(BillingEntry billingEntry) {
+		try {
+			events.success("billingentry.writing", "item", billingEntry.getItemName());
+			BillingEntryResponse ber = bulkheads.call(Bulkheads.BILLING,
+					() -> billing.postBillingEntry(billingEntry));
+			events.success("billingentry.written", "response", ber);
+		} catch (Exception e) {
+			log.warn("Problem writing billind entry " + e.getLocalizedMessage());
+			postFailed(e, List.of(billingEntry));
+		}
+	}
+
+	/**
+	 * @return true if the billing service is down and the entries have been
+	 *         spooled rather than posted
+	 */
+	private boolean spoolWhileDown(List<BillingEntry> billingEntries) {
+		if ((spool == null) || !billingDown) {
+			return false;
+		}
+		spool(billingEntries);
+		return true;
+	}
+
+	private void postFailed(Throwable e, List<BillingEntry> billingEntries) {
+		if ((spool != null) && isOutage(e) && !billingDown) {
+			billingDown = true;
+			log.warn("Billing service unavailable, spooling billing entries until it answers again");
+		}
+		spool(billingEntries);
+	}
+
+	/**
+	 * @return false if the billing service answered, it just didn't like what it
+	 *         was sent
+	 */
+	private boolean isOutage(Throwable e) {
+		Throwable cause = e;
+		while ((cause instanceof CompletionException) && (cause.getCause() != null)) {
+			cause = cause.getCause();
+		}
+		if (cause instanceof WebApplicationException) {
+			return ((WebApplicationException) cause).getResponse().getStatus() >= 500;
+		}
+		return true;
+	}
+
+	private void billingAnswered() {
+		if (billingDown) {
+			billingDown = false;
+			log.info("Billing service answering again, " + spool.pendingEntries() + " spooled entries to replay");
+		}
+	}
+
+	private void spool(List<BillingEntry> billingEntries) {
+		if (spool == null) {
+			return;
+		}
+		for (BillingEntry billingEntry : billingEntries) {
+			try {
+				// the spool's not stalled until it's had a chance to replay this
+				if (spool.pendingEntries() == 0) {
+					spoolProgressAt = System.nanoTime();
+				}
+				if (spool.append(billingEntry)) {
+					entriesSpooled.inc();
+				} else {
+					log.error("Billing entry " + billingEntry + " is too large to spool");
+				}
+			} catch (IOException | RuntimeException e) {
+				log.error("Unable to spool billing entry " + billingEntry + " " + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	private void replaySpool() {
+		try {
+			while (spool.pendingEntries() > 0) {
+				SpoolBatch batch = spool.read(maxBatchSize);
+				if (batch.getBillingEntries().isEmpty()) {
+					break;
+				}
+				bulkheads.call(Bulkheads.BILLING,
+						() -> spoolReplayAuthorization == null ? billing.postBillingEntries(batch.getBillingEntries())
+								: billing.postBillingEntries(spoolReplayAuthorization, batch.getBillingEntries()));
+				spool.commit(batch);
+				entriesReplayed.inc(batch.getBillingEntries().size());
+				spoolProgressAt = System.nanoTime();
+				// it's back, new entries can be posted while we work through the rest
+				billingAnswered();
+			}
+			// nothing to replay, or something we couldn't spool, but either way there's
+			// nothing left to wait for
+			billingAnswered();
+		} catch (Exception e) {
+			if (!isOutage(e)) {
+				billingAnswered();
+			}
+			log.warn("Problem replaying the billing spool, " + spool.pendingEntries() + " entries waiting "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	private void drainQueue() {
+		long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		List<QueuedBillingEntry> batch = new ArrayList<>(maxBatchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				QueuedBillingEntry first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				// give the batch until the first entry is a flush interval old to fill up
+				long flushAt = first.queuedAt + flushIntervalNanos;
+				while (running && (batch.size() < maxBatchSize)) {
+					QueuedBillingEntry next = queue.poll(flushAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				// if we're stopping just take what's there
+				queue.drainTo(batch, maxBatchSize - batch.size());
+				postBatch(batch);
+			} catch (InterruptedException e) {
+				running = false;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Each user's entries are posted separately, one user's credentials must
+	 * never be used to bill another user's entries
+	 */
+	private void postBatch(List<QueuedBillingEntry> batch) {
+		Map<String, List<QueuedBillingEntry>> byCaller = batch.stream()
+				.collect(Collectors.groupingBy(queued -> queued.identity, LinkedHashMap::new, Collectors.toList()));
+		byCaller.values().forEach(this::postCallerBatch);
+	}
+
+	private void postCallerBatch(List<QueuedBillingEntry> callerBatch) {
+		List<BillingEntry> billingEntries = callerBatch.stream().map(queued -> queued.billingEntry)
+				.collect(Collectors.toList());
+		// these may have been queued before the billing service went down
+		if (spoolWhileDown(billingEntries)) {
+			return;
+		}
+		Runnable post = () -> {
+			try {
+				BillingEntryResponse ber = bulkheads.call(Bulkheads.BILLING,
+						() -> billing.postBillingEntries(billingEntries));
+				entriesPosted.inc(billingEntries.size());
+				log.debug("Billing batch of " + billingEntries.size() + " response is " + ber);
+			} catch (Exception e) {
+				entriesFailed.inc(billingEntries.size());
+				log.warn("Problem writing batch of " + billingEntries.size() + " billing entries "
+						+ e.getLocalizedMessage());
+				postFailed(e, billingEntries);
+			}
+		};
+		// all the entries are from the same user, so any of their contexts will do
+		Optional<Context> context = callerBatch.get(0).context;
+		if (context.isPresent()) {
+			Contexts.runInContext(context.get(), post);
+		} else {
+			post.run();
+		}
+	}
+
+	private long spoolStalledMillis() {
+		if (spool.pendingEntries() == 0) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - spoolProgressAt);
+	}
+
+	private long queueLagMillis() {
+		QueuedBillingEntry oldest = queue.peek();
+		if (oldest == null) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.queuedAt);
+	}
+
+	private static class QueuedBillingEntry {
+		private final BillingEntry billingEntry;
+		private final long queuedAt;
+		// who's credentials will be used to post the entry
+		private final String identity;
+		private final Optional<Context> context;
+
+		private QueuedBillingEntry(BillingEntry billingEntry, long queuedAt, String identity,
+				Optional<Context> context) {
+			this.billingEntry = billingEntry;
+			this.queuedAt = queuedAt;
+			this.identity = identity;
+			this.context = context;
+		}
+	}
+}
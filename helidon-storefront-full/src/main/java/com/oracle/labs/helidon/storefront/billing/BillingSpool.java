@@ -0,0 +1,194 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.billing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.oracle.labs.helidon.storefront.data.BillingEntry;
+import com.oracle.labs.helidon.storefront.storage.MappedAppendLog;
+import com.oracle.labs.helidon.storefront.storage.MappedAppendLog.Segment;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A local write ahead spool for billing entries that couldn't be sent to the
+ * billing service. Entries are appended in a compact binary form to a
+ * {@link MappedAppendLog}, when a segment is full a new one is started, and once
+ * all of the entries in a segment have been replayed it is deleted. The
+ * segment headers hold the position up to which the entries have been
+ * replayed.
+ * 
+ * The payload of each record is
+ * 
+ * <pre>
+ * short caller name length, caller name (UTF-8), short item name length, item name (UTF-8), int item count
+ * </pre>
+ * 
+ * Data written to the mapped segments survives the process failing, unless
+ * forceOnWrite is set it's up to the OS when it reaches the disk.
+ */
+@Slf4j
+public class BillingSpool implements AutoCloseable {
+	private final static int MAGIC = 0x42535031; // BSP1
+	private final static String SEGMENT_PREFIX = "billing-";
+	private final static String SEGMENT_SUFFIX = ".spool";
+
+	private final MappedAppendLog appendLog;
+	private final boolean forceOnWrite;
+	private long pendingEntries = 0;
+
+	public BillingSpool(Path directory, int segmentSize, boolean forceOnWrite) throws IOException {
+		this.forceOnWrite = forceOnWrite;
+		this.appendLog = new MappedAppendLog("Billing spool", directory, SEGMENT_PREFIX, SEGMENT_SUFFIX, MAGIC,
+				segmentSize);
+		appendLog.open(0, (segment, position, payload) -> {
+			if (position >= segment.getReadPosition()) {
+				pendingEntries++;
+			}
+		});
+		log.info("Billing spool in " + directory + " opened with " + appendLog.segmentCount()
+				+ " segments and " + pendingEntries + " entries to replay");
+	}
+
+	/**
+	 * Add the entry to the end of the spool
+	 * 
+	 * @return false if the entry is too big to ever fit into a segment
+	 */
+	public synchronized boolean append(BillingEntry billingEntry) throws IOException {
+		byte[] callerName = bytes(billingEntry.getCallerName());
+		byte[] itemName = bytes(billingEntry.getItemName());
+		int payloadLength = 2 + callerName.length + 2 + itemName.length + 4;
+		if (!appendLog.fits(payloadLength)) {
+			return false;
+		}
+		Segment segment = appendLog.append(payloadLength, payload -> {
+			payload.putShort((short) callerName.length);
+			payload.put(callerName);
+			payload.putShort((short) itemName.length);
+			payload.put(itemName);
+			payload.putInt(billingEntry.getItemCount());
+		});
+		if (forceOnWrite) {
+			segment.force();
+		}
+		pendingEntries++;
+		return true;
+	}
+
+	/**
+	 * Read up to maxEntries of the oldest entries without removing them, once
+	 * they've been dealt with call commit with the result
+	 */
+	public synchronized SpoolBatch read(int maxEntries) throws IOException {
+		// we may have stopped after reading the segment but before deleting it
+		while ((appendLog.segmentCount() > 1) && appendLog.first().isFullyRead()) {
+			appendLog.delete(appendLog.first());
+		}
+		Segment segment = appendLog.first();
+		List<BillingEntry> billingEntries = new ArrayList<>(maxEntries);
+		int endPosition = appendLog.read(segment, segment.getReadPosition(), maxEntries,
+				(read, position, payload) -> {
+					String callerName = string(payload, payload.getShort());
+					String itemName = string(payload, payload.getShort());
+					billingEntries.add(new BillingEntry(callerName, itemName, payload.getInt()));
+				});
+		return new SpoolBatch(segment, endPosition, billingEntries);
+	}
+
+	/**
+	 * The entries in the batch have been dealt with so they don't need to be
+	 * replayed again
+	 */
+	public synchronized void commit(SpoolBatch batch) throws IOException {
+		Segment segment = batch.segment;
+		segment.setReadPosition(batch.endPosition);
+		pendingEntries -= batch.billingEntries.size();
+		// only drop a segment if it's not the one being written to
+		if (segment.isFullyRead() && (appendLog.segmentCount() > 1) && (appendLog.first() == segment)) {
+			appendLog.delete(segment);
+		}
+	}
+
+	public synchronized long pendingEntries() {
+		return pendingEntries;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		appendLog.close();
+	}
+
+	private static byte[] bytes(String value) {
+		byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Billing entry field is too long to spool");
+		}
+		return bytes;
+	}
+
+	private static String string(ByteBuffer buffer, int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The entries read from the spool, pass this to commit once they have been
+	 * written
+	 */
+	public static class SpoolBatch {
+		private final Segment segment;
+		private final int endPosition;
+		private final List<BillingEntry> billingEntries;
+
+		private SpoolBatch(Segment segment, int endPosition, List<BillingEntry> billingEntries) {
+			this.segment = segment;
+			this.endPosition = endPosition;
+			this.billingEntries = billingEntries;
+		}
+
+		public List<BillingEntry> getBillingEntries() {
+			return billingEntries;
+		}
+	}
+}
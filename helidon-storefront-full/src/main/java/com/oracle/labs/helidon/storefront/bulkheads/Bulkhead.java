@@ -0,0 +1,203 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.bulkheads;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.faulttolerance.exceptions.BulkheadException;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import io.helidon.common.context.Contexts;
+import jakarta.ws.rs.ProcessingException;
+
+/**
+ * Runs the calls to one downstream service on it's own threads, so however
+ * slow that service gets it can only tie up those threads and the callers
+ * waiting in it's queue. Once the threads are busy and the queue is full any
+ * more calls are refused straight away with a BulkheadException (a 503)
+ * rather than waiting.
+ * 
+ * The caller waits for the result, but it waits in Future.get which unlike a
+ * socket read can be interrupted, so the fault tolerance @Timeout does free
+ * the callers thread. The calls run in the callers Helidon context, so the
+ * security and headers are passed on as they would be on the callers thread.
+ * 
+ * Non blocking calls don't need one of the threads, they are made on the
+ * callers thread, but they still count against the bulkhead until their
+ * stage completes. Blocking and non blocking calls share threads + queue size
+ * permits, so between them there are never more calls to the service in
+ * progress or waiting than that.
+ */
+public class Bulkhead {
+	private final String name;
+	private final int threads;
+	private final int queueSize;
+	private final ThreadPoolExecutor pool;
+	private final ExecutorService executor;
+	// one for each call in progress or waiting, blocking or not
+	private final Semaphore permits;
+	private final AtomicInteger asyncActive = new AtomicInteger();
+	private final Counter rejected;
+
+	/**
+	 * @param name      used in the thread and metric names
+	 * @param threads   the number of calls that can be in progress at once
+	 * @param queueSize the number of calls that can wait for a thread, if 0
+	 *                  calls are refused as soon as all the threads are busy
+	 */
+	public Bulkhead(String name, int threads, int queueSize, MetricRegistry metricRegistry) {
+		this.name = name;
+		this.threads = Math.max(1, threads);
+		this.queueSize = Math.max(0, queueSize);
+		BlockingQueue<Runnable> queue = this.queueSize == 0 ? new SynchronousQueue<>()
+				: new ArrayBlockingQueue<>(this.queueSize);
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.pool = new ThreadPoolExecutor(this.threads, this.threads, 1, TimeUnit.MINUTES, queue, runnable -> {
+			Thread thread = new Thread(runnable, "bulkhead-" + name + "-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// the threads are only there for the busy periods
+		pool.allowCoreThreadTimeOut(true);
+		this.executor = Contexts.wrap(pool);
+		this.permits = new Semaphore(this.threads + this.queueSize);
+		this.rejected = metricRegistry.counter(name + "BulkheadRejected");
+		metricRegistry.gauge(name + "BulkheadActive", pool::getActiveCount);
+		metricRegistry.gauge(name + "BulkheadQueued", () -> pool.getQueue().size());
+		metricRegistry.gauge(name + "BulkheadAsyncActive", asyncActive::get);
+	}
+
+	/**
+	 * Make the call on one of the bulkhead threads and wait for it
+	 * 
+	 * @return whatever the call returned, if it threw an exception that is thrown
+	 *         here
+	 * @throws BulkheadException if the bulkhead is full
+	 */
+	public <T> T call(Supplier<T> call) {
+		if (!permits.tryAcquire()) {
+			throw full();
+		}
+		// the permit is given back however the task ends, including being cancelled
+		// while it's still queued
+		FutureTask<T> future = new FutureTask<>(call::get) {
+			@Override
+			protected void done() {
+				permits.release();
+			}
+		};
+		try {
+			executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			throw full();
+		}
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new ProcessingException(cause);
+		} catch (InterruptedException e) {
+			// we've given up (probably timed out) so if the call's still queued it
+			// doesn't need to be made
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new ProcessingException("Interrupted waiting for the " + name + " bulkhead", e);
+		}
+	}
+
+	/**
+	 * Make a non blocking call on the callers thread if the bulkhead has room for
+	 * it, it counts against the bulkhead until the stage it returns completes
+	 * 
+	 * @return the stage the call returned, or if the bulkhead is full one that's
+	 *         failed with a BulkheadException
+	 */
+	public <T> CompletionStage<T> callAsync(Supplier<? extends CompletionStage<T>> call) {
+		if (!permits.tryAcquire()) {
+			return CompletableFuture.failedFuture(full());
+		}
+		asyncActive.incrementAndGet();
+		CompletionStage<T> stage;
+		try {
+			stage = call.get();
+		} catch (RuntimeException e) {
+			asyncCompleted();
+			return CompletableFuture.failedFuture(e);
+		}
+		return stage.whenComplete((result, problem) -> asyncCompleted());
+	}
+
+	private void asyncCompleted() {
+		asyncActive.decrementAndGet();
+		permits.release();
+	}
+
+	private BulkheadException full() {
+		rejected.inc();
+		return new BulkheadException("The " + name + " bulkhead is full, " + threads + " calls in progress and "
+				+ queueSize + " waiting");
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	void shutdown() {
+		pool.shutdownNow();
+	}
+}
@@ -0,0 +1,122 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.bulkheads;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The bulkheads for the downstream services, each one has it's own threads and
+ * queue so a slow billing service can't hold up the stock manager calls and so
+ * on. The sizes are in app.bulkheads.[name].threads and
+ * app.bulkheads.[name].queuesize where the name is in lower case, see
+ * conf/storefront-network.yaml
+ * 
+ * If app.bulkheads.enabled is false the calls are made directly on the callers
+ * thread as before
+ */
+@ApplicationScoped
+@Slf4j
+public class Bulkheads {
+	public static final String STOCK_MANAGER = "stockManager";
+	public static final String BILLING = "billing";
+	public static final String STOCK_MANAGER_STATUS = "stockManagerStatus";
+
+	private static final int DEFAULT_THREADS = 16;
+	private static final int DEFAULT_QUEUE_SIZE = 32;
+
+	@Inject
+	private MetricRegistry metricRegistry;
+
+	@Inject
+	private Config config;
+
+	@Inject
+	@ConfigProperty(name = "app.bulkheads.enabled", defaultValue = "false")
+	boolean enabled;
+
+	private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+	@PreDestroy
+	void stop() {
+		bulkheads.values().forEach(Bulkhead::shutdown);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Make the call in the named bulkhead, or directly if they are not enabled
+	 */
+	public <T> T call(String name, Supplier<T> call) {
+		if (!enabled) {
+			return call.get();
+		}
+		return bulkheads.computeIfAbsent(name, this::create).call(call);
+	}
+
+	/**
+	 * Make the non blocking call counting it against the named bulkhead, or
+	 * directly if they are not enabled
+	 */
+	public <T> CompletionStage<T> callAsync(String name, Supplier<? extends CompletionStage<T>> call) {
+		if (!enabled) {
+			return call.get();
+		}
+		return bulkheads.computeIfAbsent(name, this::create).callAsync(call);
+	}
+
+	private Bulkhead create(String name) {
+		String prefix = "app.bulkheads." + name.toLowerCase() + ".";
+		int threads = config.getOptionalValue(prefix + "threads", Integer.class).orElse(DEFAULT_THREADS);
+		int queueSize = config.getOptionalValue(prefix + "queuesize", Integer.class).orElse(DEFAULT_QUEUE_SIZE);
+		log.info("Calls to " + name + " limited to " + threads + " at a time with " + queueSize + " waiting");
+		return new Bulkhead(name, threads, queueSize, metricRegistry);
+	}
+}
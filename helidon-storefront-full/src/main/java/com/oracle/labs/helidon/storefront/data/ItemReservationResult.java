@@ -0,0 +1,65 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.data;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import io.helidon.common.Reflected;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Reflected // this tells the Helidon native-image support to include this as a class that
+			// can be accessed via reflection
+@Data // Tells Lombok to create getters and setters, equals and hashcode
+@NoArgsConstructor // Tells Lombok to create a constructor with no args (needed for the JSCON
+					// unmarshalling process to work)
+@AllArgsConstructor // Tells Lombok to create a constructor with all the args (makes life easier
+					// creating instances)
+@Schema(name = "ItemReservationResult", description = "The outcome of one of the reservations in a bulk reservation", example = "{\"requestedItem\": \"Pencil\", \"requestedCount\": 5, \"status\": 200, \"itemDetails\": {\"itemCount\": 10, \"itemName\": \"Pencil\"}}")
+public class ItemReservationResult {
+	@Schema(required = true, description = "Name of the item that was requested", example = "Pencil")
+	private String requestedItem;
+	@Schema(required = true, description = "Number of the items that were requested", example = "5")
+	private int requestedCount;
+	@Schema(required = true, description = "The HTTP status code this reservation would have had if made on it's own", example = "200")
+	private int status;
+	@Schema(required = false, description = "The updated stock details for the item if the reservation succeeded")
+	private ItemDetails itemDetails;
+	@Schema(required = false, description = "Why the reservation failed if it did", example = "The reservation of 5 items of Pencil fails because there are only 2 items available")
+	private String errormessage;
+}
@@ -0,0 +1,61 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.data;
+
+import java.util.Collection;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import io.helidon.common.Reflected;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Reflected // this tells the Helidon native-image support to include this as a class that
+			// can be accessed via reflection
+@Data // Tells Lombok to create getters and setters, equals and hashcode
+@NoArgsConstructor // Tells Lombok to create a constructor with no args (needed for the JSCON
+					// unmarshalling process to work)
+@AllArgsConstructor // Tells Lombok to create a constructor with all the args (makes life easier
+					// creating instances)
+@Schema(name = "StockLevelPage", description = "One page of the stock listing, items are in name order", example = "{\"items\": [{\"itemCount\": 10, \"itemName\": \"Pencil\"}], \"nextCursor\": \"UGVuY2ls\"}")
+public class StockLevelPage {
+	@Schema(required = true, description = "The items in this page")
+	private Collection<ItemDetails> items;
+	@Schema(required = false, description = "Pass this as the cursor to get the next page, not set if this is the last page", example = "UGVuY2ls")
+	private String nextCursor;
+}
@@ -36,21 +36,19 @@ SOFTWARE.
  */
 package com.oracle.labs.helidon.storefront.dummy;
 
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.Map;
-import java.util.stream.Collectors;
 
-import com.oracle.labs.helidon.storefront.data.ItemDetails;
 import com.oracle.labs.helidon.storefront.restclients.StockManager;
+import com.oracle.labs.helidon.storefront.stock.LocalStockManager;
 
-public class StockManagerDummy implements StockManager {
-	private final static StockManagerDummy singleton = new StockManagerDummy();
-	// Setup the initial data
-
-	private Map<String, ItemDetails> stockMap = Arrays
-			.asList(new ItemDetails("Pencil", 12), new ItemDetails("Pen", 2), new ItemDetails("Brush", 27)).stream()
-			.collect(Collectors.toMap(item -> item.getItemName(), item -> item));
+/**
+ * A fixed set of stock items for trying things out without a stock manager
+ * service, this is the local stock manager with the original dummy data, to
+ * use it in the storefront set app.stockmanager.mode=LOCAL
+ */
+public class StockManagerDummy {
+	private final static StockManager singleton = new LocalStockManager(
+			Map.of("Pencil", 12, "Pen", 2, "Brush", 27));
 
 	private StockManagerDummy() {
 	}
@@ -58,25 +56,4 @@ public class StockManagerDummy implements StockManager {
 	public static StockManager getStockManager() {
 		return singleton;
 	}
-
-	@Override
-	public Collection<ItemDetails> getAllStockLevels() {
-		return stockMap.values();
-	}
-
-	@Override
-	public ItemDetails getStockItem(String itemName) {
-		return stockMap.get(itemName);
-	}
-
-	@Override
-	public ItemDetails setStockItemLevel(String itemName, Integer itemCount) {
-		ItemDetails item = getStockItem(itemName);
-		if (item == null) {
-			return null;
-		}
-		item.setItemCount(itemCount);
-		return item;
-	}
-
 }
@@ -0,0 +1,295 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.events;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pushes changes to the stock levels to everyone subscribed to the stock level
+ * events. Changes come from reservations and from the stock cache, which
+ * compares what it loads from the stock manager with the levels it already
+ * holds (so changes made by other replicas are only seen if the cache is
+ * enabled). Spotting the changes is up to the callers, this doesn't keep a copy
+ * of the levels, and if there are no subscribers publishing does nothing.
+ * 
+ * Subscribers don't have a thread of their own, each has a small queue of
+ * events waiting to be sent and a shared pool of threads sends them, one at a
+ * time, an event stays in the queue until it's send has completed. If a
+ * subscriber's queue is full it's not keeping up and is disconnected rather than
+ * holding up the others or using more memory, clients can just reconnect.
+ * 
+ * A comment is sent to everyone every heartbeatseconds, this stops idle
+ * connections being closed by proxies and lets us spot clients that have gone
+ * away.
+ */
+@ApplicationScoped
+@Slf4j
+public class StockLevelBroadcaster {
+	public static final String EVENT_NAME = "stocklevel";
+
+	@Inject
+	private MetricRegistry metricRegistry;
+
+	@Inject
+	@ConfigProperty(name = "app.stockevents.maxsubscribers", defaultValue = "10000")
+	int maxSubscribers;
+
+	@Inject
+	@ConfigProperty(name = "app.stockevents.buffersize", defaultValue = "32")
+	int bufferSize;
+
+	@Inject
+	@ConfigProperty(name = "app.stockevents.threads", defaultValue = "4")
+	int senderThreads;
+
+	@Inject
+	@ConfigProperty(name = "app.stockevents.heartbeatseconds", defaultValue = "30")
+	long heartbeatSeconds;
+
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	// places are reserved here before a subscriber is added, so concurrent
+	// subscribes can't go over the limit
+	private final AtomicInteger subscriberCount = new AtomicInteger();
+	// the event builder comes from the JAX-RS runtime, we get it from the first
+	// subscriber, there's no point in building events until then anyway
+	private volatile Sse sse;
+	private ExecutorService senders;
+	private ScheduledExecutorService heartbeat;
+	private Counter eventsPublished;
+	private Counter subscribersEvicted;
+
+	@PostConstruct
+	void start() {
+		AtomicInteger threadNumber = new AtomicInteger();
+		senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+			Thread thread = new Thread(runnable, "stock-events-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "stock-events-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (heartbeatSeconds > 0) {
+			heartbeat.scheduleWithFixedDelay(this::sendHeartbeat, heartbeatSeconds, heartbeatSeconds,
+					TimeUnit.SECONDS);
+		}
+		eventsPublished = metricRegistry.counter("stockEventsPublished");
+		subscribersEvicted = metricRegistry.counter("stockEventsSubscribersEvicted");
+		metricRegistry.gauge("stockEventsSubscribers", subscriberCount::get);
+	}
+
+	@PreDestroy
+	void stop() {
+		heartbeat.shutdownNow();
+		senders.shutdownNow();
+		subscribers.forEach(Subscriber::remove);
+	}
+
+	/**
+	 * Start sending events to the sink
+	 * 
+	 * @param sink
+	 * @param sse
+	 * @return false if there are already too many subscribers, in which case the
+	 *         sink has not been used
+	 */
+	public boolean subscribe(SseEventSink sink, Sse sse) {
+		if (subscriberCount.incrementAndGet() > maxSubscribers) {
+			subscriberCount.decrementAndGet();
+			log.warn("Refusing stock level subscriber, already have " + maxSubscribers);
+			return false;
+		}
+		this.sse = sse;
+		subscribers.add(new Subscriber(sink));
+		return true;
+	}
+
+	/**
+	 * @return false if there's no one to send changes to, so there's no need to
+	 *         look for them
+	 */
+	public boolean hasSubscribers() {
+		return !subscribers.isEmpty();
+	}
+
+	/**
+	 * Tell the subscribers about the new level of the item, the caller must have
+	 * checked it's actually changed
+	 * 
+	 * @param itemDetails
+	 */
+	public void publish(ItemDetails itemDetails) {
+		Sse currentSse = sse;
+		if ((currentSse == null) || subscribers.isEmpty()) {
+			return;
+		}
+		// build the event once and share it, ItemDetails is mutable so take a copy
+		OutboundSseEvent event = currentSse.newEventBuilder().name(EVENT_NAME)
+				.mediaType(MediaType.APPLICATION_JSON_TYPE).data(ItemDetails.class,
+						new ItemDetails(itemDetails.getItemName(), itemDetails.getItemCount()))
+				.build();
+		eventsPublished.inc();
+		subscribers.forEach(subscriber -> subscriber.offer(event));
+	}
+
+	private void sendHeartbeat() {
+		Sse currentSse = sse;
+		if (currentSse == null) {
+			return;
+		}
+		OutboundSseEvent event = currentSse.newEventBuilder().comment("heartbeat").build();
+		subscribers.forEach(subscriber -> subscriber.offer(event));
+	}
+
+	/**
+	 * The queue of events waiting to go to one client, only one event is being
+	 * sent for a subscriber at a time so the events arrive in order
+	 */
+	private class Subscriber {
+		private final SseEventSink sink;
+		private final Queue<OutboundSseEvent> pending = new ConcurrentLinkedQueue<>();
+		// ConcurrentLinkedQueue.size() walks the queue, so keep our own count, this
+		// includes the event being sent until the send completes
+		private final AtomicInteger pendingCount = new AtomicInteger();
+		private final AtomicBoolean sending = new AtomicBoolean();
+
+		private Subscriber(SseEventSink sink) {
+			this.sink = sink;
+		}
+
+		private void offer(OutboundSseEvent event) {
+			if (sink.isClosed()) {
+				remove();
+				return;
+			}
+			if (pendingCount.incrementAndGet() > bufferSize) {
+				log.info("Stock level subscriber has " + bufferSize + " unsent events, disconnecting it");
+				subscribersEvicted.inc();
+				remove();
+				return;
+			}
+			pending.add(event);
+			scheduleSend();
+		}
+
+		private void scheduleSend() {
+			if (sending.compareAndSet(false, true)) {
+				senders.execute(this::sendPending);
+			}
+		}
+
+		private void sendPending() {
+			OutboundSseEvent event = pending.poll();
+			if (event == null) {
+				sending.set(false);
+				// something may have been added after we found the queue empty but before
+				// we cleared the flag, if so we need to go round again
+				if (!pending.isEmpty()) {
+					scheduleSend();
+				}
+				return;
+			}
+			CompletionStage<?> sent;
+			try {
+				sent = sink.send(event);
+			} catch (RuntimeException e) {
+				// the client has gone
+				remove();
+				return;
+			}
+			// the next event isn't sent until this one has been, so a slow client's
+			// events stay in it's queue where they count against the buffer size
+			sent.whenComplete((result, e) -> {
+				pendingCount.decrementAndGet();
+				if (e != null) {
+					remove();
+					return;
+				}
+				try {
+					senders.execute(this::sendPending);
+				} catch (RejectedExecutionException shutdown) {
+					// we're stopping, the subscriber will be closed
+				}
+			});
+		}
+
+		private void remove() {
+			if (subscribers.remove(this)) {
+				subscriberCount.decrementAndGet();
+				close();
+			}
+		}
+
+		private void close() {
+			pending.clear();
+			try {
+				sink.close();
+			} catch (Exception e) {
+				log.debug("Problem closing stock level subscriber " + e.getLocalizedMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.headers;
+
+import io.helidon.common.context.Contexts;
+import io.helidon.security.SecurityContext;
+
+/**
+ * Who the current request is being made for. The security outbound config
+ * propagates the user's credentials on the calls we make to the other
+ * services, so a write made on behalf of several requests (such as a batch of
+ * billing entries) has to be split up by user, otherwise one user's
+ * credentials would be used for another user's request. Stock reads don't
+ * depend on the user, so they are shared between users
+ */
+public class CallerIdentity {
+	// requests that were not authenticated can share calls with each other
+	public static final String ANONYMOUS = "";
+
+	private CallerIdentity() {
+	}
+
+	/**
+	 * @return the name of the authenticated user in the current context, or
+	 *         ANONYMOUS if there isn't one
+	 */
+	public static String current() {
+		return Contexts.context().flatMap(context -> context.get(SecurityContext.class))
+				.filter(SecurityContext::isAuthenticated).map(SecurityContext::userName).orElse(ANONYMOUS);
+	}
+}
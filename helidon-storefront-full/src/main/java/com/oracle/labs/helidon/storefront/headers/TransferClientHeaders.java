@@ -37,40 +37,118 @@ SOFTWARE.
 
 package com.oracle.labs.helidon.storefront.headers;
 
-import java.util.stream.Stream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.eclipse.microprofile.rest.client.ext.ClientHeadersFactory;
 
 import jakarta.ws.rs.core.MultivaluedHashMap;
 import jakarta.ws.rs.core.MultivaluedMap;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Passes the headers of the incoming request on to the calls we make to the
+ * other services. This is called for every outgoing call so the header names
+ * are turned into lookups once when it's created and the outgoing headers are
+ * built in one pass over the incoming ones.
+ * 
+ * If app.headers.allow is set only the headers in it are passed on, headers in
+ * app.headers.deny are never passed on. Header names are not case sensitive
+ */
 @Slf4j
 public class TransferClientHeaders implements ClientHeadersFactory {
 	// this list comes from the Java 8 source code of
-	// sun.net.www.protocol.http.HttpURLConnection.java
-	private static final String[] restrictedHeaders = { "Connection", "Content-Length", "Expect", "Host", "Upgrade",
-			"connection", "content-length", "expect", "host", "upgrade" };
+	// sun.net.www.protocol.http.HttpURLConnection.java, these are restricted so
+	// can't be set, and Helidon may have handled the Authorization for us.
+	public static final List<String> DEFAULT_DENIED_HEADERS = List.of("Connection", "Content-Length", "Expect",
+			"Host", "Upgrade", "Authorization");
+
+	// null if every header not denied is allowed
+	private final Set<String> allowedHeaders;
+	private final Set<String> deniedHeaders;
+
+	/**
+	 * The rest client creates this for us, so get the header lists directly from
+	 * the config rather than by injection
+	 */
+	public TransferClientHeaders() {
+		this(ConfigProvider.getConfig());
+	}
+
+	private TransferClientHeaders(Config config) {
+		this(config.getOptionalValues("app.headers.allow", String.class).orElse(null),
+				config.getOptionalValues("app.headers.deny", String.class).orElse(DEFAULT_DENIED_HEADERS));
+	}
+
+	/**
+	 * @param allowedHeaders if not null only these headers are passed on
+	 * @param deniedHeaders  these headers are never passed on
+	 */
+	public TransferClientHeaders(Collection<String> allowedHeaders, Collection<String> deniedHeaders) {
+		this.allowedHeaders = allowedHeaders == null ? null : caseInsensitive(allowedHeaders);
+		this.deniedHeaders = caseInsensitive(deniedHeaders);
+		log.info("Outgoing calls will be sent "
+				+ (allowedHeaders == null ? "all incoming headers" : "the incoming headers " + this.allowedHeaders)
+				+ " except " + this.deniedHeaders);
+	}
+
+	private static Set<String> caseInsensitive(Collection<String> headerNames) {
+		Set<String> headers = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		for (String headerName : headerNames) {
+			headers.add(headerName.trim());
+		}
+		return headers;
+	}
 
 	@Override
 	public MultivaluedMap<String, String> update(MultivaluedMap<String, String> incomingHeaders,
 			MultivaluedMap<String, String> outgoingHeaders) {
-		log.info("Incoming headers - " + incomingHeaders);
-		log.info("Provided outgoing headers - " + outgoingHeaders);
-		// we need to remove some headers as by default they are restricted
-		MultivaluedMap<String, String> sanitisedIncomingHeaders = new MultivaluedHashMap<>(incomingHeaders);
-		// remove all of ther restricted headers
-		Stream.of(restrictedHeaders).forEach(restrictedHeader -> sanitisedIncomingHeaders.remove(restrictedHeader));
-		// Helidon may have handled the Authorization for us.
-		sanitisedIncomingHeaders.remove("Authorization");
+		if (log.isDebugEnabled()) {
+			log.debug("Incoming headers - " + incomingHeaders);
+			log.debug("Provided outgoing headers - " + outgoingHeaders);
+		}
 		// Need a multi valued map as a header can be repeated multiple times.
-		MultivaluedMap<String, String> transferredHeaders = new MultivaluedHashMap<>();
-		// add all of the headers that have already been setup for us
-		transferredHeaders.putAll(sanitisedIncomingHeaders);
-		// now add all of the incoming ones
+		MultivaluedMap<String, String> transferredHeaders = new MultivaluedHashMap<>(
+				incomingHeaders.size() + outgoingHeaders.size());
+		// the value lists are not changed, so they can be shared rather than copied
+		// the ones that have already been setup for us replace any incoming ones,
+		// whatever case the incoming name is in
+		for (Map.Entry<String, List<String>> header : incomingHeaders.entrySet()) {
+			if (isTransferred(header.getKey()) && !isSet(outgoingHeaders, header.getKey())) {
+				transferredHeaders.put(header.getKey(), header.getValue());
+			}
+		}
 		transferredHeaders.putAll(outgoingHeaders);
-		log.info("Combined headers - " + transferredHeaders);
-		// return the new map
+		if (log.isDebugEnabled()) {
+			log.debug("Combined headers - " + transferredHeaders);
+		}
 		return transferredHeaders;
 	}
-}
\ No newline at end of file
+
+	private boolean isTransferred(String headerName) {
+		if (deniedHeaders.contains(headerName)) {
+			return false;
+		}
+		return (allowedHeaders == null) || allowedHeaders.contains(headerName);
+	}
+
+	/**
+	 * There are only ever a few outgoing headers, so just look through them
+	 */
+	private static boolean isSet(MultivaluedMap<String, String> headers, String headerName) {
+		if (headers.containsKey(headerName)) {
+			return true;
+		}
+		for (String setHeaderName : headers.keySet()) {
+			if (setHeaderName.equalsIgnoreCase(headerName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,290 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.health;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import com.oracle.labs.helidon.storefront.bulkheads.Bulkheads;
+import com.oracle.labs.helidon.storefront.logging.StructuredLog;
+import com.oracle.labs.helidon.storefront.restclients.BillingService;
+import com.oracle.labs.helidon.storefront.restclients.StockManagerStatus;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Checks the services the storefront depends on in the background, so the
+ * readiness probe can answer straight away from the last verdict rather than
+ * making the calls itself (and piling up if they are slow).
+ * 
+ * Each service is checked every probeintervalmillis, the checks run in
+ * parallel and each is given up on after probetimeoutmillis. A new check of a
+ * service isn't started while the previous one is still running, that counts
+ * as a failure. A service has to fail downthreshold checks in a row before it's
+ * reported as down and pass upthreshold checks in a row to be reported as up
+ * again, so a single slow response doesn't make the readiness flap. The first
+ * check decides the starting state.
+ * 
+ * Any response from the service counts as it being there, only 5xx responses,
+ * connection problems and timeouts are failures.
+ */
+@ApplicationScoped
+@Slf4j
+public class DownstreamProber {
+	private static final StructuredLog events = StructuredLog.forClass(DownstreamProber.class);
+
+	@Inject
+	@RestClient
+	private StockManagerStatus stockManagerStatus;
+
+	@Inject
+	@RestClient
+	private BillingService billingService;
+
+	// the probes share the bulkheads with the other calls to the services, if
+	// they are full that's a problem with the service being reported
+	@Inject
+	private Bulkheads bulkheads;
+
+	@Inject
+	@ConfigProperty(name = "app.readiness.probeintervalmillis", defaultValue = "5000")
+	long probeIntervalMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.readiness.probetimeoutmillis", defaultValue = "2000")
+	long probeTimeoutMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.readiness.upthreshold", defaultValue = "2")
+	int upThreshold;
+
+	@Inject
+	@ConfigProperty(name = "app.readiness.downthreshold", defaultValue = "3")
+	int downThreshold;
+
+	@Inject
+	@ConfigProperty(name = "app.readiness.probebilling", defaultValue = "false")
+	boolean probeBilling;
+
+	private final List<Downstream> downstreams = new ArrayList<>();
+	private ScheduledExecutorService scheduler;
+	private ExecutorService probers;
+
+	/**
+	 * The verdict on a service, immutable so the readiness check can read it
+	 * without any locking
+	 */
+	@Getter
+	public static class Verdict {
+		private final boolean up;
+		private final boolean probed;
+		private final long latencyMillis;
+		private final long checkedAtMillis;
+		private final int consecutiveFailures;
+		private final String problem;
+
+		private Verdict(boolean up, boolean probed, long latencyMillis, long checkedAtMillis,
+				int consecutiveFailures, String problem) {
+			this.up = up;
+			this.probed = probed;
+			this.latencyMillis = latencyMillis;
+			this.checkedAtMillis = checkedAtMillis;
+			this.consecutiveFailures = consecutiveFailures;
+			this.problem = problem;
+		}
+	}
+
+	/**
+	 * A service we check, the name is used in the readiness data
+	 */
+	public class Downstream {
+		private final String name;
+		private final Runnable check;
+		private final AtomicBoolean checking = new AtomicBoolean();
+		// only changed by the check that's running, so no need for more than volatile
+		private volatile Verdict verdict = new Verdict(false, false, 0, 0, 0, "Not yet checked");
+		private int consecutivePasses = 0;
+
+		private Downstream(String name, Runnable check) {
+			this.name = name;
+			this.check = check;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Verdict getVerdict() {
+			return verdict;
+		}
+
+		private CompletableFuture<Void> probe() {
+			if (!checking.compareAndSet(false, true)) {
+				record(false, probeTimeoutMillis, "The previous check has not finished");
+				return CompletableFuture.completedFuture(null);
+			}
+			long start = System.nanoTime();
+			CompletableFuture<Void> running = CompletableFuture.runAsync(check, probers);
+			// the flag is cleared when the call actually finishes, which may be after
+			// we've given up on it
+			running.whenComplete((result, e) -> checking.set(false));
+			return running.copy().orTimeout(probeTimeoutMillis, TimeUnit.MILLISECONDS).handle((result, e) -> {
+				long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				record(isPass(e), latencyMillis, e == null ? null : describe(e));
+				return null;
+			});
+		}
+
+		private synchronized void record(boolean passed, long latencyMillis, String problem) {
+			Verdict previous = verdict;
+			int failures = passed ? 0 : previous.consecutiveFailures + 1;
+			consecutivePasses = passed ? consecutivePasses + 1 : 0;
+			boolean up = previous.up;
+			if (!previous.probed) {
+				up = passed;
+			} else if (up && (failures >= downThreshold)) {
+				up = false;
+			} else if (!up && (consecutivePasses >= upThreshold)) {
+				up = true;
+			}
+			verdict = new Verdict(up, true, latencyMillis, System.currentTimeMillis(), failures, problem);
+			if (up != previous.up || !previous.probed) {
+				if (up) {
+					events.info("downstream.up", "downstream", name, "latencyMillis", latencyMillis);
+				} else {
+					events.warn("downstream.down", "downstream", name, "latencyMillis", latencyMillis, "problem",
+							problem);
+				}
+			} else {
+				events.debug("downstream.checked", "downstream", name, "passed", passed, "latencyMillis",
+						latencyMillis);
+			}
+		}
+	}
+
+	void onStartup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+		downstreams.add(new Downstream("stockmanager",
+				() -> bulkheads.call(Bulkheads.STOCK_MANAGER_STATUS, () -> stockManagerStatus.isAlive())));
+		if (probeBilling) {
+			downstreams.add(new Downstream("billing",
+					() -> bulkheads.call(Bulkheads.BILLING, () -> billingService.getBillingInfo())));
+		}
+		AtomicInteger threadNumber = new AtomicInteger();
+		probers = Executors.newFixedThreadPool(downstreams.size(), runnable -> {
+			Thread thread = new Thread(runnable, "downstream-prober-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "downstream-prober");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::probeAll, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+		log.info("Checking " + downstreams.size() + " downstream services every " + probeIntervalMillis
+				+ "ms, timeout " + probeTimeoutMillis + "ms, up after " + upThreshold + " passes, down after "
+				+ downThreshold + " failures");
+	}
+
+	@PreDestroy
+	void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			probers.shutdownNow();
+		}
+	}
+
+	public List<Downstream> getDownstreams() {
+		return Collections.unmodifiableList(downstreams);
+	}
+
+	/**
+	 * Check them all at once and wait for the outcomes, so the next round is
+	 * scheduled from when this one is finished
+	 */
+	private void probeAll() {
+		try {
+			CompletableFuture.allOf(downstreams.stream().map(Downstream::probe).toArray(CompletableFuture[]::new))
+					.join();
+		} catch (Exception e) {
+			// keep the schedule going whatever happens
+			log.warn("Problem checking the downstream services " + e.getLocalizedMessage());
+		}
+	}
+
+	private static boolean isPass(Throwable e) {
+		if (e == null) {
+			return true;
+		}
+		Throwable cause = unwrap(e);
+		// the service is there and answering, even if it doesn't like what we asked
+		return (cause instanceof WebApplicationException)
+				&& (((WebApplicationException) cause).getResponse().getStatus() < 500);
+	}
+
+	private static String describe(Throwable e) {
+		Throwable cause = unwrap(e);
+		return cause.getClass().getSimpleName() + (cause.getMessage() == null ? "" : " " + cause.getMessage());
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		while ((e.getCause() != null) && ((e instanceof CompletionException) || (e instanceof ProcessingException))) {
+			e = e.getCause();
+		}
+		return e;
+	}
+}
@@ -0,0 +1,170 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.health;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Keeps track of how long each request thread has been working on it's current
+ * request, for the StallWatchdog.
+ * 
+ * Each thread has a slot holding the time it started the request it's
+ * handling (0 if it's not handling one), the slot is only written by the
+ * thread itself (or whoever finishes an async request) so there's no locking,
+ * just an ordered write at the start and end of each request. The watchdog
+ * reads all of the slots now and again.
+ * 
+ * An async request frees the thread before it's finished, so it's slot isn't
+ * cleared until the request finishes or the thread starts another one. As the
+ * async requests time out long before the stall threshold this doesn't report
+ * stalls that aren't there.
+ */
+@Provider
+public class InFlightRequests implements ContainerRequestFilter, ContainerResponseFilter {
+	private static final String STARTED_PROPERTY = InFlightRequests.class.getName() + ".started";
+	private static final Queue<Slot> slots = new ConcurrentLinkedQueue<>();
+	private static final ThreadLocal<Slot> threadSlot = ThreadLocal.withInitial(() -> {
+		Slot slot = new Slot(Thread.currentThread());
+		slots.add(slot);
+		return slot;
+	});
+
+	private static class Slot extends AtomicLong {
+		private static final long serialVersionUID = 1L;
+		private final transient Thread thread;
+
+		private Slot(Thread thread) {
+			this.thread = thread;
+		}
+	}
+
+	/**
+	 * What the slots looked like when they were read
+	 */
+	public static class Snapshot {
+		private final int inFlight;
+		private final int stalled;
+		private final long oldestMillis;
+
+		private Snapshot(int inFlight, int stalled, long oldestMillis) {
+			this.inFlight = inFlight;
+			this.stalled = stalled;
+			this.oldestMillis = oldestMillis;
+		}
+
+		public int getInFlight() {
+			return inFlight;
+		}
+
+		public int getStalled() {
+			return stalled;
+		}
+
+		public long getOldestMillis() {
+			return oldestMillis;
+		}
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) {
+		Slot slot = threadSlot.get();
+		// nanoTime can be 0, but that's only a problem for one nanosecond
+		long started = System.nanoTime();
+		slot.lazySet(started);
+		requestContext.setProperty(STARTED_PROPERTY, new long[] { started });
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+		Object started = requestContext.getProperty(STARTED_PROPERTY);
+		if (started == null) {
+			return;
+		}
+		long startedAt = ((long[]) started)[0];
+		Slot slot = threadSlot.get();
+		if (slot.get() == startedAt) {
+			slot.lazySet(0);
+			return;
+		}
+		// an async request finishing on a different thread, clear the slot it
+		// started on as long as that thread hasn't moved on to another request
+		for (Slot other : slots) {
+			if (other.compareAndSet(startedAt, 0)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read the slots, dropping any for threads that have gone
+	 * 
+	 * @param stallThresholdNanos requests older than this are stalled
+	 */
+	static Snapshot snapshot(long stallThresholdNanos) {
+		long now = System.nanoTime();
+		int inFlight = 0;
+		int stalled = 0;
+		long oldest = 0;
+		for (Iterator<Slot> iterator = slots.iterator(); iterator.hasNext();) {
+			Slot slot = iterator.next();
+			if (!slot.thread.isAlive()) {
+				iterator.remove();
+				continue;
+			}
+			long started = slot.get();
+			if (started == 0) {
+				continue;
+			}
+			inFlight++;
+			long age = now - started;
+			if (age > stallThresholdNanos) {
+				stalled++;
+			}
+			oldest = Math.max(oldest, age);
+		}
+		return new Snapshot(inFlight, stalled, oldest / 1_000_000);
+	}
+}
@@ -43,6 +43,9 @@ import org.eclipse.microprofile.health.HealthCheck;
 import org.eclipse.microprofile.health.HealthCheckResponse;
 import org.eclipse.microprofile.health.Liveness;
 
+import com.oracle.labs.helidon.storefront.health.InFlightRequests.Snapshot;
+import com.oracle.labs.helidon.storefront.logging.StructuredLog;
+
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
@@ -52,6 +55,10 @@ import lombok.extern.slf4j.Slf4j;
  * actually ready to process transactions and are fully configured, liveliness
  * is more of a Hello World situation
  * 
+ * Beyond the /frozen test the StallWatchdog tells us if the request threads
+ * have stopped handling requests, it does the work in the background so this
+ * just reports it's latest findings
+ * 
  * @author tg13456
  *
  */
@@ -60,11 +67,16 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class LivenessChecker implements HealthCheck {
 	public final static int FROZEN_TIME = 60;
+	// we get probed every few seconds, so these may be sampled
+	private static final StructuredLog events = StructuredLog.forClass(LivenessChecker.class);
 
 	private static long startTime = System.currentTimeMillis();
 
 	private String storeName;
 
+	@Inject
+	private StallWatchdog stallWatchdog;
+
 	/**
 	 * Save the resource away so we can access it later, strictly as the fields we
 	 * want are static wed don't need to do this, but this way demos the use of
@@ -96,10 +108,20 @@ public class LivenessChecker implements HealthCheck {
 					.withData("uptime", System.currentTimeMillis() - startTime).withData("storename", storeName)
 					.withData("frozen", true).build();
 		}
-		log.info("Not frozen, Returning alive status true, storename " + storeName);
-		return HealthCheckResponse.named("storefront-live").up()
+		boolean stalled = stallWatchdog.isStalled();
+		Snapshot requests = stallWatchdog.getRequests();
+		if (stalled) {
+			events.warn("liveness.stalled", "storename", storeName);
+		} else {
+			events.success("liveness.up", "storename", storeName);
+		}
+		return HealthCheckResponse.named("storefront-live").status(!stalled)
 				.withData("uptime", System.currentTimeMillis() - startTime).withData("storename", storeName)
-				.withData("frozen", false).build();
+				.withData("frozen", false).withData("stalled", stalled)
+				.withData("schedulingDelayMillis", stallWatchdog.getSchedulingDelayMillis())
+				.withData("requestsInFlight", requests.getInFlight())
+				.withData("requestsStalled", requests.getStalled())
+				.withData("oldestRequestMillis", requests.getOldestMillis()).build();
 	}
 
 }
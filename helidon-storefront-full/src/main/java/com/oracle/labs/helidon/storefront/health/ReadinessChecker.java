@@ -41,14 +41,14 @@ import java.net.URISyntaxException;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.health.HealthCheck;
 import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.HealthCheckResponseBuilder;
 import org.eclipse.microprofile.health.Readiness;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
 
-import com.oracle.labs.helidon.storefront.restclients.StockManagerStatus;
+import com.oracle.labs.helidon.storefront.health.DownstreamProber.Downstream;
+import com.oracle.labs.helidon.storefront.health.DownstreamProber.Verdict;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.json.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -56,6 +56,10 @@ import lombok.extern.slf4j.Slf4j;
  * actually ready to process transactions and are fully configured, liveliness
  * is more of a Hello World situation
  * 
+ * The services we depend on are checked in the background by the
+ * DownstreamProber, this just reports it's latest verdicts so it answers
+ * straight away however slow the services are
+ * 
  * @author tg13456
  *
  */
@@ -67,8 +71,7 @@ public class ReadinessChecker implements HealthCheck {
 	private String storeName, statusURL;
 
 	@Inject
-	@RestClient
-	private StockManagerStatus stockManagerStatus;
+	private DownstreamProber downstreamProber;
 
 	/**
 	 * Save the resource away so we can access it later, strictly as the fields we
@@ -85,25 +88,31 @@ public class ReadinessChecker implements HealthCheck {
 		log.info("Readiness started with store " + storeName + ", status url " + statusURL);
 		this.storeName = storeName;
 		this.statusURL = statusURL;
-		log.info("Built the StockManagerStatus");
 	}
 
 	@Override
-	// would like to use a fallback here, but they don't seem to work with
-	// health checks
 	public HealthCheckResponse call() {
-		// try to make a call to the back end service, if it fails the fall back shoud
-		// be triggered
-		log.info("Requesting stock manager status");
-		JsonObject alive;
-		try {
-			alive = stockManagerStatus.isAlive();
-		} catch (Exception e) {
-			log.error("Error getting status " + e.getMessage());
-			return HealthCheckResponse.named("storefront-ready").down().withData("storename", storeName)
-					.withData("exception", e.getMessage()).withData("statusURL", statusURL).build();
+		boolean ready = true;
+		long now = System.currentTimeMillis();
+		HealthCheckResponseBuilder response = HealthCheckResponse.named("storefront-ready").withData("storename",
+				storeName);
+		for (Downstream downstream : downstreamProber.getDownstreams()) {
+			Verdict verdict = downstream.getVerdict();
+			String name = downstream.getName();
+			ready = ready && verdict.isUp();
+			response.withData(name + "Up", verdict.isUp());
+			if (verdict.isProbed()) {
+				response.withData(name + "LatencyMillis", verdict.getLatencyMillis())
+						.withData(name + "CheckedMillisAgo", now - verdict.getCheckedAtMillis())
+						.withData(name + "ConsecutiveFailures", verdict.getConsecutiveFailures());
+			}
+			if (verdict.getProblem() != null) {
+				response.withData(name + "Problem", verdict.getProblem());
+			}
+		}
+		if (!ready) {
+			response.withData("statusURL", statusURL);
 		}
-		log.info("Got stock manager status of " + alive);
-		return HealthCheckResponse.named("storefront-ready").up().withData("storename", storeName).build();
+		return response.status(ready).build();
 	}
 }
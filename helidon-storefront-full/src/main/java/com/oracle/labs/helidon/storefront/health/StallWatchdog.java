@@ -0,0 +1,222 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.health;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import com.oracle.labs.helidon.storefront.health.InFlightRequests.Snapshot;
+import com.oracle.labs.helidon.storefront.logging.StructuredLog;
+
+import io.helidon.common.configurable.ServerThreadPoolSupplier;
+import io.helidon.common.configurable.ThreadPool;
+import io.helidon.common.configurable.ThreadPoolSupplier;
+import io.helidon.config.mp.MpConfig;
+import io.helidon.microprofile.server.ServerCdiExtension;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Spots when the server has stopped handling requests, for the liveness check.
+ * Every intervalmillis this
+ * <ul>
+ * <li>measures the scheduling delay of the request threads, how long a task
+ * waits before one of them gets to run it. If all of the threads are stuck
+ * this keeps growing</li>
+ * <li>counts the requests which have been running for longer than
+ * stallthresholdmillis using the InFlightRequests slots</li>
+ * </ul>
+ * The server is reported as stalled if the scheduling delay is over
+ * maxschedulingdelaymillis, or every request thread is working on a stalled
+ * request.
+ * 
+ * To be able to measure the request threads we have to have the executor
+ * they belong to, so we give Helidon one to use built the same way it builds
+ * it's own. This has to be done before the server starts, which it does in an
+ * observer of the same event as onStartup, but at a later priority.
+ */
+@ApplicationScoped
+@Slf4j
+public class StallWatchdog {
+	private static final StructuredLog events = StructuredLog.forClass(StallWatchdog.class);
+
+	@Inject
+	private ServerCdiExtension server;
+
+	@Inject
+	private MetricRegistry metricRegistry;
+
+	@Inject
+	@ConfigProperty(name = "app.watchdog.intervalmillis", defaultValue = "1000")
+	long intervalMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.watchdog.stallthresholdmillis", defaultValue = "20000")
+	long stallThresholdMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.watchdog.maxschedulingdelaymillis", defaultValue = "10000")
+	long maxSchedulingDelayMillis;
+
+	private volatile ExecutorService requestExecutor;
+	private ScheduledExecutorService watchdog;
+	// when the current scheduling delay probe was submitted, 0 if it's run
+	private volatile long probeSubmittedAt = 0;
+	private volatile boolean probeQueued = false;
+	private volatile long schedulingDelayMillis = 0;
+	private volatile Snapshot requests = null;
+	private volatile boolean stalled = false;
+
+	void onStartup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+		ThreadPoolSupplier requestThreads = ServerThreadPoolSupplier.builder().name("server")
+				.config(MpConfig.toHelidonConfig(ConfigProvider.getConfig()).get("server.executor-service")).build();
+		server.defaultExecutorService(() -> {
+			ExecutorService executor = requestThreads.get();
+			requestExecutor = executor;
+			return executor;
+		});
+		requests = InFlightRequests.snapshot(TimeUnit.MILLISECONDS.toNanos(stallThresholdMillis));
+		watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "stall-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		watchdog.scheduleWithFixedDelay(this::check, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		metricRegistry.gauge("requestSchedulingDelayMillis", this::getSchedulingDelayMillis);
+		metricRegistry.gauge("requestsInFlight", () -> requests.getInFlight());
+		metricRegistry.gauge("requestsStalled", () -> requests.getStalled());
+		metricRegistry.gauge("oldestRequestMillis", () -> requests.getOldestMillis());
+		metricRegistry.gauge("requestThreadsQueued", () -> requestThreadPool().map(ThreadPool::getQueueSize).orElse(0));
+		metricRegistry.gauge("requestThreadsActive",
+				() -> requestThreadPool().map(ThreadPool::getActiveThreads).orElse(0));
+		log.info("Stall watchdog checking every " + intervalMillis + "ms, stall threshold " + stallThresholdMillis
+				+ "ms, max scheduling delay " + maxSchedulingDelayMillis + "ms");
+	}
+
+	@PreDestroy
+	void stop() {
+		if (watchdog != null) {
+			watchdog.shutdownNow();
+		}
+	}
+
+	public boolean isStalled() {
+		return stalled;
+	}
+
+	/**
+	 * If the last probe has still not run this is how long it's been waiting so
+	 * far, it will be at least that
+	 */
+	public long getSchedulingDelayMillis() {
+		long submittedAt = probeSubmittedAt;
+		if (submittedAt == 0) {
+			return schedulingDelayMillis;
+		}
+		return Math.max(schedulingDelayMillis, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt));
+	}
+
+	public Snapshot getRequests() {
+		return requests;
+	}
+
+	private void check() {
+		try {
+			probeSchedulingDelay();
+			requests = InFlightRequests.snapshot(TimeUnit.MILLISECONDS.toNanos(stallThresholdMillis));
+			int requestThreads = requestThreadPool().map(ThreadPool::getMaximumPoolSize).orElse(Integer.MAX_VALUE);
+			boolean nowStalled = (getSchedulingDelayMillis() > maxSchedulingDelayMillis)
+					|| (requests.getStalled() >= requestThreads);
+			if (nowStalled != stalled) {
+				if (nowStalled) {
+					events.error("server.stalled", "schedulingDelayMillis", getSchedulingDelayMillis(), "inFlight",
+							requests.getInFlight(), "stalled", requests.getStalled(), "oldestMillis",
+							requests.getOldestMillis());
+				} else {
+					events.info("server.recovered", "schedulingDelayMillis", getSchedulingDelayMillis());
+				}
+			}
+			stalled = nowStalled;
+		} catch (Exception e) {
+			// keep the schedule going whatever happens
+			log.warn("Problem checking for stalls " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Hand the request threads a task that just records when it ran, only one is
+	 * outstanding at a time so a stalled server doesn't get a backlog of them
+	 */
+	private void probeSchedulingDelay() {
+		ExecutorService executor = requestExecutor;
+		if ((executor == null) || probeQueued) {
+			return;
+		}
+		// if the last one was rejected we are still waiting from when that was
+		// submitted
+		long submittedAt = probeSubmittedAt == 0 ? System.nanoTime() : probeSubmittedAt;
+		probeSubmittedAt = submittedAt;
+		probeQueued = true;
+		try {
+			executor.execute(() -> {
+				schedulingDelayMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt);
+				probeSubmittedAt = 0;
+				probeQueued = false;
+			});
+		} catch (RejectedExecutionException e) {
+			// the queue is full, which is as stalled as it gets, try again next time
+			probeQueued = false;
+		}
+	}
+
+	private Optional<ThreadPool> requestThreadPool() {
+		ExecutorService executor = requestExecutor;
+		return executor == null ? Optional.empty() : ThreadPool.asThreadPool(executor);
+	}
+}
@@ -0,0 +1,158 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.limits;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import com.oracle.labs.helidon.storefront.logging.StructuredLog;
+
+/**
+ * Limits the number of requests in progress, and adjusts the limit based on how
+ * long the requests take. This is additive increase / multiplicative decrease
+ * (the same as TCP congestion control), each request that finishes in less
+ * than the latency threshold adds 1/limit to the limit, so it goes up by about
+ * one for every limits worth of requests, as long as the limit is actually
+ * being used. A request that takes longer than the threshold or fails (the
+ * stock manager or billing service is struggling) cuts the limit by the backoff
+ * ratio.
+ * 
+ * The limit is only cut once for each group of requests that were running when
+ * it was cut, they were started under the old limit so they don't tell us
+ * anything about the new one, otherwise one slow patch would take the limit
+ * straight down to the minimum.
+ */
+public class AdaptiveConcurrencyLimit {
+	private static final StructuredLog events = StructuredLog.forClass(AdaptiveConcurrencyLimit.class);
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThresholdNanos;
+	private final double backoffRatio;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Counter shed;
+	// only changed while holding the lock, but read without it when deciding
+	// if a request can go ahead
+	private volatile double limit;
+	private long lastDecreaseAt = System.nanoTime();
+
+	public AdaptiveConcurrencyLimit(String name, int initialLimit, int minLimit, int maxLimit,
+			long latencyThresholdMillis, double backoffRatio, MetricRegistry metricRegistry) {
+		this.name = name;
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+		this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+		this.backoffRatio = backoffRatio;
+		this.shed = metricRegistry.counter(name + "Shed");
+		metricRegistry.gauge(name + "ConcurrencyLimit", this::getLimit);
+		metricRegistry.gauge(name + "InFlight", inFlight::get);
+	}
+
+	/**
+	 * @return the permit to hand back to release when the request has finished,
+	 *         or null if there are already limit requests in progress
+	 */
+	public Permit tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= (int) limit) {
+				shed.inc();
+				return null;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return new Permit(System.nanoTime(), current + 1);
+			}
+		}
+	}
+
+	/**
+	 * @param permit the permit from tryAcquire
+	 * @param failed true if the request failed for reasons outside the callers
+	 *               control, this is treated the same as the request being slow
+	 */
+	public void release(Permit permit, boolean failed) {
+		inFlight.decrementAndGet();
+		long latency = System.nanoTime() - permit.startedAt;
+		if (failed || (latency > latencyThresholdNanos)) {
+			synchronized (this) {
+				if (permit.startedAt - lastDecreaseAt <= 0) {
+					return;
+				}
+				lastDecreaseAt = System.nanoTime();
+				limit = Math.max(minLimit, limit * backoffRatio);
+			}
+			events.info("limit.decreased", "name", name, "limit", (int) limit, "latencyMillis",
+					TimeUnit.NANOSECONDS.toMillis(latency), "failed", failed);
+			return;
+		}
+		// if we're not using most of the limit succeeding doesn't tell us we could
+		// handle more
+		if (permit.inFlight * 2 < limit) {
+			return;
+		}
+		synchronized (this) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * When the request started and how many were in progress (including it) at
+	 * the time
+	 */
+	public static class Permit {
+		private final long startedAt;
+		private final int inFlight;
+
+		private Permit(long startedAt, int inFlight) {
+			this.startedAt = startedAt;
+			this.inFlight = inFlight;
+		}
+	}
+}
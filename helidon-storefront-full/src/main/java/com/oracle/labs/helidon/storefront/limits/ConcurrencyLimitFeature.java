@@ -0,0 +1,197 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.limits;
+
+import java.util.Collections;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import com.oracle.labs.helidon.storefront.limits.AdaptiveConcurrencyLimit.Permit;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.DynamicFeature;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.FeatureContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.ext.Provider;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Adds a filter with it's own AdaptiveConcurrencyLimit to each resource method
+ * marked as @ConcurrencyLimited. When there are too many requests in progress
+ * the rest are refused straight away with a 503 and a Retry-After header,
+ * rather than piling up on the stock manager until everything hits the
+ * timeout. This happens after the request is authenticated but before any of
+ * the resource method interceptors (fault tolerance, metrics) are run.
+ * 
+ * The time the request takes and whether it failed (a 5xx or the 424 we send
+ * when a service we depend on fails) is what adjusts the limit, the requests
+ * refused for business reasons (e.g. not enough stock) count as successes.
+ * 
+ * The permit is given back when Jersey says the request has finished, not in a
+ * response filter, as the response filters are skipped if there's an
+ * exception nothing maps to a response or the connection goes before the
+ * response is written. Those count as failures.
+ */
+@Provider
+@ApplicationScoped
+@Slf4j
+public class ConcurrencyLimitFeature implements DynamicFeature, ApplicationEventListener {
+	private static final String PERMIT_PROPERTY = ConcurrencyLimitFeature.class.getName() + ".permit";
+	private static final JsonObject REFUSED = Json.createBuilderFactory(Collections.emptyMap()).createObjectBuilder()
+			.add("errormessage", "The storefront is too busy to handle this request, try again later").build();
+
+	@Inject
+	private MetricRegistry metricRegistry;
+
+	@Inject
+	@ConfigProperty(name = "app.concurrencylimit.enabled", defaultValue = "false")
+	boolean enabled;
+
+	@Inject
+	@ConfigProperty(name = "app.concurrencylimit.initiallimit", defaultValue = "20")
+	int initialLimit;
+
+	@Inject
+	@ConfigProperty(name = "app.concurrencylimit.minlimit", defaultValue = "1")
+	int minLimit;
+
+	@Inject
+	@ConfigProperty(name = "app.concurrencylimit.maxlimit", defaultValue = "200")
+	int maxLimit;
+
+	@Inject
+	@ConfigProperty(name = "app.concurrencylimit.latencythresholdmillis", defaultValue = "1000")
+	long latencyThresholdMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.concurrencylimit.backoffratio", defaultValue = "0.9")
+	double backoffRatio;
+
+	@Inject
+	@ConfigProperty(name = "app.concurrencylimit.retryafterseconds", defaultValue = "1")
+	int retryAfterSeconds;
+
+	@Override
+	public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+		ConcurrencyLimited limited = resourceInfo.getResourceMethod().getAnnotation(ConcurrencyLimited.class);
+		if ((limited == null) || !enabled) {
+			return;
+		}
+		log.info("Concurrency limit " + limited.value() + " starting at " + initialLimit + " (between " + minLimit
+				+ " and " + maxLimit + ") latency threshold " + latencyThresholdMillis + "ms");
+		context.register(new LimitFilter(new AdaptiveConcurrencyLimit(limited.value(), initialLimit, minLimit,
+				maxLimit, latencyThresholdMillis, backoffRatio, metricRegistry)), Priorities.USER);
+	}
+
+	@Override
+	public void onEvent(ApplicationEvent event) {
+	}
+
+	@Override
+	public RequestEventListener onRequest(RequestEvent requestEvent) {
+		// which method the request is for isn't known yet, the ones that aren't
+		// limited won't have a permit
+		return enabled ? this::onRequestEvent : null;
+	}
+
+	private void onRequestEvent(RequestEvent event) {
+		if (event.getType() != RequestEvent.Type.FINISHED) {
+			return;
+		}
+		ContainerRequest request = event.getContainerRequest();
+		// refused requests don't have a permit
+		HeldPermit held = (HeldPermit) request.getProperty(PERMIT_PROPERTY);
+		if (held == null) {
+			return;
+		}
+		request.removeProperty(PERMIT_PROPERTY);
+		// no response means it failed before one could be sent
+		ContainerResponse response = event.getContainerResponse();
+		int status = (response == null) ? Status.INTERNAL_SERVER_ERROR.getStatusCode() : response.getStatus();
+		held.limit.release(held.permit, (status >= 500) || (status == 424));
+	}
+
+	/**
+	 * What the filter leaves on the request so the permit can be given back
+	 */
+	private static class HeldPermit {
+		private final AdaptiveConcurrencyLimit limit;
+		private final Permit permit;
+
+		private HeldPermit(AdaptiveConcurrencyLimit limit, Permit permit) {
+			this.limit = limit;
+			this.permit = permit;
+		}
+	}
+
+	private class LimitFilter implements ContainerRequestFilter {
+		private final AdaptiveConcurrencyLimit limit;
+
+		private LimitFilter(AdaptiveConcurrencyLimit limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public void filter(ContainerRequestContext requestContext) {
+			Permit permit = limit.tryAcquire();
+			if (permit == null) {
+				requestContext.abortWith(Response.status(Status.SERVICE_UNAVAILABLE)
+						.header(HttpHeaders.RETRY_AFTER, retryAfterSeconds).entity(REFUSED)
+						.type(MediaType.APPLICATION_JSON).build());
+				return;
+			}
+			requestContext.setProperty(PERMIT_PROPERTY, new HeldPermit(limit, permit));
+		}
+	}
+}
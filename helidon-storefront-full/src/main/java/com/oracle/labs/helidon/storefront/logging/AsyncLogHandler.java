@@ -0,0 +1,241 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.logging;
+
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * A java.util.logging handler which writes to the console on a background
+ * thread, so the threads doing the logging only have to put the record on a
+ * queue. The queue is bounded, if it's full records below WARNING are dropped
+ * (and counted) rather than holding up the request, WARNING and above wait a
+ * short time for space before they are dropped.
+ * 
+ * Configured in logging.properties like the standard handlers using
+ * com.oracle.labs.helidon.storefront.logging.AsyncLogHandler.{level, formatter,
+ * queuesize, errorwaitmillis}, the default formatter is the KeyValueFormatter.
+ */
+public class AsyncLogHandler extends Handler {
+	private static final int DEFAULT_QUEUE_SIZE = 8192;
+	private static final long DEFAULT_ERROR_WAIT_MILLIS = 100;
+	// the LogManager creates the handler, so these are shared to let the
+	// metrics get at them
+	private static final LongAdder dropped = new LongAdder();
+	private static volatile BlockingQueue<QueuedRecord> currentQueue = null;
+
+	private final BlockingQueue<QueuedRecord> queue;
+	private final long errorWaitMillis;
+	private final PrintWriter writer;
+	private final Thread logWriter;
+	private volatile boolean closed = false;
+
+	/**
+	 * The name of the thread that did the logging, the record only has it's id
+	 */
+	private static class QueuedRecord {
+		private final LogRecord record;
+		private final String threadName;
+
+		private QueuedRecord(LogRecord record, String threadName) {
+			this.record = record;
+			this.threadName = threadName;
+		}
+	}
+
+	public AsyncLogHandler() {
+		LogManager logManager = LogManager.getLogManager();
+		String prefix = getClass().getName();
+		setLevel(parseLevel(logManager.getProperty(prefix + ".level")));
+		setFormatter(createFormatter(logManager.getProperty(prefix + ".formatter")));
+		queue = new ArrayBlockingQueue<>(
+				parseNumber(logManager.getProperty(prefix + ".queuesize"), DEFAULT_QUEUE_SIZE).intValue());
+		errorWaitMillis = parseNumber(logManager.getProperty(prefix + ".errorwaitmillis"),
+				DEFAULT_ERROR_WAIT_MILLIS);
+		// the console handler uses stderr as well
+		writer = new PrintWriter(new OutputStreamWriter(System.err, StandardCharsets.UTF_8), false);
+		currentQueue = queue;
+		logWriter = new Thread(this::writeRecords, "async-log-writer");
+		logWriter.setDaemon(true);
+		logWriter.start();
+	}
+
+	public static long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	public static int getQueueDepth() {
+		BlockingQueue<QueuedRecord> queue = currentQueue;
+		return queue == null ? 0 : queue.size();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (closed || !isLoggable(record)) {
+			return;
+		}
+		QueuedRecord queuedRecord = new QueuedRecord(record, Thread.currentThread().getName());
+		if (queue.offer(queuedRecord)) {
+			return;
+		}
+		if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+			try {
+				if (queue.offer(queuedRecord, errorWaitMillis, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		dropped.increment();
+	}
+
+	private void writeRecords() {
+		List<QueuedRecord> batch = new ArrayList<>();
+		while (!closed || !queue.isEmpty()) {
+			try {
+				QueuedRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch);
+				for (QueuedRecord queuedRecord : batch) {
+					write(queuedRecord);
+				}
+				batch.clear();
+				// only flush once the queue's empty, it's the flush that costs
+				if (queue.isEmpty()) {
+					writer.flush();
+				}
+			} catch (InterruptedException e) {
+				// we are being closed, go round again to write anything still queued
+			}
+		}
+		writer.flush();
+	}
+
+	private void write(QueuedRecord queuedRecord) {
+		try {
+			Formatter formatter = getFormatter();
+			if (formatter instanceof KeyValueFormatter) {
+				writer.write(((KeyValueFormatter) formatter).format(queuedRecord.record, queuedRecord.threadName));
+			} else {
+				writer.write(formatter.format(queuedRecord.record));
+			}
+		} catch (RuntimeException e) {
+			reportError("Problem writing log record", e, ErrorManager.FORMAT_FAILURE);
+		}
+	}
+
+	@Override
+	public void flush() {
+		// the writer thread flushes when it's written everything queued
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		logWriter.interrupt();
+		try {
+			logWriter.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (currentQueue == queue) {
+			currentQueue = null;
+		}
+	}
+
+	private static Level parseLevel(String level) {
+		if (level == null) {
+			return Level.INFO;
+		}
+		try {
+			return Level.parse(level.trim());
+		} catch (IllegalArgumentException e) {
+			return Level.INFO;
+		}
+	}
+
+	private static Long parseNumber(String number, long defaultValue) {
+		if (number == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.valueOf(number.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * The formatter may not be visible to the system class loader (the logging
+	 * config can be read when the application is in it's own class loader), so
+	 * it's loaded the same way as the code that's setting up the logging would
+	 * see it, falling back to our own class loader
+	 */
+	private Formatter createFormatter(String formatterClass) {
+		if (formatterClass != null) {
+			ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+			if (classLoader == null) {
+				classLoader = AsyncLogHandler.class.getClassLoader();
+			}
+			try {
+				return (Formatter) Class.forName(formatterClass.trim(), true, classLoader).getDeclaredConstructor()
+						.newInstance();
+			} catch (ReflectiveOperationException | ClassCastException e) {
+				reportError("Unable to create log formatter " + formatterClass.trim() + ", using "
+						+ KeyValueFormatter.class.getSimpleName(), e, ErrorManager.GENERIC_FAILURE);
+			}
+		}
+		return new KeyValueFormatter();
+	}
+}
@@ -0,0 +1,134 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.logging;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.format.DateTimeFormatter;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats log records as a single line of key=value pairs, so they can be
+ * picked apart by the log collection tools without any special parsing.
+ * StructuredLogRecords have their event name and values as separate keys,
+ * anything else (e.g. from the SLF4J loggers) has the message as msg.
+ * 
+ * time=2021-06-14T10:15:30.123Z level=INFO thread=helidon-1
+ * logger=com.oracle.labs.helidon.storefront.reservation.StockReservationService
+ * event=reservation.succeeded item=Pencil count=5 remaining=7
+ */
+public class KeyValueFormatter extends Formatter {
+
+	@Override
+	public String format(LogRecord record) {
+		return format(record, Thread.currentThread().getName());
+	}
+
+	/**
+	 * The async handler formats the records on it's own thread, so it has to
+	 * tell us which thread did the logging
+	 */
+	public String format(LogRecord record, String threadName) {
+		StringBuilder line = new StringBuilder(160);
+		line.append("time=");
+		DateTimeFormatter.ISO_INSTANT.formatTo(record.getInstant(), line);
+		line.append(" level=").append(record.getLevel().getName());
+		append(line, "thread", threadName);
+		append(line, "logger", record.getLoggerName());
+		if (record instanceof StructuredLogRecord) {
+			StructuredLogRecord structuredRecord = (StructuredLogRecord) record;
+			append(line, "event", structuredRecord.getEvent());
+			Object[] keyValues = structuredRecord.getKeyValues();
+			for (int i = 0; i + 1 < keyValues.length; i += 2) {
+				append(line, String.valueOf(keyValues[i]), keyValues[i + 1]);
+			}
+		} else {
+			append(line, "msg", formatMessage(record));
+		}
+		Throwable thrown = record.getThrown();
+		if (thrown != null) {
+			append(line, "exception", thrown.getClass().getName());
+			append(line, "exceptionMessage", thrown.getMessage());
+			StringWriter stackTrace = new StringWriter();
+			thrown.printStackTrace(new PrintWriter(stackTrace));
+			line.append(System.lineSeparator()).append(stackTrace.toString().stripTrailing());
+		}
+		return line.append(System.lineSeparator()).toString();
+	}
+
+	private static void append(StringBuilder line, String key, Object value) {
+		line.append(' ').append(key).append('=');
+		String text = String.valueOf(value);
+		if (!needsQuotes(text)) {
+			line.append(text);
+			return;
+		}
+		line.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+			case '\\':
+				line.append('\\').append(c);
+				break;
+			case '\n':
+				line.append("\\n");
+				break;
+			case '\r':
+				line.append("\\r");
+				break;
+			default:
+				line.append(c);
+			}
+		}
+		line.append('"');
+	}
+
+	private static boolean needsQuotes(String text) {
+		if (text.isEmpty()) {
+			return true;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if ((c <= ' ') || (c == '"') || (c == '=') || (c == '\\')) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
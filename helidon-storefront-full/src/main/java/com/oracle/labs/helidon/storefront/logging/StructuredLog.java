@@ -0,0 +1,168 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.logging;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import io.helidon.common.context.Contexts;
+
+/**
+ * Logs events as a name and a set of key / value pairs rather than a message
+ * built up by string concatenation, nothing is built unless the event will
+ * actually be logged.
+ * 
+ * The per request success events (the ones we get every time a request works)
+ * are sampled, app.logging.successsamplerate is the fraction of requests that
+ * get them logged. The decision is made once per request by the
+ * LogSamplingFilter, so a request has all of it's success events or none of
+ * them. Anything logged outside a request is sampled event by event. Warnings
+ * and errors are never sampled.
+ * 
+ * The SLF4J API we use (1.7) has no key / value support, so this goes directly
+ * to java.util.logging which is what SLF4J sends everything to anyway.
+ */
+public class StructuredLog {
+	private static final String SAMPLE_RATE_PROPERTY = "app.logging.successsamplerate";
+	// the request context key for the sampling decision
+	private static final Object SAMPLED_CLASSIFIER = new Object();
+	private static final LongAdder sampledOut = new LongAdder();
+	private static volatile Double successSampleRate = null;
+
+	private final Logger logger;
+
+	private StructuredLog(Logger logger) {
+		this.logger = logger;
+	}
+
+	public static StructuredLog forClass(Class<?> clazz) {
+		return new StructuredLog(Logger.getLogger(clazz.getName()));
+	}
+
+	/**
+	 * A per request event saying something worked, subject to sampling
+	 */
+	public void success(String event, Object... keyValues) {
+		if (!logger.isLoggable(Level.INFO)) {
+			return;
+		}
+		if (!isSampled()) {
+			sampledOut.increment();
+			return;
+		}
+		log(Level.INFO, event, keyValues);
+	}
+
+	/**
+	 * Not sampled, for the things that only happen now and again
+	 */
+	public void info(String event, Object... keyValues) {
+		if (logger.isLoggable(Level.INFO)) {
+			log(Level.INFO, event, keyValues);
+		}
+	}
+
+	public void debug(String event, Object... keyValues) {
+		if (logger.isLoggable(Level.FINE)) {
+			log(Level.FINE, event, keyValues);
+		}
+	}
+
+	public void warn(String event, Object... keyValues) {
+		if (logger.isLoggable(Level.WARNING)) {
+			log(Level.WARNING, event, keyValues);
+		}
+	}
+
+	public void error(String event, Object... keyValues) {
+		if (logger.isLoggable(Level.SEVERE)) {
+			log(Level.SEVERE, event, keyValues);
+		}
+	}
+
+	private void log(Level level, String event, Object[] keyValues) {
+		StructuredLogRecord record = new StructuredLogRecord(level, logger.getName(), event, keyValues);
+		// if the last value is a Throwable with no key it's the exception
+		if ((keyValues.length % 2 == 1) && (keyValues[keyValues.length - 1] instanceof Throwable)) {
+			record.setThrown((Throwable) keyValues[keyValues.length - 1]);
+		}
+		logger.log(record);
+	}
+
+	public static long getSampledOutCount() {
+		return sampledOut.sum();
+	}
+
+	public static double getSuccessSampleRate() {
+		Double rate = successSampleRate;
+		if (rate == null) {
+			rate = ConfigProvider.getConfig().getOptionalValue(SAMPLE_RATE_PROPERTY, Double.class).orElse(1.0);
+			successSampleRate = rate;
+		}
+		return rate;
+	}
+
+	/**
+	 * Make the sampling decision for the request we are handling
+	 */
+	static void sampleRequest() {
+		double rate = getSuccessSampleRate();
+		if (rate >= 1.0) {
+			// everything is logged, no need to remember that
+			return;
+		}
+		Boolean sampled = choose(rate);
+		Contexts.context().ifPresent(context -> context.register(SAMPLED_CLASSIFIER, sampled));
+	}
+
+	private static boolean isSampled() {
+		double rate = getSuccessSampleRate();
+		if (rate >= 1.0) {
+			return true;
+		}
+		return Contexts.context().flatMap(context -> context.get(SAMPLED_CLASSIFIER, Boolean.class))
+				.orElseGet(() -> choose(rate));
+	}
+
+	private static boolean choose(double rate) {
+		return (rate > 0.0) && (ThreadLocalRandom.current().nextDouble() < rate);
+	}
+}
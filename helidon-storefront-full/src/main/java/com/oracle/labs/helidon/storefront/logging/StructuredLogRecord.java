@@ -0,0 +1,82 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.logging;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A log record with an event name and a set of key / value pairs rather than a
+ * message. The KeyValueFormatter writes them as separate keys, for any other
+ * formatter the message is the event followed by the pairs
+ */
+public class StructuredLogRecord extends LogRecord {
+	private static final long serialVersionUID = 1L;
+	private final String event;
+	private final Object[] keyValues;
+	private String message = null;
+
+	public StructuredLogRecord(Level level, String loggerName, String event, Object[] keyValues) {
+		super(level, null);
+		this.event = event;
+		this.keyValues = keyValues;
+		setLoggerName(loggerName);
+		// stops the record walking the stack to find out where it was logged
+		setSourceClassName(loggerName);
+		setSourceMethodName(null);
+	}
+
+	public String getEvent() {
+		return event;
+	}
+
+	public Object[] getKeyValues() {
+		return keyValues;
+	}
+
+	@Override
+	public String getMessage() {
+		if (message == null) {
+			StringBuilder text = new StringBuilder(event);
+			for (int i = 0; i + 1 < keyValues.length; i += 2) {
+				text.append(' ').append(keyValues[i]).append('=').append(keyValues[i + 1]);
+			}
+			message = text.toString();
+		}
+		return message;
+	}
+}
@@ -0,0 +1,581 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.reservation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.oracle.labs.helidon.storefront.billing.BillingEntryWriter;
+import com.oracle.labs.helidon.storefront.data.BillingEntry;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.data.ItemRequest;
+import com.oracle.labs.helidon.storefront.data.ItemReservationResult;
+import com.oracle.labs.helidon.storefront.data.MinimumChange;
+import com.oracle.labs.helidon.storefront.events.StockLevelBroadcaster;
+import com.oracle.labs.helidon.storefront.exceptions.MinimumChangeException;
+import com.oracle.labs.helidon.storefront.exceptions.NotEnoughItemsException;
+import com.oracle.labs.helidon.storefront.exceptions.UnknownItemException;
+import com.oracle.labs.helidon.storefront.exceptions.UnsupportedStockOperationException;
+import com.oracle.labs.helidon.storefront.logging.StructuredLog;
+import com.oracle.labs.helidon.storefront.resources.fallback.StorefrontFallbackHandler;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+import com.oracle.labs.helidon.storefront.restclients.StockManagerAsync;
+import com.oracle.labs.helidon.storefront.stock.StorefrontStockManager;
+
+import io.helidon.common.context.Contexts;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response.Status;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Does the actual work of reserving stock items, this is shared by the single
+ * item and bulk reservation REST calls.
+ * 
+ * Bulk reservations are fanned out over a shared pool of threads, each request
+ * uses at most maxparallel of them at a time. The tasks run in the Helidon
+ * context of the request so the callers credentials are still passed on to the
+ * stock manager.
+ * 
+ * The async reservations do the same work as reserve but using the non
+ * blocking rest clients, so no thread is held while waiting for the stock
+ * manager or billing service. These go directly to the stock manager service
+ * and don't use any of the local layers (e.g. caching) the blocking calls do.
+ */
+@ApplicationScoped
+@Slf4j
+public class StockReservationService {
+	/**
+	 * How a reservation is made against the stock manager, READ_MODIFY_WRITE reads
+	 * the level then sets the new one (two calls and changes made between them by
+	 * other replicas can be lost), CONDITIONAL has the stock manager check and
+	 * decrement the level in one call, COMPARE_AND_SET reads the level and only
+	 * sets the new one if it's not changed, retrying if it has
+	 */
+	public enum ReservationMode {
+		READ_MODIFY_WRITE, CONDITIONAL, COMPARE_AND_SET
+	}
+
+	// the per request events, these may be sampled
+	private static final StructuredLog events = StructuredLog.forClass(StockReservationService.class);
+
+	@Inject
+	private MinimumChange minimumChange;
+
+	// this is the rest client wrapped in any of the locally configured layers (e.g.
+	// caching) see StockManagerProducer
+	@Inject
+	@StorefrontStockManager
+	private StockManager stockManager = null;
+
+	// the non blocking version of the stock manager, this skips any of the
+	// locally configured layers (e.g. caching) see StockManagerProducer
+	@Inject
+	@StorefrontStockManager
+	private StockManagerAsync stockManagerAsync = null;
+
+	// the subscribers to the stock level events are told about each reservation
+	@Inject
+	private StockLevelBroadcaster stockLevelBroadcaster = null;
+
+	// this decides if the entries are written directly or queued
+	@Inject
+	private BillingEntryWriter billingEntryWriter = null;
+
+	@Inject
+	@ConfigProperty(name = "app.writebillingentries", defaultValue = "false")
+	Boolean writeBillingEntries;
+
+	@Inject
+	@ConfigProperty(name = "app.reservation.mode", defaultValue = "READ_MODIFY_WRITE")
+	ReservationMode reservationMode;
+
+	@Inject
+	@ConfigProperty(name = "app.reservation.compareandsetattempts", defaultValue = "5")
+	Integer compareAndSetAttempts;
+
+	// when a reservation is refused for a business reason (too few items etc.)
+	// don't capture the stack trace in the exception, it's never used and during
+	// a sale most requests are refused
+	@Inject
+	@ConfigProperty(name = "app.reservation.fastrejections", defaultValue = "false")
+	boolean fastRejections;
+
+	@Inject
+	@ConfigProperty(name = "app.bulkreservation.threads", defaultValue = "16")
+	int bulkThreads;
+
+	@Inject
+	@ConfigProperty(name = "app.bulkreservation.maxparallel", defaultValue = "8")
+	int bulkMaxParallel;
+
+	private ExecutorService bulkExecutor;
+
+	@PostConstruct
+	void start() {
+		AtomicInteger threadNumber = new AtomicInteger();
+		bulkExecutor = Contexts.wrap(Executors.newFixedThreadPool(bulkThreads, runnable -> {
+			Thread thread = new Thread(runnable, "bulk-reservation-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+
+	@PreDestroy
+	void stop() {
+		bulkExecutor.shutdown();
+	}
+
+	/**
+	 * Reserve the items, the stock is updated and if enabled the billing entry is
+	 * written
+	 * 
+	 * @param itemRequest
+	 * @param callerName  who to bill the items to
+	 * @return the updated item details
+	 */
+	public ItemDetails reserve(ItemRequest itemRequest, String callerName)
+			throws MinimumChangeException, UnknownItemException, NotEnoughItemsException {
+		events.success("reservation.requested", "item", itemRequest.getRequestedItem(), "count",
+				itemRequest.getRequestedCount());
+		checkMinimumChange(itemRequest);
+		return reserveValidated(itemRequest, callerName);
+	}
+
+	/**
+	 * Reserve all of the requested items, all of the requests are checked against
+	 * the minimum change before any stock changes are made. Once that's done each
+	 * item is reserved on it's own so some may succeed and others fail
+	 * 
+	 * @param itemRequests
+	 * @param callerName   who to bill the items to
+	 * @return the outcome of each request, in the same order as the requests
+	 * @throws MinimumChangeException if any of the requests is below the minimum
+	 *                                change, in which case nothing is reserved
+	 */
+	public List<ItemReservationResult> reserveAll(List<ItemRequest> itemRequests, String callerName)
+			throws MinimumChangeException {
+		events.success("bulkreservation.requested", "items", itemRequests.size());
+		List<String> belowMinimum = new ArrayList<>();
+		int minimum = minimumChange.getMinimumChange();
+		for (ItemRequest itemRequest : itemRequests) {
+			if (itemRequest.getRequestedCount() < minimum) {
+				belowMinimum.add(itemRequest.getRequestedCount() + " items of " + itemRequest.getRequestedItem());
+			}
+		}
+		if (!belowMinimum.isEmpty()) {
+			String problemDetails = "The bulk reservation fails because " + belowMinimum
+					+ " are less than the minimum delta of " + minimum;
+			events.success("bulkreservation.rejected", "items", itemRequests.size(), "problem", problemDetails);
+			throw new MinimumChangeException(problemDetails, null, true, !fastRejections);
+		}
+		ItemReservationResult[] results = new ItemReservationResult[itemRequests.size()];
+		// rather than a task per item we have up to maxparallel tasks each working
+		// through the list, so a big order can't take over the pool
+		AtomicInteger nextItem = new AtomicInteger();
+		int parallel = Math.max(1, Math.min(bulkMaxParallel, itemRequests.size()));
+		List<CompletableFuture<Void>> tasks = new ArrayList<>(parallel);
+		for (int i = 0; i < parallel; i++) {
+			tasks.add(CompletableFuture.runAsync(() -> {
+				int index;
+				while ((index = nextItem.getAndIncrement()) < results.length) {
+					results[index] = reserveForResult(itemRequests.get(index), callerName);
+				}
+			}, bulkExecutor));
+		}
+		CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+		return List.of(results);
+	}
+
+	/**
+	 * The non blocking version of reserve, the minimum change is checked before
+	 * this returns, all other problems complete the returned stage exceptionally
+	 * with the same exceptions reserve would have thrown
+	 * 
+	 * @param itemRequest
+	 * @param callerName  who to bill the items to
+	 * @return completes with the updated item details
+	 */
+	public CompletionStage<ItemDetails> reserveAsync(ItemRequest itemRequest, String callerName)
+			throws MinimumChangeException {
+		events.success("asyncreservation.requested", "item", itemRequest.getRequestedItem(), "count",
+				itemRequest.getRequestedCount());
+		checkMinimumChange(itemRequest);
+		CompletionStage<ItemDetails> reservation;
+		switch (reservationMode) {
+		case CONDITIONAL:
+			reservation = conditionalReservationAsync(itemRequest);
+			break;
+		case COMPARE_AND_SET:
+			reservation = compareAndSetReservationAsync(itemRequest, 1);
+			break;
+		default:
+			reservation = readModifyWriteReservationAsync(itemRequest);
+		}
+		return reservation.thenCompose(updatedItemDetails -> {
+			events.success("reservation.succeeded", "item", itemRequest.getRequestedItem(), "count",
+					itemRequest.getRequestedCount(), "remaining", updatedItemDetails.getItemCount());
+			stockLevelBroadcaster.publish(updatedItemDetails);
+			if (!writeBillingEntries) {
+				events.success("billing.disabled");
+				return CompletableFuture.completedFuture(updatedItemDetails);
+			}
+			return billingEntryWriter
+					.writeAsync(new BillingEntry(callerName, updatedItemDetails.getItemName(),
+							itemRequest.getRequestedCount()))
+					.thenApply(written -> updatedItemDetails);
+		});
+	}
+
+	private CompletionStage<ItemDetails> readModifyWriteReservationAsync(ItemRequest itemRequest) {
+		return getStockItemWithEnoughItemsAsync(itemRequest).thenCompose(itemDetails -> {
+			int newItemCount = itemDetails.getItemCount() - itemRequest.getRequestedCount();
+			events.success("reservation.sending", "item", itemRequest.getRequestedItem(), "count",
+					itemRequest.getRequestedCount());
+			return stockManagerAsync.setStockItemLevel(itemRequest.getRequestedItem(), newItemCount);
+		});
+	}
+
+	private CompletionStage<ItemDetails> conditionalReservationAsync(ItemRequest itemRequest) {
+		events.success("conditionalreservation.sending", "item", itemRequest.getRequestedItem(), "count",
+				itemRequest.getRequestedCount());
+		return stockManagerAsync
+				.decrementStockItemLevel(itemRequest.getRequestedItem(), itemRequest.getRequestedCount(),
+						itemRequest.getRequestedCount() + 1)
+				// working out what a 404 means needs another call, so this is the same
+				// wrap and unwrap as the compare and set
+				.handle((updatedItemDetails, e) -> {
+					if (e == null) {
+						return CompletableFuture.completedFuture(updatedItemDetails);
+					}
+					Throwable cause = unwrap(e);
+					if (cause instanceof WebApplicationException) {
+						WebApplicationException failure = (WebApplicationException) cause;
+						if (isMissingOperation(failure)) {
+							return unknownItemOrUnsupportedAsync(itemRequest, "conditional decrements", failure);
+						}
+						if (failure.getResponse().getStatus() == Status.CONFLICT.getStatusCode()) {
+							return CompletableFuture.<ItemDetails>failedFuture(
+									notEnoughItems(itemRequest, "there are not enough items available"));
+						}
+					}
+					return CompletableFuture.<ItemDetails>failedFuture(cause);
+				}).thenCompose(outcome -> outcome);
+	}
+
+	private CompletionStage<ItemDetails> compareAndSetReservationAsync(ItemRequest itemRequest, int attempt) {
+		return getStockItemWithEnoughItemsAsync(itemRequest).thenCompose(itemDetails -> {
+			int newItemCount = itemDetails.getItemCount() - itemRequest.getRequestedCount();
+			events.success("reservation.sending", "item", itemRequest.getRequestedItem(), "count",
+					itemRequest.getRequestedCount(), "attempt", attempt);
+			return stockManagerAsync
+					.compareAndSetStockItemLevel(itemRequest.getRequestedItem(), newItemCount,
+							itemDetails.getItemCount())
+					// a conflict means a retry, which is itself a stage so we can't just use
+					// exceptionally, wrap the outcome and unwrap it below
+					.handle((updatedItemDetails, e) -> {
+						if (e == null) {
+							return CompletableFuture.completedFuture(updatedItemDetails);
+						}
+						Throwable cause = unwrap(e);
+						if (cause instanceof WebApplicationException) {
+							WebApplicationException failure = (WebApplicationException) cause;
+							if (isMissingOperation(failure)) {
+								return unknownItemOrUnsupportedAsync(itemRequest, "compare and set", failure);
+							}
+							if (failure.getResponse().getStatus() == Status.CONFLICT.getStatusCode()) {
+								if (attempt >= compareAndSetAttempts) {
+									return CompletableFuture.<ItemDetails>failedFuture(notEnoughItems(itemRequest,
+											"the stock level kept changing, gave up after " + attempt + " attempts"));
+								}
+								return compareAndSetReservationAsync(itemRequest, attempt + 1);
+							}
+						}
+						return CompletableFuture.<ItemDetails>failedFuture(cause);
+					}).thenCompose(outcome -> outcome);
+		});
+	}
+
+	private CompletionStage<ItemDetails> getStockItemWithEnoughItemsAsync(ItemRequest itemRequest) {
+		return stockManagerAsync.getStockItem(itemRequest.getRequestedItem()).thenApply(itemDetails -> {
+			if (itemDetails == null) {
+				throw new CompletionException(unknownItem(itemRequest));
+			}
+			events.success("stockitem.found", "item", itemDetails.getItemName(), "count", itemDetails.getItemCount());
+			if (itemDetails.getItemCount() <= itemRequest.getRequestedCount()) {
+				throw new CompletionException(notEnoughItems(itemRequest,
+						"there are only " + itemDetails.getItemCount() + " items available"));
+			}
+			return itemDetails;
+		});
+	}
+
+	/**
+	 * Stages wrap the actual problem in a CompletionException, this gets the
+	 * problem back out
+	 * 
+	 * @param e
+	 * @return
+	 */
+	public static Throwable unwrap(Throwable e) {
+		while ((e instanceof CompletionException) && (e.getCause() != null)) {
+			e = e.getCause();
+		}
+		return e;
+	}
+
+	private ItemReservationResult reserveForResult(ItemRequest itemRequest, String callerName) {
+		try {
+			ItemDetails itemDetails = reserveValidated(itemRequest, callerName);
+			return new ItemReservationResult(itemRequest.getRequestedItem(), itemRequest.getRequestedCount(),
+					Status.OK.getStatusCode(), itemDetails, null);
+		} catch (Exception e) {
+			// use the same codes the single item reservation would have returned
+			return new ItemReservationResult(itemRequest.getRequestedItem(), itemRequest.getRequestedCount(),
+					StorefrontFallbackHandler.statusFor(e), null, e.getMessage());
+		}
+	}
+
+	private void checkMinimumChange(ItemRequest itemRequest) throws MinimumChangeException {
+		// make sure the change is within the minimum change allowed
+		// :-)
+		if (itemRequest.getRequestedCount() < minimumChange.getMinimumChange()) {
+			// didn't meet the minimum requirement, record the refusal and throw the
+			// details as an error
+			String problemDetails = "The reservation of " + itemRequest.getRequestedCount() + " items of "
+					+ itemRequest.getRequestedItem() + " fails because it's less than the minimum delta of "
+					+ minimumChange.getMinimumChange();
+			rejected(itemRequest, problemDetails);
+			throw new MinimumChangeException(problemDetails, null, true, !fastRejections);
+		}
+	}
+
+	private ItemDetails reserveValidated(ItemRequest itemRequest, String callerName)
+			throws UnknownItemException, NotEnoughItemsException {
+		// OK validated the basic data, let's try and take the items from the stock
+		ItemDetails updatedItemDetails;
+		switch (reservationMode) {
+		case CONDITIONAL:
+			updatedItemDetails = conditionalReservation(itemRequest);
+			break;
+		case COMPARE_AND_SET:
+			updatedItemDetails = compareAndSetReservation(itemRequest);
+			break;
+		default:
+			updatedItemDetails = readModifyWriteReservation(itemRequest);
+		}
+		stockLevelBroadcaster.publish(updatedItemDetails);
+		if (writeBillingEntries) {
+			billingEntryWriter.write(
+					new BillingEntry(callerName, updatedItemDetails.getItemName(), itemRequest.getRequestedCount()));
+		} else {
+			events.success("billing.disabled");
+		}
+		// log the result
+		events.success("reservation.succeeded", "item", itemRequest.getRequestedItem(), "count",
+				itemRequest.getRequestedCount(), "remaining", updatedItemDetails.getItemCount());
+		// pass back the resulting updated item details
+		return updatedItemDetails;
+	}
+
+	/**
+	 * The original approach, get the current level, check there are enough and
+	 * then set the new level. This is two calls to the stock manager and if
+	 * another request changes the level between them that change will be lost
+	 */
+	private ItemDetails readModifyWriteReservation(ItemRequest itemRequest)
+			throws UnknownItemException, NotEnoughItemsException {
+		// let's make sure we have enough remaining stock to reserve
+		ItemDetails itemDetails = getStockItemWithEnoughItems(itemRequest);
+		// Right, passed all checks
+		// work out the new level
+		int newItemCount = itemDetails.getItemCount() - itemRequest.getRequestedCount();
+		// log the request
+		events.success("reservation.sending", "item", itemRequest.getRequestedItem(), "count",
+				itemRequest.getRequestedCount());
+		// update the DB and get the result back (the updated info)
+		return stockManager.setStockItemLevel(itemRequest.getRequestedItem(), newItemCount);
+	}
+
+	/**
+	 * Ask the stock manager to do the check and the change in one go, we don't get
+	 * told how many items there actually were if there are not enough
+	 */
+	private ItemDetails conditionalReservation(ItemRequest itemRequest)
+			throws UnknownItemException, NotEnoughItemsException {
+		events.success("conditionalreservation.sending", "item", itemRequest.getRequestedItem(), "count",
+				itemRequest.getRequestedCount());
+		try {
+			// we need to leave at least one item behind, so there must be more than the
+			// requested count available
+			return stockManager.decrementStockItemLevel(itemRequest.getRequestedItem(),
+					itemRequest.getRequestedCount(), itemRequest.getRequestedCount() + 1);
+		} catch (WebApplicationException e) {
+			if (isMissingOperation(e)) {
+				throw unknownItemOrUnsupported(itemRequest, "conditional decrements", e);
+			}
+			if (e.getResponse().getStatus() == Status.CONFLICT.getStatusCode()) {
+				throw notEnoughItems(itemRequest, "there are not enough items available");
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the level, and then only set the new one if no one else has changed it
+	 * in the mean time, if they have then try again with the new level
+	 */
+	private ItemDetails compareAndSetReservation(ItemRequest itemRequest)
+			throws UnknownItemException, NotEnoughItemsException {
+		for (int attempt = 1;; attempt++) {
+			ItemDetails itemDetails = getStockItemWithEnoughItems(itemRequest);
+			int newItemCount = itemDetails.getItemCount() - itemRequest.getRequestedCount();
+			events.success("reservation.sending", "item", itemRequest.getRequestedItem(), "count",
+					itemRequest.getRequestedCount(), "attempt", attempt);
+			try {
+				return stockManager.compareAndSetStockItemLevel(itemRequest.getRequestedItem(), newItemCount,
+						itemDetails.getItemCount());
+			} catch (WebApplicationException e) {
+				if (isMissingOperation(e)) {
+					throw unknownItemOrUnsupported(itemRequest, "compare and set", e);
+				}
+				if (e.getResponse().getStatus() != Status.CONFLICT.getStatusCode()) {
+					throw e;
+				}
+				if (attempt >= compareAndSetAttempts) {
+					throw notEnoughItems(itemRequest,
+							"the stock level kept changing, gave up after " + attempt + " attempts");
+				}
+			}
+		}
+	}
+
+	private ItemDetails getStockItemWithEnoughItems(ItemRequest itemRequest)
+			throws UnknownItemException, NotEnoughItemsException {
+		ItemDetails itemDetails = stockManager.getStockItem(itemRequest.getRequestedItem());
+		if (itemDetails == null) {
+			// can't find the stock item
+			throw unknownItem(itemRequest);
+		}
+		events.success("stockitem.found", "item", itemDetails.getItemName(), "count", itemDetails.getItemCount());
+		// do we have enough items to reserve ?
+		if (itemDetails.getItemCount() <= itemRequest.getRequestedCount()) {
+			// not enough items
+			throw notEnoughItems(itemRequest, "there are only " + itemDetails.getItemCount() + " items available");
+		}
+		return itemDetails;
+	}
+
+	/**
+	 * A stock manager without the conditional updates responds with a 404 (no
+	 * such path) or a 405 (the path exists but not for a POST), the trouble is a
+	 * 404 is also what we get for an unknown item
+	 */
+	private static boolean isMissingOperation(WebApplicationException e) {
+		int status = e.getResponse().getStatus();
+		return (status == Status.NOT_FOUND.getStatusCode()) || (status == Status.METHOD_NOT_ALLOWED.getStatusCode());
+	}
+
+	/**
+	 * If the item can be read then the 404 was for the operation, not the item
+	 */
+	private UnsupportedStockOperationException unknownItemOrUnsupported(ItemRequest itemRequest, String operation,
+			WebApplicationException e) throws UnknownItemException {
+		if ((e.getResponse().getStatus() == Status.NOT_FOUND.getStatusCode())
+				&& (stockManager.getStockItem(itemRequest.getRequestedItem()) == null)) {
+			throw unknownItem(itemRequest);
+		}
+		return unsupported(operation, e);
+	}
+
+	private CompletionStage<ItemDetails> unknownItemOrUnsupportedAsync(ItemRequest itemRequest, String operation,
+			WebApplicationException e) {
+		if (e.getResponse().getStatus() != Status.NOT_FOUND.getStatusCode()) {
+			return CompletableFuture.failedFuture(unsupported(operation, e));
+		}
+		return stockManagerAsync.getStockItem(itemRequest.getRequestedItem()).thenApply(itemDetails -> {
+			throw new CompletionException(itemDetails == null ? unknownItem(itemRequest) : unsupported(operation, e));
+		});
+	}
+
+	private UnsupportedStockOperationException unsupported(String operation, WebApplicationException e) {
+		String problemDetails = "The stock manager does not support " + operation + " (it responded with a "
+				+ e.getResponse().getStatus() + "), set app.reservation.mode to a mode it does support";
+		log.error(problemDetails);
+		return new UnsupportedStockOperationException(problemDetails, e);
+	}
+
+	/*
+	 * These record the refused request and return an exception with the problem as
+	 * it's details
+	 */
+	private UnknownItemException unknownItem(ItemRequest itemRequest) {
+		String problemDetails = "The reservation of " + itemRequest.getRequestedCount() + " items of "
+				+ itemRequest.getRequestedItem() + " fails because the item is not known";
+		rejected(itemRequest, problemDetails);
+		return new UnknownItemException(problemDetails, null, true, !fastRejections);
+	}
+
+	private NotEnoughItemsException notEnoughItems(ItemRequest itemRequest, String reason) {
+		String problemDetails = "The reservation of " + itemRequest.getRequestedCount() + " items of "
+				+ itemRequest.getRequestedItem() + " fails because " + reason;
+		rejected(itemRequest, problemDetails);
+		return new NotEnoughItemsException(problemDetails, null, true, !fastRejections);
+	}
+
+	/**
+	 * A refusal is the answer to the request, not something going wrong here, so
+	 * it's a sampled per request event like a success rather than an error, a
+	 * burst of them would otherwise swamp the log
+	 */
+	private void rejected(ItemRequest itemRequest, String problemDetails) {
+		events.success("reservation.rejected", "item", itemRequest.getRequestedItem(), "count",
+				itemRequest.getRequestedCount(), "problem", problemDetails);
+	}
+}
@@ -37,9 +37,21 @@ SOFTWARE.
 
 package com.oracle.labs.helidon.storefront.resources;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.faulttolerance.Fallback;
@@ -56,35 +68,55 @@ import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.security.SecurityRequirement;
 import org.eclipse.microprofile.openapi.annotations.security.SecurityScheme;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
 
-import com.oracle.labs.helidon.storefront.data.BillingEntry;
-import com.oracle.labs.helidon.storefront.data.BillingEntryResponse;
 import com.oracle.labs.helidon.storefront.data.ItemDetails;
 import com.oracle.labs.helidon.storefront.data.ItemRequest;
-import com.oracle.labs.helidon.storefront.data.MinimumChange;
+import com.oracle.labs.helidon.storefront.data.ItemReservationResult;
+import com.oracle.labs.helidon.storefront.data.StockLevelPage;
+import com.oracle.labs.helidon.storefront.events.StockLevelBroadcaster;
 import com.oracle.labs.helidon.storefront.exceptions.MinimumChangeException;
 import com.oracle.labs.helidon.storefront.exceptions.NotEnoughItemsException;
+import com.oracle.labs.helidon.storefront.exceptions.StorefrontException;
 import com.oracle.labs.helidon.storefront.exceptions.UnknownItemException;
+import com.oracle.labs.helidon.storefront.limits.ConcurrencyLimited;
+import com.oracle.labs.helidon.storefront.logging.StructuredLog;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService;
 import com.oracle.labs.helidon.storefront.resources.fallback.StorefrontFallbackHandler;
-import com.oracle.labs.helidon.storefront.restclients.BillingService;
 import com.oracle.labs.helidon.storefront.restclients.StockManager;
+import com.oracle.labs.helidon.storefront.restclients.StockManagerAsync;
+import com.oracle.labs.helidon.storefront.stock.StaleStockListing;
+import com.oracle.labs.helidon.storefront.stock.StorefrontStockManager;
 
 import io.helidon.security.annotations.Authenticated;
 import jakarta.enterprise.context.RequestScoped;
 import jakarta.inject.Inject;
 import jakarta.json.Json;
 import jakarta.json.JsonBuilderFactory;
+import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.ServerErrorException;
+import jakarta.ws.rs.ServiceUnavailableException;
 import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.CacheControl;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.GenericEntity;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
+import jakarta.ws.rs.core.Response.Status;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -109,21 +141,58 @@ import lombok.extern.slf4j.Slf4j;
 public class StorefrontResource {
 
 	private static final JsonBuilderFactory JSON = Json.createBuilderFactory(Collections.emptyMap());
+	// matches the @Timeout on the class
+	private static final long ASYNC_TIMEOUT_SECONDS = 15;
+	private static final String NDJSON = "application/x-ndjson";
+	// only set if the listing is an old one as the stock manager isn't answering
+	public static final String STALE_LISTING_HEADER = "X-Stock-Levels-Stale-Millis";
+	// the fallback details include the method, only look them up once
+	private static final Method RESERVE_STOCK_ITEM = method("reserveStockItem", ItemRequest.class,
+			SecurityContext.class);
+	private static final Method RESERVE_STOCK_ITEM_ASYNC = method("reserveStockItemAsync", ItemRequest.class,
+			SecurityContext.class, AsyncResponse.class);
+	// the per request events, these may be sampled
+	private static final StructuredLog events = StructuredLog.forClass(StorefrontResource.class);
 
 	@Inject
-	private MinimumChange minimumChange;
+	private StockReservationService stockReservationService;
 
+	// listing the stock doesn't need any of the reservation logic, so just use the
+	// stock manager (including any locally configured layers) directly
 	@Inject
-	@RestClient
+	@StorefrontStockManager
 	private StockManager stockManager = null;
 
 	@Inject
-	@RestClient
-	private BillingService billing = null;
+	@ConfigProperty(name = "app.stocklisting.maxageseconds", defaultValue = "0")
+	int stockLevelsMaxAge;
 
 	@Inject
-	@ConfigProperty(name = "app.writebillingentries", defaultValue = "false")
-	Boolean writeBillingEntries;
+	@ConfigProperty(name = "app.stocklisting.defaultpagesize", defaultValue = "100")
+	int defaultPageSize;
+
+	@Inject
+	@ConfigProperty(name = "app.stocklisting.maxpagesize", defaultValue = "1000")
+	int maxPageSize;
+
+	@Inject
+	@ConfigProperty(name = "app.stocklisting.streampagesize", defaultValue = "500")
+	int streamPageSize;
+
+	@Inject
+	private StockLevelBroadcaster stockLevelBroadcaster;
+
+	// if set refused reservations are returned directly as error responses
+	// rather than being thrown to the fallback handler
+	@Inject
+	@ConfigProperty(name = "app.reservation.fastrejections", defaultValue = "false")
+	boolean fastRejections;
+
+	// the non blocking version of the stock manager, this skips any of the
+	// locally configured layers (e.g. caching) see StockManagerProducer
+	@Inject
+	@StorefrontStockManager
+	private StockManagerAsync stockManagerAsync = null;
 
 	@GET
 	@Path("/stocklevel")
@@ -140,26 +209,271 @@ public class StorefrontResource {
 	// add a Meter to track how often we're called, absolute=true means the name
 	// given is used directly and not added to the class
 	@Metered(name = "listAllStockMeter", absolute = true)
+	// if there are too many listings in progress refuse the request rather than
+	// making the stock manager even slower
+	@ConcurrencyLimited("listAllStock")
 	@Operation(summary = "List stock items", description = "Returns a list of all of the stock items currently held in the database (the list may be empty if there are no items)")
 	@APIResponse(description = "A set of ItemDetails representing the current data in the database", responseCode = "200", content = @Content(schema = @Schema(name = "ItemDetails", implementation = ItemDetails.class, type = SchemaType.ARRAY), example = "[{\"itemCount\": 10, \"itemName\": \"Pencil\"},"
 			+ "{\"itemCount\": 50, \"itemName\": \"Eraser\"}," + "{\"itemCount\": 4600, \"itemName\": \"Pin\"},"
 			+ "{\"itemCount\": 100, \"itemName\": \"Book\"}]"))
-	public Collection<ItemDetails> listAllStock() {
+	@APIResponse(description = "The stock levels have not changed since the version identified by the If-None-Match header", responseCode = "304")
+	@APIResponse(description = "The stock manager is not available and there is no recent listing to return instead", responseCode = "424")
+	@APIResponse(description = "There are too many requests in progress, try again after the Retry-After time", responseCode = "503")
+	public Response listAllStock(@Context Request request) {
 		// log the request
-		log.info("Requesting listing of all stock");
+		events.success("listing.requested");
 		// get the list from the stock management service
 		try {
-			Collection<ItemDetails> items = stockManager.getAllStockLevels();
+			Collection<ItemDetails> levels = stockManager.getAllStockLevels();
+			// if the stock manager circuit breaker is open this may be the last listing
+			// we got, in which case the caller is told how old it is
+			long staleMillis = levels instanceof StaleStockListing ? ((StaleStockListing) levels).getAgeMillis()
+					: -1;
+			// the tag and the body must come from the same levels, so take a copy once
+			// and use that for both
+			List<ItemDetails> items = new ArrayList<>(levels);
 			// log the response
-			log.info("Found " + items.size() + " items");
-			// return the items
-			return items;
+			events.success("listing.found", "items", items.size());
+			// if the caller already has this version of the levels there's no need to
+			// send them again
+			EntityTag entityTag = stockLevelsTag(items);
+			ResponseBuilder response = request.evaluatePreconditions(entityTag);
+			if (response != null) {
+				events.success("listing.unchanged");
+			} else {
+				// return the items
+				response = Response.ok(new GenericEntity<List<ItemDetails>>(items) {
+				});
+			}
+			response.tag(entityTag).cacheControl(stockLevelsCacheControl(stockLevelsMaxAge, staleMillis >= 0));
+			if (staleMillis >= 0) {
+				response.header("Age", TimeUnit.MILLISECONDS.toSeconds(staleMillis)).header(STALE_LISTING_HEADER,
+						staleMillis);
+			}
+			return response.build();
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw e;
 		}
 	}
 
+	/**
+	 * A tag that changes if any item or level changes, the hash of each item is
+	 * added up so it doesn't matter what order the stock manager (or the cache)
+	 * gives us the items in. It's weak as the order of the items in the body can
+	 * differ for the same tag
+	 */
+	static EntityTag stockLevelsTag(Collection<ItemDetails> items) {
+		long hash = items.size();
+		for (ItemDetails item : items) {
+			hash += mix(item.getItemName().hashCode() * 31L + item.getItemCount());
+		}
+		return new EntityTag(Long.toHexString(hash), true);
+	}
+
+	/*
+	 * spread the bits of each item hash out so that similar items (e.g. levels
+	 * swapped between two items) don't cancel each other out when added together
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+		value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return value ^ (value >>> 33);
+	}
+
+	/*
+	 * The listing is the same for every user (it comes from the shared stock
+	 * cache and the tag only depends on the levels) so a tag one user got is
+	 * valid for any other. It's still only for authenticated callers, so it's
+	 * private to stop shared caches (proxies, CDNs) handing it to callers who
+	 * haven't logged in. With no max age callers have to check with us each time,
+	 * but can use the tag to do so. A stale listing is already out of date so
+	 * always has to be checked
+	 */
+	static CacheControl stockLevelsCacheControl(int maxAge, boolean stale) {
+		CacheControl cacheControl = new CacheControl();
+		cacheControl.setPrivate(true);
+		if ((maxAge > 0) && !stale) {
+			cacheControl.setMaxAge(maxAge);
+		} else {
+			cacheControl.setNoCache(true);
+		}
+		return cacheControl;
+	}
+
+	/**
+	 * Server sent events with the new ItemDetails each time the level of an item
+	 * changes, either due to a reservation or because the stock cache has seen a
+	 * new level when talking to the stock manager. For example curl -N -u
+	 * user:password http://localhost:8080/store/stocklevel/events
+	 * 
+	 * Clients that don't keep up with the events are disconnected
+	 * 
+	 * @param sink
+	 * @param sse
+	 */
+	@GET
+	@Path("/stocklevel/events")
+	@Produces(MediaType.SERVER_SENT_EVENTS)
+	@Operation(summary = "Stock level changes", description = "A stream of server sent events, each event is named stocklevel and has the updated ItemDetails as it's data")
+	@APIResponse(description = "The stream of stock level changes", responseCode = "200", content = @Content(mediaType = MediaType.SERVER_SENT_EVENTS, schema = @Schema(name = "ItemDetails", implementation = ItemDetails.class)))
+	@APIResponse(description = "There are too many subscribers already", responseCode = "503")
+	public void stockLevelEvents(@Context SseEventSink sink, @Context Sse sse) {
+		log.info("New stock level events subscriber");
+		if (!stockLevelBroadcaster.subscribe(sink, sse)) {
+			throw new ServiceUnavailableException(Response.status(Status.SERVICE_UNAVAILABLE)
+					.entity(JSON.createObjectBuilder()
+							.add("errormessage", "Too many stock level event subscribers, try again later").build())
+					.type(MediaType.APPLICATION_JSON).build());
+		}
+	}
+
+	/**
+	 * A page of the stock listing, this lets callers work through a large
+	 * catalogue without the whole thing being held in memory (here or in the
+	 * caller) at once. For example curl -u user:password
+	 * 'http://localhost:8080/store/stocklevel/page?limit=50&cursor=UGVuY2ls'
+	 * 
+	 * If the stock manager doesn't support paging (older versions just return
+	 * everything) this fails with a 501 rather than fetching the whole catalogue
+	 * for every page, the caller should use the full or streamed listing instead
+	 * 
+	 * @param limit  the maximum number of items to return, if not set the
+	 *               default page size is used
+	 * @param cursor the nextCursor from the previous page, if not set this is the
+	 *               first page
+	 * @return
+	 */
+	@GET
+	@Path("/stocklevel/page")
+	@Produces(MediaType.APPLICATION_JSON)
+	// a bad cursor is the callers problem, and a stock manager that can't page is
+	// a deployment problem, neither is a failed dependency
+	@Fallback(fallbackMethod = "failedListStockPage", skipOn = { BadRequestException.class,
+			ServerErrorException.class })
+	@Timed(name = "listStockPageTimer")
+	@Operation(summary = "List a page of stock items", description = "Returns a page of the stock items currently held in the database in item name order, use the nextCursor to get the following page")
+	@APIResponse(description = "A page of ItemDetails representing the current data in the database", responseCode = "200", content = @Content(schema = @Schema(name = "StockLevelPage", implementation = StockLevelPage.class)))
+	@APIResponse(description = "The cursor is not one returned by this service", responseCode = "400")
+	@APIResponse(description = "The stock manager does not support paging, use the full or streamed listing", responseCode = "501")
+	public StockLevelPage listStockPage(@QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor) {
+		int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+		String after = decodeCursor(cursor);
+		events.success("page.requested", "size", pageSize, "after", after);
+		StockPage page = stockPage(pageSize, after);
+		if (page.pagingIgnored) {
+			events.success("page.unsupported");
+			throw new ServerErrorException(Response.status(Status.NOT_IMPLEMENTED)
+					.entity(JSON.createObjectBuilder()
+							.add("errormessage",
+									"The stock manager does not support paging, use the full or streamed listing")
+							.build())
+					.type(MediaType.APPLICATION_JSON).build());
+		}
+		List<ItemDetails> items = page.items;
+		// if the page is full there may be more, if not we've reached the end
+		String nextCursor = items.size() < pageSize ? null : encodeCursor(items.get(items.size() - 1).getItemName());
+		return new StockLevelPage(items, nextCursor);
+	}
+
+	/**
+	 * The complete stock listing as newline delimited JSON, one item per line.
+	 * The items are fetched from the stock manager a page at a time and each page
+	 * is written out before the next is requested, so the memory used doesn't
+	 * depend on the size of the catalogue. If the stock manager doesn't support
+	 * paging it's first response will be everything, which is streamed and
+	 * that's the end of it
+	 * 
+	 * @return
+	 */
+	@GET
+	@Path("/stocklevel/stream")
+	@Produces(NDJSON)
+	@Fallback(fallbackMethod = "failedStreamStock")
+	@Timed(name = "streamStockTimer")
+	@Operation(summary = "Stream all stock items", description = "Returns all of the stock items currently held in the database in item name order as newline delimited JSON, one ItemDetails per line")
+	@APIResponse(description = "The ItemDetails representing the current data in the database, one per line", responseCode = "200", content = @Content(mediaType = NDJSON, schema = @Schema(name = "ItemDetails", implementation = ItemDetails.class)))
+	public StreamingOutput streamStock() {
+		events.success("stream.requested");
+		// get the first page now, if the stock manager is not available we can still
+		// fail the request properly, once we start streaming the status has gone
+		StockPage firstPage = stockPage(streamPageSize, null);
+		return output -> {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+			StockPage page = firstPage;
+			int itemCount = 0;
+			while (true) {
+				for (ItemDetails item : page.items) {
+					writer.write(JSON.createObjectBuilder().add("itemName", item.getItemName())
+							.add("itemCount", item.getItemCount()).build().toString());
+					writer.write('\n');
+				}
+				writer.flush();
+				itemCount += page.items.size();
+				if (page.pagingIgnored) {
+					// that was everything, asking for the next page would just get it
+					// all again
+					events.success("stream.unpaged", "items", itemCount);
+					break;
+				}
+				if (page.items.size() < streamPageSize) {
+					break;
+				}
+				page = stockPage(streamPageSize, page.items.get(page.items.size() - 1).getItemName());
+			}
+			events.success("stream.completed", "items", itemCount);
+		};
+	}
+
+	/*
+	 * we can't be sure the stock manager actually honours the paging (older
+	 * versions will just return everything). If it gives us more than we asked
+	 * for, or items before the one we asked to start after, it's ignoring the
+	 * paging, so there's no point in asking it for another page. Whatever we got
+	 * is sorted and anything before the start is dropped, but it's not cut down
+	 * to the page size as we may not be able to get the rest
+	 */
+	private StockPage stockPage(int pageSize, String after) {
+		Collection<ItemDetails> levels = stockManager.getStockLevelsPage(pageSize, after);
+		boolean pagingIgnored = (levels.size() > pageSize) || ((after != null)
+				&& levels.stream().anyMatch(item -> item.getItemName().compareTo(after) <= 0));
+		List<ItemDetails> items = levels.stream()
+				.filter(item -> (after == null) || (item.getItemName().compareTo(after) > 0))
+				.sorted(Comparator.comparing(ItemDetails::getItemName)).collect(Collectors.toList());
+		return new StockPage(items, pagingIgnored);
+	}
+
+	private static class StockPage {
+		private final List<ItemDetails> items;
+		private final boolean pagingIgnored;
+
+		private StockPage(List<ItemDetails> items, boolean pagingIgnored) {
+			this.items = items;
+			this.pagingIgnored = pagingIgnored;
+		}
+	}
+
+	/*
+	 * The cursor is just the name of the last item returned, but it's encoded so
+	 * callers treat it as opaque and we can change it later
+	 */
+	private static String encodeCursor(String itemName) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(itemName.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String decodeCursor(String cursor) {
+		if ((cursor == null) || cursor.isEmpty()) {
+			return null;
+		}
+		try {
+			return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(Response.status(Status.BAD_REQUEST)
+					.entity(JSON.createObjectBuilder().add("errormessage", "Invalid cursor " + cursor).build())
+					.build());
+		}
+	}
+
 	/**
 	 * adjust the available levels for the item for example curl -X POST -u
 	 * user:password -d '{"requestedItem":"wrench", "requestedCount":5}'
@@ -175,6 +489,7 @@ public class StorefrontResource {
 	@Consumes(MediaType.APPLICATION_JSON)
 	// add a timer to track how long is spent in this call
 	@Timed(name = "reserveStockTimer")
+	@ConcurrencyLimited("reserveStock")
 	/*
 	 * if this fails call an external call back handler, This version of the
 	 * annotation will call the handle method on the specified class (which must
@@ -183,6 +498,13 @@ public class StorefrontResource {
 	 * 
 	 * This approach allows for significantly more detailed handling,but at the cost
 	 * of more code
+	 * 
+	 * With fast rejections enabled the reservations refused for business reasons
+	 * (the minimum change, unknown items and not enough items) don't go through
+	 * the fallback, the same error response it would have built is returned
+	 * directly. That saves the stack traces and the fallback, the response body
+	 * is still built for each rejection as it includes the request and the reason
+	 * (which has the item and counts in it) so it can't be shared
 	 */
 	@Fallback(StorefrontFallbackHandler.class)
 	@Operation(summary = "Reserves a number of stock items", description = "reserves a number of stock items in the database. The number of stock items being reserved must be greater than the defined minimum change")
@@ -190,85 +512,193 @@ public class StorefrontResource {
 	@APIResponse(description = "The requested item does not exist", responseCode = "404")
 	@APIResponse(description = "The requested change does not meet the minimum level required for the change (i.e. is <= the minimumChange value)", responseCode = "406")
 	@APIResponse(description = "There are not enough of the requested item to fulfil your request", responseCode = "409")
-	public ItemDetails reserveStockItem(
+	@APIResponse(description = "There are too many requests in progress, try again after the Retry-After time", responseCode = "503")
+	public Response reserveStockItem(
 			@RequestBody(description = "The details of the item being requested", required = true, content = @Content(schema = @Schema(name = "ItemRequest", implementation = ItemRequest.class), example = "{\"requestedItem\",\"Pencil\",\"requestedCount\",5}")) ItemRequest itemRequest,
 			@Context SecurityContext securityContext)
 			throws MinimumChangeException, UnknownItemException, NotEnoughItemsException {
-		log.info("Requesting the reservation of " + itemRequest.getRequestedCount() + " items of "
-				+ itemRequest.getRequestedItem());
-		// make sure the change is within the minimum change allowed
-		// :-)
-		if (itemRequest.getRequestedCount() < minimumChange.getMinimumChange()) {
-			// didn't meet the minimum requirement, log the failed request and throw the log
-			// message as an error
-			String problemDetails = "The reservation of " + itemRequest.getRequestedCount() + " items of "
-					+ itemRequest.getRequestedItem() + " fails because it's less than the minimum delta of "
-					+ minimumChange.getMinimumChange();
-			log.error(problemDetails);
-			throw new MinimumChangeException(problemDetails);
-		}
-		// OK validated the basic data, let's make sure we have enough remaining stock
-		// to reserve
-		ItemDetails itemDetails = stockManager.getStockItem(itemRequest.getRequestedItem());
-		if (itemDetails == null) {
-			// can't find the stock item, log the failed request and throw the log message
-			// as
-			// an error
-			String problemDetails = "The reservation of " + itemRequest.getRequestedCount() + " items of "
-					+ itemRequest.getRequestedItem() + " fails because the item is not known";
-			log.error(problemDetails);
-			throw new UnknownItemException(problemDetails);
+		try {
+			return Response
+					.ok(stockReservationService.reserve(itemRequest, securityContext.getUserPrincipal().getName()))
+					.build();
+		} catch (StorefrontException e) {
+			if (!fastRejections) {
+				throw e;
+			}
+			return StorefrontFallbackHandler.responseFor(RESERVE_STOCK_ITEM,
+					new Object[] { itemRequest, securityContext }, e);
 		}
-		log.info("stock item " + itemDetails.getItemName() + " exists and currently there are "
-				+ itemDetails.getItemCount() + " items in stock");
-		// do we have enough items to reserve ?
-		if (itemDetails.getItemCount() <= itemRequest.getRequestedCount()) {
-			// not enough items, log the failed request and throw the log message as an
-			// error
-			String problemDetails = "The reservation of " + itemRequest.getRequestedCount() + " items of "
-					+ itemRequest.getRequestedItem() + " fails because there are only " + itemDetails.getItemCount()
-					+ " items available";
-			log.error(problemDetails);
-			throw new NotEnoughItemsException(problemDetails);
+	}
+
+	/**
+	 * reserve a number of different stock items in one request for example curl -X
+	 * POST -u user:password -d '[{"requestedItem":"wrench", "requestedCount":5},
+	 * {"requestedItem":"hammer", "requestedCount":3}]'
+	 * 
+	 * All of the requests must meet the minimum change or nothing is reserved,
+	 * after that each item is reserved separately (and in parallel) and the
+	 * outcome of each one, including the status code it would have had if
+	 * reserved on it's own, is returned
+	 * 
+	 * @param itemRequests
+	 * @return
+	 */
+	@POST
+	@Path("/reserveStocks")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	// add a timer to track how long is spent in this call
+	@Timed(name = "reserveStocksTimer")
+	@Operation(summary = "Reserves a number of different stock items", description = "reserves a number of different stock items in the database. The number of each stock item being reserved must be greater than the defined minimum change, if any are not nothing is reserved")
+	@APIResponse(description = "The outcome of each of the requested reservations", responseCode = "200", content = @Content(schema = @Schema(name = "ItemReservationResult", implementation = ItemReservationResult.class, type = SchemaType.ARRAY), example = "[{\"requestedItem\": \"Pencil\", \"requestedCount\": 5, \"status\": 200, \"itemDetails\": {\"itemCount\": 10, \"itemName\": \"Pencil\"}},"
+			+ "{\"requestedItem\": \"Pen\", \"requestedCount\": 5, \"status\": 409, \"errormessage\": \"The reservation of 5 items of Pen fails because there are only 2 items available\"}]"))
+	@APIResponse(description = "One or more of the requested changes does not meet the minimum level required for the change (i.e. is <= the minimumChange value)", responseCode = "406")
+	public List<ItemReservationResult> reserveStockItems(
+			@RequestBody(description = "The details of the items being requested", required = true, content = @Content(schema = @Schema(name = "ItemRequest", implementation = ItemRequest.class, type = SchemaType.ARRAY), example = "[{\"requestedItem\",\"Pencil\",\"requestedCount\",5}]")) List<ItemRequest> itemRequests,
+			@Context SecurityContext securityContext) {
+		try {
+			return stockReservationService.reserveAll(itemRequests, securityContext.getUserPrincipal().getName());
+		} catch (MinimumChangeException e) {
+			throw new WebApplicationException(e.getMessage(), e, Response.status(Status.NOT_ACCEPTABLE)
+					.entity(JSON.createObjectBuilder().add("errormessage", e.getMessage()).build()).build());
 		}
-		// Right, passed all checks
-		// work out the new level
-		int newItemCount = itemDetails.getItemCount() - itemRequest.getRequestedCount();
-		// log the request
-		log.info("The reservation of " + itemRequest.getRequestedCount() + " items of " + itemRequest.getRequestedItem()
-				+ " is being sent to the database");
-		// update the DB and get the result back (the updated info)
-		ItemDetails updatedItemDetails = stockManager.setStockItemLevel(itemRequest.getRequestedItem(), newItemCount);
-		if (writeBillingEntries) {
-			try {
-				log.info("About to write billing record");
-				BillingEntryResponse ber = billing
-						.postBillingEntry(new BillingEntry(securityContext.getUserPrincipal().getName(),
-								itemDetails.getItemName(), itemRequest.getRequestedCount()));
-				log.info("Billing record respoinse is " + ber);
-			} catch (Exception e) {
-				log.warn("Problem writing billind entry " + e.getLocalizedMessage());
+	}
+
+	/**
+	 * The same as listAllStock, but this doesn't hold the request thread while
+	 * waiting for the stock manager, the result is passed back through the
+	 * asyncResponse when it arrives. This goes directly to the stock manager
+	 * service, not through any local caching
+	 * 
+	 * We can't use a @Fallback here as the method has returned before the
+	 * problem happens, so failures are reported the same way
+	 * failedListStockItem does
+	 * 
+	 * @param asyncResponse
+	 */
+	@GET
+	@Path("/async/stocklevel")
+	@Produces(MediaType.APPLICATION_JSON)
+	// add a timer to track how long is spent in this call, this only covers
+	// setting up the request, not waiting for the response
+	@Timed(name = "listAllStockAsyncTimer")
+	@Operation(summary = "List stock items without blocking", description = "Returns a list of all of the stock items currently held in the database (the list may be empty if there are no items), the storefront does not hold a thread while waiting for the database")
+	@APIResponse(description = "A set of ItemDetails representing the current data in the database", responseCode = "200", content = @Content(schema = @Schema(name = "ItemDetails", implementation = ItemDetails.class, type = SchemaType.ARRAY)))
+	public void listAllStockAsync(@Suspended AsyncResponse asyncResponse) {
+		events.success("asynclisting.requested");
+		withTimeout(stockManagerAsync.getAllStockLevels()).whenComplete((items, e) -> {
+			if (e == null) {
+				events.success("listing.found", "items", items.size());
+				asyncResponse.resume(items);
+			} else {
+				log.info("The async listing of items failed " + StockReservationService.unwrap(e));
+				asyncResponse.resume(failedListStockItemException());
 			}
+		});
+	}
+
+	/**
+	 * The same as reserveStockItem, but this doesn't hold the request thread while
+	 * waiting for the stock manager or billing service. This goes directly to the
+	 * stock manager service, not through any local caching
+	 * 
+	 * Problems are reported with the same status codes and details as the
+	 * StorefrontFallbackHandler uses for reserveStockItem
+	 * 
+	 * @param itemRequest
+	 * @param securityContext
+	 * @param asyncResponse
+	 */
+	@POST
+	@Path("/async/reserveStock")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	// add a timer to track how long is spent in this call, this only covers
+	// setting up the request, not waiting for the response
+	@Timed(name = "reserveStockAsyncTimer")
+	@Operation(summary = "Reserves a number of stock items without blocking", description = "reserves a number of stock items in the database. The number of stock items being reserved must be greater than the defined minimum change, the storefront does not hold a thread while waiting for the database")
+	@APIResponse(description = "The updated stock details for the item", responseCode = "200", content = @Content(schema = @Schema(name = "ItemDetails", implementation = ItemDetails.class), example = "{\"itemCount\": 10, \"itemName\": \"Pencil\"}"))
+	@APIResponse(description = "The requested item does not exist", responseCode = "404")
+	@APIResponse(description = "The requested change does not meet the minimum level required for the change (i.e. is <= the minimumChange value)", responseCode = "406")
+	@APIResponse(description = "There are not enough of the requested item to fulfil your request", responseCode = "409")
+	public void reserveStockItemAsync(
+			@RequestBody(description = "The details of the item being requested", required = true, content = @Content(schema = @Schema(name = "ItemRequest", implementation = ItemRequest.class), example = "{\"requestedItem\",\"Pencil\",\"requestedCount\",5}")) ItemRequest itemRequest,
+			@Context SecurityContext securityContext, @Suspended AsyncResponse asyncResponse) {
+		// the same parameters the method has, so the problem details line up with
+		// the method description
+		Object[] parameters = new Object[] { itemRequest, securityContext, asyncResponse };
+		Method method = RESERVE_STOCK_ITEM_ASYNC;
+		try {
+			withTimeout(
+					stockReservationService.reserveAsync(itemRequest, securityContext.getUserPrincipal().getName()))
+					.whenComplete((itemDetails, e) -> {
+						if (e == null) {
+							asyncResponse.resume(itemDetails);
+						} else {
+							resumeWithFailure(asyncResponse, method, parameters, StockReservationService.unwrap(e));
+						}
+					});
+		} catch (MinimumChangeException e) {
+			resumeWithFailure(asyncResponse, method, parameters, e);
+		}
+	}
+
+	/**
+	 * Report the problem the way the fallback would have, with fast rejections
+	 * the refused reservations skip building the exception and just send the
+	 * response
+	 */
+	private void resumeWithFailure(AsyncResponse asyncResponse, Method method, Object[] parameters,
+			Throwable cause) {
+		if (fastRejections && (cause instanceof StorefrontException)) {
+			asyncResponse.resume(StorefrontFallbackHandler.responseFor(method, parameters, cause));
 		} else {
-			log.info("Billing recording disabled");
+			asyncResponse.resume(StorefrontFallbackHandler.failureFor(method, parameters, cause));
+		}
+	}
+
+	/*
+	 * The class level @Timeout doesn't apply once the method has returned, so
+	 * limit how long the async calls can take to the same value. This only stops
+	 * us waiting, the call itself carries on until the rest client gives up on it
+	 */
+	private static <T> CompletionStage<T> withTimeout(CompletionStage<T> stage) {
+		return stage.toCompletableFuture().orTimeout(ASYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private static Method method(String name, Class<?>... parameterTypes) {
+		try {
+			return StorefrontResource.class.getMethod(name, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
 		}
-		// log the result
-		log.info("The reservation of " + itemRequest.getRequestedCount() + " items of " + itemRequest.getRequestedItem()
-				+ " suceeded, the stock manager reports " + updatedItemDetails.getItemCount() + " remain");
-		// pass back the resulting updated item details
-		return updatedItemDetails;
 	}
 
 	/*
 	 * This is a simple handler, it doesn't get handed the fault details, but we can
 	 * use it to return a default object, or in this case throw an error
 	 */
-	public Collection<ItemDetails> failedListStockItem() {
+	public Response failedListStockItem(Request request) {
 		log.info("The listing of items failed for some reason");
-		throw new WebApplicationException(
-				Response.status(424, "Failed Dependency")
-						.entity(JSON.createObjectBuilder()
-								.add("errormessage", "Unable to connect to the stock manager service").build())
-						.build());
+		throw failedListStockItemException();
+	}
+
+	public StockLevelPage failedListStockPage(Integer limit, String cursor) {
+		log.info("The listing of a page of items failed for some reason");
+		throw failedListStockItemException();
+	}
+
+	public StreamingOutput failedStreamStock() {
+		log.info("The streaming of items failed for some reason");
+		throw failedListStockItemException();
+	}
+
+	private WebApplicationException failedListStockItemException() {
+		// the type is set as the streamed listing would otherwise try to send the
+		// error as NDJSON
+		return new WebApplicationException(Response.status(424, "Failed Dependency")
+				.entity(JSON.createObjectBuilder()
+						.add("errormessage", "Unable to connect to the stock manager service").build())
+				.type(MediaType.APPLICATION_JSON).build());
 	}
 }
\ No newline at end of file
@@ -36,12 +36,95 @@ SOFTWARE.
  */
 package com.oracle.labs.helidon.storefront.resources.fallback;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
-@Data
-@AllArgsConstructor
+import org.eclipse.microprofile.faulttolerance.exceptions.BulkheadException;
+import org.eclipse.microprofile.faulttolerance.exceptions.CircuitBreakerOpenException;
+
+import com.oracle.labs.helidon.storefront.exceptions.MinimumChangeException;
+import com.oracle.labs.helidon.storefront.exceptions.NotEnoughItemsException;
+import com.oracle.labs.helidon.storefront.exceptions.UnknownItemException;
+import com.oracle.labs.helidon.storefront.exceptions.UnsupportedStockOperationException;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response.Status;
+
+/**
+ * Maps the exceptions to the status codes the fallback returns for them. An
+ * exception that's not listed gets the status of it's nearest listed super
+ * class, and if there isn't one 500 INTERNAL_SERVER_ERROR.
+ * 
+ * The exception is the default WebApplicationException entry, that's only for
+ * a plain WebApplicationException (a failed call to another service), its
+ * subclasses (NotFoundException, NotAuthorizedException and so on) are
+ * problems with the request and still get 500.
+ * 
+ * The defaults can be added to or changed using app.fallback.exceptionmap, a
+ * list of exceptionclassname=status entries. The classes are matched by name,
+ * so they don't have to be available to the storefront. Entries from the config
+ * always apply to subclasses as well.
+ * 
+ * The status for each exception class is only worked out once, after that it
+ * comes from a ClassValue.
+ */
 class ExceptionMap {
-	private String cause;
-	private Integer status;
+	public final static Map<String, Integer> DEFAULT_EXCEPTION_MAP = defaultExceptionMap();
+	// the defaults that only apply to the class itself, not to it's subclasses
+	private final static Set<String> DEFAULT_EXACT_MATCHES = Set.of(WebApplicationException.class.getName());
+
+	private final Map<String, Integer> exceptionToStatus;
+	private final Set<String> exactMatches = new HashSet<>(DEFAULT_EXACT_MATCHES);
+	private final ClassValue<Integer> statusForClass = new ClassValue<>() {
+		@Override
+		protected Integer computeValue(Class<?> exceptionClass) {
+			for (Class<?> type = exceptionClass; type != null; type = type.getSuperclass()) {
+				Integer status = exceptionToStatus.get(type.getName());
+				if ((status != null) && ((type == exceptionClass) || !exactMatches.contains(type.getName()))) {
+					return status;
+				}
+			}
+			return Status.INTERNAL_SERVER_ERROR.getStatusCode();
+		}
+	};
+
+	/**
+	 * @param entries exceptionclassname=status entries, these are added to the
+	 *                defaults replacing the default status if the class is
+	 *                already in them, may be null
+	 */
+	ExceptionMap(Collection<String> entries) {
+		exceptionToStatus = new HashMap<>(DEFAULT_EXCEPTION_MAP);
+		if (entries == null) {
+			return;
+		}
+		for (String entry : entries) {
+			String[] causeAndStatus = entry.split("=");
+			if (causeAndStatus.length != 2) {
+				throw new IllegalArgumentException(
+						"app.fallback.exceptionmap entries must be exceptionclassname=status, not " + entry);
+			}
+			exceptionToStatus.put(causeAndStatus[0].trim(), Integer.valueOf(causeAndStatus[1].trim()));
+			exactMatches.remove(causeAndStatus[0].trim());
+		}
+	}
+
+	int statusFor(Class<? extends Throwable> exceptionClass) {
+		return statusForClass.get(exceptionClass);
+	}
+
+	private static Map<String, Integer> defaultExceptionMap() {
+		return Map.of(UnknownHostException.class.getName(), 424, ConnectException.class.getName(), 424,
+				MinimumChangeException.class.getName(), Status.NOT_ACCEPTABLE.getStatusCode(),
+				UnknownItemException.class.getName(), Status.NOT_FOUND.getStatusCode(),
+				NotEnoughItemsException.class.getName(), Status.CONFLICT.getStatusCode(),
+				WebApplicationException.class.getName(), 424, BulkheadException.class.getName(),
+				Status.SERVICE_UNAVAILABLE.getStatusCode(), CircuitBreakerOpenException.class.getName(), 424,
+				UnsupportedStockOperationException.class.getName(), 424);
+	}
 }
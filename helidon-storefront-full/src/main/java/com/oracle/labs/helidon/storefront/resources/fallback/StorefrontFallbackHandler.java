@@ -36,25 +36,20 @@ SOFTWARE.
  */
 package com.oracle.labs.helidon.storefront.resources.fallback;
 
-import java.net.ConnectException;
-import java.net.UnknownHostException;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.eclipse.microprofile.faulttolerance.ExecutionContext;
 import org.eclipse.microprofile.faulttolerance.FallbackHandler;
 
-import com.oracle.labs.helidon.storefront.data.ItemDetails;
-import com.oracle.labs.helidon.storefront.exceptions.MinimumChangeException;
-import com.oracle.labs.helidon.storefront.exceptions.NotEnoughItemsException;
-import com.oracle.labs.helidon.storefront.exceptions.UnknownItemException;
-
 import jakarta.enterprise.context.Dependent;
 import jakarta.json.Json;
-import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonBuilderFactory;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
@@ -65,18 +60,21 @@ import lombok.extern.slf4j.Slf4j;
 
 @Dependent
 @Slf4j
-public class StorefrontFallbackHandler implements FallbackHandler<ItemDetails> {
-	// List the specific exceptions here, if there isn;t a match it will default to
-	// 500 INTERNAL_SERVER_ERROR
-	private final static List<ExceptionMap> exceptionToCode = Arrays.asList(
-			new ExceptionMap(UnknownHostException.class.getName(), 424),
-			new ExceptionMap(ConnectException.class.getName(), 424),
-			new ExceptionMap(MinimumChangeException.class.getName(), Status.NOT_ACCEPTABLE.getStatusCode()),
-			new ExceptionMap(UnknownItemException.class.getName(), Status.NOT_FOUND.getStatusCode()),
-			new ExceptionMap(NotEnoughItemsException.class.getName(), Status.CONFLICT.getStatusCode()),
-			new ExceptionMap(WebApplicationException.class.getName(), 424));
-	private final static Map<String, Integer> exceptionsToCode = exceptionToCode.stream()
-			.collect(Collectors.toMap(info -> info.getCause(), info -> info.getStatus()));
+public class StorefrontFallbackHandler implements FallbackHandler<Response> {
+	// creating a factory means looking up the JSON provider, only do it once
+	private final static JsonBuilderFactory JSON = Json.createBuilderFactory(Collections.emptyMap());
+	// the class / method and it's param types, these don't change so only build
+	// the description once for each method
+	private final static Map<Method, String> methodDescriptions = new ConcurrentHashMap<>();
+
+	/**
+	 * The exception to status code mapping is loaded from the config the first
+	 * time it's needed
+	 */
+	private static class ExceptionMapHolder {
+		private final static ExceptionMap exceptionMap = new ExceptionMap(ConfigProvider.getConfig()
+				.getOptionalValues("app.fallback.exceptionmap", String.class).orElse(null));
+	}
 
 	/*
 	 * This really attempts to show a whole bunch of possibilities for handling a
@@ -84,26 +82,52 @@ public class StorefrontFallbackHandler implements FallbackHandler<ItemDetails> {
 	 * these, but this may give you some ideas
 	 */
 	@Override
-	public ItemDetails handle(ExecutionContext context) {
+	public Response handle(ExecutionContext context) {
+		// package it all up and throw it, the runtime will convert it into the proper
+		// response structure with the redault we provided
+		throw failureFor(context.getMethod(), context.getParameters(), context.getFailure());
+	}
+
+	/**
+	 * Build the exception handle would throw, this lets code that can't use the
+	 * fallback (e.g. the async calls which return their results through an
+	 * AsyncResponse) report problems in the same way
+	 * 
+	 * @param method     the method that failed
+	 * @param parameters the parameters it was called with
+	 * @param cause      the problem
+	 * @return
+	 */
+	public static WebApplicationException failureFor(Method method, Object[] parameters, Throwable cause) {
+		return new WebApplicationException("Problem processing request", cause,
+				responseFor(method, parameters, cause));
+	}
+
+	/**
+	 * Build the error response for the problem, this is what failureFor wraps up,
+	 * code that's able to return a response directly can use it and save
+	 * creating and throwing the exception
+	 * 
+	 * @param method     the method that failed
+	 * @param parameters the parameters it was called with
+	 * @param cause      the problem
+	 * @return
+	 */
+	public static Response responseFor(Method method, Object[] parameters, Throwable cause) {
 		// for now we just extract the details out, but in reality we'd look at the
 		// exception to see what's happened and do different processing based on that
-		JsonBuilderFactory JSON = Json.createBuilderFactory(Collections.emptyMap());
-		// get the expected param types for the method
-		String paramTypes = Arrays.stream(context.getMethod().getParameters()).map(param -> param.getType().getName())
-				.collect(Collectors.joining(","));
 		// build the basic info to let us know what class / method and it's param types
 		// were called
 		JsonObjectBuilder partial = JSON.createObjectBuilder().add("Problem processing request in ",
-				context.getMethod().getDeclaringClass().getName() + "." + context.getMethod().getName() + "("
-						+ paramTypes + ")");
+				methodDescriptions.computeIfAbsent(method, StorefrontFallbackHandler::describe));
 		// get the args as a array of strings
-		List<String> paramsList = Arrays.stream(context.getParameters()).map(obj -> obj.toString())
-				.collect(Collectors.toList());
-		JsonArray params = JSON.createArrayBuilder(paramsList).build();
+		JsonArrayBuilder params = JSON.createArrayBuilder();
+		for (Object parameter : parameters) {
+			params.add(String.valueOf(parameter));
+		}
 		partial.add("param values", params);
 		// the top level cause is probabaly a JAX-RX problem of some kind, it will
 		// contain the embedded cause
-		Throwable cause = context.getFailure();
 		String causeName = "NULL";
 		if (cause != null) {
 			// in some situations the cause will be some form or wrapper, for example a
@@ -115,14 +139,16 @@ public class StorefrontFallbackHandler implements FallbackHandler<ItemDetails> {
 			}
 			if (embeddedCause != null) {
 				causeName = embeddedCause.getClass().getName();
-				log.info("Cause name is " + causeName);
-				if (causeName.equals(WebApplicationException.class.getName())) {
+				if (log.isDebugEnabled()) {
+					log.debug("Cause name is " + causeName);
+				}
+				if (embeddedCause.getClass() == WebApplicationException.class) {
 					partial.add("Exception", causeName);
 					WebApplicationException wae = (WebApplicationException) embeddedCause;
 					partial.add("Embeded details", wae.getResponse().toString());
-					String respBody = wae.getResponse().getEntity().toString();
+					Object respBody = wae.getResponse().getEntity();
 					if (respBody != null) {
-						partial.add("Embeded body", respBody);
+						partial.add("Embeded body", respBody.toString());
 					}
 				} else {
 					partial.add("Exception", causeName);
@@ -136,15 +162,33 @@ public class StorefrontFallbackHandler implements FallbackHandler<ItemDetails> {
 		}
 		JsonObject errorDetails = partial.build();
 		// get the response code to map the exception to from the map
-		Integer respStatus = exceptionsToCode.get(causeName);
-		if (respStatus == null) {
-			respStatus = Status.INTERNAL_SERVER_ERROR.getStatusCode();
-		}
-		Response resp = Response.status(respStatus).entity(errorDetails).build();
-		// package it all up and throw it, the runtime will convert it into the proper
-		// response structure with the redault we provided
-		throw new WebApplicationException("Problem processing request", cause, resp);
+		int respStatus = statusFor(cause);
+		return Response.status(respStatus).entity(errorDetails).build();
+	}
 
+	/**
+	 * Work out the status code for the problem using the same rules as handle,
+	 * this lets code which is not using the fallback (e.g. the bulk reservation)
+	 * report the same status as a single request would get
+	 * 
+	 * @param cause
+	 * @return
+	 */
+	public static int statusFor(Throwable cause) {
+		if (cause == null) {
+			return Status.INTERNAL_SERVER_ERROR.getStatusCode();
+		}
+		// look inside any wrapper, same as handle does
+		Throwable embeddedCause = cause.getCause();
+		if (embeddedCause == null) {
+			embeddedCause = cause;
+		}
+		return ExceptionMapHolder.exceptionMap.statusFor(embeddedCause.getClass());
 	}
 
+	private static String describe(Method method) {
+		String paramTypes = Arrays.stream(method.getParameters()).map(param -> param.getType().getName())
+				.collect(Collectors.joining(","));
+		return method.getDeclaringClass().getName() + "." + method.getName() + "(" + paramTypes + ")";
+	}
 }
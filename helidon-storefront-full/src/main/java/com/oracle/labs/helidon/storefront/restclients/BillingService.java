@@ -36,6 +36,8 @@ SOFTWARE.
  */
 package com.oracle.labs.helidon.storefront.restclients;
 
+import java.util.Collection;
+
 import org.eclipse.microprofile.metrics.annotation.Counted;
 import org.eclipse.microprofile.rest.client.annotation.RegisterClientHeaders;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
@@ -48,6 +50,7 @@ import com.oracle.labs.helidon.storefront.headers.TransferClientHeaders;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
@@ -64,6 +67,25 @@ public interface BillingService {
 	@POST
 	public BillingEntryResponse postBillingEntry(BillingEntry billingEntry);
 
+	@Path("/saveentries")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	@POST
+	public BillingEntryResponse postBillingEntries(Collection<BillingEntry> billingEntries);
+
+	/**
+	 * For calls that aren't made as part of a request, so have no caller
+	 * credentials to pass on
+	 * 
+	 * @param authorization the Authorization header to send
+	 */
+	@Path("/saveentries")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	@POST
+	public BillingEntryResponse postBillingEntries(@HeaderParam("Authorization") String authorization,
+			Collection<BillingEntry> billingEntries);
+
 	@Path("/billinginfo")
 	@Counted(name = "billingInfoCounter")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -45,11 +45,13 @@ import com.oracle.labs.helidon.storefront.data.ItemDetails;
 import com.oracle.labs.helidon.storefront.headers.TransferClientHeaders;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 
 // Specify a config key here, this makes it easier in the configuration as we can just use that rather than having 
@@ -62,14 +64,78 @@ public interface StockManager {
 	@Produces(MediaType.APPLICATION_JSON)
 	public Collection<ItemDetails> getAllStockLevels();
 
+	/**
+	 * A page of the stock levels, ordered by item name. Only items after the
+	 * named item are included (all items if after is null) and no more than
+	 * limit of them. Callers get the next page by passing in the name of the last
+	 * item they got
+	 * 
+	 * @param limit the maximum number of items to return
+	 * @param after the item name to start after, may be null
+	 * @return
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Collection<ItemDetails> getStockLevelsPage(@QueryParam("limit") Integer limit,
+			@QueryParam("after") String after);
+
 	@GET
 	@Path("/{itemName}")
 	@Produces(MediaType.APPLICATION_JSON)
 	public ItemDetails getStockItem(@PathParam("itemName") String itemName);
 
+	/**
+	 * Bulk version of getStockItem, any items that are not known are just not
+	 * included in the results
+	 * 
+	 * @param itemNames
+	 * @return
+	 */
+	@POST
+	@Path("/bulk")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Collection<ItemDetails> getStockItems(Collection<String> itemNames);
+
 	@POST
 	@Path("/{itemName}/{itemCount}")
 	@Produces(MediaType.APPLICATION_JSON)
 	public ItemDetails setStockItemLevel(@PathParam("itemName") String itemName,
 			@PathParam("itemCount") Integer itemCount);
+
+	/**
+	 * Takes itemCount items from the stock in a single operation, but only if
+	 * there are at least ifAtLeast items available when the change is made. If the
+	 * item is unknown this fails with a 404, if there are not enough items with a
+	 * 409
+	 * 
+	 * @param itemName
+	 * @param itemCount the number of items to take
+	 * @param ifAtLeast the minimum level the item must be at for the change to
+	 *                  be made
+	 * @return the updated item details
+	 */
+	@POST
+	@Path("/{itemName}/decrement/{itemCount}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public ItemDetails decrementStockItemLevel(@PathParam("itemName") String itemName,
+			@PathParam("itemCount") Integer itemCount, @QueryParam("ifAtLeast") Integer ifAtLeast);
+
+	/**
+	 * Sets the level of the item, but only if it's current level is still
+	 * expectedItemCount (i.e. no one has changed it since we read it). If the
+	 * item is unknown this fails with a 404, if the level has changed with a 409.
+	 * This has it's own path so a stock manager without it fails the call rather
+	 * than treating it as an unconditional set
+	 * 
+	 * @param itemName
+	 * @param itemCount         the new level
+	 * @param expectedItemCount the level we expect the item to be at now
+	 * @return the updated item details
+	 */
+	@POST
+	@Path("/{itemName}/cas/{itemCount}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public ItemDetails compareAndSetStockItemLevel(@PathParam("itemName") String itemName,
+			@PathParam("itemCount") Integer itemCount, @QueryParam("expectedItemCount") Integer expectedItemCount);
 }
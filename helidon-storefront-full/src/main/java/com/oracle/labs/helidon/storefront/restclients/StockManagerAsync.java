@@ -0,0 +1,102 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.restclients;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+
+import org.eclipse.microprofile.rest.client.annotation.RegisterClientHeaders;
+import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.headers.TransferClientHeaders;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * The same calls as StockManager, but these return as soon as the request has
+ * been sent rather than holding the calling thread until the response arrives.
+ * This uses the same config key so there's only one set of settings for the
+ * stock manager service.
+ * 
+ * Note that this talks directly to the stock manager service, it doesn't go
+ * through any of the local layers (e.g. caching) the StockManager is wrapped in
+ */
+@RegisterRestClient(configKey = "StockManager")
+@RegisterClientHeaders(TransferClientHeaders.class)
+@ApplicationScoped
+public interface StockManagerAsync {
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public CompletionStage<Collection<ItemDetails>> getAllStockLevels();
+
+	@GET
+	@Path("/{itemName}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public CompletionStage<ItemDetails> getStockItem(@PathParam("itemName") String itemName);
+
+	@POST
+	@Path("/{itemName}/{itemCount}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public CompletionStage<ItemDetails> setStockItemLevel(@PathParam("itemName") String itemName,
+			@PathParam("itemCount") Integer itemCount);
+
+	/**
+	 * See StockManager.decrementStockItemLevel
+	 */
+	@POST
+	@Path("/{itemName}/decrement/{itemCount}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public CompletionStage<ItemDetails> decrementStockItemLevel(@PathParam("itemName") String itemName,
+			@PathParam("itemCount") Integer itemCount, @QueryParam("ifAtLeast") Integer ifAtLeast);
+
+	/**
+	 * See StockManager.compareAndSetStockItemLevel
+	 */
+	@POST
+	@Path("/{itemName}/cas/{itemCount}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public CompletionStage<ItemDetails> compareAndSetStockItemLevel(@PathParam("itemName") String itemName,
+			@PathParam("itemCount") Integer itemCount, @QueryParam("expectedItemCount") Integer expectedItemCount);
+}
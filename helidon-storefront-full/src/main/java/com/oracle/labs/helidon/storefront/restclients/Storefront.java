@@ -37,7 +37,10 @@ SOFTWARE.
 
 package com.oracle.labs.helidon.storefront.restclients;
 
+import java.io.InputStream;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
@@ -48,6 +51,8 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 
 import com.oracle.labs.helidon.storefront.data.ItemDetails;
 import com.oracle.labs.helidon.storefront.data.ItemRequest;
+import com.oracle.labs.helidon.storefront.data.ItemReservationResult;
+import com.oracle.labs.helidon.storefront.data.StockLevelPage;
 import com.oracle.labs.helidon.storefront.exceptions.MinimumChangeException;
 import com.oracle.labs.helidon.storefront.exceptions.NotEnoughItemsException;
 import com.oracle.labs.helidon.storefront.exceptions.UnknownItemException;
@@ -57,6 +62,7 @@ import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 
 /**
@@ -83,6 +89,34 @@ public interface Storefront {
 			+ "{\"itemCount\": 100, \"itemName\": \"Book\"}]")))
 	public Collection<ItemDetails> listAllStock();
 
+	/**
+	 * A page of the stock listing in item name order, pass the nextCursor from
+	 * the returned page to get the following one
+	 * 
+	 * @param limit  the maximum number of items in the page
+	 * @param cursor the nextCursor from the previous page, null for the first
+	 * @return
+	 */
+	@GET
+	@Path("/stocklevel/page")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Operation(summary = "List a page of stock items", description = "Returns a page of the stock items currently held in the database in item name order, use the nextCursor to get the following page")
+	@APIResponse(description = "A page of ItemDetails representing the current data in the database", responseCode = "200", content = @Content(schema = @Schema(implementation = StockLevelPage.class)))
+	@APIResponse(description = "The cursor is not one returned by this service", responseCode = "400")
+	public StockLevelPage listStockPage(@QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor);
+
+	/**
+	 * All of the stock items as newline delimited JSON, one ItemDetails per line
+	 * 
+	 * @return
+	 */
+	@GET
+	@Path("/stocklevel/stream")
+	@Produces("application/x-ndjson")
+	@Operation(summary = "Stream all stock items", description = "Returns all of the stock items currently held in the database in item name order as newline delimited JSON, one ItemDetails per line")
+	@APIResponse(description = "The ItemDetails representing the current data in the database, one per line", responseCode = "200")
+	public InputStream streamStock();
+
 	/**
 	 * adjust the available levels for the item for example curl -X POST -u
 	 * user:password -d '{"requestedItem":"wrench", "requestedCount":5}'
@@ -105,4 +139,52 @@ public interface Storefront {
 			@RequestBody(description = "The details of the item being requested", required = true, content = @Content(schema = @Schema(implementation = ItemRequest.class, example = "{\"requestedItem\", \"Pin\", \"requestedCount\",5}"))) ItemRequest itemRequest)
 			throws MinimumChangeException, UnknownItemException, NotEnoughItemsException;
 
-}
\ No newline at end of file
+	/**
+	 * reserve a number of different stock items in one request
+	 * 
+	 * @param itemRequests
+	 * @return the outcome of each of the reservations
+	 */
+	@POST
+	@Path("/reserveStocks")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Operation(summary = "Reserves a number of different stock items", description = "reserves a number of different stock items in the database. The number of each stock item being reserved must be greater than the defined minimum change, if any are not nothing is reserved")
+	@APIResponse(description = "The outcome of each of the requested reservations", responseCode = "200", content = @Content(schema = @Schema(implementation = ItemReservationResult.class, type = SchemaType.ARRAY)))
+	@APIResponse(description = "One or more of the requested changes does not meet the minimum level required for the change (i.e. is <= the minimumChange value)", responseCode = "406")
+	public List<ItemReservationResult> reserveStockItems(
+			@RequestBody(description = "The details of the items being requested", required = true, content = @Content(schema = @Schema(implementation = ItemRequest.class, type = SchemaType.ARRAY, example = "[{\"requestedItem\", \"Pin\", \"requestedCount\",5}]"))) List<ItemRequest> itemRequests);
+
+	/**
+	 * Same as listAllStock, but the storefront doesn't hold a thread while it's
+	 * waiting for the stock manager
+	 * 
+	 * @return
+	 */
+	@GET
+	@Path("/async/stocklevel")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Operation(summary = "List stock items without blocking", description = "Returns a list of all of the stock items currently held in the database (the list may be empty if there are no items), the storefront does not hold a thread while waiting for the database")
+	@APIResponse(description = "A set of ItemDetails representing the current data in the database", responseCode = "200", content = @Content(schema = @Schema(implementation = ItemDetails.class, type = SchemaType.ARRAY)))
+	public CompletionStage<Collection<ItemDetails>> listAllStockAsync();
+
+	/**
+	 * Same as reserveStockItem, but the storefront doesn't hold a thread while
+	 * it's waiting for the stock manager or billing service
+	 * 
+	 * @param itemRequest
+	 * @return
+	 */
+	@POST
+	@Path("/async/reserveStock")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Operation(summary = "Reserves a number of stock items without blocking", description = "reserves a number of stock items in the database. The number of stock items being reserved must be greater than the defined minimum change, the storefront does not hold a thread while waiting for the database")
+	@APIResponse(description = "The updated stock details for the item", responseCode = "200", content = @Content(schema = @Schema(implementation = ItemDetails.class)))
+	@APIResponse(description = "The requested item does not exist", responseCode = "404")
+	@APIResponse(description = "The requested change does not meet the minimum level required for the change (i.e. is <= the minimumChange value)", responseCode = "406")
+	@APIResponse(description = "There are not enough of the requested item to fulfil your request", responseCode = "409")
+	public CompletionStage<ItemDetails> reserveStockItemAsync(
+			@RequestBody(description = "The details of the item being requested", required = true, content = @Content(schema = @Schema(implementation = ItemRequest.class, example = "{\"requestedItem\", \"Pin\", \"requestedCount\",5}"))) ItemRequest itemRequest);
+
+}
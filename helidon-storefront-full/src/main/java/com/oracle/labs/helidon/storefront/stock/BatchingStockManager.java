@@ -0,0 +1,270 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Collects getStockItem calls for different items that arrive within a short
+ * window and resolves them all using a single getStockItems bulk call.
+ * 
+ * There is no separate dispatcher thread, the first caller to arrive opens a
+ * batch, waits for the window to pass (or the batch to fill up) and then makes
+ * the bulk call on it's own thread, that way the calls are made with a real
+ * requests headers. Everyone who joined the batch gets their item from the
+ * result, or the same exception if the bulk call failed.
+ * 
+ * The stock levels are the same for every user, so lookups from different
+ * users share a batch made with the leader's credentials (the same trust model
+ * as the stock cache). If no one else is in the middle of a lookup there's
+ * nothing to wait for, so the call is made straight away rather than adding the
+ * window to an uncontended lookup.
+ * 
+ * This is on the hottest read path, so there are no locks, joining a batch is
+ * a compare and set on it's size and an add to a concurrent queue.
+ * 
+ * Other calls are passed straight through to the delegate
+ */
+@Slf4j
+public class BatchingStockManager implements StockManager {
+	private final StockManager delegate;
+	private final long windowNanos;
+	private final int maxBatchSize;
+	// lookups that have started but not yet returned
+	private final AtomicInteger lookups = new AtomicInteger();
+	// the batch currently accepting items, null if there isn't one
+	private final AtomicReference<Batch> openBatch = new AtomicReference<>();
+	private final Counter bulkCalls;
+	private final Counter batchedItems;
+	private final Histogram batchSizes;
+
+	public BatchingStockManager(StockManager delegate, long windowMillis, int maxBatchSize,
+			MetricRegistry metricRegistry) {
+		this.delegate = delegate;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.maxBatchSize = maxBatchSize;
+		this.bulkCalls = metricRegistry.counter("stockBatchCalls");
+		this.batchedItems = metricRegistry.counter("stockBatchedItems");
+		this.batchSizes = metricRegistry.histogram("stockBatchSize");
+		log.info("Stock item batching enabled, window " + windowMillis + "ms, max batch size " + maxBatchSize);
+	}
+
+	@Override
+	public Collection<ItemDetails> getAllStockLevels() {
+		return delegate.getAllStockLevels();
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockLevelsPage(Integer limit, String after) {
+		return delegate.getStockLevelsPage(limit, after);
+	}
+
+	@Override
+	public ItemDetails getStockItem(String itemName) {
+		try {
+			if (lookups.incrementAndGet() == 1) {
+				// no one else is looking anything up, so no one is going to join
+				batchSizes.update(1);
+				return delegate.getStockItem(itemName);
+			}
+			while (true) {
+				Batch batch = openBatch.get();
+				if (batch == null) {
+					Batch ourBatch = new Batch();
+					CompletableFuture<ItemDetails> result = ourBatch.join(itemName);
+					if (openBatch.compareAndSet(null, ourBatch)) {
+						lead(ourBatch);
+						return result.join();
+					}
+					// someone else opened one first, try and join theirs
+					continue;
+				}
+				CompletableFuture<ItemDetails> result = batch.join(itemName);
+				if (result != null) {
+					return result.join();
+				}
+				// it's full or being dispatched, make way for a new one
+				openBatch.compareAndSet(batch, null);
+			}
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		} finally {
+			lookups.decrementAndGet();
+		}
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockItems(Collection<String> itemNames) {
+		return delegate.getStockItems(itemNames);
+	}
+
+	@Override
+	public ItemDetails setStockItemLevel(String itemName, Integer itemCount) {
+		return delegate.setStockItemLevel(itemName, itemCount);
+	}
+
+	@Override
+	public ItemDetails decrementStockItemLevel(String itemName, Integer itemCount, Integer ifAtLeast) {
+		return delegate.decrementStockItemLevel(itemName, itemCount, ifAtLeast);
+	}
+
+	@Override
+	public ItemDetails compareAndSetStockItemLevel(String itemName, Integer itemCount, Integer expectedItemCount) {
+		return delegate.compareAndSetStockItemLevel(itemName, itemCount, expectedItemCount);
+	}
+
+	private void lead(Batch batch) {
+		try {
+			batch.full.await(windowNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		openBatch.compareAndSet(batch, null);
+		dispatch(batch.close());
+	}
+
+	private void dispatch(Map<String, List<CompletableFuture<ItemDetails>>> pending) {
+		int size = pending.size();
+		batchSizes.update(size);
+		try {
+			if (size == 1) {
+				// no point in a bulk call for a single item
+				Map.Entry<String, List<CompletableFuture<ItemDetails>>> only = pending.entrySet().iterator().next();
+				ItemDetails itemDetails = delegate.getStockItem(only.getKey());
+				only.getValue().forEach(waiting -> waiting.complete(itemDetails));
+				return;
+			}
+			bulkCalls.inc();
+			batchedItems.inc(size);
+			Collection<ItemDetails> found = delegate.getStockItems(new ArrayList<>(pending.keySet()));
+			found.forEach(itemDetails -> {
+				List<CompletableFuture<ItemDetails>> waiting = pending.get(itemDetails.getItemName());
+				if (waiting != null) {
+					waiting.forEach(result -> result.complete(itemDetails));
+				}
+			});
+			// anything not in the results is an unknown item, same as a null from
+			// getStockItem
+			pending.values().forEach(waiting -> waiting.forEach(result -> result.complete(null)));
+		} catch (RuntimeException e) {
+			pending.values().forEach(waiting -> waiting.forEach(result -> result.completeExceptionally(e)));
+		}
+	}
+
+	private static class Lookup {
+		private final String itemName;
+		private final CompletableFuture<ItemDetails> result = new CompletableFuture<>();
+
+		private Lookup(String itemName) {
+			this.itemName = itemName;
+		}
+	}
+
+	private class Batch {
+		// the number of lookups that have reserved a place, CLOSED once the leader
+		// has taken the batch
+		private static final int CLOSED = -1;
+		private final AtomicInteger reserved = new AtomicInteger();
+		// the lookups that have been added after reserving their place
+		private final AtomicInteger added = new AtomicInteger();
+		private final Queue<Lookup> lookups = new ConcurrentLinkedQueue<>();
+		private final CountDownLatch full = new CountDownLatch(1);
+
+		/**
+		 * @return the future for the item, or null if the batch is full or closed
+		 */
+		private CompletableFuture<ItemDetails> join(String itemName) {
+			int place;
+			do {
+				place = reserved.get();
+				if ((place == CLOSED) || (place >= maxBatchSize)) {
+					return null;
+				}
+			} while (!reserved.compareAndSet(place, place + 1));
+			Lookup lookup = new Lookup(itemName);
+			lookups.add(lookup);
+			added.incrementAndGet();
+			if (place + 1 == maxBatchSize) {
+				full.countDown();
+			}
+			return lookup.result;
+		}
+
+		/**
+		 * Only called once, by the leader
+		 * 
+		 * @return the futures waiting for each item, if the same item is requested
+		 *         twice in the batch we only ask for it once
+		 */
+		private Map<String, List<CompletableFuture<ItemDetails>>> close() {
+			int places = reserved.getAndSet(CLOSED);
+			// anyone with a place is between reserving it and adding their lookup,
+			// that's only a few instructions so just wait for them
+			while (added.get() < places) {
+				Thread.onSpinWait();
+			}
+			Map<String, List<CompletableFuture<ItemDetails>>> pending = new LinkedHashMap<>();
+			lookups.forEach(lookup -> pending.computeIfAbsent(lookup.itemName, name -> new ArrayList<>(1))
+					.add(lookup.result));
+			return pending;
+		}
+	}
+}
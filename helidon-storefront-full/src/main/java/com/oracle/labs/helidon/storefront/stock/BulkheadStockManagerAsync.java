@@ -0,0 +1,88 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+
+import com.oracle.labs.helidon.storefront.bulkheads.Bulkheads;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.restclients.StockManagerAsync;
+
+/**
+ * Counts every non blocking call to the delegate against the stock manager
+ * bulkhead, along with the blocking ones from BulkheadStockManager, so the
+ * async endpoints can't get round the limit on calls to the stock manager
+ */
+public class BulkheadStockManagerAsync implements StockManagerAsync {
+	private final StockManagerAsync delegate;
+	private final Bulkheads bulkheads;
+
+	public BulkheadStockManagerAsync(StockManagerAsync delegate, Bulkheads bulkheads) {
+		this.delegate = delegate;
+		this.bulkheads = bulkheads;
+	}
+
+	@Override
+	public CompletionStage<Collection<ItemDetails>> getAllStockLevels() {
+		return bulkheads.callAsync(Bulkheads.STOCK_MANAGER, () -> delegate.getAllStockLevels());
+	}
+
+	@Override
+	public CompletionStage<ItemDetails> getStockItem(String itemName) {
+		return bulkheads.callAsync(Bulkheads.STOCK_MANAGER, () -> delegate.getStockItem(itemName));
+	}
+
+	@Override
+	public CompletionStage<ItemDetails> setStockItemLevel(String itemName, Integer itemCount) {
+		return bulkheads.callAsync(Bulkheads.STOCK_MANAGER, () -> delegate.setStockItemLevel(itemName, itemCount));
+	}
+
+	@Override
+	public CompletionStage<ItemDetails> decrementStockItemLevel(String itemName, Integer itemCount,
+			Integer ifAtLeast) {
+		return bulkheads.callAsync(Bulkheads.STOCK_MANAGER,
+				() -> delegate.decrementStockItemLevel(itemName, itemCount, ifAtLeast));
+	}
+
+	@Override
+	public CompletionStage<ItemDetails> compareAndSetStockItemLevel(String itemName, Integer itemCount,
+			Integer expectedItemCount) {
+		return bulkheads.callAsync(Bulkheads.STOCK_MANAGER,
+				() -> delegate.compareAndSetStockItemLevel(itemName, itemCount, expectedItemCount));
+	}
+}
@@ -0,0 +1,419 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+
+import jakarta.ws.rs.WebApplicationException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A read-through cache in front of a StockManager. Reads of individual items
+ * and of the complete stock listing are served from memory until they are
+ * older than the configured time to live, updates are written through to the
+ * delegate and the ItemDetails it returns are used to refresh the cache so this
+ * replica always sees it's own changes.
+ * 
+ * Other storefront replicas may change the levels behind our back, so the data
+ * may be up to the time to live out of date. When we load a level from the
+ * delegate that's different to the one we were holding that's one of those
+ * changes, and it's passed to the level listener. The comparison is made
+ * against the off heap listing (or the individual item) we already have, so
+ * there's no extra copy of the levels, and it's skipped entirely if no one is
+ * listening. Our own updates aren't passed on, whoever made them knows about
+ * them.
+ */
+@Slf4j
+public class CachingStockManager implements StockManager {
+	/**
+	 * How to choose the item to drop when the cache is full, LRU drops the entry
+	 * that's not been read for the longest time, FIFO the one that was loaded
+	 * first
+	 */
+	public enum EvictionPolicy {
+		LRU, FIFO
+	}
+
+	private final StockManager delegate;
+	private final long ttlNanos;
+	// the individual items, this is a LinkedHashMap so we get the eviction order
+	// for free, all access to it must be synchronized on the map itself
+	private final Map<String, CachedLevel> items;
+	// the last complete listing we got, replaced as a whole when it expires, the
+	// table in it is never changed once it's been published
+	private volatile CachedListing listing = null;
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter evictions;
+	private final BooleanSupplier listening;
+	private final Consumer<ItemDetails> levelListener;
+
+	public CachingStockManager(StockManager delegate, long ttlMillis, int maxEntries, EvictionPolicy evictionPolicy,
+			BooleanSupplier listening, Consumer<ItemDetails> levelListener, MetricRegistry metricRegistry) {
+		this.delegate = delegate;
+		this.listening = listening;
+		this.levelListener = levelListener;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.hits = metricRegistry.counter("stockCacheHits");
+		this.misses = metricRegistry.counter("stockCacheMisses");
+		this.evictions = metricRegistry.counter("stockCacheEvictions");
+		// access order is what makes a LinkedHashMap LRU rather than FIFO
+		this.items = new LinkedHashMap<>(16, 0.75f, evictionPolicy == EvictionPolicy.LRU) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedLevel> eldest) {
+				if (size() > maxEntries) {
+					evictions.inc();
+					return true;
+				}
+				return false;
+			}
+		};
+		metricRegistry.gauge("stockCacheSize", this::size);
+		metricRegistry.gauge("stockCacheListingBytesPerItem", this::listingBytesPerItem);
+		log.info("Stock cache enabled, ttl " + ttlMillis + "ms, max entries " + maxEntries + ", eviction "
+				+ evictionPolicy);
+	}
+
+	@Override
+	public Collection<ItemDetails> getAllStockLevels() {
+		CachedListing current = listing;
+		if ((current != null) && !current.isExpired(System.nanoTime())) {
+			hits.inc();
+			return current.toItemDetails();
+		}
+		misses.inc();
+		Collection<ItemDetails> itemsList = delegate.getAllStockLevels();
+		// an old listing from the circuit breaker, the stock manager isn't
+		// answering, so there's nothing new to cache
+		if (itemsList instanceof StaleStockListing) {
+			return itemsList;
+		}
+		long loadedAt = System.nanoTime();
+		// always a new table, one that's been published may be being read
+		Map<String, Integer> levels = new HashMap<>(itemsList.size() * 2);
+		itemsList.forEach(item -> levels.put(item.getItemName(), item.getItemCount()));
+		ItemTable loadedTable = new ItemTable(levels);
+		CachedListing previous = listing;
+		listing = new CachedListing(loadedTable, loadedAt);
+		boolean findChanges = listening.getAsBoolean();
+		if (findChanges && (previous != null)) {
+			itemsList.forEach(item -> {
+				int entry = previous.table.indexOf(item.getItemName());
+				if ((entry >= 0) && (previous.levelAt(entry) != item.getItemCount())) {
+					levelListener.accept(item);
+				}
+			});
+		}
+		// we've been handed the current levels of everything, may as well use them
+		// to refresh any individual items we're holding
+		List<ItemDetails> changed = new ArrayList<>();
+		synchronized (items) {
+			items.replaceAll((itemName, cached) -> {
+				int entry = loadedTable.indexOf(itemName);
+				if (entry < 0) {
+					return cached;
+				}
+				int level = loadedTable.levelAt(entry);
+				// anything in the previous listing has already been compared
+				if (findChanges && (cached.itemCount != level)
+						&& ((previous == null) || (previous.table.indexOf(itemName) < 0))) {
+					changed.add(new ItemDetails(itemName, level));
+				}
+				return new CachedLevel(level, loadedAt);
+			});
+		}
+		changed.forEach(levelListener);
+		return itemsList;
+	}
+
+	/**
+	 * Pages are served from the listing if we have a current one, we don't cache
+	 * the individual pages as they would be too easy to get out of step with each
+	 * other
+	 */
+	@Override
+	public Collection<ItemDetails> getStockLevelsPage(Integer limit, String after) {
+		CachedListing current = listing;
+		if ((current != null) && !current.isExpired(System.nanoTime())) {
+			hits.inc();
+			int start = after == null ? 0 : current.table.indexAfter(after);
+			int end = (int) Math.min((long) start + limit, current.table.size());
+			return current.toItemDetails(start, end);
+		}
+		misses.inc();
+		return delegate.getStockLevelsPage(limit, after);
+	}
+
+	@Override
+	public ItemDetails getStockItem(String itemName) {
+		long now = System.nanoTime();
+		CachedLevel cached;
+		synchronized (items) {
+			cached = items.get(itemName);
+		}
+		if ((cached != null) && !cached.isExpired(now)) {
+			hits.inc();
+			return new ItemDetails(itemName, cached.itemCount);
+		}
+		// we may not have been asked for this item directly, but it could be in the
+		// listing
+		CachedListing current = listing;
+		if ((current != null) && !current.isExpired(now)) {
+			int entry = current.table.indexOf(itemName);
+			if (entry >= 0) {
+				hits.inc();
+				return new ItemDetails(itemName, current.levelAt(entry));
+			}
+		}
+		misses.inc();
+		ItemDetails itemDetails = delegate.getStockItem(itemName);
+		// don't cache unknown items, they may be added at any point
+		if (itemDetails != null) {
+			loaded(itemDetails);
+		}
+		return itemDetails;
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockItems(Collection<String> itemNames) {
+		// answer what we can from the cache and only ask for the rest
+		List<ItemDetails> itemsList = new ArrayList<>(itemNames.size());
+		List<String> missing = new ArrayList<>();
+		long now = System.nanoTime();
+		synchronized (items) {
+			for (String itemName : itemNames) {
+				CachedLevel cached = items.get(itemName);
+				if ((cached != null) && !cached.isExpired(now)) {
+					itemsList.add(new ItemDetails(itemName, cached.itemCount));
+				} else {
+					missing.add(itemName);
+				}
+			}
+		}
+		hits.inc(itemsList.size());
+		if (!missing.isEmpty()) {
+			misses.inc(missing.size());
+			Collection<ItemDetails> loaded = delegate.getStockItems(missing);
+			loaded.forEach(itemDetails -> loaded(itemDetails));
+			itemsList.addAll(loaded);
+		}
+		return itemsList;
+	}
+
+	@Override
+	public ItemDetails setStockItemLevel(String itemName, Integer itemCount) {
+		// write through, then use what the stock manager tells us is the updated state
+		ItemDetails updatedItemDetails = delegate.setStockItemLevel(itemName, itemCount);
+		if (updatedItemDetails != null) {
+			cache(updatedItemDetails);
+		}
+		return updatedItemDetails;
+	}
+
+	@Override
+	public ItemDetails decrementStockItemLevel(String itemName, Integer itemCount, Integer ifAtLeast) {
+		return conditionalUpdate(itemName, () -> delegate.decrementStockItemLevel(itemName, itemCount, ifAtLeast));
+	}
+
+	@Override
+	public ItemDetails compareAndSetStockItemLevel(String itemName, Integer itemCount, Integer expectedItemCount) {
+		return conditionalUpdate(itemName,
+				() -> delegate.compareAndSetStockItemLevel(itemName, itemCount, expectedItemCount));
+	}
+
+	/**
+	 * If a conditional update is refused then the level we hold for the item is
+	 * probably wrong, so drop it, the next read will go to the delegate
+	 */
+	private ItemDetails conditionalUpdate(String itemName, Supplier<ItemDetails> update) {
+		try {
+			ItemDetails updatedItemDetails = update.get();
+			if (updatedItemDetails != null) {
+				cache(updatedItemDetails);
+			}
+			return updatedItemDetails;
+		} catch (WebApplicationException e) {
+			synchronized (items) {
+				items.remove(itemName);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * A level read from the delegate, if it's not the one we were holding someone
+	 * else has changed it
+	 */
+	private void loaded(ItemDetails itemDetails) {
+		if (listening.getAsBoolean()) {
+			Integer previousLevel = heldLevel(itemDetails.getItemName());
+			if ((previousLevel != null) && (previousLevel != itemDetails.getItemCount())) {
+				levelListener.accept(itemDetails);
+			}
+		}
+		cache(itemDetails);
+	}
+
+	/**
+	 * @return the level we have for the item, even if it's expired, or null if we
+	 *         don't have one
+	 */
+	private Integer heldLevel(String itemName) {
+		CachedLevel cached;
+		synchronized (items) {
+			cached = items.get(itemName);
+		}
+		if (cached != null) {
+			return cached.itemCount;
+		}
+		CachedListing current = listing;
+		if (current != null) {
+			int entry = current.table.indexOf(itemName);
+			if (entry >= 0) {
+				return current.levelAt(entry);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Record the item as just loaded in the individual items and if it's in the
+	 * listing record it as a change to that as well so they don't disagree
+	 */
+	private void cache(ItemDetails itemDetails) {
+		CachedLevel level = new CachedLevel(itemDetails.getItemCount(), System.nanoTime());
+		synchronized (items) {
+			items.put(itemDetails.getItemName(), level);
+		}
+		CachedListing current = listing;
+		if (current != null) {
+			int entry = current.table.indexOf(itemDetails.getItemName());
+			if (entry >= 0) {
+				current.changedLevels.put(entry, level.itemCount);
+			}
+		}
+	}
+
+	public int size() {
+		synchronized (items) {
+			return items.size();
+		}
+	}
+
+	private long listingBytesPerItem() {
+		CachedListing current = listing;
+		if ((current == null) || (current.table.size() == 0)) {
+			return 0;
+		}
+		return current.table.offHeapBytes() / current.table.size();
+	}
+
+	/**
+	 * Immutable so it's safe to share, the callers get their own ItemDetails
+	 * built from it as that class is mutable
+	 */
+	private class CachedLevel {
+		private final int itemCount;
+		private final long loadedAt;
+
+		private CachedLevel(int itemCount, long loadedAt) {
+			this.itemCount = itemCount;
+			this.loadedAt = loadedAt;
+		}
+
+		private boolean isExpired(long now) {
+			return now - loadedAt > ttlNanos;
+		}
+	}
+
+	/**
+	 * The listing is held off heap, so a large catalogue doesn't mean lots of
+	 * objects for the garbage collector to deal with. The levels we've written
+	 * since it was loaded are held separately by entry number, so the table
+	 * itself is never changed and the callers get a copy of the levels taken in
+	 * one go
+	 */
+	private class CachedListing {
+		private final ItemTable table;
+		private final long loadedAt;
+		private final Map<Integer, Integer> changedLevels = new ConcurrentHashMap<>();
+
+		private CachedListing(ItemTable table, long loadedAt) {
+			this.table = table;
+			this.loadedAt = loadedAt;
+		}
+
+		private boolean isExpired(long now) {
+			return now - loadedAt > ttlNanos;
+		}
+
+		private int levelAt(int entry) {
+			Integer changedLevel = changedLevels.get(entry);
+			return changedLevel == null ? table.levelAt(entry) : changedLevel;
+		}
+
+		private Collection<ItemDetails> toItemDetails() {
+			return toItemDetails(0, table.size());
+		}
+
+		private List<ItemDetails> toItemDetails(int start, int end) {
+			List<ItemDetails> itemsList = new ArrayList<>(end - start);
+			for (int entry = start; entry < end; entry++) {
+				itemsList.add(new ItemDetails(table.nameAt(entry), levelAt(entry)));
+			}
+			return itemsList;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.faulttolerance.exceptions.CircuitBreakerOpenException;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.logging.StructuredLog;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+
+/**
+ * Stops calling the stock manager once it's failed failureThreshold times in a
+ * row, rather than every request waiting for the connect timeout. While the
+ * circuit is open calls fail straight away with a CircuitBreakerOpenException,
+ * after openDelay one call is let through to see if the stock manager is back,
+ * if it works the circuit closes again, if not it stays open for another
+ * openDelay.
+ * 
+ * Only connection problems, timeouts and 5xx responses count as failures, a
+ * 404 or 409 is the stock manager working properly.
+ * 
+ * The last listing that worked is kept, and if the listing can't be loaded (the
+ * circuit is open or the call failed) that is returned as a StaleStockListing,
+ * as long as it's no older than maxStaleMillis. Nothing is copied, the
+ * collections we're given aren't changed by anyone once they've been returned.
+ * This goes directly around the rest client (and it's bulkhead) so only the
+ * calls that actually go to the stock manager count, the cache can still
+ * answer while the circuit is open
+ */
+public class CircuitBreakerStockManager implements StockManager {
+	private static final StructuredLog events = StructuredLog.forClass(CircuitBreakerStockManager.class);
+
+	private final StockManager delegate;
+	private final int failureThreshold;
+	private final long openDelayNanos;
+	private final long maxStaleNanos;
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	// only one call is let through to test the stock manager when the delay is up
+	private final AtomicBoolean testing = new AtomicBoolean();
+	private volatile boolean open = false;
+	private volatile long openedAt;
+	private volatile LastListing lastListing = null;
+	private final Counter shortCircuited;
+	private final Counter servedStale;
+
+	public CircuitBreakerStockManager(StockManager delegate, int failureThreshold, long openDelayMillis,
+			long maxStaleMillis, MetricRegistry metricRegistry) {
+		this.delegate = delegate;
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openDelayNanos = TimeUnit.MILLISECONDS.toNanos(openDelayMillis);
+		this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleMillis);
+		this.shortCircuited = metricRegistry.counter("stockCircuitBreakerShortCircuited");
+		this.servedStale = metricRegistry.counter("stockListingServedStale");
+		metricRegistry.gauge("stockCircuitBreakerOpen", () -> open ? 1 : 0);
+		metricRegistry.gauge("stockListingSnapshotAgeMillis", this::lastListingAgeMillis);
+	}
+
+	@Override
+	public Collection<ItemDetails> getAllStockLevels() {
+		Collection<ItemDetails> items;
+		try {
+			items = call(delegate::getAllStockLevels);
+		} catch (RuntimeException e) {
+			if (!isFailure(e)) {
+				throw e;
+			}
+			LastListing current = lastListing;
+			long age = current == null ? 0 : System.nanoTime() - current.loadedAt;
+			if ((current == null) || (age > maxStaleNanos)) {
+				throw e;
+			}
+			servedStale.inc();
+			events.success("listing.stale", "ageMillis", TimeUnit.NANOSECONDS.toMillis(age));
+			return new StaleStockListing(current.items, TimeUnit.NANOSECONDS.toMillis(age));
+		}
+		lastListing = new LastListing(items, System.nanoTime());
+		return items;
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockLevelsPage(Integer limit, String after) {
+		return call(() -> delegate.getStockLevelsPage(limit, after));
+	}
+
+	@Override
+	public ItemDetails getStockItem(String itemName) {
+		return call(() -> delegate.getStockItem(itemName));
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockItems(Collection<String> itemNames) {
+		return call(() -> delegate.getStockItems(itemNames));
+	}
+
+	@Override
+	public ItemDetails setStockItemLevel(String itemName, Integer itemCount) {
+		return call(() -> delegate.setStockItemLevel(itemName, itemCount));
+	}
+
+	@Override
+	public ItemDetails decrementStockItemLevel(String itemName, Integer itemCount, Integer ifAtLeast) {
+		return call(() -> delegate.decrementStockItemLevel(itemName, itemCount, ifAtLeast));
+	}
+
+	@Override
+	public ItemDetails compareAndSetStockItemLevel(String itemName, Integer itemCount, Integer expectedItemCount) {
+		return call(() -> delegate.compareAndSetStockItemLevel(itemName, itemCount, expectedItemCount));
+	}
+
+	private <T> T call(Supplier<T> call) {
+		boolean testCall = false;
+		if (open) {
+			if ((System.nanoTime() - openedAt < openDelayNanos) || !testing.compareAndSet(false, true)) {
+				shortCircuited.inc();
+				throw new CircuitBreakerOpenException("The stock manager has failed " + failureThreshold
+						+ " times in a row, not calling it for now");
+			}
+			testCall = true;
+		}
+		try {
+			T result = call.get();
+			succeeded();
+			return result;
+		} catch (RuntimeException e) {
+			if (isFailure(e)) {
+				failed(e);
+			} else {
+				succeeded();
+			}
+			throw e;
+		} finally {
+			if (testCall) {
+				testing.set(false);
+			}
+		}
+	}
+
+	private void succeeded() {
+		// this is every call, so don't write to the shared counter unless we need to
+		if (consecutiveFailures.get() != 0) {
+			consecutiveFailures.set(0);
+		}
+		if (open) {
+			open = false;
+			events.info("circuitbreaker.closed");
+		}
+	}
+
+	private void failed(RuntimeException e) {
+		if ((consecutiveFailures.incrementAndGet() >= failureThreshold) || open) {
+			// if it was already open this was the test call, so wait again
+			openedAt = System.nanoTime();
+			if (!open) {
+				open = true;
+				events.warn("circuitbreaker.opened", "failures", failureThreshold, "problem", e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Problems with the stock manager itself, the circuit being open is also
+	 * included so we fall back to the last listing
+	 */
+	private static boolean isFailure(RuntimeException e) {
+		if ((e instanceof ProcessingException) || (e instanceof CircuitBreakerOpenException)) {
+			return true;
+		}
+		return (e instanceof WebApplicationException)
+				&& (((WebApplicationException) e).getResponse().getStatus() >= 500);
+	}
+
+	private long lastListingAgeMillis() {
+		LastListing current = lastListing;
+		return current == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - current.loadedAt);
+	}
+
+	private static class LastListing {
+		private final Collection<ItemDetails> items;
+		private final long loadedAt;
+
+		private LastListing(Collection<ItemDetails> items, long loadedAt) {
+			this.items = items;
+			this.loadedAt = loadedAt;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Makes sure that there is only ever one read for a given key in flight to the
+ * delegate at a time. The first caller for a key makes the call on it's own
+ * thread (so it's request headers are the ones transferred), anyone else asking
+ * for the same key while that's in progress just waits for the same result, or
+ * gets the same exception.
+ * 
+ * The stock levels are the same whoever asks for them, so reads are combined
+ * across users and the followers share the result of the call made with the
+ * leader's credentials. This is the same trust model as the stock cache, which
+ * hands one user's reads to everyone else.
+ * 
+ * Updates are never combined, they are passed straight to the delegate
+ */
+@Slf4j
+public class CoalescingStockManager implements StockManager {
+	private final static String ALL_STOCK_LEVELS_KEY = "getAllStockLevels";
+	private final static String STOCK_ITEM_KEY = "getStockItem";
+	private final StockManager delegate;
+	private final MetricRegistry metricRegistry;
+	private final boolean perItemMetrics;
+	private final ConcurrentMap<String, CompletableFuture<ItemDetails>> itemsInFlight = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, CompletableFuture<Collection<ItemDetails>>> listingsInFlight = new ConcurrentHashMap<>();
+	private final Counter allStockLevelsCoalesced;
+	private final Counter stockItemCoalesced;
+
+	public CoalescingStockManager(StockManager delegate, boolean perItemMetrics, MetricRegistry metricRegistry) {
+		this.delegate = delegate;
+		this.perItemMetrics = perItemMetrics;
+		this.metricRegistry = metricRegistry;
+		this.allStockLevelsCoalesced = metricRegistry.counter("stockCoalescedCalls",
+				new Tag("key", ALL_STOCK_LEVELS_KEY));
+		this.stockItemCoalesced = metricRegistry.counter("stockCoalescedCalls", new Tag("key", STOCK_ITEM_KEY));
+		metricRegistry.gauge("stockCoalescingInFlight", () -> itemsInFlight.size() + listingsInFlight.size());
+		log.info("Stock read coalescing enabled, per item metrics " + perItemMetrics);
+	}
+
+	@Override
+	public Collection<ItemDetails> getAllStockLevels() {
+		return singleFlight(listingsInFlight, ALL_STOCK_LEVELS_KEY, () -> delegate.getAllStockLevels(),
+				allStockLevelsCoalesced);
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockLevelsPage(Integer limit, String after) {
+		return delegate.getStockLevelsPage(limit, after);
+	}
+
+	@Override
+	public ItemDetails getStockItem(String itemName) {
+		// there could be a huge number of items, so only have a counter per item if
+		// we've been asked to, otherwise they all go into the getStockItem counter
+		Counter coalesced = perItemMetrics ? metricRegistry.counter("stockCoalescedCalls", new Tag("key", itemName))
+				: stockItemCoalesced;
+		return singleFlight(itemsInFlight, itemName, () -> delegate.getStockItem(itemName), coalesced);
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockItems(Collection<String> itemNames) {
+		// the chances of two identical sets of names arriving together are pretty low
+		return delegate.getStockItems(itemNames);
+	}
+
+	@Override
+	public ItemDetails setStockItemLevel(String itemName, Integer itemCount) {
+		return delegate.setStockItemLevel(itemName, itemCount);
+	}
+
+	@Override
+	public ItemDetails decrementStockItemLevel(String itemName, Integer itemCount, Integer ifAtLeast) {
+		return delegate.decrementStockItemLevel(itemName, itemCount, ifAtLeast);
+	}
+
+	@Override
+	public ItemDetails compareAndSetStockItemLevel(String itemName, Integer itemCount, Integer expectedItemCount) {
+		return delegate.compareAndSetStockItemLevel(itemName, itemCount, expectedItemCount);
+	}
+
+	private <T> T singleFlight(ConcurrentMap<String, CompletableFuture<T>> inFlight, String key, Supplier<T> call,
+			Counter coalesced) {
+		CompletableFuture<T> ourCall = new CompletableFuture<>();
+		CompletableFuture<T> existingCall = inFlight.putIfAbsent(key, ourCall);
+		if (existingCall != null) {
+			// someone else is already asking, wait for them
+			coalesced.inc();
+			try {
+				return existingCall.join();
+			} catch (CompletionException e) {
+				throw rethrow(e.getCause());
+			}
+		}
+		// we're the leader, make the call and hand the outcome to anyone waiting
+		try {
+			T result = call.get();
+			ourCall.complete(result);
+			return result;
+		} catch (RuntimeException e) {
+			ourCall.completeExceptionally(e);
+			throw e;
+		} finally {
+			// once it's completed anyone arriving after this needs a fresh call
+			inFlight.remove(key, ourCall);
+		}
+	}
+
+	private RuntimeException rethrow(Throwable cause) {
+		// the StockManager methods don't have any checked exceptions so this will be
+		// the original one thrown
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		}
+		return new CompletionException(cause);
+	}
+}
@@ -0,0 +1,310 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+/**
+ * A fixed set of items and their levels held outside the Java heap, for
+ * catalogues too big to hold as objects. The set of items can't change once
+ * the table is built, but the levels can be updated safely by many threads.
+ * 
+ * There are three direct buffers
+ * <ul>
+ * <li>the item names, UTF-8 encoded one after another (the dictionary)</li>
+ * <li>the entries, one per item in item name order, each is 16 bytes holding
+ * the name hash, offset and length in the dictionary and the level</li>
+ * <li>the index, an open addressing (linear probing) hash table at most half
+ * full, each slot holds the entry number + 1 or 0 if it's empty</li>
+ * </ul>
+ * 
+ * which comes to 16 bytes + 8 bytes of index + the name per item, with no
+ * per item objects for the garbage collector to deal with. ItemDetails objects
+ * are only created when something asks for an item.
+ * 
+ * The levels are read and written through a VarHandle, which gives volatile
+ * reads and writes and compare and set directly on the buffer.
+ */
+public class ItemTable {
+	private final static VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class,
+			ByteOrder.nativeOrder());
+	private final static int ENTRY_SIZE = 16;
+	private final static int HASH_OFFSET = 0;
+	private final static int NAME_OFFSET = 4;
+	private final static int NAME_LENGTH_OFFSET = 8;
+	private final static int LEVEL_OFFSET = 12;
+
+	private final int size;
+	private final ByteBuffer names;
+	private final ByteBuffer entries;
+	private final ByteBuffer index;
+	private final int indexMask;
+
+	/**
+	 * Build a table holding the items and their levels
+	 * 
+	 * @param levels
+	 */
+	public ItemTable(Map<String, Integer> levels) {
+		String[] itemNames = levels.keySet().toArray(new String[0]);
+		Arrays.sort(itemNames);
+		this.size = itemNames.length;
+		byte[][] encodedNames = new byte[size][];
+		long namesLength = 0;
+		for (int i = 0; i < size; i++) {
+			encodedNames[i] = itemNames[i].getBytes(StandardCharsets.UTF_8);
+			namesLength += encodedNames[i].length;
+		}
+		if (namesLength > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The item names are too big for an item table");
+		}
+		// at most half full keeps the probe sequences short
+		int indexSlots = Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+		this.indexMask = indexSlots - 1;
+		this.names = ByteBuffer.allocateDirect((int) namesLength);
+		this.entries = ByteBuffer.allocateDirect(Math.multiplyExact(size, ENTRY_SIZE)).order(ByteOrder.nativeOrder());
+		this.index = ByteBuffer.allocateDirect(Math.multiplyExact(indexSlots, 4)).order(ByteOrder.nativeOrder());
+		int nameOffset = 0;
+		for (int i = 0; i < size; i++) {
+			int entry = i * ENTRY_SIZE;
+			int hash = itemNames[i].hashCode();
+			names.put(nameOffset, encodedNames[i]);
+			entries.putInt(entry + HASH_OFFSET, hash);
+			entries.putInt(entry + NAME_OFFSET, nameOffset);
+			entries.putInt(entry + NAME_LENGTH_OFFSET, encodedNames[i].length);
+			entries.putInt(entry + LEVEL_OFFSET, levels.get(itemNames[i]));
+			nameOffset += encodedNames[i].length;
+			int slot = spread(hash) & indexMask;
+			while (index.getInt(slot * 4) != 0) {
+				slot = (slot + 1) & indexMask;
+			}
+			index.putInt(slot * 4, i + 1);
+		}
+		// the levels are read with volatile reads, so this makes sure everything
+		// written above is seen by other threads
+		VarHandle.releaseFence();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the entry number of the item, or -1 if it's not in the table
+	 */
+	public int indexOf(String itemName) {
+		int hash = itemName.hashCode();
+		int slot = spread(hash) & indexMask;
+		while (true) {
+			int entryNumber = index.getInt(slot * 4) - 1;
+			if (entryNumber < 0) {
+				return -1;
+			}
+			int entry = entryNumber * ENTRY_SIZE;
+			if ((entries.getInt(entry + HASH_OFFSET) == hash) && nameEquals(entry, itemName)) {
+				return entryNumber;
+			}
+			slot = (slot + 1) & indexMask;
+		}
+	}
+
+	/**
+	 * @return the entry number of the first item with a name after the given one,
+	 *         size() if there isn't one
+	 */
+	public int indexAfter(String itemName) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compared = nameAt(middle).compareTo(itemName);
+			if (compared <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	public String nameAt(int entryNumber) {
+		int entry = entryNumber * ENTRY_SIZE;
+		byte[] name = new byte[entries.getInt(entry + NAME_LENGTH_OFFSET)];
+		names.get(entries.getInt(entry + NAME_OFFSET), name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	public int levelAt(int entryNumber) {
+		return (int) INT.getVolatile(entries, entryNumber * ENTRY_SIZE + LEVEL_OFFSET);
+	}
+
+	public void setLevelAt(int entryNumber, int level) {
+		INT.setVolatile(entries, entryNumber * ENTRY_SIZE + LEVEL_OFFSET, level);
+	}
+
+	public boolean compareAndSetLevelAt(int entryNumber, int expectedLevel, int level) {
+		return INT.compareAndSet(entries, entryNumber * ENTRY_SIZE + LEVEL_OFFSET, expectedLevel, level);
+	}
+
+	/**
+	 * This is where the objects get created, so only call it when the caller
+	 * actually needs one
+	 */
+	public ItemDetails itemAt(int entryNumber) {
+		return new ItemDetails(nameAt(entryNumber), levelAt(entryNumber));
+	}
+
+	/**
+	 * A view of a range of the items, in name order. Nothing is copied, the
+	 * ItemDetails are created as the view is iterated over using the level at
+	 * that moment, so if the levels are being changed copy the view before
+	 * handing it to anything that may go through it more than once
+	 */
+	public Collection<ItemDetails> items(int start, int end) {
+		return new AbstractCollection<>() {
+			@Override
+			public int size() {
+				return end - start;
+			}
+
+			@Override
+			public Iterator<ItemDetails> iterator() {
+				return new Iterator<>() {
+					private int next = start;
+
+					@Override
+					public boolean hasNext() {
+						return next < end;
+					}
+
+					@Override
+					public ItemDetails next() {
+						if (next >= end) {
+							throw new NoSuchElementException();
+						}
+						return itemAt(next++);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * @return the memory held outside the heap
+	 */
+	public long offHeapBytes() {
+		return (long) names.capacity() + entries.capacity() + index.capacity();
+	}
+
+	/**
+	 * Compare the stored name with the UTF-8 encoding of the item name as we go,
+	 * lookups are the hot path so this avoids encoding the whole name into a new
+	 * array each time
+	 */
+	private boolean nameEquals(int entry, String itemName) {
+		int nameLength = entries.getInt(entry + NAME_LENGTH_OFFSET);
+		int position = entries.getInt(entry + NAME_OFFSET);
+		int end = position + nameLength;
+		int chars = itemName.length();
+		// each char is at least one byte and at most three
+		if ((chars > nameLength) || (chars * 3 < nameLength)) {
+			return false;
+		}
+		for (int i = 0; i < chars; i++) {
+			int c = itemName.charAt(i);
+			if (c < 0x80) {
+				if ((position >= end) || (names.get(position++) != c)) {
+					return false;
+				}
+				continue;
+			}
+			int codePoint = c;
+			if (Character.isHighSurrogate(itemName.charAt(i)) && (i + 1 < chars)
+					&& Character.isLowSurrogate(itemName.charAt(i + 1))) {
+				codePoint = Character.toCodePoint(itemName.charAt(i), itemName.charAt(++i));
+			} else if (Character.isSurrogate(itemName.charAt(i))) {
+				// unpaired surrogates are encoded as ? by String.getBytes
+				codePoint = '?';
+			}
+			int encodedLength = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+			if (position + encodedLength > end) {
+				return false;
+			}
+			if (encodedLength == 1) {
+				if (names.get(position++) != codePoint) {
+					return false;
+				}
+				continue;
+			}
+			// the leading byte has the length marker and the top bits, the rest have 6
+			// bits each
+			int shift = (encodedLength - 1) * 6;
+			int leading = (0xF00 >> encodedLength) & 0xFF;
+			if ((names.get(position++) & 0xFF) != (leading | (codePoint >> shift))) {
+				return false;
+			}
+			while (shift > 0) {
+				shift -= 6;
+				if ((names.get(position++) & 0xFF) != (0x80 | ((codePoint >> shift) & 0x3F))) {
+					return false;
+				}
+			}
+		}
+		return position == end;
+	}
+
+	/**
+	 * String hash codes of similar names are close together, mix them up so they
+	 * don't all end up in runs of neighbouring slots
+	 */
+	private static int spread(int hash) {
+		hash *= 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+}
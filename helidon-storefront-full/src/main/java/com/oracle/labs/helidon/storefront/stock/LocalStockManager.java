@@ -0,0 +1,220 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.core.Response.Status;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds the stock levels in this process rather than using the stock manager
+ * service, for benchmarking and for stores that run without the central stock
+ * manager.
+ * 
+ * The set of items is fixed when this is created (as with the stock manager,
+ * setting the level of an unknown item doesn't add it). The items and levels
+ * are held off heap in an ItemTable, each level is updated with a compare and
+ * set on it's own slot so changes to different items never contend and the
+ * conditional changes are a single compare and set. The table is in item name
+ * order, which gives the listing order and lets pages be found with a binary
+ * search.
+ * 
+ * The listing and pages are copies of the levels, so the caller can go through
+ * them as many times as it likes (hashing then serializing for example) and
+ * always see the same levels. As with any unlocked read the copy may include
+ * changes made while it's being taken. Snapshots for the store are written
+ * straight from the table without a copy.
+ * 
+ * If there is a store every change is recorded in it, the store's log must
+ * have the changes to an item in the order they were made, so in that case
+ * changes are made holding one of a set of locks picked by the item (reads are
+ * still not locked).
+ */
+@Slf4j
+public class LocalStockManager implements StockManager {
+	// a power of two, so the lock can be picked with a mask
+	private final static int LOCK_STRIPES = 256;
+	private final ItemTable items;
+	private final StockLevelStore store;
+	private final Object[] locks;
+
+	public LocalStockManager(Map<String, Integer> initialLevels) {
+		this(initialLevels, null);
+	}
+
+	public LocalStockManager(Map<String, Integer> initialLevels, StockLevelStore store) {
+		this.store = store;
+		this.items = new ItemTable(initialLevels);
+		this.locks = new Object[LOCK_STRIPES];
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+		log.info("Local stock manager has " + items.size() + " items using " + items.offHeapBytes()
+				+ " bytes off heap (" + bytesPerItem() + " per item)");
+	}
+
+	@Override
+	public Collection<ItemDetails> getAllStockLevels() {
+		return new ArrayList<>(items.items(0, items.size()));
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockLevelsPage(Integer limit, String after) {
+		int start = after == null ? 0 : items.indexAfter(after);
+		int end = (int) Math.min((long) start + limit, items.size());
+		return new ArrayList<>(items.items(start, end));
+	}
+
+	@Override
+	public ItemDetails getStockItem(String itemName) {
+		int entry = items.indexOf(itemName);
+		if (entry < 0) {
+			return null;
+		}
+		return new ItemDetails(itemName, items.levelAt(entry));
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockItems(Collection<String> itemNames) {
+		List<ItemDetails> itemsList = new ArrayList<>(itemNames.size());
+		for (String itemName : itemNames) {
+			ItemDetails itemDetails = getStockItem(itemName);
+			if (itemDetails != null) {
+				itemsList.add(itemDetails);
+			}
+		}
+		return itemsList;
+	}
+
+	@Override
+	public ItemDetails setStockItemLevel(String itemName, Integer itemCount) {
+		int entry = items.indexOf(itemName);
+		if (entry < 0) {
+			return null;
+		}
+		return update(itemName, entry, current -> itemCount);
+	}
+
+	// the conditional updates fail in the same way as the real stock manager, so
+	// the callers exception handling is the same in both modes
+
+	@Override
+	public ItemDetails decrementStockItemLevel(String itemName, Integer itemCount, Integer ifAtLeast) {
+		return update(itemName, knownEntry(itemName), current -> {
+			if (current < ifAtLeast) {
+				throw new ClientErrorException("Item " + itemName + " has " + current
+						+ " items which is less than the required " + ifAtLeast, Status.CONFLICT);
+			}
+			return current - itemCount;
+		});
+	}
+
+	@Override
+	public ItemDetails compareAndSetStockItemLevel(String itemName, Integer itemCount, Integer expectedItemCount) {
+		return update(itemName, knownEntry(itemName), current -> {
+			if (current != expectedItemCount) {
+				throw new ClientErrorException(
+						"Item " + itemName + " has " + current + " items, not the expected " + expectedItemCount,
+						Status.CONFLICT);
+			}
+			return itemCount;
+		});
+	}
+
+	/**
+	 * Apply the change to the level, the change may throw an exception to refuse
+	 * it. Without a store this is a compare and set loop, with one the change and
+	 * recording it in the store are done holding the item's lock
+	 */
+	private ItemDetails update(String itemName, int entry, IntUnaryOperator change) {
+		if (store == null) {
+			while (true) {
+				int current = items.levelAt(entry);
+				int updated = change.applyAsInt(current);
+				if (items.compareAndSetLevelAt(entry, current, updated)) {
+					return new ItemDetails(itemName, updated);
+				}
+			}
+		}
+		int updated;
+		long position;
+		synchronized (locks[entry & (LOCK_STRIPES - 1)]) {
+			updated = change.applyAsInt(items.levelAt(entry));
+			items.setLevelAt(entry, updated);
+			position = store.append(itemName, updated);
+		}
+		// don't hold the lock while waiting for the disk
+		store.awaitDurable(position);
+		return new ItemDetails(itemName, updated);
+	}
+
+	/**
+	 * Write a snapshot of the current levels to the store, if there is one
+	 */
+	public void snapshot() throws IOException {
+		if (store != null) {
+			store.snapshot(items.items(0, items.size()));
+		}
+	}
+
+	public int size() {
+		return items.size();
+	}
+
+	public long bytesPerItem() {
+		return items.size() == 0 ? 0 : items.offHeapBytes() / items.size();
+	}
+
+	private int knownEntry(String itemName) {
+		int entry = items.indexOf(itemName);
+		if (entry < 0) {
+			throw new NotFoundException("Unknown item " + itemName);
+		}
+		return entry;
+	}
+}
@@ -0,0 +1,347 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.storage.MappedAppendLog;
+import com.oracle.labs.helidon.storefront.storage.MappedAppendLog.Segment;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the local stock levels on disk. Each change is appended to a memory
+ * mapped change log as an (item name, new level) record, and every so often
+ * the complete set of levels is written to a snapshot so the log can be thrown
+ * away. On startup the latest snapshot is loaded and the log written since it
+ * was taken is replayed over it.
+ * 
+ * The log is a {@link MappedAppendLog}, the payload of each record is
+ * 
+ * <pre>
+ * short item name length, item name (UTF-8), int new level
+ * </pre>
+ * 
+ * Appending a record is just a write to memory so it's very quick, and survives
+ * the process failing. A background thread forces the log to disk every
+ * flushIntervalMillis, covering all of the records written since the last time
+ * in one go. If syncWrites is set the callers wait for the flush covering their
+ * change (group commit), otherwise a crash of the machine itself can lose up to
+ * flushIntervalMillis of changes.
+ * 
+ * A snapshot is taken by starting a new log segment and then reading the live
+ * levels, changes made while that's happening may or may not be in the
+ * snapshot, but they are all in the new segment and replaying it puts them
+ * right. Snapshots are written to a temporary file and renamed so a partly
+ * written one is never used.
+ */
+@Slf4j
+public class StockLevelStore implements AutoCloseable {
+	private final static int SEGMENT_MAGIC = 0x534c4731; // SLG1
+	private final static int SNAPSHOT_MAGIC = 0x53534e31; // SSN1
+	private final static String SEGMENT_PREFIX = "changes-";
+	private final static String SEGMENT_SUFFIX = ".log";
+	private final static String SNAPSHOT_PREFIX = "snapshot-";
+	private final static String SNAPSHOT_SUFFIX = ".snap";
+
+	private final Path directory;
+	private final boolean syncWrites;
+	private final long flushIntervalMillis;
+	// holds the segments that have not been included in a snapshot yet
+	private final MappedAppendLog changeLog;
+	// segments that have been written to since the last flush
+	private final List<Segment> unflushed = new ArrayList<>();
+	private long appendedRecords = 0;
+	private long flushedRecords = 0;
+	private long changesSinceSnapshot = 0;
+	private volatile boolean running = true;
+	private final Thread flusher;
+	private long recoveryMillis;
+
+	/**
+	 * @param segmentSize         in bytes, the segments are memory mapped as a
+	 *                            single buffer so this can't be more than
+	 *                            Integer.MAX_VALUE
+	 * @param flushIntervalMillis must be more than 0, the flusher would spin
+	 *                            otherwise
+	 */
+	public StockLevelStore(Path directory, long segmentSize, boolean syncWrites, long flushIntervalMillis)
+			throws IOException {
+		if (flushIntervalMillis <= 0) {
+			throw new IllegalArgumentException(
+					"Stock store flush interval " + flushIntervalMillis + "ms must be more than 0");
+		}
+		this.directory = directory;
+		this.syncWrites = syncWrites;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.changeLog = new MappedAppendLog("Stock store", directory, SEGMENT_PREFIX, SEGMENT_SUFFIX,
+				SEGMENT_MAGIC, segmentSize);
+		flusher = new Thread(this::flushLoop, "stock-store-flusher");
+		flusher.setDaemon(true);
+	}
+
+	/**
+	 * Load the levels from the latest snapshot and the log written after it, this
+	 * must be called before anything is appended
+	 * 
+	 * @return the recovered levels, empty if nothing has been stored yet
+	 */
+	public synchronized Map<String, Integer> recover() throws IOException {
+		long startTime = System.nanoTime();
+		Map<String, Integer> levels = new HashMap<>();
+		long snapshotSegment = 0;
+		List<Path> snapshots = MappedAppendLog.listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		if (!snapshots.isEmpty()) {
+			Path latest = snapshots.get(snapshots.size() - 1);
+			snapshotSegment = MappedAppendLog.fileNumber(latest, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+			readSnapshot(latest, levels);
+		}
+		int snapshotItems = levels.size();
+		// the segments from before the snapshot are left over, we crashed before
+		// removing them
+		long replayed = changeLog.open(snapshotSegment, (segment, position, payload) -> {
+			byte[] name = new byte[payload.getShort()];
+			payload.get(name);
+			levels.put(new String(name, StandardCharsets.UTF_8), payload.getInt());
+		});
+		changesSinceSnapshot = replayed;
+		flusher.start();
+		recoveryMillis = (System.nanoTime() - startTime) / 1_000_000;
+		log.info("Stock store in " + directory + " recovered " + levels.size() + " items (" + snapshotItems
+				+ " from the snapshot and " + replayed + " changes from the log) in " + recoveryMillis + "ms");
+		return levels;
+	}
+
+	/**
+	 * Record the new level of the item
+	 * 
+	 * @return the position of the record, pass this to awaitDurable to wait for
+	 *         it to reach the disk
+	 */
+	public synchronized long append(String itemName, int itemCount) {
+		byte[] name = itemName.getBytes(StandardCharsets.UTF_8);
+		int payloadLength = 2 + name.length + 4;
+		if (!changeLog.fits(payloadLength)) {
+			throw new IllegalArgumentException("Item name " + itemName + " is too long for a stock store segment");
+		}
+		Segment segment;
+		try {
+			segment = changeLog.append(payloadLength, payload -> {
+				payload.putShort((short) name.length);
+				payload.put(name);
+				payload.putInt(itemCount);
+			});
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to start a new stock store log segment", e);
+		}
+		if (!unflushed.contains(segment)) {
+			unflushed.add(segment);
+		}
+		changesSinceSnapshot++;
+		appendedRecords++;
+		notifyAll();
+		return appendedRecords;
+	}
+
+	/**
+	 * If sync writes are enabled wait for the record at the position to be
+	 * flushed to disk, otherwise return straight away
+	 */
+	public void awaitDurable(long position) {
+		if (!syncWrites) {
+			return;
+		}
+		synchronized (this) {
+			while (running && (flushedRecords < position)) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write a snapshot of the levels and remove the log it replaces, the levels
+	 * are read as this goes so they don't need to be a copy
+	 */
+	public void snapshot(Iterable<ItemDetails> levels) throws IOException {
+		long snapshotSegment;
+		List<Segment> replaced;
+		synchronized (this) {
+			if (changesSinceSnapshot == 0) {
+				return;
+			}
+			// from here on the changes go into the new segment
+			replaced = changeLog.segments();
+			snapshotSegment = changeLog.startSegment().getNumber();
+			changesSinceSnapshot = 0;
+		}
+		long startTime = System.nanoTime();
+		Path snapshotFile = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, snapshotSegment,
+				SNAPSHOT_SUFFIX));
+		Path tempFile = directory.resolve(snapshotFile.getFileName() + ".tmp");
+		int itemCount = 0;
+		CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+			out.writeInt(SNAPSHOT_MAGIC);
+			for (ItemDetails item : levels) {
+				byte[] name = item.getItemName().getBytes(StandardCharsets.UTF_8);
+				out.writeBoolean(true);
+				out.writeShort(name.length);
+				out.write(name);
+				out.writeInt(item.getItemCount());
+				itemCount++;
+			}
+			out.writeBoolean(false);
+			out.writeInt((int) crc.getValue());
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(tempFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		// the snapshot is safe, so the older snapshots and the log it replaces can go
+		for (Path file : MappedAppendLog.listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+			if (!file.equals(snapshotFile)) {
+				Files.deleteIfExists(file);
+			}
+		}
+		synchronized (this) {
+			unflushed.removeAll(replaced);
+			for (Segment segment : replaced) {
+				changeLog.delete(segment);
+			}
+		}
+		log.info("Stock store snapshot of " + itemCount + " items written in "
+				+ (System.nanoTime() - startTime) / 1_000_000 + "ms");
+	}
+
+	public long getRecoveryMillis() {
+		return recoveryMillis;
+	}
+
+	public synchronized long getChangesSinceSnapshot() {
+		return changesSinceSnapshot;
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		flusher.interrupt();
+		synchronized (this) {
+			changeLog.close();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Force whatever has been written since the last time to disk, the records
+	 * written while this is happening will be picked up next time round
+	 */
+	private void flushLoop() {
+		while (running) {
+			List<Segment> toFlush;
+			long flushing;
+			synchronized (this) {
+				try {
+					if (appendedRecords == flushedRecords) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				toFlush = new ArrayList<>(unflushed);
+				unflushed.clear();
+				flushing = appendedRecords;
+			}
+			for (Segment segment : toFlush) {
+				segment.force();
+			}
+			synchronized (this) {
+				flushedRecords = flushing;
+				notifyAll();
+			}
+			try {
+				Thread.sleep(flushIntervalMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void readSnapshot(Path file, Map<String, Integer> levels) throws IOException {
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(
+				new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16), crc))) {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Stock store snapshot " + file + " is not a snapshot file");
+			}
+			while (in.readBoolean()) {
+				byte[] name = new byte[in.readShort()];
+				in.readFully(name);
+				levels.put(new String(name, StandardCharsets.UTF_8), in.readInt());
+			}
+			int expectedCrc = (int) crc.getValue();
+			if (in.readInt() != expectedCrc) {
+				throw new IOException("Stock store snapshot " + file + " is damaged");
+			}
+		}
+	}
+}
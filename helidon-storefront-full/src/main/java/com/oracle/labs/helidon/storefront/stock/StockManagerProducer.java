@@ -0,0 +1,364 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import com.oracle.labs.helidon.storefront.bulkheads.Bulkheads;
+import com.oracle.labs.helidon.storefront.events.StockLevelBroadcaster;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService.ReservationMode;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+import com.oracle.labs.helidon.storefront.restclients.StockManagerAsync;
+import com.oracle.labs.helidon.storefront.stock.CachingStockManager.EvictionPolicy;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Builds the StockManager the storefront uses, this starts with the rest client
+ * and then wraps it in whatever local layers have been enabled in the config.
+ * Only one is created and it's shared by all requests, so any state the layers
+ * hold (e.g. the cache contents) is shared as well
+ * 
+ * In local mode the stock levels are held in this process and the stock manager
+ * service isn't used at all, so none of the layers are added. If persistence is
+ * enabled the local levels are kept in a StockLevelStore and survive restarts
+ */
+@ApplicationScoped
+@Slf4j
+public class StockManagerProducer {
+	/**
+	 * Where the stock levels are held, REMOTE uses the stock manager service,
+	 * LOCAL holds them in this process
+	 */
+	public enum StockManagerMode {
+		REMOTE, LOCAL
+	}
+
+	@Inject
+	@RestClient
+	private StockManager remoteStockManager;
+
+	@Inject
+	@RestClient
+	private StockManagerAsync remoteStockManagerAsync;
+
+	@Inject
+	private MetricRegistry metricRegistry;
+
+	// the cache tells this about the levels it loads so changes made by other
+	// replicas get pushed out to the subscribers
+	@Inject
+	private StockLevelBroadcaster stockLevelBroadcaster;
+
+	@Inject
+	private Bulkheads bulkheads;
+
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.mode", defaultValue = "REMOTE")
+	StockManagerMode mode;
+
+	// itemname=count pairs
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.seed", defaultValue = "Pencil=12,Pen=2,Brush=27")
+	List<String> localSeed;
+
+	// for load testing, this many extra items are created named Item0000000 and
+	// so on
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.generateditems", defaultValue = "0")
+	int localGeneratedItems;
+
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.generatedlevel", defaultValue = "1000")
+	int localGeneratedLevel;
+
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.persistence.enabled", defaultValue = "false")
+	boolean persistenceEnabled;
+
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.persistence.directory", defaultValue = "stockstore")
+	String persistenceDirectory;
+
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.persistence.segmentsizemb", defaultValue = "64")
+	int persistenceSegmentSizeMb;
+
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.persistence.syncwrites", defaultValue = "false")
+	boolean persistenceSyncWrites;
+
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.persistence.flushintervalmillis", defaultValue = "10")
+	long persistenceFlushIntervalMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.stockmanager.local.persistence.snapshotintervalseconds", defaultValue = "300")
+	long persistenceSnapshotIntervalSeconds;
+
+	private LocalStockManager localStockManager;
+	private StockLevelStore stockLevelStore;
+	private ScheduledExecutorService snapshotter;
+
+	@Inject
+	@ConfigProperty(name = "app.stockbatching.enabled", defaultValue = "false")
+	boolean batchingEnabled;
+
+	@Inject
+	@ConfigProperty(name = "app.stockbatching.windowmillis", defaultValue = "5")
+	long batchingWindowMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.stockbatching.maxbatchsize", defaultValue = "50")
+	int batchingMaxBatchSize;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcoalescing.enabled", defaultValue = "false")
+	boolean coalescingEnabled;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcoalescing.peritemmetrics", defaultValue = "false")
+	boolean coalescingPerItemMetrics;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcircuitbreaker.enabled", defaultValue = "false")
+	boolean circuitBreakerEnabled;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcircuitbreaker.failurethreshold", defaultValue = "5")
+	int circuitBreakerFailureThreshold;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcircuitbreaker.opendelaymillis", defaultValue = "5000")
+	long circuitBreakerOpenDelayMillis;
+
+	// the oldest listing that will be returned while the stock manager is failing
+	@Inject
+	@ConfigProperty(name = "app.stockcircuitbreaker.maxstaleseconds", defaultValue = "300")
+	long circuitBreakerMaxStaleSeconds;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcache.enabled", defaultValue = "false")
+	boolean cacheEnabled;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcache.ttlmillis", defaultValue = "2000")
+	long cacheTtlMillis;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcache.maxentries", defaultValue = "10000")
+	int cacheMaxEntries;
+
+	@Inject
+	@ConfigProperty(name = "app.stockcache.eviction", defaultValue = "LRU")
+	EvictionPolicy cacheEvictionPolicy;
+
+	@Inject
+	@ConfigProperty(name = "app.reservation.mode", defaultValue = "READ_MODIFY_WRITE")
+	ReservationMode reservationMode;
+
+	/**
+	 * Loading a large local catalogue takes a while, do it at startup rather than
+	 * in the first request. This is also where we refuse combinations of settings
+	 * that would sell stock we don't have
+	 */
+	void onStartup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+		if (mode == StockManagerMode.LOCAL) {
+			localStockManager();
+			return;
+		}
+		// a read-modify-write reservation would read the cached level, which can be
+		// up to the ttl old, and then set the level based on it, overwriting any
+		// reservations made in the mean time by other replicas
+		if (cacheEnabled && (reservationMode == ReservationMode.READ_MODIFY_WRITE)) {
+			throw new IllegalStateException(
+					"app.stockcache.enabled requires app.reservation.mode to be CONDITIONAL or COMPARE_AND_SET, not "
+							+ reservationMode);
+		}
+	}
+
+	@Produces
+	@ApplicationScoped
+	@StorefrontStockManager
+	public StockManager stockManager() {
+		if (mode == StockManagerMode.LOCAL) {
+			log.info("Using the local stock manager, the stock manager service will not be used");
+			return localStockManager();
+		}
+		StockManager stockManager = remoteStockManager;
+		// this goes directly around the rest client, so only the calls that actually
+		// go to the stock manager use the bulkhead
+		if (bulkheads.isEnabled()) {
+			stockManager = new BulkheadStockManager(stockManager, bulkheads);
+		}
+		// inside the other layers so only the calls that actually go to the stock
+		// manager count, and the cache can still answer while the circuit is open
+		if (circuitBreakerEnabled) {
+			stockManager = new CircuitBreakerStockManager(stockManager, circuitBreakerFailureThreshold,
+					circuitBreakerOpenDelayMillis, circuitBreakerMaxStaleSeconds * 1000, metricRegistry);
+		}
+		if (batchingEnabled) {
+			stockManager = new BatchingStockManager(stockManager, batchingWindowMillis, batchingMaxBatchSize,
+					metricRegistry);
+		}
+		// this goes in front of the batching, so the batches only contain different
+		// items, and if the cache is enabled the misses for the same key also get
+		// combined
+		if (coalescingEnabled) {
+			stockManager = new CoalescingStockManager(stockManager, coalescingPerItemMetrics, metricRegistry);
+		}
+		if (cacheEnabled) {
+			stockManager = new CachingStockManager(stockManager, cacheTtlMillis, cacheMaxEntries, cacheEvictionPolicy,
+					stockLevelBroadcaster::hasSubscribers, stockLevelBroadcaster::publish, metricRegistry);
+		} else {
+			log.info("Stock cache disabled, all reads will go to the stock manager");
+		}
+		return stockManager;
+	}
+
+	/**
+	 * The non blocking calls, these go to the stock manager service through the
+	 * stock manager bulkhead (the other layers only have blocking versions) or in
+	 * local mode to the local levels
+	 * 
+	 * @return
+	 */
+	@Produces
+	@ApplicationScoped
+	@StorefrontStockManager
+	public StockManagerAsync stockManagerAsync() {
+		if (mode == StockManagerMode.LOCAL) {
+			return new CompletedStockManagerAsync(localStockManager());
+		}
+		if (bulkheads.isEnabled()) {
+			return new BulkheadStockManagerAsync(remoteStockManagerAsync, bulkheads);
+		}
+		return remoteStockManagerAsync;
+	}
+
+	/**
+	 * Write a final snapshot so the next start doesn't have to replay the log
+	 */
+	@PreDestroy
+	void stop() {
+		if (snapshotter != null) {
+			snapshotter.shutdownNow();
+		}
+		if (stockLevelStore != null) {
+			try {
+				localStockManager.snapshot();
+				stockLevelStore.close();
+			} catch (IOException e) {
+				log.warn("Problem closing the stock store " + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	private synchronized LocalStockManager localStockManager() {
+		if (localStockManager == null) {
+			Map<String, Integer> initialLevels = new HashMap<>(localSeed.size() + localGeneratedItems);
+			for (String seed : localSeed) {
+				String[] itemAndCount = seed.split("=");
+				if (itemAndCount.length != 2) {
+					throw new IllegalArgumentException(
+							"app.stockmanager.local.seed entries must be itemname=count, not " + seed);
+				}
+				initialLevels.put(itemAndCount[0].trim(), Integer.valueOf(itemAndCount[1].trim()));
+			}
+			for (int i = 0; i < localGeneratedItems; i++) {
+				initialLevels.put(String.format("Item%07d", i), localGeneratedLevel);
+			}
+			if (persistenceEnabled) {
+				openStockLevelStore(initialLevels);
+			}
+			localStockManager = new LocalStockManager(initialLevels, stockLevelStore);
+			metricRegistry.gauge("localStockBytesPerItem", localStockManager::bytesPerItem);
+			if (persistenceEnabled && (persistenceSnapshotIntervalSeconds > 0)) {
+				snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "stock-store-snapshot");
+					thread.setDaemon(true);
+					return thread;
+				});
+				snapshotter.scheduleWithFixedDelay(this::snapshot, persistenceSnapshotIntervalSeconds,
+						persistenceSnapshotIntervalSeconds, TimeUnit.SECONDS);
+			}
+		}
+		return localStockManager;
+	}
+
+	/**
+	 * The stored levels replace the seed ones, so the seed only sets the levels
+	 * the first time, but new items in the seed are added
+	 */
+	private void openStockLevelStore(Map<String, Integer> initialLevels) {
+		try {
+			stockLevelStore = new StockLevelStore(Paths.get(persistenceDirectory),
+					Math.multiplyExact((long) persistenceSegmentSizeMb, 1024 * 1024), persistenceSyncWrites,
+					persistenceFlushIntervalMillis);
+			initialLevels.putAll(stockLevelStore.recover());
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to open the stock store in " + persistenceDirectory, e);
+		}
+		metricRegistry.gauge("stockStoreRecoveryMillis", stockLevelStore::getRecoveryMillis);
+		metricRegistry.gauge("stockStoreChangesSinceSnapshot", stockLevelStore::getChangesSinceSnapshot);
+	}
+
+	private void snapshot() {
+		try {
+			localStockManager.snapshot();
+		} catch (Exception e) {
+			log.warn("Problem writing stock store snapshot " + e.getLocalizedMessage());
+		}
+	}
+}
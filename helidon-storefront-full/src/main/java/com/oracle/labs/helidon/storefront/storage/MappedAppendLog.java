@@ -0,0 +1,356 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An append only log of records held in memory mapped segment files, this is
+ * what the billing spool and the local stock store are built on, they just
+ * decide what goes in the records.
+ * 
+ * Each segment is pre-allocated and zero filled, it starts with a header holding
+ * a magic number and the position up to which the records have been read (for
+ * logs that are consumed in order), this is followed by the records
+ * 
+ * <pre>
+ * int payload length, payload, int CRC32 of the payload
+ * </pre>
+ * 
+ * The length goes in last, so a partly written record is never seen as
+ * complete, and when a segment is opened again the end of the data is the first
+ * record with a zero length, or one with a bad CRC if we crashed part way
+ * through writing it.
+ * 
+ * Data written to the mapped segments survives the process failing, when it
+ * reaches the disk is up to the OS unless the segment is forced.
+ * 
+ * This is not thread safe, the owner must synchronize around it.
+ */
+@Slf4j
+public class MappedAppendLog implements AutoCloseable {
+	public final static int HEADER_SIZE = 16;
+	// length and CRC around the payload
+	public final static int RECORD_OVERHEAD = 8;
+	private final static int READ_POSITION_OFFSET = 4;
+
+	private final String description;
+	private final Path directory;
+	private final String prefix;
+	private final String suffix;
+	private final int magic;
+	private final int segmentSize;
+	// oldest first, the last one is the one being written to
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private long nextSegmentNumber = 0;
+
+	/**
+	 * @param description used in the log and error messages, e.g. "Billing spool"
+	 * @param segmentSize in bytes, the segments are memory mapped as a single
+	 *                    buffer so this can't be more than Integer.MAX_VALUE
+	 */
+	public MappedAppendLog(String description, Path directory, String prefix, String suffix, int magic,
+			long segmentSize) throws IOException {
+		if ((segmentSize <= HEADER_SIZE) || (segmentSize > Integer.MAX_VALUE)) {
+			throw new IllegalArgumentException(description + " segment size " + segmentSize + " must be more than "
+					+ HEADER_SIZE + " and no more than " + Integer.MAX_VALUE + " bytes");
+		}
+		this.description = description;
+		this.directory = directory;
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.magic = magic;
+		this.segmentSize = (int) segmentSize;
+		Files.createDirectories(directory);
+	}
+
+	/**
+	 * Open the segments already in the directory, oldest first, passing each
+	 * complete record in them to the reader. If there aren't any a new segment is
+	 * started
+	 * 
+	 * @param firstSegment segments numbered below this are no longer needed (e.g.
+	 *                     they are covered by a snapshot) and are deleted
+	 * @return the number of records recovered
+	 */
+	public long open(long firstSegment, RecordReader reader) throws IOException {
+		long records = 0;
+		for (Path file : listFiles(directory, prefix, suffix)) {
+			long number = fileNumber(file, prefix, suffix);
+			nextSegmentNumber = Math.max(nextSegmentNumber, number + 1);
+			if (number < firstSegment) {
+				// we crashed before removing it
+				Files.deleteIfExists(file);
+				continue;
+			}
+			Segment segment = new Segment(file, number);
+			segments.addLast(segment);
+			records += segment.recover(reader);
+		}
+		nextSegmentNumber = Math.max(nextSegmentNumber, firstSegment);
+		if (segments.isEmpty()) {
+			startSegment();
+		}
+		return records;
+	}
+
+	/**
+	 * @return true if a record with this payload will fit into a segment
+	 */
+	public boolean fits(int payloadLength) {
+		return HEADER_SIZE + payloadLength + RECORD_OVERHEAD <= segmentSize;
+	}
+
+	/**
+	 * Add a record to the end of the log, starting a new segment if it won't fit
+	 * in the current one
+	 * 
+	 * @param writer fills in the payload, it's given a buffer of exactly
+	 *               payloadLength bytes
+	 * @return the segment the record was written to
+	 */
+	public Segment append(int payloadLength, RecordWriter writer) throws IOException {
+		if (!fits(payloadLength)) {
+			throw new IllegalArgumentException(
+					"A " + payloadLength + " byte record is too long for a " + description + " segment");
+		}
+		int recordLength = payloadLength + RECORD_OVERHEAD;
+		Segment segment = segments.getLast();
+		if (segment.writePosition + recordLength > segmentSize) {
+			segment = startSegment();
+		}
+		MappedByteBuffer buffer = segment.buffer;
+		int payloadStart = segment.writePosition + 4;
+		writer.write(buffer.slice(payloadStart, payloadLength));
+		buffer.putInt(payloadStart + payloadLength, crc(buffer, payloadStart, payloadLength));
+		buffer.putInt(segment.writePosition, payloadLength);
+		segment.writePosition += recordLength;
+		return segment;
+	}
+
+	/**
+	 * Read up to maxRecords records from the segment, starting at position
+	 * 
+	 * @return the position after the last record read
+	 */
+	public int read(Segment segment, int position, int maxRecords, RecordReader reader) throws IOException {
+		for (int records = 0; (records < maxRecords) && (position < segment.writePosition); records++) {
+			int payloadLength = segment.buffer.getInt(position);
+			reader.read(segment, position, segment.buffer.slice(position + 4, payloadLength));
+			position += payloadLength + RECORD_OVERHEAD;
+		}
+		return position;
+	}
+
+	/**
+	 * Start writing to a new segment, even if the current one has space left
+	 */
+	public Segment startSegment() throws IOException {
+		Path file = directory.resolve(String.format("%s%020d%s", prefix, nextSegmentNumber, suffix));
+		Segment segment = new Segment(file, nextSegmentNumber++);
+		segment.buffer.putInt(0, magic);
+		segment.setReadPosition(HEADER_SIZE);
+		segment.writePosition = HEADER_SIZE;
+		segments.addLast(segment);
+		return segment;
+	}
+
+	public Segment first() {
+		return segments.getFirst();
+	}
+
+	public Segment last() {
+		return segments.getLast();
+	}
+
+	/**
+	 * @return the segments, oldest first
+	 */
+	public List<Segment> segments() {
+		return new ArrayList<>(segments);
+	}
+
+	public int segmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Remove the segment from the log and delete its file
+	 */
+	public void delete(Segment segment) throws IOException {
+		segments.remove(segment);
+		segment.raf.close();
+		Files.deleteIfExists(segment.file);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Segment segment : segments) {
+			segment.force();
+			segment.raf.close();
+		}
+	}
+
+	public static List<Path> listFiles(Path directory, String prefix, String suffix) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith(prefix)
+					&& file.getFileName().toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+		}
+	}
+
+	public static long fileNumber(Path file, String prefix, String suffix) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+	}
+
+	private static int crc(MappedByteBuffer buffer, int start, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(buffer.slice(start, length));
+		return (int) crc.getValue();
+	}
+
+	@FunctionalInterface
+	public interface RecordWriter {
+		void write(ByteBuffer payload);
+	}
+
+	@FunctionalInterface
+	public interface RecordReader {
+		/**
+		 * @param position where the record starts in the segment
+		 * @param payload  holds just the payload of the record
+		 */
+		void read(Segment segment, int position, ByteBuffer payload) throws IOException;
+	}
+
+	public class Segment {
+		private final Path file;
+		private final long number;
+		private final RandomAccessFile raf;
+		private final MappedByteBuffer buffer;
+		private int readPosition;
+		private int writePosition;
+
+		private Segment(Path file, long number) throws IOException {
+			this.file = file;
+			this.number = number;
+			this.raf = new RandomAccessFile(file.toFile(), "rw");
+			if (raf.length() < segmentSize) {
+				raf.setLength(segmentSize);
+			}
+			this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+
+		public long getNumber() {
+			return number;
+		}
+
+		public int getReadPosition() {
+			return readPosition;
+		}
+
+		/**
+		 * Record in the header how far the segment has been read
+		 */
+		public void setReadPosition(int readPosition) {
+			this.readPosition = readPosition;
+			buffer.putInt(READ_POSITION_OFFSET, readPosition);
+		}
+
+		public boolean isFullyRead() {
+			return readPosition >= writePosition;
+		}
+
+		/**
+		 * Make sure everything written to the segment is on the disk
+		 */
+		public void force() {
+			buffer.force();
+		}
+
+		/**
+		 * Pass the complete records to the reader and work out where the next one
+		 * goes
+		 * 
+		 * @return the number of records read
+		 */
+		private long recover(RecordReader reader) throws IOException {
+			if (buffer.getInt(0) != magic) {
+				throw new IOException(description + " segment " + file + " has the wrong magic number");
+			}
+			readPosition = buffer.getInt(READ_POSITION_OFFSET);
+			long records = 0;
+			int position = HEADER_SIZE;
+			while (position + RECORD_OVERHEAD <= buffer.limit()) {
+				int payloadLength = buffer.getInt(position);
+				if ((payloadLength <= 0) || (position + payloadLength + RECORD_OVERHEAD > buffer.limit())) {
+					break;
+				}
+				int storedCrc = buffer.getInt(position + 4 + payloadLength);
+				if (storedCrc != crc(buffer, position + 4, payloadLength)) {
+					log.warn(description + " segment " + file + " has a damaged record at " + position
+							+ ", ignoring it and anything after it");
+					break;
+				}
+				reader.read(this, position, buffer.slice(position + 4, payloadLength));
+				records++;
+				position += payloadLength + RECORD_OVERHEAD;
+			}
+			writePosition = position;
+			// clear out any partial record so new ones don't get appended after it
+			for (int i = writePosition; i < Math.min(writePosition + RECORD_OVERHEAD, buffer.limit()); i++) {
+				buffer.put(i, (byte) 0);
+			}
+			return records;
+		}
+	}
+}
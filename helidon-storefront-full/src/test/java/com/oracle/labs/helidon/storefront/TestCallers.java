@@ -0,0 +1,100 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront;
+
+import java.lang.reflect.Proxy;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import io.helidon.common.context.Context;
+import io.helidon.common.context.Contexts;
+import io.helidon.security.Principal;
+import io.helidon.security.SecurityContext;
+import io.helidon.security.Subject;
+
+/**
+ * Runs code as if it was handling a request from a given user, this is what
+ * the security filter sets up for the resource methods. Like a real request's
+ * the context stays authenticated after the call, so work it's handed to (e.g.
+ * a queue) still sees the user
+ */
+public class TestCallers {
+	private TestCallers() {
+	}
+
+	/**
+	 * @param user null for an anonymous caller
+	 * @return the result of the call, made in a context authenticated as the user
+	 */
+	public static <T> T callAs(String user, Supplier<T> call) {
+		Context context = Context.create();
+		context.register(securityContext(user));
+		AtomicReference<T> result = new AtomicReference<>();
+		Contexts.runInContext(context, () -> result.set(call.get()));
+		return result.get();
+	}
+
+	/**
+	 * For the calls that need to be made on a separate thread
+	 */
+	public static <T> Callable<T> callableAs(String user, Supplier<T> call) {
+		return () -> callAs(user, call);
+	}
+
+	/**
+	 * Only the user details are needed, building a real one would need a security
+	 * provider to do the authentication
+	 */
+	private static SecurityContext securityContext(String user) {
+		Optional<Subject> subject = Optional.ofNullable(user).map(name -> Subject.create(Principal.create(name)));
+		return (SecurityContext) Proxy.newProxyInstance(TestCallers.class.getClassLoader(),
+				new Class<?>[] { SecurityContext.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "isAuthenticated":
+						return subject.isPresent();
+					case "user":
+						return subject;
+					case "userName":
+						return subject.map(Subject::principal).map(Principal::getName).orElse("<ANONYMOUS>");
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+}
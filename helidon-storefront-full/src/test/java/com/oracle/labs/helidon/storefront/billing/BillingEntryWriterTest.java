@@ -0,0 +1,219 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.billing;
+
+import static com.oracle.labs.helidon.storefront.TestCallers.callAs;
+import static com.oracle.labs.helidon.storefront.TestSupport.waitFor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.billing.BillingEntryWriter.OverflowPolicy;
+import com.oracle.labs.helidon.storefront.billing.FakeBillingService.Post;
+import com.oracle.labs.helidon.storefront.bulkheads.Bulkheads;
+import com.oracle.labs.helidon.storefront.data.BillingEntry;
+import com.oracle.labs.helidon.storefront.headers.CallerIdentity;
+
+import jakarta.ws.rs.NotAuthorizedException;
+import jakarta.ws.rs.ProcessingException;
+
+public class BillingEntryWriterTest {
+	private FakeBillingService billing;
+	private BillingEntryWriter writer;
+
+	@TempDir
+	Path spoolDirectory;
+	private MetricRegistry metricRegistry;
+
+	@BeforeEach
+	public void setUp() {
+		billing = new FakeBillingService();
+		metricRegistry = TestSupport.applicationRegistry();
+		writer = new BillingEntryWriter();
+		TestSupport.inject(writer, "billing", billing);
+		TestSupport.inject(writer, "metricRegistry", metricRegistry);
+		TestSupport.inject(writer, "bulkheads", new Bulkheads());
+		TestSupport.inject(writer, "queueSize", 100);
+		TestSupport.inject(writer, "maxBatchSize", 10);
+		TestSupport.inject(writer, "flushIntervalMillis", 200L);
+		TestSupport.inject(writer, "overflowPolicy", OverflowPolicy.DROP_NEWEST);
+		TestSupport.inject(writer, "spoolReplayUser", Optional.empty());
+		TestSupport.inject(writer, "spoolReplayPassword", Optional.empty());
+	}
+
+	private void enableSpool(long replayIntervalMillis) {
+		TestSupport.inject(writer, "spoolEnabled", true);
+		TestSupport.inject(writer, "spoolDirectory", spoolDirectory.toString());
+		TestSupport.inject(writer, "spoolSegmentSizeKb", 4);
+		TestSupport.inject(writer, "spoolReplayIntervalMillis", replayIntervalMillis);
+	}
+
+	private long gauge(String name) {
+		return ((Number) metricRegistry.getGauges().get(new MetricID(name)).getValue()).longValue();
+	}
+
+	/**
+	 * The replays aren't made as a caller, so they can be told apart from the
+	 * posts made for each new entry
+	 */
+	private List<String> liveAttempts() {
+		return billing.attempts.stream().filter(identity -> !identity.equals(CallerIdentity.ANONYMOUS))
+				.collect(Collectors.toList());
+	}
+
+	@AfterEach
+	public void tearDown() {
+		TestSupport.invoke(writer, "stop");
+	}
+
+	private void write(String caller, String itemName) {
+		callAs(caller, () -> {
+			writer.write(new BillingEntry(caller, itemName, 2));
+			return null;
+		});
+	}
+
+	@Test
+	public void withoutTheQueueEntriesArePostedAsTheCaller() {
+		TestSupport.invoke(writer, "start");
+		write("jack", "Pencil");
+		write("jill", "Pen");
+		assertEquals(List.of("jack", "jill"),
+				billing.posts.stream().map(post -> post.identity).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void queuedBatchesArePostedSeparatelyForEachCaller() throws InterruptedException {
+		TestSupport.inject(writer, "queueEnabled", true);
+		TestSupport.invoke(writer, "start");
+		write("jack", "Pencil");
+		write("jill", "Pen");
+		write("jack", "Brush");
+		waitFor(() -> billing.entriesPosted() == 3);
+		assertEquals(2, billing.posts.size());
+		for (Post post : billing.posts) {
+			for (BillingEntry billingEntry : post.billingEntries) {
+				assertEquals(post.identity, billingEntry.getCallerName());
+			}
+		}
+	}
+
+	@Test
+	public void newEntriesAreSpooledWithoutPostingWhileBillingIsDown() {
+		enableSpool(TimeUnit.HOURS.toMillis(1));
+		TestSupport.invoke(writer, "start");
+		billing.failure = () -> new ProcessingException("billing unavailable");
+		write("jack", "Pencil");
+		assertEquals(List.of("jack"), liveAttempts());
+		assertEquals(1, gauge("billingSpoolingWhileDown"));
+		// it's back, but only the replay thread will find that out
+		billing.failure = null;
+		write("jack", "Pen");
+		callAs("jill", () -> writer.writeAsync(new BillingEntry("jill", "Brush", 1)).toCompletableFuture().join());
+		assertEquals(List.of("jack"), liveAttempts());
+		assertEquals(3, gauge("billingSpoolPending"));
+	}
+
+	@Test
+	public void postingResumesOnceTheReplayGetsAnAnswer() throws InterruptedException {
+		enableSpool(20);
+		TestSupport.invoke(writer, "start");
+		billing.failure = () -> new ProcessingException("billing unavailable");
+		write("jack", "Pencil");
+		billing.failure = null;
+		waitFor(() -> gauge("billingSpoolingWhileDown") == 0);
+		waitFor(() -> gauge("billingSpoolPending") == 0);
+		write("jill", "Pen");
+		Post live = billing.posts.get(billing.posts.size() - 1);
+		assertEquals("jill", live.identity);
+		assertEquals("Pen", live.billingEntries.get(0).getItemName());
+	}
+
+	@Test
+	public void aRejectedReplayDoesntStopNewEntriesBeingPosted() throws InterruptedException {
+		enableSpool(20);
+		TestSupport.invoke(writer, "start");
+		billing.failure = () -> new ProcessingException("billing unavailable");
+		write("jack", "Pencil");
+		assertEquals(1, gauge("billingSpoolingWhileDown"));
+		// the billing service is there, it just won't take the replay
+		billing.failure = () -> new NotAuthorizedException("Basic");
+		waitFor(() -> gauge("billingSpoolingWhileDown") == 0);
+		billing.failure = null;
+		write("jill", "Pen");
+		// not made as a caller, so this can only be the live post
+		assertTrue(billing.posts.stream().anyMatch(post -> post.identity.equals("jill")
+				&& post.billingEntries.get(0).getItemName().equals("Pen")));
+	}
+
+	@Test
+	public void theSpoolIsReplayedWithTheConfiguredCredentials() throws InterruptedException {
+		enableSpool(20);
+		TestSupport.inject(writer, "spoolReplayUser", Optional.of("billingreplay"));
+		TestSupport.inject(writer, "spoolReplayPassword", Optional.of("secret"));
+		billing.failure = () -> new ProcessingException("billing unavailable");
+		TestSupport.invoke(writer, "start");
+		write("jack", "Pencil");
+		write("jill", "Pen");
+		// the replays keep failing, so the spool is stalled
+		Thread.sleep(100);
+		assertTrue(gauge("billingSpoolStalledMillis") >= 50);
+		billing.failure = null;
+		waitFor(() -> billing.entriesPosted() == 2);
+		Post replay = billing.posts.get(0);
+		assertEquals("Basic " + Base64.getEncoder().encodeToString("billingreplay:secret".getBytes()),
+				replay.authorization);
+		assertEquals(List.of("jack", "jill"),
+				replay.billingEntries.stream().map(BillingEntry::getCallerName).collect(Collectors.toList()));
+		waitFor(() -> gauge("billingSpoolPending") == 0);
+		assertEquals(0, gauge("billingSpoolStalledMillis"));
+	}
+}
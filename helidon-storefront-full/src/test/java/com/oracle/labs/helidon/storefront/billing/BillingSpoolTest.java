@@ -0,0 +1,155 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.billing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.oracle.labs.helidon.storefront.billing.BillingSpool.SpoolBatch;
+import com.oracle.labs.helidon.storefront.data.BillingEntry;
+
+public class BillingSpoolTest {
+	@TempDir
+	Path directory;
+
+	private static List<String> itemNames(SpoolBatch batch) {
+		return batch.getBillingEntries().stream().map(BillingEntry::getItemName).collect(Collectors.toList());
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void entriesAreReadBackInOrder() throws IOException {
+		try (BillingSpool spool = new BillingSpool(directory, 4096, false)) {
+			spool.append(new BillingEntry("jack", "Pencil", 2));
+			spool.append(new BillingEntry("jill", "Stylo à bille", 3));
+			spool.append(new BillingEntry("jack", "Brush", 4));
+			assertEquals(3, spool.pendingEntries());
+			SpoolBatch batch = spool.read(2);
+			assertEquals(List.of(new BillingEntry("jack", "Pencil", 2), new BillingEntry("jill", "Stylo à bille", 3)),
+					batch.getBillingEntries());
+			// reading doesn't remove them, only the commit does
+			assertEquals(batch.getBillingEntries(), spool.read(2).getBillingEntries());
+			spool.commit(batch);
+			assertEquals(1, spool.pendingEntries());
+			assertEquals(List.of("Brush"), itemNames(spool.read(10)));
+		}
+	}
+
+	@Test
+	public void uncommittedEntriesSurviveARestart() throws IOException {
+		try (BillingSpool spool = new BillingSpool(directory, 4096, false)) {
+			spool.append(new BillingEntry("jack", "Pencil", 2));
+			spool.append(new BillingEntry("jack", "Pen", 3));
+			spool.commit(spool.read(1));
+		}
+		try (BillingSpool spool = new BillingSpool(directory, 4096, false)) {
+			assertEquals(1, spool.pendingEntries());
+			assertEquals(List.of("Pen"), itemNames(spool.read(10)));
+			// new entries go after the recovered ones
+			spool.append(new BillingEntry("jack", "Brush", 1));
+			assertEquals(List.of("Pen", "Brush"), itemNames(spool.read(10)));
+		}
+	}
+
+	@Test
+	public void aDamagedRecordEndsTheRecovery() throws IOException {
+		try (BillingSpool spool = new BillingSpool(directory, 4096, false)) {
+			spool.append(new BillingEntry("jack", "Pencil", 2));
+			spool.append(new BillingEntry("jack", "Pen", 3));
+		}
+		// flip a byte in the item count of the last record, as if we'd crashed
+		// part way through writing it
+		Path segment = segments().get(0);
+		try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+			long itemCountAt = 16 + (4 + 2 + 4 + 2 + 6 + 4 + 4) + 4 + 2 + 4 + 2 + 3;
+			file.seek(itemCountAt);
+			file.write(file.read() ^ 0xff);
+		}
+		try (BillingSpool spool = new BillingSpool(directory, 4096, false)) {
+			assertEquals(1, spool.pendingEntries());
+			assertEquals(List.of("Pencil"), itemNames(spool.read(10)));
+			spool.append(new BillingEntry("jack", "Brush", 1));
+			assertEquals(List.of("Pencil", "Brush"), itemNames(spool.read(10)));
+		}
+	}
+
+	@Test
+	public void replayedSegmentsAreDeleted() throws IOException {
+		try (BillingSpool spool = new BillingSpool(directory, 128, false)) {
+			// each record is 25 bytes, so 4 fit in a segment after the header
+			for (int i = 0; i < 9; i++) {
+				spool.append(new BillingEntry("jack", "Item" + i, i));
+			}
+			assertEquals(3, segments().size());
+			int replayed = 0;
+			while (spool.pendingEntries() > 0) {
+				SpoolBatch batch = spool.read(2);
+				replayed += batch.getBillingEntries().size();
+				spool.commit(batch);
+			}
+			assertEquals(9, replayed);
+			// the last segment is kept for the next entries
+			assertEquals(1, segments().size());
+		}
+	}
+
+	@Test
+	public void entriesTooLargeForASegmentAreRefused() throws IOException {
+		try (BillingSpool spool = new BillingSpool(directory, 64, false)) {
+			assertFalse(spool.append(new BillingEntry("jack", "An item with a very long name indeed", 1)));
+			assertTrue(spool.append(new BillingEntry("jack", "Pen", 1)));
+			assertEquals(1, spool.pendingEntries());
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.billing;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import com.oracle.labs.helidon.storefront.data.BillingEntry;
+import com.oracle.labs.helidon.storefront.data.BillingEntryResponse;
+import com.oracle.labs.helidon.storefront.data.BillingInfo;
+import com.oracle.labs.helidon.storefront.headers.CallerIdentity;
+import com.oracle.labs.helidon.storefront.restclients.BillingService;
+
+/**
+ * Records the posts made to it along with the identity they were made as
+ */
+class FakeBillingService implements BillingService {
+	final List<Post> posts = new CopyOnWriteArrayList<>();
+	// if set this is thrown by every post
+	volatile Supplier<RuntimeException> failure;
+	// the identity every post was made as, including the ones that failed
+	final List<String> attempts = new CopyOnWriteArrayList<>();
+
+	static class Post {
+		final String identity;
+		// only set if the Authorization header was given explicitly
+		final String authorization;
+		final List<BillingEntry> billingEntries;
+
+		Post(String identity, String authorization, Collection<BillingEntry> billingEntries) {
+			this.identity = identity;
+			this.authorization = authorization;
+			this.billingEntries = List.copyOf(billingEntries);
+		}
+	}
+
+	int entriesPosted() {
+		return posts.stream().mapToInt(post -> post.billingEntries.size()).sum();
+	}
+
+	@Override
+	public BillingEntryResponse postBillingEntry(BillingEntry billingEntry) {
+		return post(null, List.of(billingEntry));
+	}
+
+	@Override
+	public BillingEntryResponse postBillingEntries(Collection<BillingEntry> billingEntries) {
+		return post(null, billingEntries);
+	}
+
+	@Override
+	public BillingEntryResponse postBillingEntries(String authorization, Collection<BillingEntry> billingEntries) {
+		return post(authorization, billingEntries);
+	}
+
+	@Override
+	public BillingInfo getBillingInfo() {
+		return new BillingInfo();
+	}
+
+	private BillingEntryResponse post(String authorization, Collection<BillingEntry> billingEntries) {
+		attempts.add(CallerIdentity.current());
+		Supplier<RuntimeException> currentFailure = failure;
+		if (currentFailure != null) {
+			throw currentFailure.get();
+		}
+		posts.add(new Post(CallerIdentity.current(), authorization, billingEntries));
+		return new BillingEntryResponse(true);
+	}
+}
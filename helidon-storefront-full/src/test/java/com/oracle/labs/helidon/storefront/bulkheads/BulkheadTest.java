@@ -0,0 +1,148 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.bulkheads;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.faulttolerance.exceptions.BulkheadException;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+
+public class BulkheadTest {
+	private MetricRegistry metricRegistry;
+	private Bulkhead bulkhead;
+	private ExecutorService callers;
+
+	@BeforeEach
+	public void setUp() {
+		metricRegistry = TestSupport.applicationRegistry();
+		// one call in progress and one waiting
+		bulkhead = new Bulkhead("test", 1, 1, metricRegistry);
+		callers = Executors.newCachedThreadPool();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		bulkhead.shutdown();
+		callers.shutdownNow();
+	}
+
+	@Test
+	public void callsAreRefusedOnceTheThreadsAndQueueAreFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> running = callers.submit(() -> bulkhead.call(() -> await(release)));
+		TestSupport.waitFor(() -> metricRegistry.gauge("testBulkheadActive", () -> 0).getValue().intValue() == 1);
+		Future<String> queued = callers.submit(() -> bulkhead.call(() -> "queued"));
+		TestSupport.waitFor(() -> metricRegistry.gauge("testBulkheadQueued", () -> 0).getValue().intValue() == 1);
+		assertThrows(BulkheadException.class, () -> bulkhead.call(() -> "refused"));
+		assertEquals(1, metricRegistry.counter("testBulkheadRejected").getCount());
+		release.countDown();
+		assertEquals("released", running.get(5, TimeUnit.SECONDS));
+		assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+		assertEquals("accepted", bulkhead.call(() -> "accepted"));
+	}
+
+	@Test
+	public void asyncCallsCountUntilTheyComplete() {
+		CompletableFuture<String> first = new CompletableFuture<>();
+		CompletableFuture<String> second = new CompletableFuture<>();
+		bulkhead.callAsync(() -> first);
+		bulkhead.callAsync(() -> second);
+		CompletionException e = assertThrows(CompletionException.class,
+				() -> bulkhead.callAsync(() -> CompletableFuture.completedFuture("refused")).toCompletableFuture()
+						.join());
+		assertTrue(e.getCause() instanceof BulkheadException);
+		// the blocking calls share the same limit
+		assertThrows(BulkheadException.class, () -> bulkhead.call(() -> "refused"));
+		first.complete("done");
+		second.completeExceptionally(new IllegalStateException("failed"));
+		assertEquals("accepted", bulkhead.callAsync(() -> CompletableFuture.completedFuture("accepted"))
+				.toCompletableFuture().join());
+		assertEquals("accepted", bulkhead.call(() -> "accepted"));
+	}
+
+	@Test
+	public void asyncCallsThatThrowGiveTheirPermitBack() {
+		for (int i = 0; i < 3; i++) {
+			CompletionException e = assertThrows(CompletionException.class,
+					() -> bulkhead.<String>callAsync(() -> {
+						throw new IllegalStateException("not sent");
+					}).toCompletableFuture().join());
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertEquals("accepted", bulkhead.call(() -> "accepted"));
+	}
+
+	@Test
+	public void aCallerThatGivesUpWhileQueuedGivesItsPermitBack() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> running = callers.submit(() -> bulkhead.call(() -> await(release)));
+		TestSupport.waitFor(() -> metricRegistry.gauge("testBulkheadActive", () -> 0).getValue().intValue() == 1);
+		Future<String> queued = callers.submit(() -> bulkhead.call(() -> "queued"));
+		TestSupport.waitFor(() -> metricRegistry.gauge("testBulkheadQueued", () -> 0).getValue().intValue() == 1);
+		// interrupting the waiting caller cancels it's queued call
+		queued.cancel(true);
+		CompletableFuture<String> held = new CompletableFuture<>();
+		TestSupport.waitFor(
+				() -> !bulkhead.callAsync(() -> held).toCompletableFuture().isCompletedExceptionally());
+		release.countDown();
+		assertEquals("released", running.get(5, TimeUnit.SECONDS));
+	}
+
+	private static String await(CountDownLatch release) {
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return "released";
+	}
+}
@@ -0,0 +1,215 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.events;
+
+import static com.oracle.labs.helidon.storefront.TestSupport.waitFor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseBroadcaster;
+import jakarta.ws.rs.sse.SseEventSink;
+
+public class StockLevelBroadcasterTest {
+	private static final Sse SSE = new Sse() {
+		@Override
+		public OutboundSseEvent.Builder newEventBuilder() {
+			return new OutboundEvent.Builder();
+		}
+
+		@Override
+		public SseBroadcaster newBroadcaster() {
+			throw new UnsupportedOperationException();
+		}
+	};
+
+	private MetricRegistry metricRegistry;
+	private StockLevelBroadcaster broadcaster;
+
+	@BeforeEach
+	public void setUp() {
+		metricRegistry = TestSupport.applicationRegistry();
+		broadcaster = new StockLevelBroadcaster();
+		TestSupport.inject(broadcaster, "metricRegistry", metricRegistry);
+		broadcaster.maxSubscribers = 10;
+		broadcaster.bufferSize = 2;
+		broadcaster.senderThreads = 2;
+		broadcaster.heartbeatSeconds = 0;
+		broadcaster.start();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		broadcaster.stop();
+	}
+
+	/**
+	 * A client, the sends complete straight away unless it's been told to hold
+	 * them
+	 */
+	private static class FakeSink implements SseEventSink {
+		private final List<Object> received = new ArrayList<>();
+		private volatile boolean holdSends = false;
+		private volatile boolean closed = false;
+		private volatile int sends = 0;
+
+		@Override
+		public boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public synchronized CompletionStage<?> send(OutboundSseEvent event) {
+			sends++;
+			if (holdSends) {
+				return new CompletableFuture<>();
+			}
+			received.add(event.getData());
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		private synchronized List<Object> received() {
+			return new ArrayList<>(received);
+		}
+	}
+
+	private long published() {
+		return metricRegistry.counter("stockEventsPublished").getCount();
+	}
+
+	private long evicted() {
+		return metricRegistry.counter("stockEventsSubscribersEvicted").getCount();
+	}
+
+	@Test
+	public void nothingIsPublishedWithoutSubscribers() {
+		assertFalse(broadcaster.hasSubscribers());
+		broadcaster.publish(new ItemDetails("Pencil", 3));
+		assertEquals(0, published());
+	}
+
+	@Test
+	public void subscribersGetTheChangesInOrder() throws Exception {
+		FakeSink sink = new FakeSink();
+		assertTrue(broadcaster.subscribe(sink, SSE));
+		assertTrue(broadcaster.hasSubscribers());
+		// more than the buffer size, but a client that keeps up is never evicted
+		for (int level = 10; level > 0; level--) {
+			broadcaster.publish(new ItemDetails("Pencil", level));
+			int expected = 11 - level;
+			waitFor(() -> sink.received().size() == expected);
+		}
+		List<Object> received = sink.received();
+		for (int i = 0; i < received.size(); i++) {
+			assertEquals(10 - i, ((ItemDetails) received.get(i)).getItemCount());
+		}
+		assertEquals(10, published());
+		assertEquals(0, evicted());
+		assertFalse(sink.isClosed());
+	}
+
+	@Test
+	public void aSubscriberWhoseSendsDontCompleteIsEvicted() throws Exception {
+		FakeSink slow = new FakeSink();
+		slow.holdSends = true;
+		FakeSink fast = new FakeSink();
+		broadcaster.subscribe(slow, SSE);
+		broadcaster.subscribe(fast, SSE);
+		// the first is handed to the client but never completes, so it still counts
+		// against the buffer with the next one waiting behind it, the fast client
+		// keeps up with each one
+		broadcaster.publish(new ItemDetails("Pencil", 3));
+		waitFor(() -> (slow.sends == 1) && (fast.received().size() == 1));
+		broadcaster.publish(new ItemDetails("Pencil", 2));
+		waitFor(() -> fast.received().size() == 2);
+		assertFalse(slow.isClosed());
+		broadcaster.publish(new ItemDetails("Pencil", 1));
+		waitFor(slow::isClosed);
+		assertEquals(1, slow.sends);
+		assertEquals(1, evicted());
+		waitFor(() -> fast.received().size() == 3);
+		assertFalse(fast.isClosed());
+	}
+
+	@Test
+	public void concurrentSubscribesDontGoOverTheLimit() throws Exception {
+		ExecutorService callers = Executors.newFixedThreadPool(50);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Boolean>> subscribed = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				subscribed.add(callers.submit(() -> {
+					start.await();
+					return broadcaster.subscribe(new FakeSink(), SSE);
+				}));
+			}
+			start.countDown();
+			int accepted = 0;
+			for (Future<Boolean> result : subscribed) {
+				accepted += result.get() ? 1 : 0;
+			}
+			assertEquals(10, accepted);
+		} finally {
+			callers.shutdownNow();
+		}
+	}
+}
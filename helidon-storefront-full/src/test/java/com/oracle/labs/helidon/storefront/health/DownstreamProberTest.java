@@ -0,0 +1,152 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.health;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.bulkheads.Bulkheads;
+import com.oracle.labs.helidon.storefront.health.DownstreamProber.Downstream;
+import com.oracle.labs.helidon.storefront.health.DownstreamProber.Verdict;
+import com.oracle.labs.helidon.storefront.restclients.StockManagerStatus;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.ProcessingException;
+
+public class DownstreamProberTest {
+	private final AtomicInteger checks = new AtomicInteger();
+	// what the next check does, returns or throws
+	private volatile Supplier<JsonObject> answer = () -> Json.createObjectBuilder().build();
+	private DownstreamProber prober;
+
+	private Downstream start(long probeTimeoutMillis) {
+		prober = new DownstreamProber();
+		TestSupport.inject(prober, "stockManagerStatus", (StockManagerStatus) () -> {
+			checks.incrementAndGet();
+			return answer.get();
+		});
+		TestSupport.inject(prober, "bulkheads", new Bulkheads());
+		TestSupport.inject(prober, "probeIntervalMillis", 5L);
+		TestSupport.inject(prober, "probeTimeoutMillis", probeTimeoutMillis);
+		TestSupport.inject(prober, "upThreshold", 2);
+		TestSupport.inject(prober, "downThreshold", 3);
+		TestSupport.inject(prober, "probeBilling", false);
+		prober.onStartup(new Object());
+		return prober.getDownstreams().get(0);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		prober.stop();
+	}
+
+	private void awaitChecks(int count) throws InterruptedException {
+		int target = checks.get() + count;
+		TestSupport.waitFor(() -> checks.get() >= target);
+	}
+
+	@Test
+	public void theFirstCheckDecidesTheStartingState() throws InterruptedException {
+		answer = () -> {
+			throw new ProcessingException("connection refused");
+		};
+		Downstream downstream = start(1000);
+		assertFalse(downstream.getVerdict().isProbed());
+		TestSupport.waitFor(() -> downstream.getVerdict().isProbed());
+		Verdict verdict = downstream.getVerdict();
+		assertFalse(verdict.isUp());
+		assertTrue(verdict.getProblem().contains("connection refused"));
+	}
+
+	@Test
+	public void itTakesSeveralFailuresInARowToGoDownAndPassesToComeBack() throws InterruptedException {
+		Downstream downstream = start(1000);
+		TestSupport.waitFor(() -> downstream.getVerdict().isProbed());
+		assertTrue(downstream.getVerdict().isUp());
+		answer = () -> {
+			throw new ProcessingException("connection refused");
+		};
+		TestSupport.waitFor(() -> downstream.getVerdict().getConsecutiveFailures() > 0);
+		assertTrue(downstream.getVerdict().isUp());
+		TestSupport.waitFor(() -> !downstream.getVerdict().isUp());
+		assertEquals(3, downstream.getVerdict().getConsecutiveFailures());
+		answer = () -> Json.createObjectBuilder().build();
+		TestSupport.waitFor(() -> downstream.getVerdict().getConsecutiveFailures() == 0);
+		TestSupport.waitFor(() -> downstream.getVerdict().isUp());
+	}
+
+	@Test
+	public void clientErrorsMeanTheServiceIsThere() throws InterruptedException {
+		answer = () -> {
+			throw new NotFoundException();
+		};
+		Downstream downstream = start(1000);
+		awaitChecks(5);
+		assertTrue(downstream.getVerdict().isUp());
+		assertEquals(0, downstream.getVerdict().getConsecutiveFailures());
+	}
+
+	@Test
+	public void slowChecksAreGivenUpOnAndNotOverlapped() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		answer = () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return Json.createObjectBuilder().build();
+		};
+		Downstream downstream = start(20);
+		TestSupport.waitFor(() -> downstream.getVerdict().getConsecutiveFailures() >= 3);
+		assertFalse(downstream.getVerdict().isUp());
+		// the first check is still running, so no others have been started
+		assertEquals(1, checks.get());
+		release.countDown();
+	}
+}
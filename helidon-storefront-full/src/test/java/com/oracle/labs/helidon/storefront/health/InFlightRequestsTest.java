@@ -0,0 +1,136 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.health;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.health.InFlightRequests.Snapshot;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+
+public class InFlightRequestsTest {
+	private static final long NO_STALLS = TimeUnit.MINUTES.toNanos(1);
+
+	private final InFlightRequests filter = new InFlightRequests();
+	private ExecutorService requestThread;
+	private ExecutorService otherThread;
+
+	@BeforeEach
+	public void setUp() {
+		requestThread = Executors.newSingleThreadExecutor();
+		otherThread = Executors.newSingleThreadExecutor();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		requestThread.shutdownNow();
+		otherThread.shutdownNow();
+	}
+
+	/**
+	 * Just enough of a request to hold the properties the filter sets
+	 */
+	private static ContainerRequestContext request() {
+		Map<String, Object> properties = new HashMap<>();
+		return (ContainerRequestContext) Proxy.newProxyInstance(InFlightRequestsTest.class.getClassLoader(),
+				new Class<?>[] { ContainerRequestContext.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "setProperty":
+						properties.put((String) args[0], args[1]);
+						return null;
+					case "getProperty":
+						return properties.get(args[0]);
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private void on(ExecutorService thread, Runnable action) throws Exception {
+		thread.submit(action).get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void requestsAreInFlightUntilTheyFinish() throws Exception {
+		int before = InFlightRequests.snapshot(NO_STALLS).getInFlight();
+		ContainerRequestContext request = request();
+		on(requestThread, () -> filter.filter(request));
+		assertEquals(before + 1, InFlightRequests.snapshot(NO_STALLS).getInFlight());
+		Thread.sleep(20);
+		Snapshot snapshot = InFlightRequests.snapshot(TimeUnit.MILLISECONDS.toNanos(10));
+		assertTrue(snapshot.getStalled() >= 1);
+		assertTrue(snapshot.getOldestMillis() >= 20);
+		on(requestThread, () -> filter.filter(request, null));
+		assertEquals(before, InFlightRequests.snapshot(NO_STALLS).getInFlight());
+	}
+
+	@Test
+	public void asyncRequestsFinishingOnAnotherThreadClearTheirSlot() throws Exception {
+		int before = InFlightRequests.snapshot(NO_STALLS).getInFlight();
+		ContainerRequestContext request = request();
+		on(requestThread, () -> filter.filter(request));
+		on(otherThread, () -> filter.filter(request, null));
+		assertEquals(before, InFlightRequests.snapshot(NO_STALLS).getInFlight());
+	}
+
+	@Test
+	public void theSlotIsLeftAloneIfTheThreadHasMovedOn() throws Exception {
+		int before = InFlightRequests.snapshot(NO_STALLS).getInFlight();
+		ContainerRequestContext first = request();
+		ContainerRequestContext second = request();
+		on(requestThread, () -> filter.filter(first));
+		Thread.sleep(1);
+		on(requestThread, () -> filter.filter(second));
+		// the first request finishing doesn't clear the second one's start
+		on(otherThread, () -> filter.filter(first, null));
+		assertEquals(before + 1, InFlightRequests.snapshot(NO_STALLS).getInFlight());
+		on(requestThread, () -> filter.filter(second, null));
+		assertEquals(before, InFlightRequests.snapshot(NO_STALLS).getInFlight());
+	}
+}
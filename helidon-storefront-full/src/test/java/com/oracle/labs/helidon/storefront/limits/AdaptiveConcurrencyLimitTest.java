@@ -0,0 +1,147 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.limits;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.limits.AdaptiveConcurrencyLimit.Permit;
+
+public class AdaptiveConcurrencyLimitTest {
+	private MetricRegistry metricRegistry;
+
+	@BeforeEach
+	public void setUp() {
+		metricRegistry = TestSupport.applicationRegistry();
+	}
+
+	private AdaptiveConcurrencyLimit limit(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMillis)
+			throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", initialLimit, minLimit, maxLimit,
+				latencyThresholdMillis, 0.5, metricRegistry);
+		// requests started in the same tick the limit was created in don't count
+		// towards cutting it
+		Thread.sleep(1);
+		return limit;
+	}
+
+	private static List<Permit> acquire(AdaptiveConcurrencyLimit limit, int count) {
+		List<Permit> permits = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Permit permit = limit.tryAcquire();
+			assertNotNull(permit);
+			permits.add(permit);
+		}
+		return permits;
+	}
+
+	@Test
+	public void requestsOverTheLimitAreShed() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = limit(2, 1, 10, 1000);
+		List<Permit> permits = acquire(limit, 2);
+		assertNull(limit.tryAcquire());
+		assertEquals(1, metricRegistry.counter("testShed").getCount());
+		limit.release(permits.get(0), false);
+		assertNotNull(limit.tryAcquire());
+		assertEquals(2, limit.getInFlight());
+	}
+
+	@Test
+	public void theInitialLimitIsKeptWithinTheBounds() throws InterruptedException {
+		assertEquals(10, limit(50, 2, 10, 1000).getLimit());
+		assertEquals(2, limit(0, 2, 10, 1000).getLimit());
+		assertEquals(1, limit(1, 0, 0, 1000).getLimit());
+	}
+
+	@Test
+	public void fastRequestsUsingTheLimitRaiseIt() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = limit(1, 1, 3, 1000);
+		limit.release(limit.tryAcquire(), false);
+		assertEquals(2, limit.getLimit());
+		// about one for every limits worth of requests
+		for (int i = 0; i < 2; i++) {
+			acquire(limit, 2).forEach(permit -> limit.release(permit, false));
+		}
+		assertEquals(3, limit.getLimit());
+		for (int i = 0; i < 10; i++) {
+			acquire(limit, 3).forEach(permit -> limit.release(permit, false));
+		}
+		assertEquals(3, limit.getLimit());
+	}
+
+	@Test
+	public void requestsNotUsingTheLimitDontRaiseIt() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = limit(10, 1, 100, 1000);
+		for (int i = 0; i < 100; i++) {
+			limit.release(limit.tryAcquire(), false);
+		}
+		assertEquals(10, limit.getLimit());
+	}
+
+	@Test
+	public void failuresCutTheLimitOnceForTheRequestsRunningAtTheTime() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = limit(16, 1, 100, 1000);
+		acquire(limit, 4).forEach(permit -> limit.release(permit, true));
+		assertEquals(8, limit.getLimit());
+		Thread.sleep(1);
+		acquire(limit, 4).forEach(permit -> limit.release(permit, true));
+		assertEquals(4, limit.getLimit());
+	}
+
+	@Test
+	public void slowRequestsCutTheLimitDownToTheMinimum() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = limit(4, 3, 100, 5);
+		Permit permit = limit.tryAcquire();
+		Thread.sleep(10);
+		limit.release(permit, false);
+		assertEquals(3, limit.getLimit());
+		Thread.sleep(1);
+		permit = limit.tryAcquire();
+		Thread.sleep(10);
+		limit.release(permit, false);
+		assertEquals(3, limit.getLimit());
+	}
+}
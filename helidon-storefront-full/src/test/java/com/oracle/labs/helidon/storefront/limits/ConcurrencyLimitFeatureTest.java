@@ -0,0 +1,186 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.limits;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.FeatureContext;
+import jakarta.ws.rs.core.Response;
+
+public class ConcurrencyLimitFeatureTest {
+	private ConcurrencyLimitFeature feature;
+	private ContainerRequestFilter filter;
+
+	@ConcurrencyLimited("featureTest")
+	public void limitedMethod() {
+	}
+
+	@BeforeEach
+	public void setUp() throws NoSuchMethodException {
+		feature = new ConcurrencyLimitFeature();
+		TestSupport.inject(feature, "metricRegistry", TestSupport.applicationRegistry());
+		feature.enabled = true;
+		feature.initialLimit = 1;
+		feature.minLimit = 1;
+		feature.maxLimit = 10;
+		feature.latencyThresholdMillis = 1000;
+		feature.backoffRatio = 0.5;
+		feature.retryAfterSeconds = 1;
+		Method limitedMethod = getClass().getMethod("limitedMethod");
+		ResourceInfo resourceInfo = (ResourceInfo) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { ResourceInfo.class }, (proxy, method, args) -> {
+					if (method.getName().equals("getResourceMethod")) {
+						return limitedMethod;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		AtomicReference<Object> registered = new AtomicReference<>();
+		FeatureContext featureContext = (FeatureContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { FeatureContext.class }, (proxy, method, args) -> {
+					if (method.getName().equals("register")) {
+						registered.set(args[0]);
+						return proxy;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		feature.configure(resourceInfo, featureContext);
+		filter = (ContainerRequestFilter) registered.get();
+	}
+
+	private static ContainerRequest request() {
+		return new ContainerRequest(URI.create("http://localhost/"), URI.create("http://localhost/stocklevel"), "GET",
+				null, new MapPropertiesDelegate(), null);
+	}
+
+	/**
+	 * Hand the request to the listener Jersey would get for it, as if it had
+	 * finished with the response (null if it didn't get that far)
+	 */
+	private void finish(ContainerRequest request, ContainerResponse response) {
+		RequestEvent finished = (RequestEvent) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RequestEvent.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getType":
+						return RequestEvent.Type.FINISHED;
+					case "getContainerRequest":
+						return request;
+					case "getContainerResponse":
+						return response;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		RequestEventListener listener = feature.onRequest(finished);
+		assertNotNull(listener);
+		listener.onEvent(finished);
+	}
+
+	private boolean admitted() throws IOException {
+		ContainerRequest request = request();
+		filter.filter(request);
+		return request.getAbortResponse() == null;
+	}
+
+	@Test
+	public void thePermitIsReturnedWhenTheRequestFinishes() throws IOException {
+		ContainerRequest request = request();
+		filter.filter(request);
+		assertNull(request.getAbortResponse());
+		assertEquals(503, refusedStatus());
+		finish(request, new ContainerResponse(request, Response.ok().build()));
+		assertTrue(admitted());
+	}
+
+	@Test
+	public void thePermitIsReturnedEvenIfTheResponseFiltersAreSkipped() throws IOException {
+		ContainerRequest request = request();
+		filter.filter(request);
+		assertFalse(admitted());
+		// an exception nothing mapped, or the connection going, finishes the
+		// request without a response
+		finish(request, null);
+		assertTrue(admitted());
+	}
+
+	@Test
+	public void requestsThatWereRefusedHaveNothingToReturn() throws IOException {
+		ContainerRequest held = request();
+		filter.filter(held);
+		ContainerRequest refused = request();
+		filter.filter(refused);
+		assertEquals(503, refused.getAbortResponse().getStatus());
+		finish(refused, new ContainerResponse(refused, refused.getAbortResponse()));
+		// the refusal didn't give back the permit the first request holds
+		assertFalse(admitted());
+		finish(held, null);
+		assertTrue(admitted());
+	}
+
+	private int refusedStatus() throws IOException {
+		ContainerRequest request = request();
+		filter.filter(request);
+		return request.getAbortResponse().getStatus();
+	}
+
+	@Test
+	public void nothingIsListenedForWhenTheLimitIsOff() {
+		feature.enabled = false;
+		assertNull(feature.onRequest(null));
+	}
+}
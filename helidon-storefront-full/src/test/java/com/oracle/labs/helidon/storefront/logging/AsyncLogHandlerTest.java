@@ -0,0 +1,155 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+
+public class AsyncLogHandlerTest {
+	private final CountDownLatch writerBlocked = new CountDownLatch(1);
+	private final CountDownLatch unblockWriter = new CountDownLatch(1);
+	private AsyncLogHandler handler;
+
+	@BeforeEach
+	public void setUp() {
+		handler = new AsyncLogHandler();
+		// holds up the writer thread on the first record, and doesn't write
+		// anything to the console
+		handler.setFormatter(new Formatter() {
+			@Override
+			public String format(LogRecord record) {
+				writerBlocked.countDown();
+				try {
+					unblockWriter.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "";
+			}
+		});
+	}
+
+	@AfterEach
+	public void tearDown() {
+		unblockWriter.countDown();
+		handler.close();
+	}
+
+	private static LogRecord record(Level level) {
+		return new LogRecord(level, "test");
+	}
+
+	/**
+	 * Blocks the writer then fills the queue behind it
+	 */
+	private void fillTheQueue() throws InterruptedException {
+		handler.publish(record(Level.INFO));
+		writerBlocked.await();
+		long dropped = AsyncLogHandler.getDroppedCount();
+		for (int i = 0; (i < 100_000) && (AsyncLogHandler.getDroppedCount() == dropped); i++) {
+			handler.publish(record(Level.INFO));
+		}
+		assertEquals(dropped + 1, AsyncLogHandler.getDroppedCount());
+	}
+
+	@Test
+	public void recordsAreDroppedAndCountedWhenTheQueueIsFull() throws InterruptedException {
+		fillTheQueue();
+		int queueDepth = AsyncLogHandler.getQueueDepth();
+		assertTrue(queueDepth > 0);
+		long dropped = AsyncLogHandler.getDroppedCount();
+		for (int i = 0; i < 5; i++) {
+			handler.publish(record(Level.INFO));
+		}
+		assertEquals(dropped + 5, AsyncLogHandler.getDroppedCount());
+		// a warning waits for space before it's dropped
+		long startTime = System.nanoTime();
+		handler.publish(record(Level.WARNING));
+		assertTrue(System.nanoTime() - startTime >= 50_000_000L);
+		assertEquals(dropped + 6, AsyncLogHandler.getDroppedCount());
+		assertEquals(queueDepth, AsyncLogHandler.getQueueDepth());
+		// once the writer catches up everything queued is written
+		unblockWriter.countDown();
+		TestSupport.waitFor(() -> AsyncLogHandler.getQueueDepth() == 0);
+	}
+
+	@Test
+	public void errorsAreKeptIfSpaceTurnsUpInTime() throws InterruptedException {
+		fillTheQueue();
+		long dropped = AsyncLogHandler.getDroppedCount();
+		Thread unblocker = new Thread(() -> {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				return;
+			}
+			unblockWriter.countDown();
+		});
+		unblocker.start();
+		handler.publish(record(Level.SEVERE));
+		unblocker.join();
+		assertEquals(dropped, AsyncLogHandler.getDroppedCount());
+	}
+
+	@Test
+	public void theCountsArePublishedAsMetrics() throws InterruptedException {
+		fillTheQueue();
+		MetricRegistry metricRegistry = TestSupport.applicationRegistry();
+		LoggingMetrics loggingMetrics = new LoggingMetrics();
+		TestSupport.inject(loggingMetrics, "metricRegistry", metricRegistry);
+		loggingMetrics.onStartup(null);
+		assertEquals(AsyncLogHandler.getDroppedCount(),
+				metricRegistry.getGauges().get(new MetricID("logEventsDropped")).getValue());
+		assertEquals(AsyncLogHandler.getQueueDepth(),
+				metricRegistry.getGauges().get(new MetricID("logQueueDepth")).getValue());
+		assertEquals(StructuredLog.getSampledOutCount(),
+				metricRegistry.getGauges().get(new MetricID("logEventsSampledOut")).getValue());
+	}
+}
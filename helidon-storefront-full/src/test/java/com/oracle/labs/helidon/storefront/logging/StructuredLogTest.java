@@ -0,0 +1,172 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.helidon.common.context.Context;
+import io.helidon.common.context.Contexts;
+
+public class StructuredLogTest {
+	private static final StructuredLog events = StructuredLog.forClass(StructuredLogTest.class);
+	private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+	private final Logger logger = Logger.getLogger(StructuredLogTest.class.getName());
+	private final Handler handler = new Handler() {
+		@Override
+		public void publish(LogRecord record) {
+			records.add(record);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	@BeforeEach
+	public void setUp() {
+		logger.addHandler(handler);
+		// keep the test events off the console
+		logger.setUseParentHandlers(false);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		logger.removeHandler(handler);
+		logger.setUseParentHandlers(true);
+		// back to reading it from the config
+		setSuccessSampleRate(null);
+	}
+
+	/**
+	 * The rate is read from the config the first time it's needed, the tests set
+	 * it directly
+	 */
+	private static void setSuccessSampleRate(Double rate) {
+		try {
+			Field field = StructuredLog.class.getDeclaredField("successSampleRate");
+			field.setAccessible(true);
+			field.set(null, rate);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Runs the events in a new request context, after the sampling filter has
+	 * made it's choice
+	 */
+	private static void request(Runnable logging) {
+		Contexts.runInContext(Context.create(), () -> {
+			new LogSamplingFilter().filter(null);
+			logging.run();
+		});
+	}
+
+	private long logged(String event) {
+		return records.stream().filter(record -> ((StructuredLogRecord) record).getEvent().equals(event)).count();
+	}
+
+	@Test
+	public void everythingIsLoggedAtTheFullRate() {
+		setSuccessSampleRate(1.0);
+		long sampledOut = StructuredLog.getSampledOutCount();
+		for (int i = 0; i < 10; i++) {
+			request(() -> events.success("test.succeeded", "request", 1));
+		}
+		assertEquals(10, logged("test.succeeded"));
+		assertEquals(sampledOut, StructuredLog.getSampledOutCount());
+	}
+
+	@Test
+	public void warningsAndErrorsAreNeverSampled() {
+		setSuccessSampleRate(0.0);
+		long sampledOut = StructuredLog.getSampledOutCount();
+		for (int i = 0; i < 10; i++) {
+			request(() -> {
+				events.success("test.succeeded");
+				events.warn("test.warned");
+				events.error("test.failed", new IllegalStateException("test"));
+			});
+		}
+		assertEquals(0, logged("test.succeeded"));
+		assertEquals(10, logged("test.warned"));
+		assertEquals(10, logged("test.failed"));
+		assertTrue(records.stream().filter(record -> record.getLevel() == Level.SEVERE)
+				.allMatch(record -> record.getThrown() instanceof IllegalStateException));
+		assertEquals(sampledOut + 10, StructuredLog.getSampledOutCount());
+	}
+
+	@Test
+	public void aRequestHasAllOfItsSuccessEventsOrNone() {
+		setSuccessSampleRate(0.5);
+		long sampledOut = StructuredLog.getSampledOutCount();
+		int sampledRequests = 0;
+		for (int i = 0; i < 200; i++) {
+			int before = records.size();
+			request(() -> {
+				for (int event = 0; event < 5; event++) {
+					events.success("test.succeeded", "event", event);
+				}
+			});
+			int logged = records.size() - before;
+			assertTrue((logged == 0) || (logged == 5), "request " + i + " logged " + logged + " events");
+			if (logged == 5) {
+				sampledRequests++;
+			}
+		}
+		// the chances of none or all of them being chosen are tiny
+		assertTrue((sampledRequests > 0) && (sampledRequests < 200), sampledRequests + " requests logged");
+		assertEquals(sampledOut + (200 - sampledRequests) * 5, StructuredLog.getSampledOutCount());
+	}
+}
@@ -0,0 +1,325 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.reservation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.data.ItemRequest;
+import com.oracle.labs.helidon.storefront.data.ItemReservationResult;
+import com.oracle.labs.helidon.storefront.data.MinimumChange;
+import com.oracle.labs.helidon.storefront.events.StockLevelBroadcaster;
+import com.oracle.labs.helidon.storefront.exceptions.MinimumChangeException;
+import com.oracle.labs.helidon.storefront.exceptions.NotEnoughItemsException;
+import com.oracle.labs.helidon.storefront.exceptions.UnknownItemException;
+import com.oracle.labs.helidon.storefront.exceptions.UnsupportedStockOperationException;
+import com.oracle.labs.helidon.storefront.logging.StructuredLogRecord;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService.ReservationMode;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+import com.oracle.labs.helidon.storefront.stock.CompletedStockManagerAsync;
+import com.oracle.labs.helidon.storefront.stock.FakeStockManager;
+
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response.Status;
+
+public class StockReservationServiceTest {
+	private StockReservationService service;
+
+	@AfterEach
+	public void tearDown() {
+		if (service != null) {
+			TestSupport.invoke(service, "stop");
+		}
+	}
+
+	private StockReservationService service(StockManager stockManager, ReservationMode reservationMode) {
+		StockLevelBroadcaster stockLevelBroadcaster = new StockLevelBroadcaster();
+		TestSupport.inject(stockLevelBroadcaster, "metricRegistry", TestSupport.applicationRegistry());
+		TestSupport.inject(stockLevelBroadcaster, "maxSubscribers", 10);
+		TestSupport.inject(stockLevelBroadcaster, "bufferSize", 4);
+		TestSupport.inject(stockLevelBroadcaster, "senderThreads", 1);
+		TestSupport.inject(stockLevelBroadcaster, "heartbeatSeconds", 0L);
+		TestSupport.invoke(stockLevelBroadcaster, "start");
+		service = new StockReservationService();
+		TestSupport.inject(service, "minimumChange", new MinimumChange(2));
+		TestSupport.inject(service, "stockManager", stockManager);
+		TestSupport.inject(service, "stockManagerAsync", new CompletedStockManagerAsync(stockManager));
+		TestSupport.inject(service, "stockLevelBroadcaster", stockLevelBroadcaster);
+		TestSupport.inject(service, "writeBillingEntries", false);
+		TestSupport.inject(service, "reservationMode", reservationMode);
+		TestSupport.inject(service, "compareAndSetAttempts", 3);
+		TestSupport.inject(service, "fastRejections", true);
+		TestSupport.inject(service, "bulkThreads", 2);
+		TestSupport.inject(service, "bulkMaxParallel", 2);
+		TestSupport.invoke(service, "start");
+		return service;
+	}
+
+	/**
+	 * Runs the reservation both ways, they must give the same outcome
+	 */
+	private ItemDetails reserveBothWays(StockReservationService service, String itemName, int itemCount)
+			throws Exception {
+		ItemDetails reserved = service.reserve(new ItemRequest(itemName, itemCount), "jack");
+		ItemDetails reservedAsync = unwrapped(() -> service
+				.reserveAsync(new ItemRequest(itemName, itemCount), "jack").toCompletableFuture().join());
+		assertEquals(reserved.getItemCount() - itemCount, reservedAsync.getItemCount());
+		return reserved;
+	}
+
+	private void assertRefusedBothWays(Class<? extends Throwable> expected, StockReservationService service,
+			String itemName, int itemCount) {
+		assertThrows(expected, () -> service.reserve(new ItemRequest(itemName, itemCount), "jack"));
+		assertThrows(expected, () -> unwrapped(() -> service.reserveAsync(new ItemRequest(itemName, itemCount), "jack")
+				.toCompletableFuture().join()));
+	}
+
+	private interface Call<T> {
+		T call() throws Exception;
+	}
+
+	private static <T> T unwrapped(Call<T> call) throws Exception {
+		try {
+			return call.call();
+		} catch (CompletionException e) {
+			Throwable cause = StockReservationService.unwrap(e);
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	@Test
+	public void everyModeTakesTheItems() throws Exception {
+		for (ReservationMode reservationMode : ReservationMode.values()) {
+			FakeStockManager stockManager = new FakeStockManager("Pencil", "12");
+			StockReservationService service = service(stockManager, reservationMode);
+			assertEquals(9, reserveBothWays(service, "Pencil", 3).getItemCount(), reservationMode.name());
+			assertEquals(6, stockManager.getLevel("Pencil"), reservationMode.name());
+			TestSupport.invoke(service, "stop");
+		}
+	}
+
+	@Test
+	public void everyModeRefusesUnknownItemsAndShortages() {
+		for (ReservationMode reservationMode : ReservationMode.values()) {
+			StockReservationService service = service(new FakeStockManager("Pencil", "3"), reservationMode);
+			assertRefusedBothWays(UnknownItemException.class, service, "Eraser", 2);
+			// at least one item has to be left behind
+			assertRefusedBothWays(NotEnoughItemsException.class, service, "Pencil", 3);
+			assertRefusedBothWays(MinimumChangeException.class, service, "Pencil", 1);
+			TestSupport.invoke(service, "stop");
+		}
+	}
+
+	@Test
+	public void compareAndSetGivesUpIfTheLevelKeepsChanging() {
+		FakeStockManager stockManager = new FakeStockManager("Pencil", "12") {
+			@Override
+			public synchronized ItemDetails compareAndSetStockItemLevel(String itemName, Integer itemCount,
+					Integer expectedItemCount) {
+				// another replica gets in first every time
+				setLevel(itemName, getLevel(itemName) - 1);
+				return super.compareAndSetStockItemLevel(itemName, itemCount, expectedItemCount);
+			}
+		};
+		StockReservationService service = service(stockManager, ReservationMode.COMPARE_AND_SET);
+		NotEnoughItemsException e = assertThrows(NotEnoughItemsException.class,
+				() -> service.reserve(new ItemRequest("Pencil", 2), "jack"));
+		assertTrue(e.getMessage().contains("gave up after 3 attempts"), e.getMessage());
+		assertEquals(3, stockManager.updateCalls.get());
+	}
+
+	@Test
+	public void aStockManagerWithoutTheConditionalUpdatesIsReported() {
+		for (Status status : new Status[] { Status.NOT_FOUND, Status.METHOD_NOT_ALLOWED }) {
+			FakeStockManager stockManager = new FakeStockManager("Pencil", "12") {
+				@Override
+				public synchronized ItemDetails decrementStockItemLevel(String itemName, Integer itemCount,
+						Integer ifAtLeast) {
+					throw new WebApplicationException(status);
+				}
+
+				@Override
+				public synchronized ItemDetails compareAndSetStockItemLevel(String itemName, Integer itemCount,
+						Integer expectedItemCount) {
+					throw new WebApplicationException(status);
+				}
+			};
+			for (ReservationMode reservationMode : new ReservationMode[] { ReservationMode.CONDITIONAL,
+					ReservationMode.COMPARE_AND_SET }) {
+				StockReservationService service = service(stockManager, reservationMode);
+				assertRefusedBothWays(UnsupportedStockOperationException.class, service, "Pencil", 2);
+				// a 405 can't be about the item, so the conditional decrement has no way
+				// to tell it's unknown, the compare and set reads it first
+				boolean itemChecked = (status == Status.NOT_FOUND)
+						|| (reservationMode == ReservationMode.COMPARE_AND_SET);
+				assertRefusedBothWays(
+						itemChecked ? UnknownItemException.class : UnsupportedStockOperationException.class, service,
+						"Eraser", 2);
+				TestSupport.invoke(service, "stop");
+			}
+			assertEquals(12, stockManager.getLevel("Pencil"));
+		}
+	}
+
+	@Test
+	public void refusalsAreSampledEventsNotErrors() {
+		List<LogRecord> records = new CopyOnWriteArrayList<>();
+		Handler handler = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Logger logger = Logger.getLogger(StockReservationService.class.getName());
+		logger.addHandler(handler);
+		try {
+			StockReservationService service = service(new FakeStockManager("Pencil", "3"),
+					ReservationMode.READ_MODIFY_WRITE);
+			assertRefusedBothWays(UnknownItemException.class, service, "Eraser", 2);
+			assertRefusedBothWays(NotEnoughItemsException.class, service, "Pencil", 3);
+			assertRefusedBothWays(MinimumChangeException.class, service, "Pencil", 1);
+			assertThrows(MinimumChangeException.class,
+					() -> service.reserveAll(List.of(new ItemRequest("Pencil", 1)), "jack"));
+		} finally {
+			logger.removeHandler(handler);
+		}
+		assertTrue(records.stream().noneMatch(record -> record.getLevel().intValue() > Level.INFO.intValue()));
+		assertEquals(6, records.stream().filter(record -> record instanceof StructuredLogRecord)
+				.map(record -> ((StructuredLogRecord) record).getEvent()).filter("reservation.rejected"::equals)
+				.count());
+	}
+
+	@Test
+	public void eachItemInABulkReservationGetsItsOwnOutcome() throws MinimumChangeException {
+		FakeStockManager stockManager = new FakeStockManager("Pencil", "12", "Pen", "2", "Brush", "27", "Ruler", "5") {
+			@Override
+			public ItemDetails getStockItem(String itemName) {
+				if (itemName.equals("Ruler")) {
+					throw new ProcessingException(new ConnectException("connection refused"));
+				}
+				return super.getStockItem(itemName);
+			}
+		};
+		StockReservationService service = service(stockManager, ReservationMode.READ_MODIFY_WRITE);
+		List<ItemReservationResult> results = service.reserveAll(List.of(new ItemRequest("Pencil", 3),
+				new ItemRequest("Eraser", 2), new ItemRequest("Pen", 2), new ItemRequest("Brush", 5),
+				new ItemRequest("Ruler", 2), new ItemRequest("Pencil", 2)), "jack");
+		// in the order they were asked for
+		assertEquals(List.of("Pencil", "Eraser", "Pen", "Brush", "Ruler", "Pencil"),
+				results.stream().map(ItemReservationResult::getRequestedItem).collect(Collectors.toList()));
+		assertEquals(List.of(200, 404, 409, 200, 424, 200),
+				results.stream().map(ItemReservationResult::getStatus).collect(Collectors.toList()));
+		for (ItemReservationResult result : results) {
+			if (result.getStatus() == 200) {
+				assertNotNull(result.getItemDetails(), result.getRequestedItem());
+				assertNull(result.getErrormessage(), result.getRequestedItem());
+			} else {
+				assertNull(result.getItemDetails(), result.getRequestedItem());
+				assertNotNull(result.getErrormessage(), result.getRequestedItem());
+			}
+		}
+		assertEquals(7, stockManager.getLevel("Pencil"));
+		assertEquals(2, stockManager.getLevel("Pen"));
+		assertEquals(22, stockManager.getLevel("Brush"));
+		assertEquals(5, stockManager.getLevel("Ruler"));
+	}
+
+	@Test
+	public void aBulkReservationIsSpreadOverTheWorkers() throws MinimumChangeException {
+		String[] itemsAndCounts = new String[40];
+		List<ItemRequest> itemRequests = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			itemsAndCounts[i * 2] = "Item" + i;
+			itemsAndCounts[i * 2 + 1] = "10";
+			itemRequests.add(new ItemRequest("Item" + i, 2));
+		}
+		FakeStockManager stockManager = new FakeStockManager(itemsAndCounts);
+		StockReservationService service = service(stockManager, ReservationMode.CONDITIONAL);
+		List<ItemReservationResult> results = service.reserveAll(itemRequests, "jack");
+		for (int i = 0; i < 20; i++) {
+			assertEquals("Item" + i, results.get(i).getRequestedItem());
+			assertEquals(200, results.get(i).getStatus());
+			assertEquals(8, results.get(i).getItemDetails().getItemCount());
+		}
+		assertEquals(20, stockManager.updateCalls.get());
+	}
+
+	@Test
+	public void aBulkReservationWithAnyItemBelowTheMinimumReservesNothing() {
+		FakeStockManager stockManager = new FakeStockManager("Pencil", "12", "Pen", "5");
+		StockReservationService service = service(stockManager, ReservationMode.READ_MODIFY_WRITE);
+		MinimumChangeException e = assertThrows(MinimumChangeException.class, () -> service.reserveAll(
+				List.of(new ItemRequest("Pencil", 3), new ItemRequest("Pen", 1), new ItemRequest("Brush", 0)),
+				"jack"));
+		assertTrue(e.getMessage().contains("1 items of Pen"), e.getMessage());
+		assertTrue(e.getMessage().contains("0 items of Brush"), e.getMessage());
+		assertEquals(0, stockManager.itemCalls.get());
+		assertEquals(0, stockManager.updateCalls.get());
+		assertEquals(12, stockManager.getLevel("Pencil"));
+	}
+}
@@ -0,0 +1,169 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.resources;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.security.Principal;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.data.ItemRequest;
+import com.oracle.labs.helidon.storefront.data.MinimumChange;
+import com.oracle.labs.helidon.storefront.events.StockLevelBroadcaster;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService;
+import com.oracle.labs.helidon.storefront.reservation.StockReservationService.ReservationMode;
+import com.oracle.labs.helidon.storefront.stock.CompletedStockManagerAsync;
+import com.oracle.labs.helidon.storefront.stock.FakeStockManager;
+
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+
+/**
+ * The async reservation can't use the fallback, so it has to map the problems
+ * to the same statuses itself
+ */
+public class AsyncReservationStatusTest {
+	private FakeStockManager stockManager;
+	private StockReservationService service;
+	private StorefrontResource resource;
+
+	@BeforeEach
+	public void setUp() {
+		stockManager = new FakeStockManager("Pencil", "12", "Pen", "2");
+		StockLevelBroadcaster stockLevelBroadcaster = new StockLevelBroadcaster();
+		TestSupport.inject(stockLevelBroadcaster, "metricRegistry", TestSupport.applicationRegistry());
+		service = new StockReservationService();
+		TestSupport.inject(service, "minimumChange", new MinimumChange(2));
+		TestSupport.inject(service, "stockManager", stockManager);
+		TestSupport.inject(service, "stockManagerAsync", new CompletedStockManagerAsync(stockManager));
+		TestSupport.inject(service, "stockLevelBroadcaster", stockLevelBroadcaster);
+		TestSupport.inject(service, "writeBillingEntries", false);
+		TestSupport.inject(service, "reservationMode", ReservationMode.READ_MODIFY_WRITE);
+		TestSupport.inject(service, "compareAndSetAttempts", 3);
+		TestSupport.inject(service, "bulkThreads", 1);
+		TestSupport.inject(service, "bulkMaxParallel", 1);
+		TestSupport.invoke(service, "start");
+		resource = new StorefrontResource();
+		TestSupport.inject(resource, "stockReservationService", service);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		TestSupport.invoke(service, "stop");
+	}
+
+	/**
+	 * @return the response the async reservation was resumed with, an exception
+	 *         is turned into the response it carries
+	 */
+	private Response reserve(String itemName, int itemCount, boolean fastRejections) {
+		TestSupport.inject(service, "fastRejections", fastRejections);
+		resource.fastRejections = fastRejections;
+		AtomicReference<Object> resumedWith = new AtomicReference<>();
+		AsyncResponse asyncResponse = (AsyncResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { AsyncResponse.class }, (proxy, method, args) -> {
+					if (method.getName().equals("resume")) {
+						resumedWith.set(args[0]);
+						return true;
+					}
+					if (method.getName().equals("toString")) {
+						return "asyncResponse";
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		SecurityContext securityContext = (SecurityContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { SecurityContext.class }, (proxy, method, args) -> {
+					if (method.getName().equals("getUserPrincipal")) {
+						return (Principal) () -> "jack";
+					}
+					if (method.getName().equals("toString")) {
+						return "securityContext";
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		resource.reserveStockItemAsync(new ItemRequest(itemName, itemCount), securityContext, asyncResponse);
+		Object resumed = resumedWith.get();
+		if (resumed instanceof WebApplicationException) {
+			return ((WebApplicationException) resumed).getResponse();
+		}
+		if (resumed instanceof Response) {
+			return (Response) resumed;
+		}
+		return Response.ok(resumed).build();
+	}
+
+	@Test
+	public void problemsGetTheSameStatusesAsTheFallback() {
+		for (boolean fastRejections : new boolean[] { false, true }) {
+			String mode = "fast rejections " + fastRejections;
+			assertEquals(406, reserve("Pencil", 1, fastRejections).getStatus(), mode);
+			assertEquals(404, reserve("Eraser", 2, fastRejections).getStatus(), mode);
+			assertEquals(409, reserve("Pen", 2, fastRejections).getStatus(), mode);
+			stockManager.failure = () -> new ProcessingException(new ConnectException("connection refused"));
+			assertEquals(424, reserve("Pencil", 2, fastRejections).getStatus(), mode);
+			stockManager.failure = null;
+		}
+	}
+
+	@Test
+	public void aReservationThatWorksReturnsTheItem() {
+		Response response = reserve("Pencil", 3, false);
+		assertEquals(200, response.getStatus());
+		assertEquals(new ItemDetails("Pencil", 9), response.getEntity());
+	}
+
+	@Test
+	public void theProblemDetailsHaveAValueForEachParameter() {
+		JsonObject details = (JsonObject) reserve("Eraser", 2, true).getEntity();
+		assertTrue(details.getString("Problem processing request in ").contains("reserveStockItemAsync"));
+		assertEquals(3, details.getJsonArray("param values").size());
+		assertEquals("securityContext", details.getJsonArray("param values").getString(1));
+	}
+}
@@ -0,0 +1,84 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.resources;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.EntityTag;
+
+public class StockListingHeadersTest {
+	private static final List<ItemDetails> LISTING = List.of(new ItemDetails("Pencil", 12),
+			new ItemDetails("Pen", 2), new ItemDetails("Brush", 27));
+
+	@Test
+	public void theTagDependsOnTheLevelsNotTheOrder() {
+		EntityTag tag = StorefrontResource.stockLevelsTag(LISTING);
+		assertTrue(tag.isWeak());
+		assertEquals(tag, StorefrontResource.stockLevelsTag(List.of(LISTING.get(2), LISTING.get(0), LISTING.get(1))));
+		assertNotEquals(tag, StorefrontResource.stockLevelsTag(List.of(new ItemDetails("Pencil", 12),
+				new ItemDetails("Pen", 3), new ItemDetails("Brush", 27))));
+		// the same levels on different items
+		assertNotEquals(tag, StorefrontResource.stockLevelsTag(List.of(new ItemDetails("Pencil", 2),
+				new ItemDetails("Pen", 12), new ItemDetails("Brush", 27))));
+		assertNotEquals(tag, StorefrontResource.stockLevelsTag(LISTING.subList(0, 2)));
+	}
+
+	@Test
+	public void theListingIsOnlyCachedPrivately() {
+		CacheControl alwaysCheck = StorefrontResource.stockLevelsCacheControl(0, false);
+		assertTrue(alwaysCheck.isPrivate());
+		assertTrue(alwaysCheck.isNoCache());
+		CacheControl maxAge = StorefrontResource.stockLevelsCacheControl(30, false);
+		assertTrue(maxAge.isPrivate());
+		assertFalse(maxAge.isNoCache());
+		assertEquals(30, maxAge.getMaxAge());
+		CacheControl stale = StorefrontResource.stockLevelsCacheControl(30, true);
+		assertTrue(stale.isPrivate());
+		assertTrue(stale.isNoCache());
+		assertEquals(-1, stale.getMaxAge());
+	}
+}
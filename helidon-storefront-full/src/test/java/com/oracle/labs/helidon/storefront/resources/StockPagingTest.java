@@ -0,0 +1,170 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.resources;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.data.StockLevelPage;
+import com.oracle.labs.helidon.storefront.stock.FakeStockManager;
+
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ServerErrorException;
+
+public class StockPagingTest {
+	private FakeStockManager stockManager;
+	private StorefrontResource resource;
+
+	@BeforeEach
+	public void setUp() {
+		stockManager = new FakeStockManager("Pencil", "12", "Pen", "2", "Brush", "27", "Eraser", "5", "Ruler", "1");
+		resource = resource(stockManager);
+	}
+
+	private StorefrontResource resource(FakeStockManager stockManager) {
+		StorefrontResource resource = new StorefrontResource();
+		TestSupport.inject(resource, "stockManager", stockManager);
+		resource.defaultPageSize = 2;
+		resource.maxPageSize = 3;
+		resource.streamPageSize = 2;
+		return resource;
+	}
+
+	/**
+	 * An older stock manager, it doesn't know about the paging and just returns
+	 * everything
+	 */
+	private static class UnpagedStockManager extends FakeStockManager {
+		private UnpagedStockManager(String... itemsAndCounts) {
+			super(itemsAndCounts);
+		}
+
+		@Override
+		public synchronized Collection<ItemDetails> getStockLevelsPage(Integer limit, String after) {
+			pageCalls.incrementAndGet();
+			return getAllStockLevels();
+		}
+	}
+
+	private static List<String> names(Collection<ItemDetails> items) {
+		return items.stream().map(ItemDetails::getItemName).collect(Collectors.toList());
+	}
+
+	private static String streamed(StorefrontResource resource) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		resource.streamStock().write(output);
+		return output.toString(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void theCursorsWalkThroughTheWholeListingInOrder() {
+		List<String> seen = new ArrayList<>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			StockLevelPage page = resource.listStockPage(null, cursor);
+			seen.addAll(names(page.getItems()));
+			cursor = page.getNextCursor();
+			pages++;
+		} while (cursor != null);
+		assertEquals(List.of("Brush", "Eraser", "Pen", "Pencil", "Ruler"), seen);
+		assertEquals(3, pages);
+	}
+
+	@Test
+	public void theLimitIsCappedAtTheMaximumPageSize() {
+		StockLevelPage page = resource.listStockPage(100, null);
+		assertEquals(List.of("Brush", "Eraser", "Pen"), names(page.getItems()));
+		assertEquals(List.of("Pencil", "Ruler"), names(resource.listStockPage(100, page.getNextCursor()).getItems()));
+	}
+
+	@Test
+	public void aBadCursorIsABadRequest() {
+		BadRequestException e = assertThrows(BadRequestException.class, () -> resource.listStockPage(2, "not*base64"));
+		assertEquals(400, e.getResponse().getStatus());
+		assertEquals(0, stockManager.pageCalls.get());
+	}
+
+	@Test
+	public void theStreamIsFetchedAPageAtATime() throws IOException {
+		String streamed = streamed(resource);
+		assertEquals(5, streamed.lines().count());
+		assertEquals("{\"itemName\":\"Brush\",\"itemCount\":27}", streamed.lines().findFirst().get());
+		assertEquals(3, stockManager.pageCalls.get());
+	}
+
+	@Test
+	public void pagesArentAvailableIfTheStockManagerIgnoresThePaging() {
+		UnpagedStockManager unpaged = new UnpagedStockManager("Pencil", "12", "Pen", "2", "Brush", "27");
+		ServerErrorException e = assertThrows(ServerErrorException.class,
+				() -> resource(unpaged).listStockPage(2, null));
+		assertEquals(501, e.getResponse().getStatus());
+		assertEquals(1, unpaged.pageCalls.get());
+	}
+
+	@Test
+	public void anUnpagedResponseIsStreamedOnce() throws IOException {
+		UnpagedStockManager unpaged = new UnpagedStockManager("Pencil", "12", "Pen", "2", "Brush", "27");
+		String streamed = streamed(resource(unpaged));
+		assertEquals(List.of("Brush", "Pen", "Pencil"),
+				streamed.lines().map(line -> line.substring(line.indexOf(':') + 2, line.indexOf(',') - 1))
+						.collect(Collectors.toList()));
+		assertEquals(1, unpaged.pageCalls.get());
+	}
+
+	@Test
+	public void theLastPageHasNoCursor() {
+		StockLevelPage page = resource.listStockPage(3, null);
+		page = resource.listStockPage(3, page.getNextCursor());
+		assertEquals(2, page.getItems().size());
+		assertNull(page.getNextCursor());
+	}
+}
@@ -0,0 +1,95 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.resources.fallback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.List;
+
+import org.eclipse.microprofile.faulttolerance.exceptions.CircuitBreakerOpenException;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.exceptions.NotEnoughItemsException;
+
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.WebApplicationException;
+
+public class ExceptionMapTest {
+	@SuppressWarnings("serial")
+	private static class ConnectionResetException extends ConnectException {
+	}
+
+	@Test
+	public void exceptionsGetTheStatusOfTheirClosestListedClass() {
+		ExceptionMap exceptionMap = new ExceptionMap(null);
+		assertEquals(409, exceptionMap.statusFor(NotEnoughItemsException.class));
+		assertEquals(424, exceptionMap.statusFor(ConnectException.class));
+		assertEquals(424, exceptionMap.statusFor(CircuitBreakerOpenException.class));
+		assertEquals(424, exceptionMap.statusFor(ConnectionResetException.class));
+		assertEquals(500, exceptionMap.statusFor(IOException.class));
+		assertEquals(500, exceptionMap.statusFor(IllegalStateException.class));
+	}
+
+	@Test
+	public void onlyPlainWebApplicationExceptionsAreDownstreamFailures() {
+		ExceptionMap exceptionMap = new ExceptionMap(null);
+		assertEquals(424, exceptionMap.statusFor(WebApplicationException.class));
+		assertEquals(500, exceptionMap.statusFor(NotFoundException.class));
+		assertEquals(500, exceptionMap.statusFor(ClientErrorException.class));
+	}
+
+	@Test
+	public void configuredEntriesAddToAndReplaceTheDefaults() {
+		ExceptionMap exceptionMap = new ExceptionMap(List.of("java.io.IOException = 504",
+				ConnectException.class.getName() + "=503", WebApplicationException.class.getName() + "=502"));
+		assertEquals(504, exceptionMap.statusFor(IOException.class));
+		assertEquals(503, exceptionMap.statusFor(ConnectionResetException.class));
+		// configured entries cover the subclasses
+		assertEquals(502, exceptionMap.statusFor(NotFoundException.class));
+		assertEquals(409, exceptionMap.statusFor(NotEnoughItemsException.class));
+	}
+
+	@Test
+	public void badEntriesAreRefused() {
+		assertThrows(IllegalArgumentException.class, () -> new ExceptionMap(List.of("java.io.IOException")));
+		assertThrows(NumberFormatException.class, () -> new ExceptionMap(List.of("java.io.IOException=slow")));
+	}
+}
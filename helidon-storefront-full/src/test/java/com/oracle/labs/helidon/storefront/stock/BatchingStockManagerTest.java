@@ -0,0 +1,174 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import static com.oracle.labs.helidon.storefront.TestCallers.callAs;
+import static com.oracle.labs.helidon.storefront.TestCallers.callableAs;
+import static com.oracle.labs.helidon.storefront.TestSupport.waitFor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+import jakarta.ws.rs.ProcessingException;
+
+public class BatchingStockManagerTest {
+	private FakeStockManager delegate;
+	private MetricRegistry metricRegistry;
+	private ExecutorService callers;
+
+	@BeforeEach
+	public void setUp() {
+		delegate = new FakeStockManager("Pencil", "12", "Pen", "2", "Brush", "27");
+		metricRegistry = TestSupport.applicationRegistry();
+		callers = Executors.newCachedThreadPool();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		callers.shutdownNow();
+	}
+
+	private BatchingStockManager batching(long windowMillis, int maxBatchSize) {
+		return new BatchingStockManager(delegate, windowMillis, maxBatchSize, metricRegistry);
+	}
+
+	@Test
+	public void anUncontendedLookupDoesNotWaitForTheWindow() {
+		BatchingStockManager batching = batching(10000, 50);
+		long startedAt = System.nanoTime();
+		assertEquals(12, callAs("jack", () -> batching.getStockItem("Pencil")).getItemCount());
+		assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(1, delegate.itemCalls.get());
+		assertEquals(0, delegate.bulkCalls.get());
+	}
+
+	@Test
+	public void concurrentLookupsFromDifferentUsersAreBatched() throws Exception {
+		BatchingStockManager batching = batching(10000, 2);
+		delegate.gate = new CountDownLatch(1);
+		// this one goes straight away and holds up the delegate, so the next two
+		// have someone to wait for
+		Future<ItemDetails> pencil = callers.submit(callableAs("jack", () -> batching.getStockItem("Pencil")));
+		waitFor(() -> delegate.itemCalls.get() == 1);
+		Future<ItemDetails> pen = callers.submit(callableAs("jill", () -> batching.getStockItem("Pen")));
+		Future<ItemDetails> eraser = callers.submit(callableAs(null, () -> batching.getStockItem("Eraser")));
+		waitFor(() -> delegate.bulkCalls.get() == 1);
+		delegate.gate.countDown();
+		assertEquals(12, pencil.get().getItemCount());
+		assertEquals(2, pen.get().getItemCount());
+		assertNull(eraser.get());
+		assertEquals(2, delegate.bulkRequests.get(0).size());
+		assertEquals(1, metricRegistry.counter("stockBatchCalls").getCount());
+		assertEquals(2, metricRegistry.counter("stockBatchedItems").getCount());
+	}
+
+	@Test
+	public void theSameItemIsOnlyAskedForOnceInABatch() throws Exception {
+		BatchingStockManager batching = batching(10000, 3);
+		delegate.gate = new CountDownLatch(1);
+		Future<ItemDetails> pencil = callers.submit(callableAs("jack", () -> batching.getStockItem("Pencil")));
+		waitFor(() -> delegate.itemCalls.get() == 1);
+		Future<ItemDetails> pen = callers.submit(callableAs("jack", () -> batching.getStockItem("Pen")));
+		Future<ItemDetails> jillsPen = callers.submit(callableAs("jill", () -> batching.getStockItem("Pen")));
+		Future<ItemDetails> brush = callers.submit(callableAs("jill", () -> batching.getStockItem("Brush")));
+		waitFor(() -> delegate.bulkCalls.get() == 1);
+		delegate.gate.countDown();
+		assertEquals(12, pencil.get().getItemCount());
+		assertSame(pen.get(), jillsPen.get());
+		assertEquals(27, brush.get().getItemCount());
+		assertEquals(2, delegate.bulkRequests.get(0).size());
+	}
+
+	@Test
+	public void everyLookupGetsItsOwnItemUnderLoad() throws Exception {
+		BatchingStockManager batching = batching(1, 4);
+		String[] names = { "Pencil", "Pen", "Brush", "Eraser" };
+		Integer[] counts = { 12, 2, 27, null };
+		List<Future<ItemDetails>> results = new ArrayList<>();
+		for (int i = 0; i < 400; i++) {
+			String name = names[i % names.length];
+			results.add(callers.submit(callableAs("user" + (i % 7), () -> batching.getStockItem(name))));
+		}
+		for (int i = 0; i < results.size(); i++) {
+			ItemDetails itemDetails = results.get(i).get(10, TimeUnit.SECONDS);
+			Integer expected = counts[i % names.length];
+			if (expected == null) {
+				assertNull(itemDetails);
+			} else {
+				assertEquals(names[i % names.length], itemDetails.getItemName());
+				assertEquals(expected, itemDetails.getItemCount());
+			}
+		}
+	}
+
+	@Test
+	public void everyoneInTheBatchGetsTheFailure() throws Exception {
+		BatchingStockManager batching = batching(10000, 2);
+		delegate.gate = new CountDownLatch(1);
+		Future<ItemDetails> pencil = callers.submit(callableAs("jack", () -> batching.getStockItem("Pencil")));
+		waitFor(() -> delegate.itemCalls.get() == 1);
+		ProcessingException failure = new ProcessingException("stock manager unavailable");
+		delegate.failure = () -> failure;
+		Future<ItemDetails> pen = callers.submit(callableAs("jack", () -> batching.getStockItem("Pen")));
+		Future<ItemDetails> brush = callers.submit(callableAs("jack", () -> batching.getStockItem("Brush")));
+		waitFor(() -> delegate.bulkCalls.get() == 1);
+		delegate.gate.countDown();
+		assertSame(failure, assertThrows(ExecutionException.class, pencil::get).getCause());
+		assertSame(failure, assertThrows(ExecutionException.class, pen::get).getCause());
+		assertSame(failure, assertThrows(ExecutionException.class, brush::get).getCause());
+		assertEquals(1, metricRegistry.counter("stockBatchCalls").getCount());
+	}
+}
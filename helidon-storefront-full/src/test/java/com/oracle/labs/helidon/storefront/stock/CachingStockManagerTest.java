@@ -0,0 +1,224 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.stock.CachingStockManager.EvictionPolicy;
+
+import jakarta.ws.rs.ClientErrorException;
+
+public class CachingStockManagerTest {
+	private FakeStockManager delegate;
+	private MetricRegistry metricRegistry;
+	private List<ItemDetails> published;
+	private boolean listening;
+
+	@BeforeEach
+	public void setUp() {
+		delegate = new FakeStockManager("Pencil", "12", "Pen", "2", "Brush", "27");
+		metricRegistry = TestSupport.applicationRegistry();
+		published = new ArrayList<>();
+		listening = true;
+	}
+
+	private CachingStockManager cache(long ttlMillis, int maxEntries) {
+		return new CachingStockManager(delegate, ttlMillis, maxEntries, EvictionPolicy.LRU, () -> listening,
+				published::add, metricRegistry);
+	}
+
+	@Test
+	public void itemReadsAreServedFromTheCacheUntilTheyExpire() throws InterruptedException {
+		CachingStockManager cache = cache(50, 10);
+		assertEquals(12, cache.getStockItem("Pencil").getItemCount());
+		delegate.setLevel("Pencil", 5);
+		assertEquals(12, cache.getStockItem("Pencil").getItemCount());
+		assertEquals(1, delegate.itemCalls.get());
+		Thread.sleep(60);
+		assertEquals(5, cache.getStockItem("Pencil").getItemCount());
+		assertEquals(2, delegate.itemCalls.get());
+		assertEquals(1, metricRegistry.counter("stockCacheHits").getCount());
+		assertEquals(2, metricRegistry.counter("stockCacheMisses").getCount());
+	}
+
+	@Test
+	public void unknownItemsAreNotCached() {
+		CachingStockManager cache = cache(10000, 10);
+		assertNull(cache.getStockItem("Eraser"));
+		delegate.setLevel("Eraser", 3);
+		assertEquals(3, cache.getStockItem("Eraser").getItemCount());
+	}
+
+	@Test
+	public void theListingAnswersItemReads() {
+		CachingStockManager cache = cache(10000, 10);
+		assertEquals(levels(delegate.getAllStockLevels()), levels(cache.getAllStockLevels()));
+		assertEquals(12, cache.getStockItem("Pencil").getItemCount());
+		assertEquals(0, delegate.itemCalls.get());
+		cache.getAllStockLevels();
+		assertEquals(2, delegate.listingCalls.get());
+	}
+
+	@Test
+	public void onlyLevelsChangedBehindOurBackArePublished() {
+		CachingStockManager cache = cache(0, 10);
+		cache.getAllStockLevels();
+		cache.getStockItem("Pencil");
+		// nothing to compare the first loads with, and nothing has changed since
+		assertEquals(0, published.size());
+		delegate.setLevel("Pen", 1);
+		delegate.setLevel("Brush", 20);
+		cache.getAllStockLevels();
+		assertEquals(Map.of("Pen", 1, "Brush", 20), levels(published));
+		published.clear();
+		delegate.setLevel("Pencil", 4);
+		cache.getStockItem("Pencil");
+		assertEquals(Map.of("Pencil", 4), levels(published));
+		published.clear();
+		// our own updates aren't published, the caller already knows
+		cache.setStockItemLevel("Pencil", 3);
+		cache.getAllStockLevels();
+		assertEquals(0, published.size());
+	}
+
+	@Test
+	public void nothingIsComparedIfNoOneIsListening() {
+		CachingStockManager cache = cache(0, 10);
+		listening = false;
+		cache.getAllStockLevels();
+		delegate.setLevel("Pen", 1);
+		cache.getAllStockLevels();
+		cache.getStockItem("Pen");
+		assertEquals(0, published.size());
+	}
+
+	@Test
+	public void updatesAreWrittenThroughAndSeenByLaterReads() {
+		CachingStockManager cache = cache(10000, 10);
+		cache.getAllStockLevels();
+		cache.getStockItem("Pen");
+		cache.setStockItemLevel("Pen", 7);
+		assertEquals(7, delegate.getLevel("Pen"));
+		assertEquals(7, cache.getStockItem("Pen").getItemCount());
+		assertEquals(7, levels(cache.getAllStockLevels()).get("Pen"));
+		assertEquals(0, delegate.itemCalls.get());
+	}
+
+	@Test
+	public void listingsAlreadyHandedOutDontChange() {
+		CachingStockManager cache = cache(10000, 10);
+		cache.getAllStockLevels();
+		Collection<ItemDetails> before = cache.getAllStockLevels();
+		cache.setStockItemLevel("Pen", 7);
+		assertEquals(2, levels(before).get("Pen"));
+		assertEquals(7, levels(cache.getAllStockLevels()).get("Pen"));
+		assertEquals(7, levels(cache.getStockLevelsPage(1, "Brush")).get("Pen"));
+	}
+
+	@Test
+	public void aRefusedConditionalUpdateDropsTheCachedLevel() {
+		CachingStockManager cache = cache(10000, 10);
+		cache.getStockItem("Pen");
+		delegate.setLevel("Pen", 1);
+		assertThrows(ClientErrorException.class, () -> cache.compareAndSetStockItemLevel("Pen", 1, 2));
+		assertEquals(1, cache.getStockItem("Pen").getItemCount());
+		assertEquals(2, delegate.itemCalls.get());
+	}
+
+	@Test
+	public void bulkReadsOnlyAskForTheMissingItems() {
+		CachingStockManager cache = cache(10000, 10);
+		cache.getStockItem("Pencil");
+		Collection<ItemDetails> items = cache.getStockItems(List.of("Pencil", "Pen"));
+		assertEquals(Map.of("Pencil", 12, "Pen", 2), levels(items));
+		assertEquals(1, delegate.bulkCalls.get());
+		cache.getStockItems(List.of("Pencil", "Pen"));
+		assertEquals(1, delegate.bulkCalls.get());
+	}
+
+	@Test
+	public void theLeastRecentlyUsedItemIsEvicted() {
+		CachingStockManager cache = cache(10000, 2);
+		cache.getStockItem("Pencil");
+		cache.getStockItem("Pen");
+		cache.getStockItem("Pencil");
+		cache.getStockItem("Brush");
+		assertEquals(2, cache.size());
+		assertEquals(1, metricRegistry.counter("stockCacheEvictions").getCount());
+		cache.getStockItem("Pencil");
+		assertEquals(3, delegate.itemCalls.get());
+		cache.getStockItem("Pen");
+		assertEquals(4, delegate.itemCalls.get());
+	}
+
+	@Test
+	public void staleListingsAreNotCached() {
+		StaleStockListing stale = new StaleStockListing(List.of(new ItemDetails("Pencil", 1)), 1000);
+		CachingStockManager cache = new CachingStockManager(new FakeStockManager() {
+			@Override
+			public synchronized Collection<ItemDetails> getAllStockLevels() {
+				listingCalls.incrementAndGet();
+				return stale;
+			}
+		}, 10000, 10, EvictionPolicy.FIFO, () -> listening, published::add,
+				metricRegistry);
+		assertSame(stale, cache.getAllStockLevels());
+		assertSame(stale, cache.getAllStockLevels());
+		assertEquals(0, published.size());
+	}
+
+	static Map<String, Integer> levels(Collection<ItemDetails> items) {
+		Map<String, Integer> levels = new TreeMap<>();
+		items.forEach(item -> levels.put(item.getItemName(), item.getItemCount()));
+		return levels;
+	}
+}
@@ -0,0 +1,168 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collection;
+
+import org.eclipse.microprofile.faulttolerance.exceptions.CircuitBreakerOpenException;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.ServiceUnavailableException;
+
+public class CircuitBreakerStockManagerTest {
+	private FakeStockManager delegate;
+	private MetricRegistry metricRegistry;
+
+	@BeforeEach
+	public void setUp() {
+		delegate = new FakeStockManager("Pencil", "12", "Pen", "2");
+		metricRegistry = TestSupport.applicationRegistry();
+	}
+
+	private CircuitBreakerStockManager breaker(long openDelayMillis, long maxStaleMillis) {
+		return new CircuitBreakerStockManager(delegate, 3, openDelayMillis, maxStaleMillis, metricRegistry);
+	}
+
+	private long shortCircuited() {
+		return metricRegistry.counter("stockCircuitBreakerShortCircuited").getCount();
+	}
+
+	@Test
+	public void theCircuitOpensAfterTheThresholdOfFailuresInARow() {
+		CircuitBreakerStockManager breaker = breaker(60000, 0);
+		delegate.failure = () -> new ProcessingException("connection refused");
+		for (int i = 0; i < 3; i++) {
+			assertThrows(ProcessingException.class, () -> breaker.getStockItem("Pencil"));
+		}
+		delegate.failure = null;
+		assertThrows(CircuitBreakerOpenException.class, () -> breaker.getStockItem("Pencil"));
+		assertEquals(3, delegate.itemCalls.get());
+		assertEquals(1, shortCircuited());
+	}
+
+	@Test
+	public void aSuccessResetsTheFailureCount() {
+		CircuitBreakerStockManager breaker = breaker(60000, 0);
+		for (int i = 0; i < 3; i++) {
+			delegate.failure = () -> new ServiceUnavailableException();
+			assertThrows(ServiceUnavailableException.class, () -> breaker.getStockItem("Pencil"));
+			assertThrows(ServiceUnavailableException.class, () -> breaker.getStockItem("Pencil"));
+			delegate.failure = null;
+			assertEquals(12, breaker.getStockItem("Pencil").getItemCount());
+		}
+		assertEquals(0, shortCircuited());
+	}
+
+	@Test
+	public void clientErrorsAreNotFailures() {
+		CircuitBreakerStockManager breaker = breaker(60000, 0);
+		delegate.failure = () -> new NotFoundException();
+		for (int i = 0; i < 5; i++) {
+			assertThrows(NotFoundException.class, () -> breaker.getStockItem("Pencil"));
+		}
+		delegate.failure = null;
+		assertEquals(12, breaker.getStockItem("Pencil").getItemCount());
+	}
+
+	@Test
+	public void oneTestCallIsLetThroughAfterTheDelay() throws InterruptedException {
+		CircuitBreakerStockManager breaker = breaker(50, 0);
+		delegate.failure = () -> new ProcessingException("connection refused");
+		for (int i = 0; i < 3; i++) {
+			assertThrows(ProcessingException.class, () -> breaker.getStockItem("Pencil"));
+		}
+		Thread.sleep(60);
+		// the test call fails, so it's open for another delay
+		assertThrows(ProcessingException.class, () -> breaker.getStockItem("Pencil"));
+		assertThrows(CircuitBreakerOpenException.class, () -> breaker.getStockItem("Pencil"));
+		assertEquals(4, delegate.itemCalls.get());
+		Thread.sleep(60);
+		delegate.failure = null;
+		assertEquals(12, breaker.getStockItem("Pencil").getItemCount());
+		assertEquals(2, breaker.getStockItem("Pen").getItemCount());
+		assertEquals(1, shortCircuited());
+	}
+
+	@Test
+	public void theLastListingIsServedWhileItsRecentEnough() {
+		CircuitBreakerStockManager breaker = breaker(60000, 60000);
+		Collection<ItemDetails> listing = breaker.getAllStockLevels();
+		assertFalse(listing instanceof StaleStockListing);
+		delegate.failure = () -> new ProcessingException("connection refused");
+		Collection<ItemDetails> stale = breaker.getAllStockLevels();
+		assertTrue(stale instanceof StaleStockListing);
+		assertEquals(CachingStockManagerTest.levels(listing), CachingStockManagerTest.levels(stale));
+		// once the circuit opens the listing still comes from the last one
+		breaker.getAllStockLevels();
+		breaker.getAllStockLevels();
+		assertTrue(breaker.getAllStockLevels() instanceof StaleStockListing);
+		assertEquals(4, delegate.listingCalls.get());
+		assertEquals(4, metricRegistry.counter("stockListingServedStale").getCount());
+	}
+
+	@Test
+	public void theLastListingIsNotServedOnceItsTooOld() throws InterruptedException {
+		CircuitBreakerStockManager breaker = breaker(60000, 0);
+		breaker.getAllStockLevels();
+		Thread.sleep(1);
+		delegate.failure = () -> new ProcessingException("connection refused");
+		assertThrows(ProcessingException.class, () -> breaker.getAllStockLevels());
+		assertEquals(0, metricRegistry.counter("stockListingServedStale").getCount());
+	}
+
+	@Test
+	public void clientErrorsDontServeTheLastListing() {
+		CircuitBreakerStockManager breaker = breaker(60000, 60000);
+		breaker.getAllStockLevels();
+		NotFoundException notFound = new NotFoundException();
+		delegate.failure = () -> notFound;
+		assertSame(notFound, assertThrows(NotFoundException.class, () -> breaker.getAllStockLevels()));
+	}
+}
@@ -0,0 +1,145 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import static com.oracle.labs.helidon.storefront.TestCallers.callableAs;
+import static com.oracle.labs.helidon.storefront.TestSupport.waitFor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.TestSupport;
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+import jakarta.ws.rs.ProcessingException;
+
+public class CoalescingStockManagerTest {
+	private FakeStockManager delegate;
+	private MetricRegistry metricRegistry;
+	private CoalescingStockManager coalescing;
+	private ExecutorService callers;
+
+	@BeforeEach
+	public void setUp() {
+		delegate = new FakeStockManager("Pencil", "12", "Pen", "2");
+		delegate.gate = new CountDownLatch(1);
+		metricRegistry = TestSupport.applicationRegistry();
+		coalescing = new CoalescingStockManager(delegate, false, metricRegistry);
+		callers = Executors.newCachedThreadPool();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		callers.shutdownNow();
+	}
+
+	private long coalesced(String key) {
+		return metricRegistry.counter("stockCoalescedCalls", new Tag("key", key)).getCount();
+	}
+
+	@Test
+	public void concurrentReadsOfAnItemShareOneCall() throws Exception {
+		Future<ItemDetails> leader = callers.submit(callableAs("jack", () -> coalescing.getStockItem("Pencil")));
+		waitFor(() -> delegate.itemCalls.get() == 1);
+		Future<ItemDetails> follower = callers.submit(callableAs("jack", () -> coalescing.getStockItem("Pencil")));
+		waitFor(() -> coalesced("getStockItem") == 1);
+		delegate.gate.countDown();
+		assertEquals(12, leader.get().getItemCount());
+		assertSame(leader.get(), follower.get());
+		assertEquals(1, delegate.itemCalls.get());
+	}
+
+	@Test
+	public void readsForDifferentUsersAreCombined() throws Exception {
+		Future<ItemDetails> jack = callers.submit(callableAs("jack", () -> coalescing.getStockItem("Pencil")));
+		waitFor(() -> delegate.itemCalls.get() == 1);
+		Future<ItemDetails> jill = callers.submit(callableAs("jill", () -> coalescing.getStockItem("Pencil")));
+		Future<ItemDetails> anonymous = callers.submit(callableAs(null, () -> coalescing.getStockItem("Pencil")));
+		waitFor(() -> coalesced("getStockItem") == 2);
+		delegate.gate.countDown();
+		assertEquals(12, jack.get().getItemCount());
+		assertSame(jack.get(), jill.get());
+		assertSame(jack.get(), anonymous.get());
+		assertEquals(1, delegate.itemCalls.get());
+	}
+
+	@Test
+	public void differentItemsAreNotCombined() throws Exception {
+		Future<ItemDetails> pencil = callers.submit(callableAs("jack", () -> coalescing.getStockItem("Pencil")));
+		Future<ItemDetails> pen = callers.submit(callableAs("jack", () -> coalescing.getStockItem("Pen")));
+		waitFor(() -> delegate.itemCalls.get() == 2);
+		delegate.gate.countDown();
+		assertEquals(12, pencil.get().getItemCount());
+		assertEquals(2, pen.get().getItemCount());
+	}
+
+	@Test
+	public void theFollowersGetTheLeadersException() throws Exception {
+		ProcessingException failure = new ProcessingException("stock manager unavailable");
+		delegate.failure = () -> failure;
+		Future<?> leader = callers.submit(callableAs("jack", () -> coalescing.getAllStockLevels()));
+		waitFor(() -> delegate.listingCalls.get() == 1);
+		Future<?> follower = callers.submit(callableAs("jack", () -> coalescing.getAllStockLevels()));
+		waitFor(() -> coalesced("getAllStockLevels") == 1);
+		delegate.gate.countDown();
+		assertSame(failure, assertThrows(ExecutionException.class, leader::get).getCause());
+		assertSame(failure, assertThrows(ExecutionException.class, follower::get).getCause());
+		assertEquals(1, delegate.listingCalls.get());
+	}
+
+	@Test
+	public void readsAfterTheCallCompletesMakeANewCall() {
+		delegate.gate.countDown();
+		coalescing.getStockItem("Pencil");
+		delegate.setLevel("Pencil", 3);
+		assertEquals(3, coalescing.getStockItem("Pencil").getItemCount());
+		assertEquals(2, delegate.itemCalls.get());
+		assertEquals(0, coalesced("getStockItem"));
+	}
+}
@@ -0,0 +1,204 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+import com.oracle.labs.helidon.storefront.restclients.StockManager;
+
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.core.Response.Status;
+
+/**
+ * An in memory StockManager for testing the layers that wrap the real one, it
+ * counts the calls made to it and can be told to fail them
+ */
+public class FakeStockManager implements StockManager {
+	private final TreeMap<String, Integer> levels = new TreeMap<>();
+	public final AtomicInteger listingCalls = new AtomicInteger();
+	public final AtomicInteger pageCalls = new AtomicInteger();
+	public final AtomicInteger itemCalls = new AtomicInteger();
+	public final AtomicInteger bulkCalls = new AtomicInteger();
+	public final AtomicInteger updateCalls = new AtomicInteger();
+	// if set this is thrown by every call
+	public volatile Supplier<RuntimeException> failure;
+	// if set the reads wait for this before answering
+	public volatile CountDownLatch gate;
+	// the names asked for by each getStockItems call
+	public final List<Collection<String>> bulkRequests = new CopyOnWriteArrayList<>();
+
+	public FakeStockManager(String... itemsAndCounts) {
+		for (int i = 0; i < itemsAndCounts.length; i += 2) {
+			levels.put(itemsAndCounts[i], Integer.valueOf(itemsAndCounts[i + 1]));
+		}
+	}
+
+	/**
+	 * Change a level without going through the StockManager calls, as another
+	 * replica would
+	 */
+	public synchronized void setLevel(String itemName, int itemCount) {
+		levels.put(itemName, itemCount);
+	}
+
+	public synchronized int getLevel(String itemName) {
+		return levels.get(itemName);
+	}
+
+	@Override
+	public Collection<ItemDetails> getAllStockLevels() {
+		listingCalls.incrementAndGet();
+		awaitGate();
+		checkFailure();
+		synchronized (this) {
+			List<ItemDetails> items = new ArrayList<>(levels.size());
+			levels.forEach((itemName, itemCount) -> items.add(new ItemDetails(itemName, itemCount)));
+			return items;
+		}
+	}
+
+	@Override
+	public synchronized Collection<ItemDetails> getStockLevelsPage(Integer limit, String after) {
+		pageCalls.incrementAndGet();
+		checkFailure();
+		List<ItemDetails> items = new ArrayList<>(limit);
+		Map<String, Integer> remaining = after == null ? levels : levels.tailMap(after, false);
+		for (Map.Entry<String, Integer> entry : remaining.entrySet()) {
+			if (items.size() == limit) {
+				break;
+			}
+			items.add(new ItemDetails(entry.getKey(), entry.getValue()));
+		}
+		return items;
+	}
+
+	@Override
+	public ItemDetails getStockItem(String itemName) {
+		itemCalls.incrementAndGet();
+		awaitGate();
+		return lookup(itemName);
+	}
+
+	@Override
+	public Collection<ItemDetails> getStockItems(Collection<String> itemNames) {
+		bulkCalls.incrementAndGet();
+		bulkRequests.add(List.copyOf(itemNames));
+		awaitGate();
+		checkFailure();
+		List<ItemDetails> items = new ArrayList<>(itemNames.size());
+		for (String itemName : itemNames) {
+			ItemDetails itemDetails = lookup(itemName);
+			if (itemDetails != null) {
+				items.add(itemDetails);
+			}
+		}
+		return items;
+	}
+
+	@Override
+	public synchronized ItemDetails setStockItemLevel(String itemName, Integer itemCount) {
+		updateCalls.incrementAndGet();
+		checkFailure();
+		levels.put(itemName, itemCount);
+		return new ItemDetails(itemName, itemCount);
+	}
+
+	@Override
+	public synchronized ItemDetails decrementStockItemLevel(String itemName, Integer itemCount, Integer ifAtLeast) {
+		updateCalls.incrementAndGet();
+		int current = levelOf(itemName);
+		if (current < ifAtLeast) {
+			throw new ClientErrorException(Status.CONFLICT);
+		}
+		levels.put(itemName, current - itemCount);
+		return new ItemDetails(itemName, current - itemCount);
+	}
+
+	@Override
+	public synchronized ItemDetails compareAndSetStockItemLevel(String itemName, Integer itemCount,
+			Integer expectedItemCount) {
+		updateCalls.incrementAndGet();
+		if (levelOf(itemName) != expectedItemCount) {
+			throw new ClientErrorException(Status.CONFLICT);
+		}
+		levels.put(itemName, itemCount);
+		return new ItemDetails(itemName, itemCount);
+	}
+
+	private synchronized ItemDetails lookup(String itemName) {
+		checkFailure();
+		Integer itemCount = levels.get(itemName);
+		return itemCount == null ? null : new ItemDetails(itemName, itemCount);
+	}
+
+	private int levelOf(String itemName) {
+		checkFailure();
+		Integer itemCount = levels.get(itemName);
+		if (itemCount == null) {
+			throw new NotFoundException();
+		}
+		return itemCount;
+	}
+
+	private void awaitGate() {
+		CountDownLatch currentGate = gate;
+		if (currentGate != null) {
+			try {
+				currentGate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void checkFailure() {
+		Supplier<RuntimeException> currentFailure = failure;
+		if (currentFailure != null) {
+			throw currentFailure.get();
+		}
+	}
+}
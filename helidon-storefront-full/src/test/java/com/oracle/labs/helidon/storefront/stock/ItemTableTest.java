@@ -0,0 +1,113 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+public class ItemTableTest {
+	// one, two, three and four byte UTF-8 encodings
+	private static final Map<String, Integer> LEVELS = Map.of("Pencil", 12, "Pen", 2, "Stylo à bille", 5,
+			"鉛筆", 7, "Crayon 🖍", 9, "", 1);
+
+	@Test
+	public void itemsAreFoundByName() {
+		ItemTable table = new ItemTable(LEVELS);
+		assertEquals(LEVELS.size(), table.size());
+		LEVELS.forEach((itemName, level) -> {
+			int entry = table.indexOf(itemName);
+			assertTrue(entry >= 0, itemName);
+			assertEquals(itemName, table.nameAt(entry));
+			assertEquals(level, table.levelAt(entry));
+		});
+	}
+
+	@Test
+	public void namesThatAreNotInTheTableAreNotFound() {
+		ItemTable table = new ItemTable(LEVELS);
+		for (String itemName : List.of("Pens", "Pe", "pencil", "Stylo a bille", "鉛", "鉛筆s", "Crayon 🖌",
+				"Crayon \ud83d", "Eraser")) {
+			assertEquals(-1, table.indexOf(itemName), itemName);
+		}
+		assertEquals(-1, new ItemTable(Map.of()).indexOf("Pencil"));
+	}
+
+	@Test
+	public void itemsAreInNameOrder() {
+		ItemTable table = new ItemTable(LEVELS);
+		List<String> itemNames = table.items(0, table.size()).stream().map(ItemDetails::getItemName)
+				.collect(Collectors.toList());
+		assertEquals(LEVELS.keySet().stream().sorted().collect(Collectors.toList()), itemNames);
+		assertEquals(table.indexOf("Pen"), table.indexAfter("Crayon 🖍"));
+		assertEquals(table.indexOf("Pencil"), table.indexAfter("Pen"));
+		assertEquals(table.indexOf("Pencil"), table.indexAfter("Pena"));
+		assertEquals(table.size(), table.indexAfter("鉛筆"));
+		assertEquals(0, new ItemTable(Map.of()).indexAfter("Pen"));
+	}
+
+	@Test
+	public void levelsAreOnlySetIfTheyAreAsExpected() {
+		ItemTable table = new ItemTable(LEVELS);
+		int entry = table.indexOf("Pen");
+		assertFalse(table.compareAndSetLevelAt(entry, 3, 10));
+		assertEquals(2, table.levelAt(entry));
+		assertTrue(table.compareAndSetLevelAt(entry, 2, 10));
+		assertEquals(10, table.levelAt(entry));
+		assertEquals(12, table.levelAt(table.indexOf("Pencil")));
+	}
+
+	@Test
+	public void manySimilarNamesAreAllFound() {
+		Map<String, Integer> levels = new HashMap<>();
+		for (int i = 0; i < 10000; i++) {
+			levels.put(String.format("Item%07d", i), i);
+		}
+		ItemTable table = new ItemTable(levels);
+		levels.forEach((itemName, level) -> assertEquals(level, table.levelAt(table.indexOf(itemName))));
+		assertEquals(-1, table.indexOf("Item0010000"));
+	}
+}
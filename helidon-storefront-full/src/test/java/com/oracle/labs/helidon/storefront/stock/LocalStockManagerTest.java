@@ -0,0 +1,154 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.core.Response.Status;
+
+public class LocalStockManagerTest {
+	private static final Map<String, Integer> LEVELS = Map.of("Pencil", 12, "Pen", 2, "Brush", 27);
+
+	@TempDir
+	Path directory;
+
+	private static List<String> itemNames(Collection<ItemDetails> items) {
+		return items.stream().map(ItemDetails::getItemName).collect(Collectors.toList());
+	}
+
+	@Test
+	public void theListingIsACopy() {
+		LocalStockManager stockManager = new LocalStockManager(LEVELS);
+		Collection<ItemDetails> listing = stockManager.getAllStockLevels();
+		stockManager.setStockItemLevel("Pen", 7);
+		assertEquals(CachingStockManagerTest.levels(listing), LEVELS);
+		assertEquals(7, CachingStockManagerTest.levels(stockManager.getAllStockLevels()).get("Pen"));
+	}
+
+	@Test
+	public void pagesFollowOnFromTheLastItem() {
+		LocalStockManager stockManager = new LocalStockManager(LEVELS);
+		assertEquals(List.of("Brush", "Pen"), itemNames(stockManager.getStockLevelsPage(2, null)));
+		assertEquals(List.of("Pencil"), itemNames(stockManager.getStockLevelsPage(2, "Pen")));
+		assertEquals(List.of(), itemNames(stockManager.getStockLevelsPage(2, "Pencil")));
+		assertEquals(List.of("Brush", "Pen", "Pencil"),
+				itemNames(stockManager.getStockLevelsPage(Integer.MAX_VALUE, null)));
+	}
+
+	@Test
+	public void unknownItemsAreNotAdded() {
+		LocalStockManager stockManager = new LocalStockManager(LEVELS);
+		assertNull(stockManager.getStockItem("Eraser"));
+		assertNull(stockManager.setStockItemLevel("Eraser", 3));
+		assertEquals(List.of("Pen"), itemNames(stockManager.getStockItems(List.of("Eraser", "Pen"))));
+		assertThrows(NotFoundException.class, () -> stockManager.decrementStockItemLevel("Eraser", 1, 1));
+		assertThrows(NotFoundException.class, () -> stockManager.compareAndSetStockItemLevel("Eraser", 1, 0));
+	}
+
+	@Test
+	public void conditionalUpdatesAreRefusedWithAConflict() {
+		LocalStockManager stockManager = new LocalStockManager(LEVELS);
+		ClientErrorException e = assertThrows(ClientErrorException.class,
+				() -> stockManager.decrementStockItemLevel("Pen", 3, 3));
+		assertEquals(Status.CONFLICT.getStatusCode(), e.getResponse().getStatus());
+		e = assertThrows(ClientErrorException.class, () -> stockManager.compareAndSetStockItemLevel("Pen", 0, 3));
+		assertEquals(Status.CONFLICT.getStatusCode(), e.getResponse().getStatus());
+		assertEquals(2, stockManager.getStockItem("Pen").getItemCount());
+		assertEquals(0, stockManager.decrementStockItemLevel("Pen", 2, 2).getItemCount());
+		assertEquals(5, stockManager.compareAndSetStockItemLevel("Pen", 5, 0).getItemCount());
+	}
+
+	@Test
+	public void concurrentDecrementsAreNotLost() throws Exception {
+		LocalStockManager stockManager = new LocalStockManager(Map.of("Pencil", 8000));
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(() -> {
+					for (int j = 0; j < 1000; j++) {
+						stockManager.decrementStockItemLevel("Pencil", 1, 1);
+					}
+				}));
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(0, stockManager.getStockItem("Pencil").getItemCount());
+		assertThrows(ClientErrorException.class, () -> stockManager.decrementStockItemLevel("Pencil", 1, 1));
+	}
+
+	@Test
+	public void changesSurviveARestartWithAStore() throws IOException {
+		try (StockLevelStore store = new StockLevelStore(directory, 4096, true, 1)) {
+			Map<String, Integer> levels = new HashMap<>(LEVELS);
+			levels.putAll(store.recover());
+			LocalStockManager stockManager = new LocalStockManager(levels, store);
+			stockManager.decrementStockItemLevel("Pencil", 2, 2);
+			stockManager.setStockItemLevel("Brush", 20);
+			stockManager.snapshot();
+			stockManager.compareAndSetStockItemLevel("Pen", 4, 2);
+		}
+		try (StockLevelStore store = new StockLevelStore(directory, 4096, true, 1)) {
+			assertEquals(Map.of("Pencil", 10, "Pen", 4, "Brush", 20), store.recover());
+		}
+	}
+}
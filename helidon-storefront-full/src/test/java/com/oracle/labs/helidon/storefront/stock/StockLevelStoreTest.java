@@ -0,0 +1,168 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.stock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.oracle.labs.helidon.storefront.data.ItemDetails;
+
+public class StockLevelStoreTest {
+	@TempDir
+	Path directory;
+
+	private List<Path> files(String prefix) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith(prefix)).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private StockLevelStore open(long segmentSize) throws IOException {
+		return new StockLevelStore(directory, segmentSize, false, 1);
+	}
+
+	@Test
+	public void theLogIsReplayedOnRecovery() throws IOException {
+		try (StockLevelStore store = open(4096)) {
+			assertTrue(store.recover().isEmpty());
+			store.append("Pencil", 12);
+			store.append("Pen", 2);
+			store.append("Pencil", 11);
+		}
+		try (StockLevelStore store = open(4096)) {
+			assertEquals(Map.of("Pencil", 11, "Pen", 2), store.recover());
+			assertEquals(3, store.getChangesSinceSnapshot());
+			// appends carry on after the recovered records
+			store.append("Brush", 27);
+		}
+		try (StockLevelStore store = open(4096)) {
+			assertEquals(Map.of("Pencil", 11, "Pen", 2, "Brush", 27), store.recover());
+		}
+	}
+
+	@Test
+	public void theLogRollsOverIntoNewSegments() throws IOException {
+		// header plus two 19 byte records
+		try (StockLevelStore store = open(60)) {
+			store.recover();
+			for (int i = 0; i < 5; i++) {
+				store.append("Item" + i, i);
+			}
+		}
+		assertEquals(3, files("changes-").size());
+		try (StockLevelStore store = open(60)) {
+			assertEquals(Map.of("Item0", 0, "Item1", 1, "Item2", 2, "Item3", 3, "Item4", 4), store.recover());
+		}
+	}
+
+	@Test
+	public void aSnapshotReplacesTheLog() throws IOException {
+		try (StockLevelStore store = open(60)) {
+			store.recover();
+			for (int i = 0; i < 5; i++) {
+				store.append("Item" + i, i);
+			}
+			store.snapshot(List.of(new ItemDetails("Item0", 0), new ItemDetails("Item1", 1),
+					new ItemDetails("Item2", 2), new ItemDetails("Item3", 3), new ItemDetails("Item4", 4)));
+			assertEquals(0, store.getChangesSinceSnapshot());
+			store.append("Item4", 40);
+		}
+		assertEquals(1, files("snapshot-").size());
+		assertEquals(1, files("changes-").size());
+		try (StockLevelStore store = open(60)) {
+			assertEquals(Map.of("Item0", 0, "Item1", 1, "Item2", 2, "Item3", 3, "Item4", 40), store.recover());
+			assertEquals(1, store.getChangesSinceSnapshot());
+		}
+	}
+
+	@Test
+	public void recoveryStopsAtADamagedRecord() throws IOException {
+		try (StockLevelStore store = open(4096)) {
+			store.recover();
+			store.append("Pencil", 12);
+			store.append("Pen", 2);
+		}
+		// the level of the second record, after the header, the first record and
+		// the length and name of the second
+		try (RandomAccessFile raf = new RandomAccessFile(files("changes-").get(0).toFile(), "rw")) {
+			raf.seek(16 + 20 + 4 + 2 + 3);
+			raf.writeInt(3);
+		}
+		try (StockLevelStore store = open(4096)) {
+			assertEquals(Map.of("Pencil", 12), store.recover());
+			store.append("Brush", 27);
+		}
+		try (StockLevelStore store = open(4096)) {
+			assertEquals(Map.of("Pencil", 12, "Brush", 27), store.recover());
+		}
+	}
+
+	@Test
+	public void segmentSizesThatCantBeMappedAreRefused() {
+		assertThrows(IllegalArgumentException.class, () -> open(2048L * 1024 * 1024));
+		assertThrows(IllegalArgumentException.class, () -> open(16));
+	}
+
+	@Test
+	public void flushIntervalsThatWouldSpinAreRefused() {
+		assertThrows(IllegalArgumentException.class, () -> new StockLevelStore(directory, 4096, true, 0));
+		assertThrows(IllegalArgumentException.class, () -> new StockLevelStore(directory, 4096, false, -1));
+	}
+
+	@Test
+	public void recordsTooBigForASegmentAreRefused() throws IOException {
+		try (StockLevelStore store = open(40)) {
+			store.recover();
+			assertThrows(IllegalArgumentException.class, () -> store.append("A very long item name", 1));
+			store.append("Pen", 2);
+		}
+	}
+}
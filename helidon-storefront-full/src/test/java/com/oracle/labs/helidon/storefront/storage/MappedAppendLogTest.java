@@ -0,0 +1,166 @@
+/*Copyright (c) 2021 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.labs.helidon.storefront.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.oracle.labs.helidon.storefront.storage.MappedAppendLog.Segment;
+
+public class MappedAppendLogTest {
+	private final static int MAGIC = 0x544c4731; // TLG1
+
+	@TempDir
+	Path directory;
+
+	private MappedAppendLog open(long segmentSize) throws IOException {
+		return new MappedAppendLog("Test log", directory, "test-", ".log", MAGIC, segmentSize);
+	}
+
+	private static void append(MappedAppendLog log, int value) throws IOException {
+		log.append(4, payload -> payload.putInt(value));
+	}
+
+	private static List<Integer> recover(MappedAppendLog log, long firstSegment) throws IOException {
+		List<Integer> values = new ArrayList<>();
+		log.open(firstSegment, (segment, position, payload) -> values.add(payload.getInt()));
+		return values;
+	}
+
+	@Test
+	public void recordsAreRecoveredInOrderAcrossSegments() throws IOException {
+		// header plus two 12 byte records
+		try (MappedAppendLog log = open(40)) {
+			assertTrue(recover(log, 0).isEmpty());
+			for (int i = 0; i < 5; i++) {
+				append(log, i);
+			}
+			assertEquals(3, log.segmentCount());
+		}
+		try (MappedAppendLog log = open(40)) {
+			assertEquals(List.of(0, 1, 2, 3, 4), recover(log, 0));
+			// appends carry on after the recovered records
+			append(log, 5);
+		}
+		try (MappedAppendLog log = open(40)) {
+			assertEquals(List.of(0, 1, 2, 3, 4, 5), recover(log, 0));
+		}
+	}
+
+	@Test
+	public void segmentsBeforeTheFirstOneWantedAreDeleted() throws IOException {
+		try (MappedAppendLog log = open(40)) {
+			recover(log, 0);
+			for (int i = 0; i < 5; i++) {
+				append(log, i);
+			}
+		}
+		try (MappedAppendLog log = open(40)) {
+			assertEquals(List.of(4), recover(log, 2));
+			assertEquals(1, MappedAppendLog.listFiles(directory, "test-", ".log").size());
+		}
+	}
+
+	@Test
+	public void recoveryStopsAtADamagedRecord() throws IOException {
+		try (MappedAppendLog log = open(4096)) {
+			recover(log, 0);
+			append(log, 1);
+			append(log, 2);
+		}
+		// the payload of the second record
+		try (RandomAccessFile raf = new RandomAccessFile(
+				MappedAppendLog.listFiles(directory, "test-", ".log").get(0).toFile(), "rw")) {
+			raf.seek(MappedAppendLog.HEADER_SIZE + 12 + 4);
+			raf.writeInt(3);
+		}
+		try (MappedAppendLog log = open(4096)) {
+			assertEquals(List.of(1), recover(log, 0));
+			append(log, 4);
+		}
+		try (MappedAppendLog log = open(4096)) {
+			assertEquals(List.of(1, 4), recover(log, 0));
+		}
+	}
+
+	@Test
+	public void theReadPositionSurvivesARestart() throws IOException {
+		try (MappedAppendLog log = open(4096)) {
+			recover(log, 0);
+			append(log, 1);
+			append(log, 2);
+			Segment segment = log.first();
+			List<Integer> read = new ArrayList<>();
+			int position = log.read(segment, segment.getReadPosition(), 1,
+					(from, at, payload) -> read.add(payload.getInt()));
+			assertEquals(List.of(1), read);
+			segment.setReadPosition(position);
+			assertFalse(segment.isFullyRead());
+		}
+		try (MappedAppendLog log = open(4096)) {
+			recover(log, 0);
+			Segment segment = log.first();
+			List<Integer> read = new ArrayList<>();
+			segment.setReadPosition(log.read(segment, segment.getReadPosition(), 10,
+					(from, at, payload) -> read.add(payload.getInt())));
+			assertEquals(List.of(2), read);
+			assertTrue(segment.isFullyRead());
+		}
+	}
+
+	@Test
+	public void recordsTooBigForASegmentAreRefused() throws IOException {
+		try (MappedAppendLog log = open(32)) {
+			recover(log, 0);
+			assertFalse(log.fits(9));
+			assertThrows(IllegalArgumentException.class, () -> log.append(9, payload -> payload.put(new byte[9])));
+			assertTrue(log.fits(8));
+			log.append(8, payload -> payload.putLong(1));
+		}
+	}
+}